@@ -21,14 +21,11 @@ import static bio.overture.maestro.app.infra.adapter.inbound.messaging.IndexMess
 
 import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
 import bio.overture.maestro.domain.api.Indexer;
-import bio.overture.maestro.domain.api.message.AnalysisIdentifier;
 import bio.overture.maestro.domain.api.message.IndexResult;
-import bio.overture.maestro.domain.api.message.RemoveAnalysisCommand;
 import bio.overture.maestro.domain.entities.message.AnalysisMessage;
 import io.vavr.Tuple2;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
-import lombok.val;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
@@ -62,17 +59,7 @@ public class SongAnalysisStreamListener {
       if (this.indexableStudyStatuses.contains(msg.getState())) {
         result = indexer.indexAnalysisPayload(msg);
       } else {
-        val mono =
-            indexer.removeAnalysis(
-                RemoveAnalysisCommand.builder()
-                    .analysisIdentifier(
-                        AnalysisIdentifier.builder()
-                            .analysisId(msg.getAnalysisId())
-                            .studyId(msg.getStudyId())
-                            .repositoryCode(msg.getSongServerId())
-                            .build())
-                    .build());
-        result = Flux.from(mono);
+        result = indexer.removeAnalysisPayload(msg);
       }
       return result.map(indexResult -> new Tuple2<>(msg, indexResult));
     } catch (Exception e) {
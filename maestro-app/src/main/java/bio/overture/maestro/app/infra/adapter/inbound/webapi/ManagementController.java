@@ -30,6 +30,7 @@ import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -118,6 +119,43 @@ public class ManagementController {
         IndexStudyRepositoryCommand.builder().repositoryCode(repositoryCode).build());
   }
 
+  @Operation(
+      summary = "Rebuild Indices",
+      description =
+          "Indexes the repository into new indices that replace the current ones when done",
+      tags = {"Indexing"})
+  @PostMapping("/index/repository/{repositoryCode}/rebuild")
+  @ResponseStatus(HttpStatus.CREATED)
+  public Mono<Map<String, IndexResult>> rebuildRepository(@PathVariable String repositoryCode) {
+    return indexer.rebuildRepository(
+        IndexStudyRepositoryCommand.builder().repositoryCode(repositoryCode).build());
+  }
+
+  @Operation(
+      summary = "Remove Study",
+      description =
+          "Deletes all the documents of the study, the progress is streamed until completed",
+      tags = {"Indexing"})
+  @DeleteMapping(value = "/index/study/{studyId}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public Flux<IndexTaskStatus> removeStudy(@PathVariable String studyId) {
+    log.debug("in removeStudy, args studyId {}", studyId);
+    return indexer.removeStudy(RemoveStudyCommand.builder().studyId(studyId).build());
+  }
+
+  @Operation(
+      summary = "Remove Repository",
+      description =
+          "Removes the repository from all the documents, the progress is streamed until completed",
+      tags = {"Indexing"})
+  @DeleteMapping(
+      value = "/index/repository/{repositoryCode}",
+      produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public Flux<IndexTaskStatus> removeRepository(@PathVariable String repositoryCode) {
+    log.debug("in removeRepository, args repoId: {}", repositoryCode);
+    return indexer.removeRepository(
+        RemoveRepositoryCommand.builder().repositoryCode(repositoryCode).build());
+  }
+
   @GetMapping("/rules/")
   @Hidden
   public List<? extends ExclusionRule> getRules() {
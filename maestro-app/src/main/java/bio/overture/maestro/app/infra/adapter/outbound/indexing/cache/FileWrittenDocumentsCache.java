@@ -0,0 +1,254 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.cache;
+
+import bio.overture.maestro.app.infra.config.PortSchedulers;
+import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
+import bio.overture.maestro.domain.port.outbound.indexing.cache.WrittenDocumentsCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Keeps the write fingerprints in memory grouped by index and analysis, backed by an append only
+ * journal file (one json line per change) so they survive restarts. The journal is replayed and
+ * compacted the first time the cache is used, then again whenever it grows past the compaction
+ * size, nothing is read or written while the cache is disabled. Delete the directory when the
+ * indices are written by other instances.
+ *
+ * <p>Past the max documents, the analyses looked up or written the longest time ago are forgotten,
+ * their documents are just written again the next time they are indexed.
+ */
+@Slf4j
+public class FileWrittenDocumentsCache implements WrittenDocumentsCache {
+
+  private static final String JOURNAL_FILE = "written-documents.journal";
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final Path cacheDir;
+  private final Scheduler scheduler;
+  private final long maxDocuments;
+  private final long journalCompactionBytes;
+  /** document id to write fingerprint, by index name and analysis id, least recently used first. */
+  private Map<String, Map<String, String>> fingerprints;
+
+  private long documentsCount;
+  private BufferedWriter journal;
+  private long journalBytes;
+  /** the journal size right after the last compaction, it's compacted again once it doubles. */
+  private long compactedJournalBytes;
+
+  @Inject
+  public FileWrittenDocumentsCache(
+      @NonNull ApplicationProperties properties, @NonNull PortSchedulers schedulers) {
+    this.scheduler = schedulers.getLocalStorage();
+    this.cacheDir = Paths.get(properties.writeCacheDir());
+    this.maxDocuments = properties.writeCacheMaxDocuments();
+    this.journalCompactionBytes = properties.writeCacheJournalCompactionBytes();
+  }
+
+  @Override
+  public Mono<Map<String, String>> getWrittenFingerprints(
+      @NonNull String indexName, @NonNull Set<String> analysisIds) {
+    return Mono.fromCallable(() -> lookup(indexName, analysisIds)).subscribeOn(scheduler);
+  }
+
+  @Override
+  public Mono<Void> saveWrittenFingerprints(
+      @NonNull String indexName, @NonNull Map<String, Map<String, String>> fingerprintsByAnalysis) {
+    return Mono.fromRunnable(
+            () ->
+                fingerprintsByAnalysis.forEach(
+                    (analysisId, documents) ->
+                        apply(new JournalEntry(indexName, analysisId, documents), true)))
+        .subscribeOn(scheduler)
+        .then();
+  }
+
+  @Override
+  public Mono<Void> evictAnalysis(@NonNull String indexName, @NonNull String analysisId) {
+    return Mono.fromRunnable(() -> apply(new JournalEntry(indexName, analysisId, null), true))
+        .subscribeOn(scheduler)
+        .then();
+  }
+
+  @Override
+  public Mono<Void> evictIndex(@NonNull String indexName) {
+    return Mono.fromRunnable(() -> apply(new JournalEntry(indexName, null, null), true))
+        .subscribeOn(scheduler)
+        .then();
+  }
+
+  @PreDestroy
+  @SneakyThrows
+  synchronized void close() {
+    if (journal != null) {
+      journal.close();
+      journal = null;
+    }
+  }
+
+  private synchronized Map<String, String> lookup(String indexName, Set<String> analysisIds) {
+    val result = new HashMap<String, String>();
+    analysisIds.stream()
+        .map(analysisId -> getFingerprints().get(key(indexName, analysisId)))
+        .filter(Objects::nonNull)
+        .forEach(result::putAll);
+    return result;
+  }
+
+  /** applies the change in memory first, so a journal failure can't leave stale entries. */
+  @SneakyThrows
+  private synchronized void apply(JournalEntry entry, boolean persist) {
+    val key = key(entry.getIndex(), entry.getAnalysisId());
+    if (entry.getAnalysisId() == null) {
+      val prefix = key(entry.getIndex(), "");
+      val entries = getFingerprints().entrySet().iterator();
+      while (entries.hasNext()) {
+        val next = entries.next();
+        if (next.getKey().startsWith(prefix)) {
+          documentsCount -= next.getValue().size();
+          entries.remove();
+        }
+      }
+    } else if (entry.getDocuments() == null) {
+      val removed = getFingerprints().remove(key);
+      documentsCount -= removed == null ? 0 : removed.size();
+    } else {
+      val documents = getFingerprints().computeIfAbsent(key, k -> new HashMap<>());
+      documentsCount -= documents.size();
+      documents.putAll(entry.getDocuments());
+      documentsCount += documents.size();
+      evictLeastRecentlyUsed();
+    }
+    if (persist) {
+      val line = objectMapper.writeValueAsString(entry);
+      journal.write(line);
+      journal.newLine();
+      journal.flush();
+      journalBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+      if (journalBytes > Math.max(journalCompactionBytes, 2 * compactedJournalBytes)) {
+        compact();
+      }
+    }
+  }
+
+  /** the analysis just written is the most recently used one, it's kept even if over the max. */
+  private void evictLeastRecentlyUsed() {
+    val entries = fingerprints.entrySet().iterator();
+    while (documentsCount > maxDocuments && fingerprints.size() > 1) {
+      documentsCount -= entries.next().getValue().size();
+      entries.remove();
+    }
+  }
+
+  private Map<String, Map<String, String>> getFingerprints() {
+    if (fingerprints == null) {
+      fingerprints = new LinkedHashMap<>(16, 0.75f, true);
+      load();
+    }
+    return fingerprints;
+  }
+
+  /** replays the journal then compacts it. */
+  @SneakyThrows
+  private void load() {
+    Files.createDirectories(cacheDir);
+    val file = cacheDir.resolve(JOURNAL_FILE);
+    if (Files.exists(file)) {
+      try (val lines = Files.lines(file, StandardCharsets.UTF_8)) {
+        lines.forEach(this::replay);
+      }
+      log.info(
+          "loaded write fingerprints of {} analyses, {} documents from {}",
+          fingerprints.size(),
+          documentsCount,
+          file);
+    }
+    compact();
+  }
+
+  /**
+   * rewrites the journal with one line per analysis kept in memory, least recently used first so
+   * replaying it keeps the same order.
+   */
+  @SneakyThrows
+  private void compact() {
+    close();
+    val file = cacheDir.resolve(JOURNAL_FILE);
+    val tempFile = Files.createTempFile(cacheDir, JOURNAL_FILE, ".tmp");
+    try (val writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+      for (val entry : fingerprints.entrySet()) {
+        val separator = entry.getKey().indexOf('/');
+        writer.write(
+            objectMapper.writeValueAsString(
+                new JournalEntry(
+                    entry.getKey().substring(0, separator),
+                    entry.getKey().substring(separator + 1),
+                    entry.getValue())));
+        writer.newLine();
+      }
+    }
+    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    journalBytes = Files.size(file);
+    compactedJournalBytes = journalBytes;
+    journal =
+        Files.newBufferedWriter(
+            file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    log.debug("compacted the write cache journal to {} bytes", journalBytes);
+  }
+
+  private void replay(String line) {
+    try {
+      apply(objectMapper.readValue(line, JournalEntry.class), false);
+    } catch (Exception e) {
+      // a line cut short by a crash, the documents it was about will just be written again.
+      log.warn("skipping unreadable write cache journal line", e);
+    }
+  }
+
+  private static String key(String indexName, String analysisId) {
+    return indexName + "/" + analysisId;
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  private static class JournalEntry {
+    private String index;
+    /** null when the whole index was evicted. */
+    private String analysisId;
+    /** null when the analysis was evicted. */
+    private Map<String, String> documents;
+  }
+}
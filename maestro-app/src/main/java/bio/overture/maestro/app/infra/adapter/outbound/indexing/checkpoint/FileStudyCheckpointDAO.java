@@ -0,0 +1,162 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.checkpoint;
+
+import bio.overture.maestro.app.infra.config.PortSchedulers;
+import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
+import bio.overture.maestro.domain.port.outbound.indexing.checkpoint.StudyCheckpointDAO;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Keeps the study checkpoints in local json files, one file per repository named after the
+ * repository code, mapping each study id to its checkpoint epoch millis. Deleting a file (or an
+ * entry) makes the next run of the affected studies a full one.
+ */
+@Slf4j
+public class FileStudyCheckpointDAO implements StudyCheckpointDAO {
+
+  private static final TypeReference<Map<String, Long>> CHECKPOINTS_TYPE = new TypeReference<>() {};
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final Map<String, Map<String, Long>> checkpointsByRepository = new ConcurrentHashMap<>();
+  private final Path checkpointsDir;
+  private final Scheduler scheduler;
+
+  @Inject
+  public FileStudyCheckpointDAO(
+      @NonNull ApplicationProperties properties, @NonNull PortSchedulers schedulers) {
+    this.scheduler = schedulers.getLocalStorage();
+    this.checkpointsDir = Paths.get(properties.studyCheckpointsDir());
+  }
+
+  @Override
+  public Mono<Date> getCheckpoint(@NonNull String repositoryCode, @NonNull String studyId) {
+    return Mono.fromCallable(() -> getRepositoryCheckpoints(repositoryCode).get(studyId))
+        .map(Date::new)
+        .subscribeOn(scheduler);
+  }
+
+  @Override
+  public Mono<Void> saveCheckpoint(
+      @NonNull String repositoryCode, @NonNull String studyId, @NonNull Date checkpoint) {
+    return Mono.fromRunnable(() -> persist(repositoryCode, studyId, checkpoint.getTime()))
+        .subscribeOn(scheduler)
+        .then();
+  }
+
+  @Override
+  public Mono<Void> deleteStudyCheckpoints(@NonNull String studyId) {
+    return Mono.fromRunnable(() -> deleteStudy(studyId)).subscribeOn(scheduler).then();
+  }
+
+  @Override
+  public Mono<Void> deleteRepositoryCheckpoints(@NonNull String repositoryCode) {
+    return Mono.fromRunnable(() -> deleteRepository(repositoryCode)).subscribeOn(scheduler).then();
+  }
+
+  private Map<String, Long> getRepositoryCheckpoints(String repositoryCode) {
+    return checkpointsByRepository.computeIfAbsent(repositoryCode, this::read);
+  }
+
+  @SneakyThrows
+  private Map<String, Long> read(String repositoryCode) {
+    val file = getFile(repositoryCode);
+    val checkpoints = new ConcurrentHashMap<String, Long>();
+    if (Files.exists(file)) {
+      checkpoints.putAll(objectMapper.readValue(file.toFile(), CHECKPOINTS_TYPE));
+      log.info("loaded {} study checkpoints from {}", checkpoints.size(), file);
+    }
+    return checkpoints;
+  }
+
+  /**
+   * studies of the same repository are indexed concurrently so writes are serialized, the file is
+   * written to a temp file first and moved to avoid leaving a partially written file behind.
+   */
+  @SneakyThrows
+  private synchronized void persist(String repositoryCode, String studyId, long checkpoint) {
+    val checkpoints = getRepositoryCheckpoints(repositoryCode);
+    checkpoints.put(studyId, checkpoint);
+    write(getFile(repositoryCode), checkpoints);
+    log.debug("saved checkpoint {}, study {}, repository {}", checkpoint, studyId, repositoryCode);
+  }
+
+  /**
+   * the repositories codes can't be told from the files names so the study is removed from every
+   * file, then the loaded checkpoints are dropped to be read again.
+   */
+  @SneakyThrows
+  private synchronized void deleteStudy(String studyId) {
+    if (!Files.isDirectory(checkpointsDir)) {
+      return;
+    }
+    List<Path> files;
+    try (Stream<Path> listing = Files.list(checkpointsDir)) {
+      files =
+          listing
+              .filter(file -> file.getFileName().toString().endsWith(".json"))
+              .collect(Collectors.toList());
+    }
+    for (Path file : files) {
+      val checkpoints = objectMapper.readValue(file.toFile(), CHECKPOINTS_TYPE);
+      if (checkpoints.remove(studyId) != null) {
+        write(file, checkpoints);
+        log.info("deleted checkpoint of study {} from {}", studyId, file);
+      }
+    }
+    checkpointsByRepository.clear();
+  }
+
+  @SneakyThrows
+  private synchronized void deleteRepository(String repositoryCode) {
+    checkpointsByRepository.remove(repositoryCode);
+    if (Files.deleteIfExists(getFile(repositoryCode))) {
+      log.info("deleted checkpoints of repository {}", repositoryCode);
+    }
+  }
+
+  private void write(Path file, Map<String, Long> checkpoints) throws IOException {
+    Files.createDirectories(checkpointsDir);
+    val tempFile = Files.createTempFile(checkpointsDir, file.getFileName().toString(), ".tmp");
+    objectMapper.writeValue(tempFile.toFile(), new TreeMap<>(checkpoints));
+    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private Path getFile(String repositoryCode) {
+    return checkpointsDir.resolve(repositoryCode.replaceAll("[^A-Za-z0-9._-]", "_") + ".json");
+  }
+}
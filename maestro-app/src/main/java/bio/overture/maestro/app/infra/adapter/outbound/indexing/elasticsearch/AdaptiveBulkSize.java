@@ -0,0 +1,84 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.util.Assert;
+
+/**
+ * The size in bytes bulk requests are cut at, adapted with AIMD: it grows by a fixed step after
+ * each bulk that elasticsearch answered fast and is halved when a bulk was rejected (429) or took
+ * longer than the latency threshold. The current size is exposed as the {@link #METRIC_NAME} gauge.
+ */
+@Slf4j
+public class AdaptiveBulkSize {
+
+  public static final String METRIC_NAME = "maestro.elasticsearch.bulk.size.bytes";
+
+  private final long min;
+  private final long max;
+  private final long step;
+  private final long latencyThresholdMillis;
+  private final AtomicLong current;
+
+  public AdaptiveBulkSize(
+      @NonNull String indexName,
+      long initial,
+      long min,
+      long max,
+      long step,
+      long latencyThresholdMillis) {
+    Assert.isTrue(min > 0 && min <= max, "bulk bytes min should be positive and not above max");
+    this.min = min;
+    this.max = max;
+    this.step = step;
+    this.latencyThresholdMillis = latencyThresholdMillis;
+    this.current = new AtomicLong(Math.min(Math.max(initial, min), max));
+    Metrics.gauge(METRIC_NAME, Tags.of("index", indexName), current);
+  }
+
+  public long currentBytes() {
+    return current.get();
+  }
+
+  /** Called when elasticsearch accepted a bulk request, with how long it took to answer. */
+  public void onResponse(long tookMillis) {
+    if (tookMillis > latencyThresholdMillis) {
+      log.debug("bulk request took {}ms, decreasing bulk size", tookMillis);
+      decrease();
+      return;
+    }
+    current.updateAndGet(bytes -> Math.min(bytes + step, max));
+  }
+
+  /** Called when elasticsearch rejected a bulk request or some of its items with a 429. */
+  public void onRejected() {
+    log.debug("bulk request rejected, decreasing bulk size");
+    decrease();
+  }
+
+  private void decrease() {
+    val bytes = current.updateAndGet(b -> Math.max(b / 2, min));
+    log.debug("bulk size is now {} bytes", bytes);
+  }
+}
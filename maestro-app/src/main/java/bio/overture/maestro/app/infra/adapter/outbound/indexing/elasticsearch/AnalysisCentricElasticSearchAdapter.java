@@ -1,32 +1,40 @@
 package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
 
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.BulkWrites.*;
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.IndexTasks.*;
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.LiveWritesRecorder.successfulTask;
 import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.SearchAdapterHelper.*;
 import static bio.overture.maestro.domain.utility.StringUtilities.inputStreamToString;
 import static java.lang.String.format;
 import static java.util.Collections.unmodifiableMap;
 
+import bio.overture.maestro.app.infra.config.PortSchedulers;
 import bio.overture.maestro.app.infra.config.RootConfiguration;
 import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
 import bio.overture.maestro.domain.api.message.IndexResult;
+import bio.overture.maestro.domain.api.message.IndexTaskStatus;
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprint;
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprints;
+import bio.overture.maestro.domain.entities.indexing.IndexedDocumentFingerprint;
 import bio.overture.maestro.domain.entities.indexing.analysis.AnalysisCentricDocument;
 import bio.overture.maestro.domain.port.outbound.indexing.AnalysisCentricIndexAdapter;
 import bio.overture.maestro.domain.port.outbound.indexing.BatchIndexAnalysisCommand;
-import bio.overture.maestro.domain.utility.Parallel;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
-import com.fasterxml.jackson.databind.PropertyNamingStrategy;
-import io.github.resilience4j.retry.Retry;
-import io.github.resilience4j.retry.RetryConfig;
-import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.RequestOptions;
@@ -35,20 +43,19 @@ import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.index.reindex.DeleteByQueryRequest;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.io.Resource;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 @Slf4j
 public class AnalysisCentricElasticSearchAdapter implements AnalysisCentricIndexAdapter {
 
   private RestHighLevelClient elasticsearchRestClient;
 
-  private final ObjectWriter analysisCentricJSONWriter;
+  private final ObjectMapper documentMapper;
 
   private SnakeCaseJacksonSearchResultMapper searchResultMapper;
 
@@ -56,30 +63,61 @@ public class AnalysisCentricElasticSearchAdapter implements AnalysisCentricIndex
 
   private final int documentsPerBulkRequest;
 
+  private final int maxConcurrentRequests;
+
+  private final AdaptiveBulkSize bulkSize;
+  private final boolean clientSideMerge;
+  private final RemovalBatcher removalBatcher;
+  private final String byQueryTaskSlices;
+  private final Duration byQueryTaskPollInterval;
+  private final WriteAheadSpool spool;
+  private final PortSchedulers schedulers;
+  private final LiveWritesRecorder liveWrites;
+  /** the rebuild indices seeded with documents, the rebuild writes are merged into them. */
+  private final Set<String> seededRebuildIndices = ConcurrentHashMap.newKeySet();
+
   private final int maxRetriesAttempts;
 
   private final String alias;
   private final String indexName;
+  /** where documents are read and written, see {@link IndexTasks#resolveIndexTarget}. */
+  private volatile String indexTarget;
+
   private final boolean enabled;
   private static final int FALLBACK_MAX_RETRY_ATTEMPTS = 0;
   private static final int FALL_BACK_WAIT_DURATION = 100;
   private final long retriesWaitDuration;
   private static final int MAX_PAGESIZE = 2000;
+  private static final String REPOSITORIES_FIELD = "repositories";
+  private static final String ANALYSIS_ID_FIELD = "analysis_id";
+  private static final String ID_FIELD = "_id";
 
   @Inject
   public AnalysisCentricElasticSearchAdapter(
       RestHighLevelClient elasticsearchRestClient,
       @Qualifier(RootConfiguration.ELASTIC_SEARCH_DOCUMENT_JSON_MAPPER) ObjectMapper objectMapper,
       SnakeCaseJacksonSearchResultMapper searchResultMapper,
-      ApplicationProperties properties) {
+      ApplicationProperties properties,
+      PortSchedulers schedulers,
+      DroppedWrites droppedWrites) {
     this.elasticsearchRestClient = elasticsearchRestClient;
-    this.analysisCentricJSONWriter = objectMapper.writerFor(AnalysisCentricDocument.class);
+    this.documentMapper = objectMapper;
     this.searchResultMapper = searchResultMapper;
     this.analysisCentricIndex = properties.analysisCentricIndex();
     this.alias = properties.analysisCentricAlias();
     this.indexName = properties.analysisCentricIndexName();
+    this.indexTarget = this.indexName;
     this.enabled = properties.isAnalysisCentricIndexEnabled();
     this.documentsPerBulkRequest = properties.maxDocsPerBulkRequest();
+    this.maxConcurrentRequests = properties.elasticSearchMaxConcurrentRequests();
+    this.bulkSize =
+        new AdaptiveBulkSize(
+            this.indexName,
+            properties.elasticSearchBulkInitialBytes(),
+            properties.elasticSearchBulkMinBytes(),
+            properties.elasticSearchBulkMaxBytes(),
+            properties.elasticSearchBulkStepBytes(),
+            properties.elasticSearchBulkLatencyThresholdMillis());
     this.maxRetriesAttempts =
         properties.elasticSearchRetryMaxAttempts() >= 0
             ? properties.elasticSearchRetryMaxAttempts()
@@ -88,97 +126,407 @@ public class AnalysisCentricElasticSearchAdapter implements AnalysisCentricIndex
         properties.elasticSearchRetryWaitDurationMillis() > 0
             ? properties.elasticSearchRetryWaitDurationMillis()
             : FALL_BACK_WAIT_DURATION;
+    this.removalBatcher =
+        new RemovalBatcher(
+            this.indexName,
+            Duration.ofMillis(properties.elasticSearchRemovalBatchWindowMillis()),
+            properties.elasticSearchRemovalBatchMaxSize(),
+            this::removeAnalysesDocs);
+    this.byQueryTaskSlices = properties.elasticSearchByQueryTaskSlices();
+    this.byQueryTaskPollInterval =
+        Duration.ofMillis(properties.elasticSearchByQueryTaskPollIntervalMillis());
+    this.schedulers = schedulers;
+    this.spool = createSpool(properties, droppedWrites);
+    this.clientSideMerge = properties.elasticSearchClientSideMerge();
+    this.liveWrites =
+        new LiveWritesRecorder(
+            this.indexName,
+            () -> this.indexTarget,
+            properties.elasticSearchRebuildMaxRecordedWrites());
   }
 
   @Override
   public Mono<IndexResult> batchUpsertAnalysisRepositories(
       @NonNull BatchIndexAnalysisCommand batchIndexAnalysisCommand) {
-    return SearchAdapterHelper.batchUpsertDocuments(
+    return this.liveWrites.record(
+        index -> upsertAnalyses(index, batchIndexAnalysisCommand, this.spool),
+        ID_FIELD,
+        batchIndexAnalysisCommand.getAnalyses().stream()
+            .map(AnalysisCentricDocument::getAnalysisId)
+            .collect(Collectors.toUnmodifiableSet()));
+  }
+
+  /** Merges the analyses into the stored documents of the index. */
+  private Mono<IndexResult> upsertAnalyses(
+      String index, BatchIndexAnalysisCommand batchIndexAnalysisCommand, WriteAheadSpool spool) {
+    val fingerprints = batchIndexAnalysisCommand.getFingerprints();
+    return BulkWrites.batchUpsertDocuments(
         batchIndexAnalysisCommand.getAnalyses(),
         documentsPerBulkRequest,
+        bulkSize,
+        maxConcurrentRequests,
         maxRetriesAttempts,
         retriesWaitDuration,
         this.indexName,
         this.elasticsearchRestClient,
         AnalysisCentricDocument::getAnalysisId,
-        this::mapAnalysisToUpsertRepositoryQuery);
+        requestMapper(index, fingerprints),
+        bulkPartPreparer(index, fingerprints),
+        spool,
+        this.schedulers.getElasticsearchWrites());
+  }
+
+  /** the fingerprints come with the command, the indexer computed them once per document. */
+  private Function<AnalysisCentricDocument, DocWriteRequest<?>> requestMapper(
+      String index, DocumentFingerprints<AnalysisCentricDocument> fingerprints) {
+    if (this.clientSideMerge) {
+      return analysis -> mapAnalysisToCreateRequest(index, analysis, fingerprints.get(analysis));
+    }
+    return analysis ->
+        mapAnalysisToUpsertRepositoryQuery(index, analysis, fingerprints.get(analysis));
+  }
+
+  private BulkPartPreparer<AnalysisCentricDocument> bulkPartPreparer(
+      String index, DocumentFingerprints<AnalysisCentricDocument> fingerprints) {
+    if (!this.clientSideMerge) {
+      return BulkPartPreparer.asIs();
+    }
+    return clientSideRepositoryMerge(
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration,
+        this.elasticsearchRestClient,
+        AnalysisCentricDocument::getAnalysisId,
+        (analysis, storedRepositories) ->
+            mapAnalysisToMergedIndexRequest(
+                index, analysis, fingerprints.get(analysis), storedRepositories),
+        this.schedulers.getElasticsearchWrites());
   }
 
   @Override
   public Mono<Void> removeAnalysisDocs(String analysisId) {
-    return Mono.fromSupplier(() -> this.deleteByAnalysisId(analysisId))
-        .subscribeOn(Schedulers.elastic());
+    return removalBatcher.remove(analysisId);
+  }
+
+  /** the documents ids are the analyses ids, so they are deleted by id instead of by query. */
+  private Mono<Void> removeAnalysesDocs(Set<String> analysisIds) {
+    return this.liveWrites.record(
+        index ->
+            bulkDelete(
+                index,
+                analysisIds,
+                this.maxRetriesAttempts,
+                this.retriesWaitDuration,
+                this.elasticsearchRestClient,
+                this.spool),
+        ID_FIELD,
+        analysisIds);
+  }
+
+  @Override
+  public Flux<IndexTaskStatus> removeStudyDocs(@NonNull String studyId) {
+    if (this.spool.isPending()) {
+      return this.<IndexTaskStatus>spoolPendingError().flux();
+    }
+    return this.liveWrites.record(
+        index -> deleteStudyDocs(index, studyId),
+        "study " + studyId,
+        index -> replayTask(index, deleteStudyDocs(index, studyId)));
+  }
+
+  private Flux<IndexTaskStatus> deleteStudyDocs(String index, String studyId) {
+    return deleteStudyTask(
+        this.elasticsearchRestClient,
+        index,
+        studyId,
+        this.byQueryTaskSlices,
+        this.byQueryTaskPollInterval,
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration);
+  }
+
+  @Override
+  public Flux<IndexTaskStatus> removeRepositoryDocs(@NonNull String repositoryCode) {
+    if (this.spool.isPending()) {
+      return this.<IndexTaskStatus>spoolPendingError().flux();
+    }
+    return this.liveWrites.record(
+        index -> removeRepository(index, repositoryCode),
+        "repository " + repositoryCode,
+        index -> replayTask(index, removeRepository(index, repositoryCode)));
+  }
+
+  private Flux<IndexTaskStatus> removeRepository(String index, String repositoryCode) {
+    return removeRepositoryTask(
+        this.elasticsearchRestClient,
+        index,
+        repositoryCode,
+        this.byQueryTaskSlices,
+        this.byQueryTaskPollInterval,
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration);
   }
 
   @Override
   public Mono<List<AnalysisCentricDocument>> fetchByIds(List<String> ids) {
-    log.debug("in fetchByIds, total ids: {} ", ids.size());
-    return Mono.fromSupplier(() -> this.fetch(ids)).subscribeOn(Schedulers.elastic());
+    return fetchByIds(this.indexTarget, ids);
   }
 
-  @SneakyThrows
-  private List<AnalysisCentricDocument> fetch(List<String> ids) {
-    return Parallel.blockingScatterGather(ids, MAX_PAGESIZE, this::doFetchByIdQuery).stream()
-        .flatMap(List::stream)
-        .collect(Collectors.toList());
+  @Override
+  public Mono<List<AnalysisCentricDocument>> fetchRebuildByIds(
+      @NonNull String rebuildIndexName, List<String> ids) {
+    return fetchByIds(rebuildIndexName, ids);
   }
 
-  @SneakyThrows
-  private List<AnalysisCentricDocument> doFetchByIdQuery(Map.Entry<Integer, List<String>> entry) {
-    val retry = buildRetry("doFetchByIdQuery", this.maxRetriesAttempts, this.retriesWaitDuration);
-    val decorated =
-        Retry.<List<AnalysisCentricDocument>>decorateCheckedSupplier(
-            retry, () -> getAnalysisCentricDocuments(entry));
-    return decorated.apply();
+  private Mono<List<AnalysisCentricDocument>> fetchByIds(String index, List<String> ids) {
+    log.debug("in fetchByIds, index: {}, total ids: {} ", index, ids.size());
+    return multiGet(
+        ids,
+        MAX_PAGESIZE,
+        this.maxConcurrentRequests,
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration,
+        this.elasticsearchRestClient,
+        entry -> buildMultiGetRequest(entry, index),
+        result -> List.copyOf(searchResultMapper.mapResults(result, AnalysisCentricDocument.class)),
+        this.schedulers.getElasticsearchReads());
   }
 
-  @SneakyThrows
-  private List<AnalysisCentricDocument> getAnalysisCentricDocuments(
-      Map.Entry<Integer, List<String>> entry) {
-    log.debug("fetch called ids {} ", entry.getValue().size());
-    val request = buildMultiGetRequest(entry, this.indexName);
-    val result = elasticsearchRestClient.mget(request, RequestOptions.DEFAULT);
-    val docs = this.searchResultMapper.mapResults(result, AnalysisCentricDocument.class);
-    return List.copyOf(docs);
+  @Override
+  public Mono<List<IndexedDocumentFingerprint>> fetchFingerprintsByIds(List<String> ids) {
+    return fetchFingerprintsByIds(this.indexTarget, ids);
   }
 
-  @SneakyThrows
-  private UpdateRequest mapAnalysisToUpsertRepositoryQuery(
-      AnalysisCentricDocument analysisCentricDocument) {
-    val mapper = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+  @Override
+  public Mono<List<IndexedDocumentFingerprint>> fetchRebuildFingerprintsByIds(
+      @NonNull String rebuildIndexName, List<String> ids) {
+    return fetchFingerprintsByIds(rebuildIndexName, ids);
+  }
+
+  private Mono<List<IndexedDocumentFingerprint>> fetchFingerprintsByIds(
+      String index, List<String> ids) {
+    log.debug("in fetchFingerprintsByIds, index: {}, total ids: {} ", index, ids.size());
+    return multiGet(
+        ids,
+        MAX_PAGESIZE,
+        this.maxConcurrentRequests,
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration,
+        this.elasticsearchRestClient,
+        entry -> buildFingerprintMultiGetRequest(entry, index, ANALYSIS_ID_FIELD),
+        result -> mapFingerprintResults(result, source -> (String) source.get(ANALYSIS_ID_FIELD)),
+        this.schedulers.getElasticsearchReads());
+  }
 
+  private UpdateRequest mapAnalysisToUpsertRepositoryQuery(
+      String index,
+      AnalysisCentricDocument analysisCentricDocument,
+      DocumentFingerprint fingerprint) {
+    val source =
+        documentSource(
+            this.documentMapper, analysisCentricDocument, fingerprintSource(fingerprint));
     val paramsBuilder = new HashMap<String, Object>();
-    paramsBuilder.put(
-        "repository",
-        mapper.convertValue(analysisCentricDocument.getRepositories().get(0), Map.class));
-    paramsBuilder.put("document", scriptedDocument(mapper, analysisCentricDocument));
+    paramsBuilder.put("repository", documentRepository(source));
+    paramsBuilder.put("document", scriptedDocument(source));
     paramsBuilder.put("analysis_state", analysisCentricDocument.getAnalysisState());
-    paramsBuilder.put("updated_at", getDateIso(analysisCentricDocument.getUpdatedAt()));
-
-    if (analysisCentricDocument.getPublishedAt() != null) {
-      // Nullable as may not have been published
-      paramsBuilder.put("published_at", getDateIso(analysisCentricDocument.getPublishedAt()));
-    }
-
-    if (analysisCentricDocument.getFirstPublishedAt() != null) {
-      paramsBuilder.put(
-          "first_published_at", getDateIso(analysisCentricDocument.getFirstPublishedAt()));
-    }
+    putDateParams(paramsBuilder, source);
 
     val parameters = unmodifiableMap(paramsBuilder);
-    val inline = getInline(parameters);
+    val script = getAnalysisCentricUpsertScript(parameters);
 
     return new UpdateRequest()
         .id(analysisCentricDocument.getAnalysisId())
-        .index(this.indexName)
-        .script(inline)
+        .index(index)
+        .script(script)
         .upsert(
             new IndexRequest()
-                .index(this.indexName)
+                .index(index)
                 .id(analysisCentricDocument.getAnalysisId())
-                .source(
-                    analysisCentricJSONWriter.writeValueAsString(analysisCentricDocument),
-                    XContentType.JSON));
+                .source(source));
+  }
+
+  @Override
+  public Mono<String> createRebuildIndex(@NonNull String repositoryCode) {
+    return createRebuildIndex(rebuildIndexName(this.indexName), repositoryCode);
+  }
+
+  /**
+   * The mirrors of a cluster rebuild into indices with the same name. The writes are recorded
+   * before the seed starts, the ones it copied already are copied again which is harmless.
+   */
+  Mono<String> createRebuildIndex(
+      @NonNull String rebuildIndexName, @NonNull String repositoryCode) {
+    return concreteIndex(
+            this.elasticsearchRestClient,
+            this.indexTarget,
+            this.maxRetriesAttempts,
+            this.retriesWaitDuration)
+        .doOnNext(source -> this.liveWrites.start(rebuildIndexName, source))
+        .flatMap(
+            source ->
+                IndexTasks.createRebuildIndex(
+                        this.elasticsearchRestClient,
+                        rebuildIndexName,
+                        loadIndexSourceAsString(this.alias))
+                    .then(seedRebuildIndex(source, rebuildIndexName, repositoryCode)))
+        .thenReturn(rebuildIndexName)
+        .doOnError(e -> this.liveWrites.stop(rebuildIndexName));
+  }
+
+  /**
+   * Copies the documents of the other repositories into the rebuild index, the rebuild writes are
+   * merged with them if any was copied. Otherwise they are indexed as they are, which is faster.
+   */
+  private Mono<Void> seedRebuildIndex(
+      String source, String rebuildIndexName, String repositoryCode) {
+    return refresh(
+            this.elasticsearchRestClient, this.maxRetriesAttempts, this.retriesWaitDuration, source)
+        .then(
+            seedRebuildTask(
+                    this.elasticsearchRestClient,
+                    source,
+                    rebuildIndexName,
+                    repositoryCode,
+                    this.byQueryTaskSlices,
+                    this.byQueryTaskPollInterval,
+                    this.maxRetriesAttempts,
+                    this.retriesWaitDuration)
+                .last()
+                .flatMap(
+                    status -> {
+                      if (!status.isSuccessful()) {
+                        return Mono.error(
+                            new IllegalStateException(
+                                format("failed to seed %s from %s", rebuildIndexName, source)));
+                      }
+                      if (status.getProcessed() > 0) {
+                        this.seededRebuildIndices.add(rebuildIndexName);
+                      }
+                      log.info(
+                          "{} seeded with {} documents from {}",
+                          rebuildIndexName,
+                          status.getProcessed(),
+                          source);
+                      return Mono.empty();
+                    }));
+  }
+
+  @Override
+  public Mono<IndexResult> batchIndexRebuildAnalyses(
+      @NonNull String rebuildIndexName,
+      @NonNull BatchIndexAnalysisCommand batchIndexAnalysisCommand) {
+    if (this.seededRebuildIndices.contains(rebuildIndexName)) {
+      return upsertAnalyses(
+          rebuildIndexName, batchIndexAnalysisCommand, WriteAheadSpool.disabled(rebuildIndexName));
+    }
+    val fingerprints = batchIndexAnalysisCommand.getFingerprints();
+    return BulkWrites.batchUpsertDocuments(
+        batchIndexAnalysisCommand.getAnalyses(),
+        documentsPerBulkRequest,
+        bulkSize,
+        maxConcurrentRequests,
+        maxRetriesAttempts,
+        retriesWaitDuration,
+        this.indexName,
+        this.elasticsearchRestClient,
+        AnalysisCentricDocument::getAnalysisId,
+        analysis ->
+            mapAnalysisToIndexRequest(rebuildIndexName, analysis, fingerprints.get(analysis)),
+        BulkPartPreparer.asIs(),
+        WriteAheadSpool.disabled(rebuildIndexName),
+        this.schedulers.getElasticsearchWrites());
+  }
+
+  /**
+   * The rebuild index is synced with the writes made meanwhile before the swap. Once the alias
+   * moved the writes go to it, the last sync copies the ones still made to the previous index. The
+   * spooled writes would reach the previous index after the swap, so the rebuild waits for them.
+   */
+  @Override
+  public Mono<Void> completeRebuild(@NonNull String rebuildIndexName) {
+    return Mono.defer(() -> this.spool.isPending() ? spoolPendingError() : Mono.<Void>empty())
+        .then(this.liveWrites.sync(rebuildIndexName, this::copyDocuments))
+        .then(
+            IndexTasks.completeRebuild(this.elasticsearchRestClient, this.alias, rebuildIndexName))
+        .then(this.liveWrites.seal(rebuildIndexName, () -> this.indexTarget = this.alias))
+        .then(this.liveWrites.sync(rebuildIndexName, this::copyDocuments))
+        .doFinally(signal -> forgetRebuild(rebuildIndexName));
+  }
+
+  private Mono<Void> copyDocuments(
+      String sourceIndex, String rebuildIndexName, String field, Set<String> ids) {
+    return IndexTasks.copyDocuments(
+        this.elasticsearchRestClient,
+        sourceIndex,
+        rebuildIndexName,
+        QueryBuilders.termsQuery(field, ids),
+        this.byQueryTaskSlices,
+        this.byQueryTaskPollInterval,
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration);
+  }
+
+  /** the rebuild index isn't refreshed on its own, the task wouldn't find the latest writes. */
+  private Mono<Void> replayTask(String rebuildIndexName, Flux<IndexTaskStatus> task) {
+    return refresh(
+            this.elasticsearchRestClient,
+            this.maxRetriesAttempts,
+            this.retriesWaitDuration,
+            rebuildIndexName)
+        .then(successfulTask(task));
+  }
+
+  @Override
+  public Mono<Void> abandonRebuild(@NonNull String rebuildIndexName) {
+    return deleteRebuildIndex(this.elasticsearchRestClient, rebuildIndexName)
+        .doFinally(signal -> forgetRebuild(rebuildIndexName));
+  }
+
+  private void forgetRebuild(String rebuildIndexName) {
+    this.liveWrites.stop(rebuildIndexName);
+    this.seededRebuildIndices.remove(rebuildIndexName);
+  }
+
+  /**
+   * the documents merged client side depend on the stored ones at the time they are sent, they
+   * can't be replayed later.
+   */
+  private WriteAheadSpool createSpool(
+      ApplicationProperties properties, DroppedWrites droppedWrites) {
+    if (!properties.elasticSearchSpoolEnabled()) {
+      return WriteAheadSpool.disabled(this.indexName);
+    }
+    if (properties.elasticSearchClientSideMerge()) {
+      log.warn("the spool of {} is not used with the client side merge", this.indexName);
+      return WriteAheadSpool.disabled(this.indexName);
+    }
+    return new WriteAheadSpool(
+        this.indexName,
+        Paths.get(properties.elasticSearchSpoolDir(), this.indexName),
+        properties.elasticSearchSpoolSegmentMaxBytes(),
+        properties.elasticSearchSpoolMaxBytes(),
+        Duration.ofMillis(properties.elasticSearchSpoolDrainIntervalMillis()),
+        this.documentsPerBulkRequest,
+        this.elasticsearchRestClient,
+        this.schedulers.getElasticsearchWrites(),
+        requests ->
+            droppedWrites.forget(
+                this.indexName, requests, source -> (String) source.get(ANALYSIS_ID_FIELD)));
+  }
+
+  /** Stops replaying the spool, it's replayed by the next run. */
+  @PreDestroy
+  void close() {
+    this.spool.close();
+  }
+
+  /**
+   * Requests that can't be spooled would overtake the spooled ones, they are refused until the
+   * spool is replayed.
+   */
+  private <T> Mono<T> spoolPendingError() {
+    return Mono.error(
+        new IllegalStateException(
+            "operations of " + this.indexName + " are spooled until the cluster is back"));
   }
 
   @Retryable(maxAttempts = 5, backoff = @Backoff(value = 1000, multiplier = 1.5))
@@ -189,11 +537,23 @@ public class AnalysisCentricElasticSearchAdapter implements AnalysisCentricIndex
       val indexExists =
           this.elasticsearchRestClient.indices().exists(request, RequestOptions.DEFAULT);
 
+      // after a rebuild the alias may point to another index than the configured one.
+      val aliasExists =
+          this.elasticsearchRestClient
+              .indices()
+              .existsAlias(new GetAliasesRequest(this.alias), RequestOptions.DEFAULT);
+
       log.info(format("Index %s exists? %s", this.indexName, indexExists));
-      if (enabled && !indexExists) {
+      if (enabled && !indexExists && !aliasExists) {
         this.createIndex();
         log.info("index {} has been created", this.indexName);
       }
+      if (enabled) {
+        this.indexTarget =
+            resolveIndexTarget(this.elasticsearchRestClient, this.alias, this.indexName);
+        log.info("reading and writing analysis centric documents to {}", this.indexTarget);
+        putAnalysisCentricUpsertScript(this.elasticsearchRestClient);
+      }
 
     } catch (Exception e) {
       // we log here to document the failure if any each attempt.
@@ -218,42 +578,37 @@ public class AnalysisCentricElasticSearchAdapter implements AnalysisCentricIndex
     return inputStreamToString(analysisCentricIndex.getInputStream());
   }
 
-  @SneakyThrows
-  private Void deleteByAnalysisId(String analysisId) {
-    val retryConfig =
-        RetryConfig.custom()
-            .maxAttempts(this.maxRetriesAttempts)
-            .retryExceptions(IOException.class)
-            .waitDuration(Duration.ofMillis(this.retriesWaitDuration))
-            .build();
-    val retry = Retry.of("deleteByAnalysisId", retryConfig);
-    val decorated =
-        Retry.decorateCheckedRunnable(retry, () -> this.deleteByAnalysisIdRunnable(analysisId));
-    decorated.run();
-    return null;
+  /** Indexes a document that doesn't exist yet, fails if it was created in the meantime. */
+  private IndexRequest mapAnalysisToCreateRequest(
+      String index,
+      AnalysisCentricDocument analysisCentricDocument,
+      DocumentFingerprint fingerprint) {
+    return mapAnalysisToIndexRequest(index, analysisCentricDocument, fingerprint)
+        .opType(DocWriteRequest.OpType.CREATE);
   }
 
-  @SneakyThrows
-  private void deleteByAnalysisIdRunnable(@NonNull String analysisId) {
-    log.trace("deleteByAnalysisId called, analysis_id {} ", analysisId);
-    DeleteByQueryRequest deleteByQueryRequest = new DeleteByQueryRequest(this.alias);
-    deleteByQueryRequest.setQuery(
-        QueryBuilders.boolQuery().must(QueryBuilders.termQuery("analysis_id", analysisId)));
-    this.elasticsearchRestClient.deleteByQuery(deleteByQueryRequest, RequestOptions.DEFAULT);
+  private IndexRequest mapAnalysisToIndexRequest(
+      String index,
+      AnalysisCentricDocument analysisCentricDocument,
+      DocumentFingerprint fingerprint) {
+    return new IndexRequest(index)
+        .id(analysisCentricDocument.getAnalysisId())
+        .source(
+            documentSource(
+                this.documentMapper, analysisCentricDocument, fingerprintSource(fingerprint)));
   }
 
-  /**
-   * Returns a Map object used by the Upsert script, it represents an analysis document that contains all the properties
-   * we need to fully replace. Repositories list must not be included as we don't want to replace existing repositories,
-   * instead we want to merge with existing repositories. Merge logic of repositories is handled by the upsert script.
-   *
-   * @param mapper             An Object mapper
-   * @param originalDocument   Analysis Document
-   */
-  private Map<String, Object> scriptedDocument(
-      ObjectMapper mapper, AnalysisCentricDocument originalDocument) {
-    val newMapDoc = mapper.convertValue(originalDocument, Map.class);
-    newMapDoc.remove("repositories");
-    return newMapDoc;
+  /** Replaces a stored document, with its repository merged into the stored ones. */
+  private IndexRequest mapAnalysisToMergedIndexRequest(
+      String index,
+      AnalysisCentricDocument analysisCentricDocument,
+      DocumentFingerprint fingerprint,
+      List<Map<String, Object>> storedRepositories) {
+    val source =
+        documentSource(
+            this.documentMapper, analysisCentricDocument, fingerprintSource(fingerprint));
+    source.put(
+        REPOSITORIES_FIELD, mergeRepositories(storedRepositories, documentRepository(source)));
+    return new IndexRequest(index).id(analysisCentricDocument.getAnalysisId()).source(source);
   }
 }
@@ -0,0 +1,564 @@
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.SearchAdapterHelper.isRejected;
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.SearchAdapterHelper.isUnavailable;
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.SearchAdapterHelper.retrySpec;
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.SearchAdapterHelper.toMono;
+import static bio.overture.maestro.domain.utility.Parallel.scatterGather;
+
+import bio.overture.maestro.domain.api.exception.FailureData;
+import bio.overture.maestro.domain.api.message.IndexResult;
+import bio.overture.maestro.domain.utility.Parallel.ErrorMode;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.function.Tuple2;
+
+/**
+ * The bulk writes of the index adapters: the upserts cut into parts sent concurrently, the deletes
+ * by id, the retries of failed items, the spooling of what couldn't be sent and the client side
+ * merge of the repositories.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class BulkWrites {
+  private static final String ANALYSIS_ID = "analysisId";
+  private static final String REPOSITORIES_FIELD = "repositories";
+
+  /**
+   * Upserts the documents with bulk requests cut at {@code documentsPerBulkRequest} documents or at
+   * the current size of {@code bulkSize}, whichever comes first. Parts that can't be sent because
+   * the cluster is unavailable are appended to the {@code spool} when it's enabled, and count as
+   * written.
+   */
+  public static <T> Mono<IndexResult> batchUpsertDocuments(
+      @NonNull List<T> documents,
+      int documentsPerBulkRequest,
+      @NonNull AdaptiveBulkSize bulkSize,
+      int maxConcurrentRequests,
+      int maxRetriesAttempts,
+      long retriesWaitDuration,
+      String indexName,
+      RestHighLevelClient client,
+      Function<T, String> documentAnalysisIdExtractor,
+      Function<T, DocWriteRequest<?>> mapper,
+      BulkPartPreparer<T> preparer,
+      WriteAheadSpool spool,
+      Scheduler scheduler) {
+    log.debug("in batchUpsertAnalysisRepositories, analyses count: {} ", documents.size());
+    return Flux.defer(
+            () -> {
+              val cutter = new BulkCutter(documentsPerBulkRequest, bulkSize);
+              return Flux.fromIterable(documents)
+                  .map(document -> new BulkItem<>(document, prepareRequest(mapper.apply(document))))
+                  .bufferUntil(cutter::isLastOfBulk);
+            })
+        // serializing the documents is cpu bound, keep it off the client io threads.
+        .subscribeOn(scheduler)
+        .index()
+        .transform(
+            parts ->
+                scatterGather(
+                    parts,
+                    maxConcurrentRequests,
+                    false,
+                    ErrorMode.FAIL_FAST,
+                    part ->
+                        tryBulkUpsertRequestForPart(
+                            part.getT1(),
+                            part.getT2(),
+                            bulkSize,
+                            preparer,
+                            maxRetriesAttempts,
+                            retriesWaitDuration,
+                            documentAnalysisIdExtractor,
+                            client,
+                            spool)))
+        .flatMapIterable(failures -> failures)
+        .collect(Collectors.toUnmodifiableSet())
+        .map(failures -> buildIndexResult(failures, indexName));
+  }
+
+  /**
+   * Deletes the documents by id with a single bulk request, missing documents are ignored. The
+   * deletes are appended to the {@code spool} instead when the cluster is unavailable and it's
+   * enabled.
+   */
+  public static Mono<Void> bulkDelete(
+      @NonNull String indexName,
+      @NonNull Set<String> ids,
+      int maxRetriesAttempts,
+      long retriesWaitDuration,
+      RestHighLevelClient client,
+      WriteAheadSpool spool) {
+    return Mono.defer(
+        () -> {
+          val requests =
+              ids.stream()
+                  .<DocWriteRequest<?>>map(id -> new DeleteRequest(indexName, id))
+                  .collect(Collectors.toList());
+          if (spool.isPending()) {
+            return spool.append(requests);
+          }
+          return Mono.defer(
+                  () ->
+                      toMono(
+                          (ActionListener<BulkResponse> listener) ->
+                              client.bulkAsync(
+                                  buildBulkRequest(requests), RequestOptions.DEFAULT, listener)))
+              .retryWhen(retrySpec(maxRetriesAttempts, retriesWaitDuration))
+              .flatMap(
+                  response ->
+                      response.hasFailures()
+                          ? Mono.<Void>error(
+                              new ElasticsearchException(response.buildFailureMessage()))
+                          : Mono.<Void>empty())
+              .onErrorResume(
+                  t -> spool.isEnabled() && isUnavailable(t), t -> spool.append(requests));
+        });
+  }
+
+  private static <T> Mono<Set<String>> tryBulkUpsertRequestForPart(
+      long partNum,
+      List<BulkItem<T>> part,
+      AdaptiveBulkSize bulkSize,
+      BulkPartPreparer<T> preparer,
+      int maxRetriesAttempts,
+      long retriesWaitDuration,
+      Function<T, String> documentAnalysisIdExtractor,
+      RestHighLevelClient client,
+      WriteAheadSpool spool) {
+    if (spool.isPending()) {
+      return spoolPart(partNum, part, spool, documentAnalysisIdExtractor);
+    }
+    val listPartHash = Objects.hashCode(part);
+    return sendBulk(
+            partNum, part, bulkSize, preparer, maxRetriesAttempts, retriesWaitDuration, client)
+        .flatMap(
+            response ->
+                retryFailedItems(
+                    partNum,
+                    part,
+                    response,
+                    1,
+                    bulkSize,
+                    preparer,
+                    maxRetriesAttempts,
+                    retriesWaitDuration,
+                    client,
+                    spool))
+        .map(
+            failedItems -> {
+              log.trace(
+                  "BulkWrites - tryBulkUpsertRequestForPart: done bulk upsert part#: {},"
+                      + " failed docs: {}",
+                  partNum,
+                  failedItems.size());
+              return toAnalysisIds(failedItems, documentAnalysisIdExtractor);
+            })
+        .onErrorResume(
+            (t) -> {
+              if (spool.isEnabled() && isUnavailable(t)) {
+                log.warn("failed sending part#: {} to elastic search, spooling it", partNum, t);
+                return spoolPart(partNum, part, spool, documentAnalysisIdExtractor);
+              }
+              log.error(
+                  "failed sending request for: part#: {}, hash: {} to elastic search,"
+                      + " gathering failed Ids.",
+                  partNum,
+                  listPartHash,
+                  t);
+              return Mono.just(toAnalysisIds(part, documentAnalysisIdExtractor));
+            });
+  }
+
+  /** @return the analyses of the items that couldn't be spooled either. */
+  private static <T> Mono<Set<String>> spoolPart(
+      long partNum,
+      List<BulkItem<T>> part,
+      WriteAheadSpool spool,
+      Function<T, String> documentAnalysisIdExtractor) {
+    return spoolItems(partNum, part, spool)
+        .map(notSpooled -> toAnalysisIds(notSpooled, documentAnalysisIdExtractor));
+  }
+
+  private static <T> List<DocWriteRequest<?>> toRequests(List<BulkItem<T>> items) {
+    return items.stream().map(BulkItem::getRequest).collect(Collectors.toList());
+  }
+
+  private static <T> Mono<BulkResponse> sendBulk(
+      long partNum,
+      List<BulkItem<T>> items,
+      AdaptiveBulkSize bulkSize,
+      BulkPartPreparer<T> preparer,
+      int maxRetriesAttempts,
+      long retriesWaitDuration,
+      RestHighLevelClient client) {
+    val documents = items.stream().map(BulkItem::getDocument).collect(Collectors.toList());
+    val requests = items.stream().map(BulkItem::getRequest).collect(Collectors.toList());
+    return preparer
+        .prepare(documents, requests)
+        .map(BulkWrites::buildBulkRequest)
+        .flatMap(
+            bulkRequest ->
+                Mono.defer(
+                        () -> {
+                          log.trace(
+                              "BulkWrites - sendBulk, sending part#: {}," + " docs: {}, bytes: {}",
+                              partNum,
+                              bulkRequest.numberOfActions(),
+                              bulkRequest.estimatedSizeInBytes());
+                          return toMono(
+                              (ActionListener<BulkResponse> listener) ->
+                                  client.bulkAsync(bulkRequest, RequestOptions.DEFAULT, listener));
+                        })
+                    .elapsed()
+                    .doOnNext(response -> adaptBulkSize(bulkSize, response))
+                    .doOnError(
+                        t -> {
+                          if (isRejected(t)) bulkSize.onRejected();
+                        })
+                    .retryWhen(retrySpec(maxRetriesAttempts, retriesWaitDuration)))
+        .map(Tuple2::getT2);
+  }
+
+  /**
+   * Resends only the items of the response that failed with a transient error (version conflict,
+   * rejection or unavailable shard), with exponential backoff, until they succeed or the attempts
+   * run out, then they are spooled if the {@code spool} is enabled. Items failing with any other
+   * error, like mapping errors, are not retried.
+   *
+   * @param sent the items of the bulk request, in the request order
+   * @param attempt the attempt that got this response, starting at 1
+   * @return the items that still failed
+   */
+  private static <T> Mono<List<BulkItem<T>>> retryFailedItems(
+      long partNum,
+      List<BulkItem<T>> sent,
+      BulkResponse response,
+      int attempt,
+      AdaptiveBulkSize bulkSize,
+      BulkPartPreparer<T> preparer,
+      int maxRetriesAttempts,
+      long retriesWaitDuration,
+      RestHighLevelClient client,
+      WriteAheadSpool spool) {
+    if (!response.hasFailures()) {
+      return Mono.just(List.of());
+    }
+    val permanentFailures = new ArrayList<BulkItem<T>>();
+    val retryable = new ArrayList<BulkItem<T>>();
+    val failureMessages = new HashMap<String, String>();
+    for (BulkItemResponse item : response.getItems()) {
+      if (!item.isFailed()) {
+        continue;
+      }
+      val bulkItem = sent.get(item.getItemId());
+      if (isTransientFailure(item.status())) {
+        retryable.add(bulkItem);
+      } else {
+        permanentFailures.add(bulkItem);
+        failureMessages.put(item.getId(), item.getFailureMessage());
+      }
+    }
+    if (!failureMessages.isEmpty()) {
+      log.error("part#: {}, bulk items failed permanently: {}", partNum, failureMessages);
+    }
+    if (retryable.isEmpty()) {
+      return Mono.just(permanentFailures);
+    }
+    if (attempt >= maxRetriesAttempts) {
+      log.error(
+          "part#: {}, {} bulk items still failing after {} attempts",
+          partNum,
+          retryable.size(),
+          attempt);
+      return spoolItems(partNum, retryable, spool)
+          .map(stillFailing -> concat(permanentFailures, stillFailing));
+    }
+    log.warn("part#: {}, retrying {} failed bulk items", partNum, retryable.size());
+    val backoff = Duration.ofMillis(retriesWaitDuration << (attempt - 1));
+    return Mono.delay(backoff)
+        .then(sendBulk(partNum, retryable, bulkSize, preparer, 1, retriesWaitDuration, client))
+        .flatMap(
+            retryResponse ->
+                retryFailedItems(
+                    partNum,
+                    retryable,
+                    retryResponse,
+                    attempt + 1,
+                    bulkSize,
+                    preparer,
+                    maxRetriesAttempts,
+                    retriesWaitDuration,
+                    client,
+                    spool))
+        .onErrorResume(
+            t -> {
+              log.error("part#: {}, failed resending failed bulk items", partNum, t);
+              return isUnavailable(t)
+                  ? spoolItems(partNum, retryable, spool)
+                  : Mono.just(retryable);
+            })
+        .map(stillFailing -> concat(permanentFailures, stillFailing));
+  }
+
+  /** @return the items that couldn't be spooled, all of them if the spool is disabled. */
+  private static <T> Mono<List<BulkItem<T>>> spoolItems(
+      long partNum, List<BulkItem<T>> items, WriteAheadSpool spool) {
+    if (!spool.isEnabled()) {
+      return Mono.just(items);
+    }
+    return spool
+        .append(toRequests(items))
+        .thenReturn(List.<BulkItem<T>>of())
+        .onErrorResume(
+            t -> {
+              log.error("part#: {}, failed spooling {} bulk items", partNum, items.size(), t);
+              return Mono.just(items);
+            });
+  }
+
+  private static boolean isTransientFailure(RestStatus status) {
+    return status == RestStatus.CONFLICT
+        || status == RestStatus.TOO_MANY_REQUESTS
+        || status.getStatus() >= 500;
+  }
+
+  private static <T> List<T> concat(List<T> first, List<T> second) {
+    val all = new ArrayList<T>(first.size() + second.size());
+    all.addAll(first);
+    all.addAll(second);
+    return all;
+  }
+
+  private static <T> Set<String> toAnalysisIds(
+      List<BulkItem<T>> items, Function<T, String> documentAnalysisIdExtractor) {
+    return items.stream()
+        .map(item -> documentAnalysisIdExtractor.apply(item.getDocument()))
+        .collect(Collectors.toUnmodifiableSet());
+  }
+
+  private static void adaptBulkSize(
+      AdaptiveBulkSize bulkSize, Tuple2<Long, BulkResponse> timedResponse) {
+    val rejected =
+        timedResponse.getT2().hasFailures()
+            && Arrays.stream(timedResponse.getT2().getItems())
+                .anyMatch(item -> item.isFailed() && item.status() == RestStatus.TOO_MANY_REQUESTS);
+    if (rejected) {
+      bulkSize.onRejected();
+    } else {
+      bulkSize.onResponse(timedResponse.getT1());
+    }
+  }
+
+  public static IndexResult buildIndexResult(
+      @NonNull Set<String> failures, @NonNull String indexName) {
+    val fails =
+        failures.isEmpty()
+            ? FailureData.builder().build()
+            : FailureData.builder().failingIds(Map.of(ANALYSIS_ID, failures)).build();
+    return IndexResult.builder()
+        .indexName(indexName)
+        .failureData(fails)
+        .successful(failures.isEmpty())
+        .build();
+  }
+
+  private static BulkRequest buildBulkRequest(List<DocWriteRequest<?>> requests) {
+    val bulkRequest = new BulkRequest();
+    for (DocWriteRequest<?> request : requests) {
+      bulkRequest.add(request);
+    }
+    return bulkRequest;
+  }
+
+  /**
+   * Gives the requests to send for a bulk part. It's called before the part is sent, and again
+   * before its items that failed with a transient error are resent.
+   */
+  @FunctionalInterface
+  public interface BulkPartPreparer<T> {
+
+    Mono<List<DocWriteRequest<?>>> prepare(List<T> documents, List<DocWriteRequest<?>> requests);
+
+    /** Sends the mapped requests as they are, used with the upsert scripts. */
+    static <T> BulkPartPreparer<T> asIs() {
+      return (documents, requests) -> Mono.just(requests);
+    }
+  }
+
+  /**
+   * Merges the repositories client side so documents are written with plain index requests instead
+   * of the upsert script. The stored repositories of the part documents are read first, then:
+   *
+   * <ul>
+   *   <li>stored documents are replaced only if they didn't change since they were read ({@code
+   *       if_seq_no} / {@code if_primary_term}).
+   *   <li>new documents are sent with the mapped request, which should use the create op type so a
+   *       document created in the meantime is not overwritten.
+   * </ul>
+   *
+   * Either case fails the item with a version conflict, which is retried, and the document is read
+   * again before it's resent.
+   *
+   * @param idExtractor the document id in the index
+   * @param mergedRequestBuilder the index request of a stored document, given its merged
+   *     repositories
+   */
+  public static <T> BulkPartPreparer<T> clientSideRepositoryMerge(
+      int maxRetriesAttempts,
+      long retriesWaitDuration,
+      @NonNull RestHighLevelClient client,
+      @NonNull Function<T, String> idExtractor,
+      @NonNull BiFunction<T, List<Map<String, Object>>, IndexRequest> mergedRequestBuilder,
+      @NonNull Scheduler scheduler) {
+    return (documents, requests) -> {
+      val sourceContext = new FetchSourceContext(true, new String[] {REPOSITORIES_FIELD}, null);
+      val multiGetRequest = new MultiGetRequest();
+      for (int i = 0; i < documents.size(); i++) {
+        // read from the index the document is written to.
+        multiGetRequest.add(
+            new MultiGetRequest.Item(requests.get(i).index(), idExtractor.apply(documents.get(i)))
+                .fetchSourceContext(sourceContext));
+      }
+      return Mono.defer(
+              () ->
+                  toMono(
+                      (ActionListener<MultiGetResponse> listener) ->
+                          client.mgetAsync(multiGetRequest, RequestOptions.DEFAULT, listener)))
+          .retryWhen(retrySpec(maxRetriesAttempts, retriesWaitDuration))
+          // serializing the merged documents is cpu bound, keep it off the client io threads.
+          .publishOn(scheduler)
+          .map(
+              response ->
+                  mergeWithStored(
+                      documents, requests, response.getResponses(), mergedRequestBuilder));
+    };
+  }
+
+  @SneakyThrows
+  @SuppressWarnings("unchecked")
+  private static <T> List<DocWriteRequest<?>> mergeWithStored(
+      List<T> documents,
+      List<DocWriteRequest<?>> requests,
+      MultiGetItemResponse[] stored,
+      BiFunction<T, List<Map<String, Object>>, IndexRequest> mergedRequestBuilder) {
+    val merged = new ArrayList<DocWriteRequest<?>>(requests.size());
+    for (int i = 0; i < documents.size(); i++) {
+      if (stored[i].isFailed()) {
+        throw stored[i].getFailure().getFailure();
+      }
+      val storedDocument = stored[i].getResponse();
+      if (!storedDocument.isExists()) {
+        merged.add(requests.get(i));
+        continue;
+      }
+      val storedRepositories =
+          (List<Map<String, Object>>) storedDocument.getSourceAsMap().get(REPOSITORIES_FIELD);
+      merged.add(
+          prepareRequest(
+              mergedRequestBuilder
+                  .apply(
+                      documents.get(i), storedRepositories == null ? List.of() : storedRepositories)
+                  .setIfSeqNo(storedDocument.getSeqNo())
+                  .setIfPrimaryTerm(storedDocument.getPrimaryTerm())));
+    }
+    return merged;
+  }
+
+  private static <R extends DocWriteRequest<?>> R prepareRequest(R req) {
+    Assert.notNull(req, "No IndexRequest define for Query");
+    String indexName = req.index();
+    Assert.notNull(indexName, "No index defined for Query");
+    Assert.notNull(req.id(), "No Id define for Query");
+    return req;
+  }
+
+  /** A document and its write request, with what the request adds to a bulk body. */
+  @Getter
+  private static class BulkItem<T> {
+    private final T document;
+    private final DocWriteRequest<?> request;
+    private final long sizeInBytes;
+
+    BulkItem(T document, DocWriteRequest<?> request) {
+      this.document = document;
+      this.request = request;
+      this.sizeInBytes = estimatedSizeInBytes(request);
+    }
+
+    /**
+     * For updates, the upsert source plus the script, whose params carry the same document again
+     * (without the repositories) so the source is counted twice. BulkRequest#estimatedSizeInBytes
+     * ignores scripts, which are most of the body here. Deletes have no body.
+     */
+    private static long estimatedSizeInBytes(DocWriteRequest<?> request) {
+      if (request instanceof IndexRequest) {
+        return ((IndexRequest) request).source().length();
+      }
+      if (!(request instanceof UpdateRequest)) {
+        return 0;
+      }
+      long size = 0;
+      val update = (UpdateRequest) request;
+      if (update.upsertRequest() != null && update.upsertRequest().source() != null) {
+        size += 2L * update.upsertRequest().source().length();
+      }
+      if (update.script() != null) {
+        size += update.script().getIdOrCode().length();
+      }
+      return size;
+    }
+  }
+
+  /** Tells which item closes the current bulk, by documents count or by bytes. */
+  @RequiredArgsConstructor
+  private static class BulkCutter {
+    private final int maxDocuments;
+    private final AdaptiveBulkSize bulkSize;
+    private int documents;
+    private long bytes;
+
+    boolean isLastOfBulk(BulkItem<?> item) {
+      documents++;
+      bytes += item.getSizeInBytes();
+      if (documents < maxDocuments && bytes < bulkSize.currentBytes()) {
+        return false;
+      }
+      documents = 0;
+      bytes = 0;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import bio.overture.maestro.domain.api.exception.FailureData;
+import bio.overture.maestro.domain.api.exception.IndexerException;
+import bio.overture.maestro.domain.api.message.IndexResult;
+import bio.overture.maestro.domain.api.message.IndexTaskStatus;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+/**
+ * Runs the same operation on the adapter of each target cluster concurrently. Every cluster has its
+ * own client, bulk sizing, concurrency and retries so a slow cluster only holds back its own
+ * requests, the operation completes once all clusters are done. The first cluster is the primary
+ * one, the documents are read from it only.
+ *
+ * @param <A> the adapter type
+ */
+@Slf4j
+class ClusterFanOut<A> {
+  private static final String ANALYSIS_ID = "analysisId";
+
+  private final String indexName;
+  private final Map<String, A> clusters;
+
+  /** @param clusters the adapters by cluster name, the primary one first. */
+  ClusterFanOut(@NonNull String indexName, @NonNull LinkedHashMap<String, A> clusters) {
+    this.indexName = indexName;
+    this.clusters = clusters;
+  }
+
+  A primary() {
+    return clusters.values().iterator().next();
+  }
+
+  /**
+   * A cluster failing doesn't fail the others, its failures are reported under its name in the
+   * result and the failing analyses of all clusters are merged.
+   *
+   * @param analysisIds the analyses written, they all failed if the cluster returned an error
+   */
+  Mono<IndexResult> write(
+      @NonNull Set<String> analysisIds, @NonNull Function<A, Mono<IndexResult>> write) {
+    return Flux.fromIterable(clusters.entrySet())
+        .flatMap(
+            cluster ->
+                write
+                    .apply(cluster.getValue())
+                    .onErrorResume(e -> Mono.just(errorResult(cluster.getKey(), analysisIds, e)))
+                    .map(result -> Tuples.of(cluster.getKey(), result)),
+            clusters.size())
+        .collectList()
+        .map(this::mergeResults);
+  }
+
+  /** Completes once all clusters are done, with an error if any of them failed. */
+  Mono<Void> run(@NonNull Function<A, Mono<Void>> operation) {
+    return Mono.whenDelayError(
+        clusters.entrySet().stream()
+            .map(
+                cluster ->
+                    operation
+                        .apply(cluster.getValue())
+                        .doOnError(
+                            e ->
+                                log.error(
+                                    "operation on {} failed on cluster {}",
+                                    indexName,
+                                    cluster.getKey(),
+                                    e)))
+            .collect(Collectors.toUnmodifiableList()));
+  }
+
+  /**
+   * Merges the progress of the task of each cluster, tagged with the cluster name. A cluster whose
+   * task can't be followed reports a completed unsuccessful task instead of failing the others.
+   */
+  Flux<IndexTaskStatus> runTasks(@NonNull Function<A, Flux<IndexTaskStatus>> task) {
+    return Flux.merge(
+        clusters.entrySet().stream()
+            .map(
+                cluster ->
+                    task.apply(cluster.getValue())
+                        .map(status -> status.toBuilder().cluster(cluster.getKey()).build())
+                        .onErrorResume(
+                            e -> {
+                              log.error(
+                                  "task on {} failed on cluster {}",
+                                  indexName,
+                                  cluster.getKey(),
+                                  e);
+                              return Mono.just(
+                                  IndexTaskStatus.builder()
+                                      .indexName(indexName)
+                                      .cluster(cluster.getKey())
+                                      .completed(true)
+                                      .successful(false)
+                                      .build());
+                            }))
+            .collect(Collectors.toUnmodifiableList()));
+  }
+
+  /* *******************
+   *  Private methods
+   *********************/
+  private IndexResult errorResult(String cluster, Set<String> analysisIds, Throwable e) {
+    log.error("writing to {} failed on cluster {}", indexName, cluster, e);
+    val failureData =
+        e instanceof IndexerException && ((IndexerException) e).getFailureData() != null
+            ? ((IndexerException) e).getFailureData()
+            : FailureData.builder().failingIds(Map.of(ANALYSIS_ID, analysisIds)).build();
+    return IndexResult.builder()
+        .indexName(indexName)
+        .failureData(failureData)
+        .successful(false)
+        .build();
+  }
+
+  private IndexResult mergeResults(List<Tuple2<String, IndexResult>> results) {
+    val failureData = FailureData.builder().build();
+    val clusterFailures = new HashMap<String, FailureData>();
+    for (Tuple2<String, IndexResult> result : results) {
+      if (!result.getT2().isSuccessful()) {
+        failureData.addFailures(result.getT2().getFailureData());
+        clusterFailures.put(result.getT1(), result.getT2().getFailureData());
+      }
+    }
+    return IndexResult.builder()
+        .indexName(indexName)
+        .failureData(failureData)
+        .successful(clusterFailures.isEmpty())
+        .clusterFailures(Map.copyOf(clusterFailures))
+        .build();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
+import bio.overture.maestro.domain.port.outbound.indexing.cache.WrittenDocumentsCache;
+import bio.overture.maestro.domain.port.outbound.indexing.checkpoint.StudyCheckpointDAO;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Forgets what's known about the documents of the spooled writes dropped because they failed
+ * permanently, see {@link WriteAheadSpool}. The write cache entries of their analyses are evicted
+ * and the checkpoints of their studies deleted, so the next run of these studies writes them again
+ * instead of skipping them as already written.
+ */
+@Slf4j
+public class DroppedWrites {
+
+  private static final String STUDY_ID_FIELD = "study_id";
+
+  private final WrittenDocumentsCache writtenDocumentsCache;
+  private final StudyCheckpointDAO studyCheckpointDAO;
+  private final boolean writeCacheEnabled;
+
+  @Inject
+  public DroppedWrites(
+      @NonNull ApplicationProperties properties,
+      @NonNull WrittenDocumentsCache writtenDocumentsCache,
+      @NonNull StudyCheckpointDAO studyCheckpointDAO) {
+    this.writtenDocumentsCache = writtenDocumentsCache;
+    this.studyCheckpointDAO = studyCheckpointDAO;
+    this.writeCacheEnabled = properties.isWriteCacheEnabled();
+  }
+
+  /**
+   * Deletes carry no document, there is nothing to forget about them.
+   *
+   * @param indexName the index the write cache knows the documents by
+   * @param analysisIdExtractor the analysis id of a document source
+   */
+  Mono<Void> forget(
+      @NonNull String indexName,
+      @NonNull List<DocWriteRequest<?>> requests,
+      @NonNull Function<Map<String, Object>, String> analysisIdExtractor) {
+    return Mono.defer(
+        () -> {
+          val sources =
+              requests.stream()
+                  .map(DroppedWrites::source)
+                  .filter(Objects::nonNull)
+                  .collect(Collectors.toList());
+          val analysisIds =
+              sources.stream()
+                  .map(analysisIdExtractor)
+                  .filter(Objects::nonNull)
+                  .collect(Collectors.toSet());
+          val studyIds =
+              sources.stream()
+                  .map(source -> (String) source.get(STUDY_ID_FIELD))
+                  .filter(Objects::nonNull)
+                  .collect(Collectors.toSet());
+          log.info(
+              "forgetting the analyses {} and the checkpoints of the studies {} of {}",
+              analysisIds,
+              studyIds,
+              indexName);
+          val evictions =
+              this.writeCacheEnabled
+                  ? Flux.fromIterable(analysisIds)
+                      .concatMap(
+                          analysisId ->
+                              this.writtenDocumentsCache.evictAnalysis(indexName, analysisId))
+                  : Flux.<Void>empty();
+          return evictions
+              .thenMany(
+                  Flux.fromIterable(studyIds)
+                      .concatMap(this.studyCheckpointDAO::deleteStudyCheckpoints))
+              .then();
+        });
+  }
+
+  /** the scripted upserts carry the whole document as their upsert. */
+  private static Map<String, Object> source(DocWriteRequest<?> request) {
+    if (request instanceof IndexRequest) {
+      return ((IndexRequest) request).sourceAsMap();
+    }
+    if (request instanceof UpdateRequest && ((UpdateRequest) request).upsertRequest() != null) {
+      return ((UpdateRequest) request).upsertRequest().sourceAsMap();
+    }
+    return null;
+  }
+}
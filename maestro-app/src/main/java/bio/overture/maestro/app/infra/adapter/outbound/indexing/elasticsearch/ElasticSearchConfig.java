@@ -19,13 +19,17 @@ package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
 
 import static bio.overture.maestro.app.infra.config.RootConfiguration.ELASTIC_SEARCH_DOCUMENT_JSON_MAPPER;
 
+import bio.overture.maestro.app.infra.config.PortSchedulers;
 import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
+import bio.overture.maestro.domain.port.outbound.indexing.AnalysisCentricIndexAdapter;
+import bio.overture.maestro.domain.port.outbound.indexing.FileCentricIndexAdapter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.stream.Collectors;
 import lombok.val;
 import org.apache.http.HttpHost;
@@ -38,11 +42,13 @@ import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.ssl.SSLContextBuilder;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Primary;
 import org.springframework.util.StringUtils;
 
 /**
@@ -55,7 +61,8 @@ import org.springframework.util.StringUtils;
 @Import({
   FileCentricElasticSearchAdapter.class,
   AnalysisCentricElasticSearchAdapter.class,
-  SnakeCaseJacksonSearchResultMapper.class
+  SnakeCaseJacksonSearchResultMapper.class,
+  DroppedWrites.class
 })
 public class ElasticSearchConfig {
 
@@ -73,8 +80,65 @@ public class ElasticSearchConfig {
     return (args) -> adapter.initialize();
   }
 
+  @Bean
+  CommandLineRunner mirrorsElasticsearchBootstrapper(ElasticsearchMirrors mirrors) {
+    return (args) -> mirrors.initialize();
+  }
+
+  @Bean
+  ElasticsearchMirrors elasticsearchMirrors(
+      ApplicationProperties properties,
+      @Qualifier(ELASTIC_SEARCH_DOCUMENT_JSON_MAPPER) ObjectMapper documentMapper,
+      SnakeCaseJacksonSearchResultMapper searchResultMapper,
+      PortSchedulers schedulers,
+      DroppedWrites droppedWrites) {
+    return new ElasticsearchMirrors(
+        properties, documentMapper, searchResultMapper, schedulers, droppedWrites);
+  }
+
+  /**
+   * The adapter the indexer writes the files documents through, the primary cluster one unless
+   * mirrors are configured.
+   */
+  @Bean
+  @Primary
+  FileCentricIndexAdapter fileCentricIndexAdapter(
+      ApplicationProperties properties,
+      FileCentricElasticSearchAdapter adapter,
+      ElasticsearchMirrors mirrors) {
+    if (mirrors.isEmpty()) {
+      return adapter;
+    }
+    val clusters = new LinkedHashMap<String, FileCentricElasticSearchAdapter>();
+    clusters.put(properties.elasticSearchClusterName(), adapter);
+    mirrors.getMirrors().forEach(mirror -> clusters.put(mirror.getName(), mirror.getFileCentric()));
+    return new FanOutFileCentricIndexAdapter(properties.fileCentricIndexName(), clusters);
+  }
+
+  @Bean
+  @Primary
+  AnalysisCentricIndexAdapter analysisCentricIndexAdapter(
+      ApplicationProperties properties,
+      AnalysisCentricElasticSearchAdapter adapter,
+      ElasticsearchMirrors mirrors) {
+    if (mirrors.isEmpty()) {
+      return adapter;
+    }
+    val clusters = new LinkedHashMap<String, AnalysisCentricElasticSearchAdapter>();
+    clusters.put(properties.elasticSearchClusterName(), adapter);
+    mirrors
+        .getMirrors()
+        .forEach(mirror -> clusters.put(mirror.getName(), mirror.getAnalysisCentric()));
+    return new FanOutAnalysisCentricIndexAdapter(properties.analysisCentricIndexName(), clusters);
+  }
+
   @Bean("ES_CLIENT")
   RestHighLevelClient client(ApplicationProperties properties) {
+    return buildClient(properties);
+  }
+
+  /** builds a client from the elasticsearch settings of the properties, each mirror gets one. */
+  static RestHighLevelClient buildClient(ApplicationProperties properties) {
     val httpHostArrayList =
         new ArrayList<HttpHost>(
             properties.elasticSearchClusterNodes().stream()
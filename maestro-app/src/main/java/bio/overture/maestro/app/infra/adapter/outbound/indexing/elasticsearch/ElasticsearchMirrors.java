@@ -0,0 +1,135 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import bio.overture.maestro.app.infra.config.PortSchedulers;
+import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * The clusters the documents are also written to besides the primary one, each with its own client
+ * and adapters built from its own settings. They aren't beans so they don't compete with the
+ * primary cluster ones, the adapters are wired through the fan out adapters.
+ */
+@Slf4j
+class ElasticsearchMirrors implements Closeable {
+  private static final int INITIALIZE_MAX_RETRIES = 4;
+  private static final Duration INITIALIZE_BACKOFF = Duration.ofSeconds(1);
+
+  @Getter private final List<Mirror> mirrors;
+
+  ElasticsearchMirrors(
+      @NonNull ApplicationProperties properties,
+      @NonNull ObjectMapper documentMapper,
+      @NonNull SnakeCaseJacksonSearchResultMapper searchResultMapper,
+      @NonNull PortSchedulers schedulers,
+      @NonNull DroppedWrites droppedWrites) {
+    val names = new HashSet<String>();
+    names.add(properties.elasticSearchClusterName());
+    for (ApplicationProperties mirror : properties.elasticSearchMirrors()) {
+      Assert.isTrue(
+          StringUtils.hasText(mirror.elasticSearchClusterName())
+              && names.add(mirror.elasticSearchClusterName()),
+          "elasticsearch mirrors need a name, different from the other clusters names");
+    }
+    this.mirrors =
+        properties.elasticSearchMirrors().stream()
+            .map(
+                mirror ->
+                    createMirror(
+                        mirror, documentMapper, searchResultMapper, schedulers, droppedWrites))
+            .collect(Collectors.toUnmodifiableList());
+  }
+
+  boolean isEmpty() {
+    return mirrors.isEmpty();
+  }
+
+  /** Same as the primary cluster, a mirror that can't be initialized doesn't stop the others. */
+  void initialize() {
+    for (Mirror mirror : mirrors) {
+      initialize(mirror.getName(), mirror.getFileCentric()::initialize);
+      initialize(mirror.getName(), mirror.getAnalysisCentric()::initialize);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Mirror mirror : mirrors) {
+      mirror.getFileCentric().close();
+      mirror.getAnalysisCentric().close();
+      mirror.getClient().close();
+    }
+  }
+
+  /* *******************
+   *  Private methods
+   *********************/
+  private static Mirror createMirror(
+      ApplicationProperties properties,
+      ObjectMapper documentMapper,
+      SnakeCaseJacksonSearchResultMapper searchResultMapper,
+      PortSchedulers schedulers,
+      DroppedWrites droppedWrites) {
+    val client = ElasticSearchConfig.buildClient(properties);
+    log.info(
+        "writing documents to mirror cluster {} at {}",
+        properties.elasticSearchClusterName(),
+        properties.elasticSearchClusterNodes());
+    return new Mirror(
+        properties.elasticSearchClusterName(),
+        client,
+        new FileCentricElasticSearchAdapter(
+            client, documentMapper, searchResultMapper, properties, schedulers, droppedWrites),
+        new AnalysisCentricElasticSearchAdapter(
+            client, documentMapper, searchResultMapper, properties, schedulers, droppedWrites));
+  }
+
+  private static void initialize(String name, Runnable initializer) {
+    Mono.fromRunnable(initializer)
+        .retryWhen(Retry.backoff(INITIALIZE_MAX_RETRIES, INITIALIZE_BACKOFF))
+        .doOnError(e -> log.error("couldn't initialize the index on mirror {}", name, e))
+        .onErrorResume(e -> Mono.empty())
+        .block();
+  }
+
+  @Getter
+  @RequiredArgsConstructor
+  static class Mirror {
+    private final String name;
+    private final RestHighLevelClient client;
+    private final FileCentricElasticSearchAdapter fileCentric;
+    private final AnalysisCentricElasticSearchAdapter analysisCentric;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.IndexTasks.rebuildIndexName;
+
+import bio.overture.maestro.domain.api.message.IndexResult;
+import bio.overture.maestro.domain.api.message.IndexTaskStatus;
+import bio.overture.maestro.domain.entities.indexing.IndexedDocumentFingerprint;
+import bio.overture.maestro.domain.entities.indexing.analysis.AnalysisCentricDocument;
+import bio.overture.maestro.domain.port.outbound.indexing.AnalysisCentricIndexAdapter;
+import bio.overture.maestro.domain.port.outbound.indexing.BatchIndexAnalysisCommand;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import lombok.NonNull;
+import lombok.val;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/** Writes the analysis documents to every target cluster, see {@link ClusterFanOut}. */
+class FanOutAnalysisCentricIndexAdapter implements AnalysisCentricIndexAdapter {
+
+  private final String indexName;
+  private final ClusterFanOut<AnalysisCentricElasticSearchAdapter> clusters;
+
+  FanOutAnalysisCentricIndexAdapter(
+      @NonNull String indexName,
+      @NonNull LinkedHashMap<String, AnalysisCentricElasticSearchAdapter> clusters) {
+    this.indexName = indexName;
+    this.clusters = new ClusterFanOut<>(indexName, clusters);
+  }
+
+  @Override
+  public Mono<IndexResult> batchUpsertAnalysisRepositories(
+      @NonNull BatchIndexAnalysisCommand batchIndexAnalysisCommand) {
+    return clusters.write(
+        analysisIds(batchIndexAnalysisCommand),
+        adapter -> adapter.batchUpsertAnalysisRepositories(batchIndexAnalysisCommand));
+  }
+
+  @Override
+  public Mono<List<AnalysisCentricDocument>> fetchByIds(List<String> ids) {
+    return clusters.primary().fetchByIds(ids);
+  }
+
+  @Override
+  public Mono<List<IndexedDocumentFingerprint>> fetchFingerprintsByIds(List<String> ids) {
+    return clusters.primary().fetchFingerprintsByIds(ids);
+  }
+
+  /** The rebuild indices have the same name on all clusters, see {@link #createRebuildIndex}. */
+  @Override
+  public Mono<List<AnalysisCentricDocument>> fetchRebuildByIds(
+      @NonNull String rebuildIndexName, List<String> ids) {
+    return clusters.primary().fetchRebuildByIds(rebuildIndexName, ids);
+  }
+
+  @Override
+  public Mono<List<IndexedDocumentFingerprint>> fetchRebuildFingerprintsByIds(
+      @NonNull String rebuildIndexName, List<String> ids) {
+    return clusters.primary().fetchRebuildFingerprintsByIds(rebuildIndexName, ids);
+  }
+
+  @Override
+  public Mono<Void> removeAnalysisDocs(String analysisId) {
+    return clusters.run(adapter -> adapter.removeAnalysisDocs(analysisId));
+  }
+
+  @Override
+  public Flux<IndexTaskStatus> removeStudyDocs(@NonNull String studyId) {
+    return clusters.runTasks(adapter -> adapter.removeStudyDocs(studyId));
+  }
+
+  @Override
+  public Flux<IndexTaskStatus> removeRepositoryDocs(@NonNull String repositoryCode) {
+    return clusters.runTasks(adapter -> adapter.removeRepositoryDocs(repositoryCode));
+  }
+
+  /** The rebuild indices have the same name on all clusters, they are deleted on failure. */
+  @Override
+  public Mono<String> createRebuildIndex(@NonNull String repositoryCode) {
+    return Mono.defer(
+        () -> {
+          val rebuildIndexName = rebuildIndexName(this.indexName);
+          return clusters
+              .run(adapter -> adapter.createRebuildIndex(rebuildIndexName, repositoryCode).then())
+              .onErrorResume(e -> abandonCreatedIndices(rebuildIndexName).then(Mono.error(e)))
+              .thenReturn(rebuildIndexName);
+        });
+  }
+
+  @Override
+  public Mono<IndexResult> batchIndexRebuildAnalyses(
+      @NonNull String rebuildIndexName,
+      @NonNull BatchIndexAnalysisCommand batchIndexAnalysisCommand) {
+    return clusters.write(
+        analysisIds(batchIndexAnalysisCommand),
+        adapter -> adapter.batchIndexRebuildAnalyses(rebuildIndexName, batchIndexAnalysisCommand));
+  }
+
+  /** The alias is swapped on each cluster on its own, not atomically across them. */
+  @Override
+  public Mono<Void> completeRebuild(@NonNull String rebuildIndexName) {
+    return clusters.run(adapter -> adapter.completeRebuild(rebuildIndexName));
+  }
+
+  @Override
+  public Mono<Void> abandonRebuild(@NonNull String rebuildIndexName) {
+    return clusters.run(adapter -> adapter.abandonRebuild(rebuildIndexName));
+  }
+
+  /* *******************
+   *  Private methods
+   *********************/
+  private Mono<Void> abandonCreatedIndices(String rebuildIndexName) {
+    return clusters.run(
+        adapter -> adapter.abandonRebuild(rebuildIndexName).onErrorResume(e -> Mono.empty()));
+  }
+
+  private static Set<String> analysisIds(BatchIndexAnalysisCommand command) {
+    return command.getAnalyses().stream()
+        .map(AnalysisCentricDocument::getAnalysisId)
+        .collect(Collectors.toUnmodifiableSet());
+  }
+}
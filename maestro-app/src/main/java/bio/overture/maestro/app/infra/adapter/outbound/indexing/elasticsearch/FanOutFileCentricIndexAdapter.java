@@ -0,0 +1,146 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.IndexTasks.rebuildIndexName;
+
+import bio.overture.maestro.domain.api.message.IndexResult;
+import bio.overture.maestro.domain.api.message.IndexTaskStatus;
+import bio.overture.maestro.domain.entities.indexing.FileCentricDocument;
+import bio.overture.maestro.domain.entities.indexing.IndexedDocumentFingerprint;
+import bio.overture.maestro.domain.port.outbound.indexing.BatchIndexFilesCommand;
+import bio.overture.maestro.domain.port.outbound.indexing.FileCentricIndexAdapter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import lombok.NonNull;
+import lombok.val;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/** Writes the files documents to every target cluster, see {@link ClusterFanOut}. */
+class FanOutFileCentricIndexAdapter implements FileCentricIndexAdapter {
+
+  private final String indexName;
+  private final ClusterFanOut<FileCentricElasticSearchAdapter> clusters;
+
+  FanOutFileCentricIndexAdapter(
+      @NonNull String indexName,
+      @NonNull LinkedHashMap<String, FileCentricElasticSearchAdapter> clusters) {
+    this.indexName = indexName;
+    this.clusters = new ClusterFanOut<>(indexName, clusters);
+  }
+
+  @Override
+  public Mono<IndexResult> batchUpsertFileRepositories(
+      @NonNull BatchIndexFilesCommand batchIndexFilesCommand) {
+    return clusters.write(
+        analysisIds(batchIndexFilesCommand),
+        adapter -> adapter.batchUpsertFileRepositories(batchIndexFilesCommand));
+  }
+
+  @Override
+  public Mono<List<FileCentricDocument>> fetchByIds(List<String> ids) {
+    return clusters.primary().fetchByIds(ids);
+  }
+
+  @Override
+  public Mono<List<IndexedDocumentFingerprint>> fetchFingerprintsByIds(List<String> ids) {
+    return clusters.primary().fetchFingerprintsByIds(ids);
+  }
+
+  /** The rebuild indices have the same name on all clusters, see {@link #createRebuildIndex}. */
+  @Override
+  public Mono<List<FileCentricDocument>> fetchRebuildByIds(
+      @NonNull String rebuildIndexName, List<String> ids) {
+    return clusters.primary().fetchRebuildByIds(rebuildIndexName, ids);
+  }
+
+  @Override
+  public Mono<List<IndexedDocumentFingerprint>> fetchRebuildFingerprintsByIds(
+      @NonNull String rebuildIndexName, List<String> ids) {
+    return clusters.primary().fetchRebuildFingerprintsByIds(rebuildIndexName, ids);
+  }
+
+  @Override
+  public Mono<Void> removeFiles(Set<String> fileCentricDocumentIds) {
+    return clusters.run(adapter -> adapter.removeFiles(fileCentricDocumentIds));
+  }
+
+  @Override
+  public Mono<Void> removeAnalysisFiles(String analysisId) {
+    return clusters.run(adapter -> adapter.removeAnalysisFiles(analysisId));
+  }
+
+  @Override
+  public Flux<IndexTaskStatus> removeStudyFiles(@NonNull String studyId) {
+    return clusters.runTasks(adapter -> adapter.removeStudyFiles(studyId));
+  }
+
+  @Override
+  public Flux<IndexTaskStatus> removeRepositoryFiles(@NonNull String repositoryCode) {
+    return clusters.runTasks(adapter -> adapter.removeRepositoryFiles(repositoryCode));
+  }
+
+  /** The rebuild indices have the same name on all clusters, they are deleted on failure. */
+  @Override
+  public Mono<String> createRebuildIndex(@NonNull String repositoryCode) {
+    return Mono.defer(
+        () -> {
+          val rebuildIndexName = rebuildIndexName(this.indexName);
+          return clusters
+              .run(adapter -> adapter.createRebuildIndex(rebuildIndexName, repositoryCode).then())
+              .onErrorResume(e -> abandonCreatedIndices(rebuildIndexName).then(Mono.error(e)))
+              .thenReturn(rebuildIndexName);
+        });
+  }
+
+  @Override
+  public Mono<IndexResult> batchIndexRebuildFiles(
+      @NonNull String rebuildIndexName, @NonNull BatchIndexFilesCommand batchIndexFilesCommand) {
+    return clusters.write(
+        analysisIds(batchIndexFilesCommand),
+        adapter -> adapter.batchIndexRebuildFiles(rebuildIndexName, batchIndexFilesCommand));
+  }
+
+  /** The alias is swapped on each cluster on its own, not atomically across them. */
+  @Override
+  public Mono<Void> completeRebuild(@NonNull String rebuildIndexName) {
+    return clusters.run(adapter -> adapter.completeRebuild(rebuildIndexName));
+  }
+
+  @Override
+  public Mono<Void> abandonRebuild(@NonNull String rebuildIndexName) {
+    return clusters.run(adapter -> adapter.abandonRebuild(rebuildIndexName));
+  }
+
+  /* *******************
+   *  Private methods
+   *********************/
+  private Mono<Void> abandonCreatedIndices(String rebuildIndexName) {
+    return clusters.run(
+        adapter -> adapter.abandonRebuild(rebuildIndexName).onErrorResume(e -> Mono.empty()));
+  }
+
+  private static Set<String> analysisIds(BatchIndexFilesCommand command) {
+    return command.getFiles().stream()
+        .map(file -> file.getAnalysis().getAnalysisId())
+        .collect(Collectors.toUnmodifiableSet());
+  }
+}
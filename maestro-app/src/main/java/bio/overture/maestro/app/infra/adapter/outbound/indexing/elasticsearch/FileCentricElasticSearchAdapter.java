@@ -17,33 +17,44 @@
 
 package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
 
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.BulkWrites.*;
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.IndexTasks.*;
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.LiveWritesRecorder.successfulTask;
 import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.SearchAdapterHelper.*;
 import static bio.overture.maestro.domain.utility.StringUtilities.inputStreamToString;
 import static java.lang.String.format;
 import static java.util.Collections.unmodifiableMap;
 
+import bio.overture.maestro.app.infra.config.PortSchedulers;
 import bio.overture.maestro.app.infra.config.RootConfiguration;
 import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
 import bio.overture.maestro.domain.api.message.IndexResult;
+import bio.overture.maestro.domain.api.message.IndexTaskStatus;
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprint;
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprints;
+import bio.overture.maestro.domain.entities.indexing.Donor;
 import bio.overture.maestro.domain.entities.indexing.FileCentricDocument;
+import bio.overture.maestro.domain.entities.indexing.IndexedDocumentFingerprint;
 import bio.overture.maestro.domain.port.outbound.indexing.BatchIndexFilesCommand;
 import bio.overture.maestro.domain.port.outbound.indexing.FileCentricIndexAdapter;
-import bio.overture.maestro.domain.utility.Parallel;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
-import com.fasterxml.jackson.databind.PropertyNamingStrategy;
-import io.github.resilience4j.retry.Retry;
-import io.github.resilience4j.retry.RetryConfig;
-import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.RequestOptions;
@@ -58,8 +69,8 @@ import org.springframework.core.io.Resource;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Recover;
 import org.springframework.retry.annotation.Retryable;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 @Slf4j
 class FileCentricElasticSearchAdapter implements FileCentricIndexAdapter {
@@ -67,33 +78,72 @@ class FileCentricElasticSearchAdapter implements FileCentricIndexAdapter {
   private static final int FALL_BACK_WAIT_DURATION = 100;
   private static final int FALLBACK_MAX_RETRY_ATTEMPTS = 0;
   private static final int MAX_PAGESIZE = 2000;
+  private static final String REPOSITORIES_FIELD = "repositories";
+  private static final String ANALYSIS_FIELD = "analysis";
+  private static final String ANALYSIS_ID_FIELD = "analysis_id";
+  private static final String ANALYSIS_ID_PATH = ANALYSIS_FIELD + "." + ANALYSIS_ID_FIELD;
+  private static final String ID_FIELD = "_id";
+  private static final String DONORS_FIELD = "donors";
+  private static final TypeReference<List<Map<String, Object>>> DONORS_TYPE =
+      new TypeReference<>() {};
   private RestHighLevelClient elasticsearchRestClient;
   private SnakeCaseJacksonSearchResultMapper searchResultMapper;
   private final Resource fileCentricIndex;
   private final String alias;
   private final String indexName;
+  /** where documents are read and written, see {@link IndexTasks#resolveIndexTarget}. */
+  private volatile String indexTarget;
+
   private final boolean enabled;
   private final int documentsPerBulkRequest;
+  private final int maxConcurrentRequests;
+  private final AdaptiveBulkSize bulkSize;
+  private final boolean clientSideMerge;
+  private final RemovalBatcher removalBatcher;
+  private final String byQueryTaskSlices;
+  private final Duration byQueryTaskPollInterval;
+  private final WriteAheadSpool spool;
+  private final PortSchedulers schedulers;
+  private final LiveWritesRecorder liveWrites;
+  /** the rebuild indices seeded with documents, the rebuild writes are merged into them. */
+  private final Set<String> seededRebuildIndices = ConcurrentHashMap.newKeySet();
+
   private final int maxRetriesAttempts;
   private final long retriesWaitDuration;
-  /** we define a writer to save properties inferring at runtime for each object. */
-  private final ObjectWriter fileCentricJSONWriter;
+  /** converts the documents without their donors, they are added from {@link #donorsConverter}. */
+  private final ObjectMapper documentWithoutDonorsMapper;
+
+  private final Function<List<Donor>, Object> donorsConverter;
 
   @Inject
   public FileCentricElasticSearchAdapter(
       RestHighLevelClient elasticsearchRestClient,
       @Qualifier(RootConfiguration.ELASTIC_SEARCH_DOCUMENT_JSON_MAPPER) ObjectMapper objectMapper,
       SnakeCaseJacksonSearchResultMapper searchResultMapper,
-      ApplicationProperties properties) {
+      ApplicationProperties properties,
+      PortSchedulers schedulers,
+      DroppedWrites droppedWrites) {
 
     this.elasticsearchRestClient = elasticsearchRestClient;
     this.searchResultMapper = searchResultMapper;
     this.fileCentricIndex = properties.fileCentricIndex();
     this.alias = properties.fileCentricAlias();
     this.indexName = properties.fileCentricIndexName();
+    this.indexTarget = this.indexName;
     this.enabled = properties.isFileCentricIndexEnabled();
     this.documentsPerBulkRequest = properties.maxDocsPerBulkRequest();
-    this.fileCentricJSONWriter = objectMapper.writerFor(FileCentricDocument.class);
+    this.maxConcurrentRequests = properties.elasticSearchMaxConcurrentRequests();
+    this.bulkSize =
+        new AdaptiveBulkSize(
+            this.indexName,
+            properties.elasticSearchBulkInitialBytes(),
+            properties.elasticSearchBulkMinBytes(),
+            properties.elasticSearchBulkMaxBytes(),
+            properties.elasticSearchBulkStepBytes(),
+            properties.elasticSearchBulkLatencyThresholdMillis());
+    this.documentWithoutDonorsMapper =
+        objectMapper.copy().addMixIn(FileCentricDocument.class, WithoutDonors.class);
+    this.donorsConverter = donors -> objectMapper.convertValue(donors, DONORS_TYPE);
     this.retriesWaitDuration =
         properties.elasticSearchRetryWaitDurationMillis() > 0
             ? properties.elasticSearchRetryWaitDurationMillis()
@@ -102,20 +152,88 @@ class FileCentricElasticSearchAdapter implements FileCentricIndexAdapter {
         properties.elasticSearchRetryMaxAttempts() >= 0
             ? properties.elasticSearchRetryMaxAttempts()
             : FALLBACK_MAX_RETRY_ATTEMPTS;
+    this.removalBatcher =
+        new RemovalBatcher(
+            this.indexName,
+            Duration.ofMillis(properties.elasticSearchRemovalBatchWindowMillis()),
+            properties.elasticSearchRemovalBatchMaxSize(),
+            this::removeAnalysesFiles);
+    this.byQueryTaskSlices = properties.elasticSearchByQueryTaskSlices();
+    this.byQueryTaskPollInterval =
+        Duration.ofMillis(properties.elasticSearchByQueryTaskPollIntervalMillis());
+    this.schedulers = schedulers;
+    this.spool = createSpool(properties, droppedWrites);
+    this.clientSideMerge = properties.elasticSearchClientSideMerge();
+    this.liveWrites =
+        new LiveWritesRecorder(
+            this.indexName,
+            () -> this.indexTarget,
+            properties.elasticSearchRebuildMaxRecordedWrites());
   }
 
   @Override
   public Mono<IndexResult> batchUpsertFileRepositories(
       @NonNull BatchIndexFilesCommand batchIndexFilesCommand) {
-    return SearchAdapterHelper.batchUpsertDocuments(
+    return this.liveWrites.record(
+        index -> upsertFiles(index, batchIndexFilesCommand, this.spool),
+        ID_FIELD,
+        batchIndexFilesCommand.getFiles().stream()
+            .map(FileCentricDocument::getObjectId)
+            .collect(Collectors.toUnmodifiableSet()));
+  }
+
+  /** Merges the files into the stored documents of the index. */
+  private Mono<IndexResult> upsertFiles(
+      String index, BatchIndexFilesCommand batchIndexFilesCommand, WriteAheadSpool spool) {
+    val fingerprints = batchIndexFilesCommand.getFingerprints();
+    val donorsSources = new SharedSourceCache<>(this.donorsConverter);
+    return BulkWrites.batchUpsertDocuments(
         batchIndexFilesCommand.getFiles(),
         documentsPerBulkRequest,
+        bulkSize,
+        maxConcurrentRequests,
         maxRetriesAttempts,
         retriesWaitDuration,
         this.indexName,
         this.elasticsearchRestClient,
         this::getAnalysisId,
-        this::mapFileToUpsertRepositoryQuery);
+        requestMapper(index, fingerprints, donorsSources),
+        bulkPartPreparer(index, fingerprints, donorsSources),
+        spool,
+        this.schedulers.getElasticsearchWrites());
+  }
+
+  /**
+   * the fingerprints come with the command, the indexer computed them once per document. The donors
+   * sources are shared by the files of the batch, see {@link SharedSourceCache}.
+   */
+  private Function<FileCentricDocument, DocWriteRequest<?>> requestMapper(
+      String index,
+      DocumentFingerprints<FileCentricDocument> fingerprints,
+      SharedSourceCache<List<Donor>> donorsSources) {
+    if (this.clientSideMerge) {
+      return file -> mapFileToCreateRequest(index, file, fingerprints.get(file), donorsSources);
+    }
+    return file ->
+        mapFileToUpsertRepositoryQuery(index, file, fingerprints.get(file), donorsSources);
+  }
+
+  private BulkPartPreparer<FileCentricDocument> bulkPartPreparer(
+      String index,
+      DocumentFingerprints<FileCentricDocument> fingerprints,
+      SharedSourceCache<List<Donor>> donorsSources) {
+    if (!this.clientSideMerge) {
+      return BulkPartPreparer.asIs();
+    }
+    return clientSideRepositoryMerge(
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration,
+        this.elasticsearchRestClient,
+        FileCentricDocument::getObjectId,
+        (file, storedRepositories) ->
+            mapFileToMergedIndexRequest(
+                index, file, fingerprints.get(file), donorsSources, storedRepositories),
+        this.schedulers.getElasticsearchWrites());
   }
 
   private String getAnalysisId(FileCentricDocument d) {
@@ -124,8 +242,54 @@ class FileCentricElasticSearchAdapter implements FileCentricIndexAdapter {
 
   @Override
   public Mono<List<FileCentricDocument>> fetchByIds(List<String> ids) {
-    log.debug("in fetchByIds, total ids: {} ", ids.size());
-    return Mono.fromSupplier(() -> this.fetch(ids)).subscribeOn(Schedulers.elastic());
+    return fetchByIds(this.indexTarget, ids);
+  }
+
+  @Override
+  public Mono<List<FileCentricDocument>> fetchRebuildByIds(
+      @NonNull String rebuildIndexName, List<String> ids) {
+    return fetchByIds(rebuildIndexName, ids);
+  }
+
+  private Mono<List<FileCentricDocument>> fetchByIds(String index, List<String> ids) {
+    log.debug("in fetchByIds, index: {}, total ids: {} ", index, ids.size());
+    return multiGet(
+        ids,
+        MAX_PAGESIZE,
+        this.maxConcurrentRequests,
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration,
+        this.elasticsearchRestClient,
+        entry -> buildMultiGetRequest(entry, index),
+        result -> List.copyOf(searchResultMapper.mapResults(result, FileCentricDocument.class)),
+        this.schedulers.getElasticsearchReads());
+  }
+
+  @Override
+  public Mono<List<IndexedDocumentFingerprint>> fetchFingerprintsByIds(List<String> ids) {
+    return fetchFingerprintsByIds(this.indexTarget, ids);
+  }
+
+  @Override
+  public Mono<List<IndexedDocumentFingerprint>> fetchRebuildFingerprintsByIds(
+      @NonNull String rebuildIndexName, List<String> ids) {
+    return fetchFingerprintsByIds(rebuildIndexName, ids);
+  }
+
+  private Mono<List<IndexedDocumentFingerprint>> fetchFingerprintsByIds(
+      String index, List<String> ids) {
+    log.debug("in fetchFingerprintsByIds, index: {}, total ids: {} ", index, ids.size());
+    return multiGet(
+        ids,
+        MAX_PAGESIZE,
+        this.maxConcurrentRequests,
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration,
+        this.elasticsearchRestClient,
+        entry ->
+            buildFingerprintMultiGetRequest(entry, index, ANALYSIS_FIELD + "." + ANALYSIS_ID_FIELD),
+        result -> mapFingerprintResults(result, FileCentricElasticSearchAdapter::getAnalysisId),
+        this.schedulers.getElasticsearchReads());
   }
 
   @Override
@@ -134,13 +298,267 @@ class FileCentricElasticSearchAdapter implements FileCentricIndexAdapter {
     if (ids.isEmpty()) {
       return Mono.empty();
     }
-    return Mono.fromSupplier(() -> this.deleteByIds(ids)).subscribeOn(Schedulers.elastic());
+    return this.liveWrites.record(
+        index ->
+            bulkDelete(
+                index,
+                ids,
+                this.maxRetriesAttempts,
+                this.retriesWaitDuration,
+                this.elasticsearchRestClient,
+                this.spool),
+        ID_FIELD,
+        ids);
   }
 
   @Override
   public Mono<Void> removeAnalysisFiles(String analysisId) {
-    return Mono.fromSupplier(() -> this.deleteByAnalysisId(analysisId))
-        .subscribeOn(Schedulers.elastic());
+    return removalBatcher.remove(analysisId);
+  }
+
+  private Mono<Void> removeAnalysesFiles(Set<String> analysisIds) {
+    if (this.spool.isPending()) {
+      return spoolPendingError();
+    }
+    return this.liveWrites.record(
+        index -> deleteAnalysesFiles(index, analysisIds), ANALYSIS_ID_PATH, analysisIds);
+  }
+
+  private Mono<Void> deleteAnalysesFiles(String index, Set<String> analysisIds) {
+    return deleteByQuery(
+        buildDeleteByAnalysisIdsRequest(index, analysisIds),
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration,
+        this.elasticsearchRestClient);
+  }
+
+  @Override
+  public Flux<IndexTaskStatus> removeStudyFiles(@NonNull String studyId) {
+    if (this.spool.isPending()) {
+      return this.<IndexTaskStatus>spoolPendingError().flux();
+    }
+    return this.liveWrites.record(
+        index -> deleteStudyFiles(index, studyId),
+        "study " + studyId,
+        index -> replayTask(index, deleteStudyFiles(index, studyId)));
+  }
+
+  private Flux<IndexTaskStatus> deleteStudyFiles(String index, String studyId) {
+    return deleteStudyTask(
+        this.elasticsearchRestClient,
+        index,
+        studyId,
+        this.byQueryTaskSlices,
+        this.byQueryTaskPollInterval,
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration);
+  }
+
+  @Override
+  public Flux<IndexTaskStatus> removeRepositoryFiles(@NonNull String repositoryCode) {
+    if (this.spool.isPending()) {
+      return this.<IndexTaskStatus>spoolPendingError().flux();
+    }
+    return this.liveWrites.record(
+        index -> removeRepository(index, repositoryCode),
+        "repository " + repositoryCode,
+        index -> replayTask(index, removeRepository(index, repositoryCode)));
+  }
+
+  private Flux<IndexTaskStatus> removeRepository(String index, String repositoryCode) {
+    return removeRepositoryTask(
+        this.elasticsearchRestClient,
+        index,
+        repositoryCode,
+        this.byQueryTaskSlices,
+        this.byQueryTaskPollInterval,
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration);
+  }
+
+  @Override
+  public Mono<String> createRebuildIndex(@NonNull String repositoryCode) {
+    return createRebuildIndex(rebuildIndexName(this.indexName), repositoryCode);
+  }
+
+  /**
+   * The mirrors of a cluster rebuild into indices with the same name. The writes are recorded
+   * before the seed starts, the ones it copied already are copied again which is harmless.
+   */
+  Mono<String> createRebuildIndex(
+      @NonNull String rebuildIndexName, @NonNull String repositoryCode) {
+    return concreteIndex(
+            this.elasticsearchRestClient,
+            this.indexTarget,
+            this.maxRetriesAttempts,
+            this.retriesWaitDuration)
+        .doOnNext(source -> this.liveWrites.start(rebuildIndexName, source))
+        .flatMap(
+            source ->
+                IndexTasks.createRebuildIndex(
+                        this.elasticsearchRestClient,
+                        rebuildIndexName,
+                        loadIndexSourceAsString(this.alias))
+                    .then(seedRebuildIndex(source, rebuildIndexName, repositoryCode)))
+        .thenReturn(rebuildIndexName)
+        .doOnError(e -> this.liveWrites.stop(rebuildIndexName));
+  }
+
+  /**
+   * Copies the documents of the other repositories into the rebuild index, the rebuild writes are
+   * merged with them if any was copied. Otherwise they are indexed as they are, which is faster.
+   */
+  private Mono<Void> seedRebuildIndex(
+      String source, String rebuildIndexName, String repositoryCode) {
+    return refresh(
+            this.elasticsearchRestClient, this.maxRetriesAttempts, this.retriesWaitDuration, source)
+        .then(
+            seedRebuildTask(
+                    this.elasticsearchRestClient,
+                    source,
+                    rebuildIndexName,
+                    repositoryCode,
+                    this.byQueryTaskSlices,
+                    this.byQueryTaskPollInterval,
+                    this.maxRetriesAttempts,
+                    this.retriesWaitDuration)
+                .last()
+                .flatMap(
+                    status -> {
+                      if (!status.isSuccessful()) {
+                        return Mono.error(
+                            new IllegalStateException(
+                                format("failed to seed %s from %s", rebuildIndexName, source)));
+                      }
+                      if (status.getProcessed() > 0) {
+                        this.seededRebuildIndices.add(rebuildIndexName);
+                      }
+                      log.info(
+                          "{} seeded with {} documents from {}",
+                          rebuildIndexName,
+                          status.getProcessed(),
+                          source);
+                      return Mono.empty();
+                    }));
+  }
+
+  @Override
+  public Mono<IndexResult> batchIndexRebuildFiles(
+      @NonNull String rebuildIndexName, @NonNull BatchIndexFilesCommand batchIndexFilesCommand) {
+    if (this.seededRebuildIndices.contains(rebuildIndexName)) {
+      return upsertFiles(
+          rebuildIndexName, batchIndexFilesCommand, WriteAheadSpool.disabled(rebuildIndexName));
+    }
+    val fingerprints = batchIndexFilesCommand.getFingerprints();
+    val donorsSources = new SharedSourceCache<>(this.donorsConverter);
+    return BulkWrites.batchUpsertDocuments(
+        batchIndexFilesCommand.getFiles(),
+        documentsPerBulkRequest,
+        bulkSize,
+        maxConcurrentRequests,
+        maxRetriesAttempts,
+        retriesWaitDuration,
+        this.indexName,
+        this.elasticsearchRestClient,
+        this::getAnalysisId,
+        file ->
+            mapFileToIndexRequest(rebuildIndexName, file, fingerprints.get(file), donorsSources),
+        BulkPartPreparer.asIs(),
+        WriteAheadSpool.disabled(rebuildIndexName),
+        this.schedulers.getElasticsearchWrites());
+  }
+
+  /**
+   * The rebuild index is synced with the writes made meanwhile before the swap. Once the alias
+   * moved the writes go to it, the last sync copies the ones still made to the previous index. The
+   * spooled writes would reach the previous index after the swap, so the rebuild waits for them.
+   */
+  @Override
+  public Mono<Void> completeRebuild(@NonNull String rebuildIndexName) {
+    return Mono.defer(() -> this.spool.isPending() ? spoolPendingError() : Mono.<Void>empty())
+        .then(this.liveWrites.sync(rebuildIndexName, this::copyDocuments))
+        .then(
+            IndexTasks.completeRebuild(this.elasticsearchRestClient, this.alias, rebuildIndexName))
+        .then(this.liveWrites.seal(rebuildIndexName, () -> this.indexTarget = this.alias))
+        .then(this.liveWrites.sync(rebuildIndexName, this::copyDocuments))
+        .doFinally(signal -> forgetRebuild(rebuildIndexName));
+  }
+
+  private Mono<Void> copyDocuments(
+      String sourceIndex, String rebuildIndexName, String field, Set<String> ids) {
+    return IndexTasks.copyDocuments(
+        this.elasticsearchRestClient,
+        sourceIndex,
+        rebuildIndexName,
+        QueryBuilders.termsQuery(field, ids),
+        this.byQueryTaskSlices,
+        this.byQueryTaskPollInterval,
+        this.maxRetriesAttempts,
+        this.retriesWaitDuration);
+  }
+
+  /** the rebuild index isn't refreshed on its own, the task wouldn't find the latest writes. */
+  private Mono<Void> replayTask(String rebuildIndexName, Flux<IndexTaskStatus> task) {
+    return refresh(
+            this.elasticsearchRestClient,
+            this.maxRetriesAttempts,
+            this.retriesWaitDuration,
+            rebuildIndexName)
+        .then(successfulTask(task));
+  }
+
+  @Override
+  public Mono<Void> abandonRebuild(@NonNull String rebuildIndexName) {
+    return deleteRebuildIndex(this.elasticsearchRestClient, rebuildIndexName)
+        .doFinally(signal -> forgetRebuild(rebuildIndexName));
+  }
+
+  private void forgetRebuild(String rebuildIndexName) {
+    this.liveWrites.stop(rebuildIndexName);
+    this.seededRebuildIndices.remove(rebuildIndexName);
+  }
+
+  /**
+   * the documents merged client side depend on the stored ones at the time they are sent, they
+   * can't be replayed later.
+   */
+  private WriteAheadSpool createSpool(
+      ApplicationProperties properties, DroppedWrites droppedWrites) {
+    if (!properties.elasticSearchSpoolEnabled()) {
+      return WriteAheadSpool.disabled(this.indexName);
+    }
+    if (properties.elasticSearchClientSideMerge()) {
+      log.warn("the spool of {} is not used with the client side merge", this.indexName);
+      return WriteAheadSpool.disabled(this.indexName);
+    }
+    return new WriteAheadSpool(
+        this.indexName,
+        Paths.get(properties.elasticSearchSpoolDir(), this.indexName),
+        properties.elasticSearchSpoolSegmentMaxBytes(),
+        properties.elasticSearchSpoolMaxBytes(),
+        Duration.ofMillis(properties.elasticSearchSpoolDrainIntervalMillis()),
+        this.documentsPerBulkRequest,
+        this.elasticsearchRestClient,
+        this.schedulers.getElasticsearchWrites(),
+        requests ->
+            droppedWrites.forget(
+                this.indexName, requests, FileCentricElasticSearchAdapter::getAnalysisId));
+  }
+
+  /** Stops replaying the spool, it's replayed by the next run. */
+  @PreDestroy
+  void close() {
+    this.spool.close();
+  }
+
+  /**
+   * Requests that can't be spooled would overtake the spooled ones, they are refused until the
+   * spool is replayed.
+   */
+  private <T> Mono<T> spoolPendingError() {
+    return Mono.error(
+        new IllegalStateException(
+            "operations of " + this.indexName + " are spooled until the cluster is back"));
   }
 
   @Retryable(maxAttempts = 5, backoff = @Backoff(value = 1000, multiplier = 1.5))
@@ -151,11 +569,23 @@ class FileCentricElasticSearchAdapter implements FileCentricIndexAdapter {
       val indexExists =
           this.elasticsearchRestClient.indices().exists(request, RequestOptions.DEFAULT);
 
+      // after a rebuild the alias may point to another index than the configured one.
+      val aliasExists =
+          this.elasticsearchRestClient
+              .indices()
+              .existsAlias(new GetAliasesRequest(this.alias), RequestOptions.DEFAULT);
+
       log.info(format("Index %s exists?  %s", this.indexName, indexExists));
-      if (enabled && !indexExists) {
+      if (enabled && !indexExists && !aliasExists) {
         this.createIndex();
         log.info("index {} has been created", this.indexName);
       }
+      if (enabled) {
+        this.indexTarget =
+            resolveIndexTarget(this.elasticsearchRestClient, this.alias, this.indexName);
+        log.info("reading and writing file centric documents to {}", this.indexTarget);
+        putFileCentricUpsertScript(this.elasticsearchRestClient);
+      }
     } catch (Exception e) {
       // we log here to document the failure if any each attempt.
       log.error("error while initializing ", e);
@@ -172,60 +602,22 @@ class FileCentricElasticSearchAdapter implements FileCentricIndexAdapter {
   /* *******************
    *  Private methods
    *********************/
-  @SneakyThrows
-  private Void deleteByAnalysisId(String analysisId) {
-    val retryConfig =
-        RetryConfig.custom()
-            .maxAttempts(this.maxRetriesAttempts)
-            .retryExceptions(IOException.class)
-            .waitDuration(Duration.ofMillis(this.retriesWaitDuration))
-            .build();
-    val retry = Retry.of("deleteByAnalysisId", retryConfig);
-    val decorated =
-        Retry.decorateCheckedRunnable(retry, () -> deleteByAnalysisIdRunnable(analysisId));
-    decorated.run();
-    return null;
-  }
-
-  @SneakyThrows
-  private void deleteByAnalysisIdRunnable(String analysisId) {
-    log.trace("deleteByAnalysisId called, analysis_id {} ", analysisId);
-    DeleteByQueryRequest deleteByQueryRequest = new DeleteByQueryRequest(this.indexName);
+  private DeleteByQueryRequest buildDeleteByAnalysisIdsRequest(
+      String index, Set<String> analysisIds) {
+    log.trace("deleteByAnalysisIds called, analysis_ids {} ", analysisIds);
+    DeleteByQueryRequest deleteByQueryRequest = new DeleteByQueryRequest(index);
     deleteByQueryRequest.setQuery(
         QueryBuilders.boolQuery()
             .must(
-                QueryBuilders.termQuery(
-                    FileCentricDocument.Fields.analysis + "." + "analysis_id", analysisId)));
-    this.elasticsearchRestClient.deleteByQuery(deleteByQueryRequest, RequestOptions.DEFAULT);
+                QueryBuilders.termsQuery(
+                    FileCentricDocument.Fields.analysis + "." + "analysis_id", analysisIds)));
+    return deleteByQueryRequest;
   }
 
-  @SneakyThrows
-  private List<FileCentricDocument> fetch(List<String> ids) {
-    return Parallel.blockingScatterGather(ids, MAX_PAGESIZE, this::doFetchByIdQuery).stream()
-        .flatMap(List::stream)
-        .collect(Collectors.toList());
-  }
-
-  @SneakyThrows
-  private Void deleteByIds(Set<String> ids) {
-    val retryConfig =
-        RetryConfig.custom()
-            .maxAttempts(this.maxRetriesAttempts)
-            .retryExceptions(IOException.class)
-            .waitDuration(Duration.ofMillis(this.retriesWaitDuration))
-            .build();
-    val retry = Retry.of("deleteByIds", retryConfig);
-    val decorated = Retry.decorateCheckedRunnable(retry, () -> doDeleteByIds(ids));
-    decorated.run();
-    return null;
-  }
-
-  @SneakyThrows
-  private void doDeleteByIds(Set<String> ids) {
-    log.trace("deleteByIds called, ids {} ", ids);
-    val deleteReq = new DeleteByQueryRequest(this.indexName);
-    deleteReq.setQuery(QueryBuilders.idsQuery().addIds(ids.toArray(new String[] {})));
-    this.elasticsearchRestClient.deleteByQuery(deleteReq, RequestOptions.DEFAULT);
+  @SuppressWarnings("unchecked")
+  private static String getAnalysisId(Map<String, Object> source) {
+    val analysis = (Map<String, Object>) source.get(ANALYSIS_FIELD);
+    return analysis == null ? null : (String) analysis.get(ANALYSIS_ID_FIELD);
   }
 
   @SneakyThrows
@@ -243,83 +635,82 @@ class FileCentricElasticSearchAdapter implements FileCentricIndexAdapter {
     return inputStreamToString(fileCentricIndex.getInputStream());
   }
 
-  @SneakyThrows
-  private List<FileCentricDocument> doFetchByIdQuery(Map.Entry<Integer, List<String>> entry) {
-    val retry = buildRetry("doFetchByIdQuery", this.maxRetriesAttempts, this.retriesWaitDuration);
-    val decorated =
-        Retry.<List<FileCentricDocument>>decorateCheckedSupplier(
-            retry, () -> getFileCentricDocuments(entry));
-    return decorated.apply();
-  }
-
-  @SneakyThrows
-  private List<FileCentricDocument> getFileCentricDocuments(
-      Map.Entry<Integer, List<String>> entry) {
-    log.debug("fetch called ids {} ", entry.getValue().size());
-    val request = buildMultiGetRequest(entry, this.indexName);
-    val result = elasticsearchRestClient.mget(request, RequestOptions.DEFAULT);
-    val docs = this.searchResultMapper.mapResults(result, FileCentricDocument.class);
-    return List.copyOf(docs);
-  }
-
-  @SneakyThrows
-  private UpdateRequest mapFileToUpsertRepositoryQuery(FileCentricDocument fileCentricDocument) {
-    val mapper = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
-
-    // this ISO date format is added because in one instance where maestro was deployed
-    // an error to transform java.util.date was raised:
+  @SuppressWarnings("unchecked")
+  private UpdateRequest mapFileToUpsertRepositoryQuery(
+      String index,
+      FileCentricDocument fileCentricDocument,
+      DocumentFingerprint fingerprint,
+      SharedSourceCache<List<Donor>> donorsSources) {
+    // dates are taken from the converted source and not sent as java.util.Date because in one
+    // instance where maestro was deployed an error to transform java.util.date was raised:
     // cannot write time value xcontent for unknown value of type class java.util.Date
     // there seem to be a class loader issue that cannot load the date transfomers in
     // org.elasticsearch.common.xcontent.XContentBuilder
     // root cause not found.
+    val source = fileSource(fileCentricDocument, fingerprintSource(fingerprint), donorsSources);
     val paramsBuilder = new HashMap<String, Object>();
-    paramsBuilder.put(
-        "repository", mapper.convertValue(fileCentricDocument.getRepositories().get(0), Map.class));
-    paramsBuilder.put("document", scriptedDocument(mapper, fileCentricDocument));
+    paramsBuilder.put("repository", documentRepository(source));
+    paramsBuilder.put("document", scriptedDocument(source));
     paramsBuilder.put("analysis_state", fileCentricDocument.getAnalysis().getAnalysisState());
-    paramsBuilder.put("updated_at", getDateIso(fileCentricDocument.getAnalysis().getUpdatedAt()));
-
-    if (fileCentricDocument.getAnalysis().getPublishedAt() != null) {
-      // Nullable as may not have been published
-      paramsBuilder.put(
-          "published_at", getDateIso(fileCentricDocument.getAnalysis().getPublishedAt()));
-    }
-
-    if (fileCentricDocument.getAnalysis().getFirstPublishedAt() != null) {
-      paramsBuilder.put(
-          "first_published_at",
-          getDateIso(fileCentricDocument.getAnalysis().getFirstPublishedAt()));
-    }
+    putDateParams(paramsBuilder, (Map<String, Object>) source.get(ANALYSIS_FIELD));
 
     val parameters = unmodifiableMap(paramsBuilder);
-    val inline = getInlineForFile(parameters);
+    val script = getFileCentricUpsertScript(parameters);
 
     return new UpdateRequest()
         .id(fileCentricDocument.getObjectId())
-        .index(this.indexName)
-        .script(inline)
+        .index(index)
+        .script(script)
         .upsert(
-            new IndexRequest()
-                .index(this.indexName)
-                .id(fileCentricDocument.getObjectId())
-                .source(
-                    fileCentricJSONWriter.writeValueAsString(fileCentricDocument),
-                    XContentType.JSON));
+            new IndexRequest().index(index).id(fileCentricDocument.getObjectId()).source(source));
+  }
+
+  /** Indexes a document that doesn't exist yet, fails if it was created in the meantime. */
+  private IndexRequest mapFileToCreateRequest(
+      String index,
+      FileCentricDocument fileCentricDocument,
+      DocumentFingerprint fingerprint,
+      SharedSourceCache<List<Donor>> donorsSources) {
+    return mapFileToIndexRequest(index, fileCentricDocument, fingerprint, donorsSources)
+        .opType(DocWriteRequest.OpType.CREATE);
+  }
+
+  private IndexRequest mapFileToIndexRequest(
+      String index,
+      FileCentricDocument fileCentricDocument,
+      DocumentFingerprint fingerprint,
+      SharedSourceCache<List<Donor>> donorsSources) {
+    return new IndexRequest(index)
+        .id(fileCentricDocument.getObjectId())
+        .source(fileSource(fileCentricDocument, fingerprintSource(fingerprint), donorsSources));
+  }
+
+  /** Replaces a stored document, with its repository merged into the stored ones. */
+  private IndexRequest mapFileToMergedIndexRequest(
+      String index,
+      FileCentricDocument fileCentricDocument,
+      DocumentFingerprint fingerprint,
+      SharedSourceCache<List<Donor>> donorsSources,
+      List<Map<String, Object>> storedRepositories) {
+    val source = fileSource(fileCentricDocument, fingerprintSource(fingerprint), donorsSources);
+    source.put(
+        REPOSITORIES_FIELD, mergeRepositories(storedRepositories, documentRepository(source)));
+    return new IndexRequest(index).id(fileCentricDocument.getObjectId()).source(source);
   }
 
   /**
-   * Returns a Map object used by the Upsert script, it represents an analysis document that contains all the properties
-   * we need to fully replace. Repositories list must not be included as we don't want to replace existing repositories,
-   * instead we want to merge with existing repositories. Merge logic of repositories is handled by the upsert script.
-   *
-   * @param mapper             An Object mapper
-   * @param originalDocument   Analysis Document
+   * The files of an analysis share its donors tree, it's converted once for all of them, see {@link
+   * SharedSourceCache}.
    */
-  private Map<String, Object> scriptedDocument(
-      ObjectMapper mapper, FileCentricDocument originalDocument) {
-    val newMapDoc = mapper.convertValue(originalDocument, Map.class);
-    newMapDoc.remove("repositories");
-
-    return newMapDoc;
+  private Map<String, Object> fileSource(
+      FileCentricDocument fileCentricDocument,
+      Map<String, Object> fingerprint,
+      SharedSourceCache<List<Donor>> donorsSources) {
+    val source = documentSource(this.documentWithoutDonorsMapper, fileCentricDocument, fingerprint);
+    source.put(DONORS_FIELD, donorsSources.get(fileCentricDocument.getDonors()));
+    return source;
   }
+
+  @JsonIgnoreProperties({DocumentFingerprint.FIELD, FileCentricDocument.Fields.donors})
+  private abstract static class WithoutDonors {}
 }
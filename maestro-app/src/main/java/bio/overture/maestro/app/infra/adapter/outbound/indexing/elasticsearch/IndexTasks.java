@@ -0,0 +1,551 @@
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.SearchAdapterHelper.deleteByQuery;
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.SearchAdapterHelper.retrySpec;
+import static bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.SearchAdapterHelper.toMono;
+
+import bio.overture.maestro.domain.api.message.IndexTaskStatus;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Supplier;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.support.master.AcknowledgedResponse;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.CreateIndexResponse;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * The by query and reindex tasks of the index adapters, and the rebuild indices they run on: their
+ * creation, seeding, the copy of the live writes and the alias swap that completes a rebuild.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class IndexTasks {
+  private static final String STUDY_ID_FIELD = "study_id";
+  private static final String REPOSITORIES_FIELD = "repositories";
+  private static final String CODE_FIELD = "code";
+  private static final String ALIASES_FIELD = "aliases";
+  private static final String SETTINGS_FIELD = "settings";
+  private static final String REFRESH_INTERVAL_SETTING = "index.refresh_interval";
+  private static final String NUMBER_OF_REPLICAS_SETTING = "index.number_of_replicas";
+  private static final String QUERY_FIELD = "query";
+  private static final String SCRIPT_FIELD = "script";
+  private static final String TASK_FIELD = "task";
+  private static final String STATUS_FIELD = "status";
+  private static final String COMPLETED_FIELD = "completed";
+  private static final String ERROR_FIELD = "error";
+  private static final String RESPONSE_FIELD = "response";
+  private static final String FAILURES_FIELD = "failures";
+  private static final String DELETE_BY_QUERY_ENDPOINT = "_delete_by_query";
+  private static final String UPDATE_BY_QUERY_ENDPOINT = "_update_by_query";
+  private static final String REINDEX_ENDPOINT = "_reindex";
+  private static final String SOURCE_FIELD = "source";
+  private static final String DEST_FIELD = "dest";
+  private static final String INDEX_FIELD = "index";
+  private static final String CONFLICTS_FIELD = "conflicts";
+
+  /**
+   * Removes a repository from the repositories of a document, deletes the document instead if it's
+   * left without any repository.
+   */
+  private static final String REMOVE_REPOSITORY_SCRIPT =
+      "ctx._source.repositories.removeIf(repository -> repository.code == params.code);\n"
+          + "if (ctx._source.repositories.isEmpty()) { ctx.op = 'delete' }\n";
+
+  /**
+   * Copies a document without a repository, the document is not copied if it's left without any
+   * repository.
+   */
+  private static final String SEED_REBUILD_SCRIPT =
+      "ctx._source.repositories.removeIf(repository -> repository.code == params.code);\n"
+          + "if (ctx._source.repositories.isEmpty()) { ctx.op = 'noop' }\n";
+
+  /**
+   * The alias when it points to a single index, so reads and writes follow it when a rebuilt index
+   * replaces the current one, otherwise the configured index.
+   */
+  public static String resolveIndexTarget(
+      RestHighLevelClient client, String alias, String indexName) throws IOException {
+    val indices =
+        client
+            .indices()
+            .getAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT)
+            .getAliases()
+            .keySet();
+    return indices.size() == 1 ? alias : indexName;
+  }
+
+  /**
+   * The index the alias points to when it points to a single one, otherwise the given name which is
+   * then an index already.
+   */
+  public static Mono<String> concreteIndex(
+      @NonNull RestHighLevelClient client,
+      @NonNull String indexOrAlias,
+      int maxRetriesAttempts,
+      long retriesWaitDuration) {
+    return Mono.defer(
+            () ->
+                toMono(
+                    (ActionListener<GetAliasesResponse> listener) ->
+                        client
+                            .indices()
+                            .getAliasAsync(
+                                new GetAliasesRequest(indexOrAlias),
+                                RequestOptions.DEFAULT,
+                                listener)))
+        .retryWhen(retrySpec(maxRetriesAttempts, retriesWaitDuration))
+        .map(
+            response -> {
+              val indices = response.getAliases().keySet();
+              return indices.size() == 1 ? indices.iterator().next() : indexOrAlias;
+            });
+  }
+
+  /** the name of a new rebuild index, the configured index name and the creation time. */
+  public static String rebuildIndexName(String indexName) {
+    return indexName + "_" + System.currentTimeMillis();
+  }
+
+  /**
+   * Creates an empty index to rebuild the documents into. It's created from the index source
+   * without its aliases so it's not searchable yet, and with refresh disabled and no replicas which
+   * is the fastest setup for a bulk load.
+   */
+  public static Mono<String> createRebuildIndex(
+      RestHighLevelClient client, String rebuildIndexName, String indexSource) {
+    return Mono.defer(
+        () -> {
+          val source =
+              XContentHelper.convertToMap(new BytesArray(indexSource), true, XContentType.JSON)
+                  .v2();
+          source.remove(ALIASES_FIELD);
+          @SuppressWarnings("unchecked")
+          Map<String, Object> settings =
+              (Map<String, Object>) source.computeIfAbsent(SETTINGS_FIELD, k -> new HashMap<>());
+          settings.put(REFRESH_INTERVAL_SETTING, "-1");
+          settings.put(NUMBER_OF_REPLICAS_SETTING, 0);
+          val request = new CreateIndexRequest(rebuildIndexName).source(source);
+          return toMono(
+                  (ActionListener<CreateIndexResponse> listener) ->
+                      client.indices().createAsync(request, RequestOptions.DEFAULT, listener))
+              .doOnNext(response -> log.info("rebuild index {} has been created", rebuildIndexName))
+              .thenReturn(rebuildIndexName);
+        });
+  }
+
+  /**
+   * Restores the refresh interval and replicas of the rebuild index to their defaults and refreshes
+   * it, then moves the alias from the indices it points to to the rebuild index in a single atomic
+   * request. The previous indices are kept.
+   */
+  public static Mono<Void> completeRebuild(
+      RestHighLevelClient client, String alias, String rebuildIndexName) {
+    val settingsRequest =
+        new UpdateSettingsRequest(rebuildIndexName)
+            .settings(
+                Settings.builder()
+                    .putNull(REFRESH_INTERVAL_SETTING)
+                    .putNull(NUMBER_OF_REPLICAS_SETTING));
+    return toMono(
+            (ActionListener<AcknowledgedResponse> listener) ->
+                client
+                    .indices()
+                    .putSettingsAsync(settingsRequest, RequestOptions.DEFAULT, listener))
+        .then(
+            toMono(
+                (ActionListener<RefreshResponse> listener) ->
+                    client
+                        .indices()
+                        .refreshAsync(
+                            new RefreshRequest(rebuildIndexName),
+                            RequestOptions.DEFAULT,
+                            listener)))
+        .then(
+            toMono(
+                (ActionListener<GetAliasesResponse> listener) ->
+                    client
+                        .indices()
+                        .getAliasAsync(
+                            new GetAliasesRequest(alias), RequestOptions.DEFAULT, listener)))
+        .flatMap(
+            aliases -> {
+              val previousIndices = aliases.getAliases().keySet();
+              val request = new IndicesAliasesRequest();
+              previousIndices.forEach(
+                  index -> request.addAliasAction(AliasActions.remove().index(index).alias(alias)));
+              request.addAliasAction(AliasActions.add().index(rebuildIndexName).alias(alias));
+              return toMono(
+                      (ActionListener<AcknowledgedResponse> listener) ->
+                          client
+                              .indices()
+                              .updateAliasesAsync(request, RequestOptions.DEFAULT, listener))
+                  .doOnNext(
+                      response ->
+                          log.info(
+                              "alias {} moved from {} to {}, the previous indices are kept",
+                              alias,
+                              previousIndices,
+                              rebuildIndexName));
+            })
+        .then();
+  }
+
+  /** Deletes a rebuild index, it's not aliased yet so nothing reads from it. */
+  public static Mono<Void> deleteRebuildIndex(RestHighLevelClient client, String rebuildIndexName) {
+    return toMono(
+            (ActionListener<AcknowledgedResponse> listener) ->
+                client
+                    .indices()
+                    .deleteAsync(
+                        new DeleteIndexRequest(rebuildIndexName), RequestOptions.DEFAULT, listener))
+        .doOnNext(response -> log.info("rebuild index {} has been deleted", rebuildIndexName))
+        .then();
+  }
+
+  /** Deletes all the documents of a study with a delete by query task, see {@link #byQueryTask}. */
+  public static Flux<IndexTaskStatus> deleteStudyTask(
+      @NonNull RestHighLevelClient client,
+      @NonNull String indexName,
+      @NonNull String studyId,
+      @NonNull String slices,
+      @NonNull Duration pollInterval,
+      int maxRetriesAttempts,
+      long retriesWaitDuration) {
+    return byQueryTask(
+        client,
+        indexName,
+        DELETE_BY_QUERY_ENDPOINT,
+        QueryBuilders.termQuery(STUDY_ID_FIELD, studyId),
+        null,
+        slices,
+        pollInterval,
+        maxRetriesAttempts,
+        retriesWaitDuration);
+  }
+
+  /**
+   * Removes a repository from the documents with an update by query task, the documents left
+   * without any repository are deleted by the same task, see {@link #byQueryTask}.
+   */
+  public static Flux<IndexTaskStatus> removeRepositoryTask(
+      @NonNull RestHighLevelClient client,
+      @NonNull String indexName,
+      @NonNull String repositoryCode,
+      @NonNull String slices,
+      @NonNull Duration pollInterval,
+      int maxRetriesAttempts,
+      long retriesWaitDuration) {
+    val query =
+        QueryBuilders.nestedQuery(
+            REPOSITORIES_FIELD,
+            QueryBuilders.termQuery(REPOSITORIES_FIELD + "." + CODE_FIELD, repositoryCode),
+            ScoreMode.None);
+    val script =
+        new Script(
+            ScriptType.INLINE,
+            Script.DEFAULT_SCRIPT_LANG,
+            REMOVE_REPOSITORY_SCRIPT,
+            Map.of(CODE_FIELD, repositoryCode));
+    return byQueryTask(
+        client,
+        indexName,
+        UPDATE_BY_QUERY_ENDPOINT,
+        query,
+        script,
+        slices,
+        pollInterval,
+        maxRetriesAttempts,
+        retriesWaitDuration);
+  }
+
+  /**
+   * Copies the documents of an index into a rebuild index without a repository with a reindex task,
+   * the documents only in this repository are not copied. The rebuild index keeps the documents of
+   * the other repositories this way, the repository is then rebuilt on top of them. See {@link
+   * #byQueryTask} for how the task is run.
+   */
+  public static Flux<IndexTaskStatus> seedRebuildTask(
+      @NonNull RestHighLevelClient client,
+      @NonNull String indexName,
+      @NonNull String rebuildIndexName,
+      @NonNull String repositoryCode,
+      @NonNull String slices,
+      @NonNull Duration pollInterval,
+      int maxRetriesAttempts,
+      long retriesWaitDuration) {
+    val script =
+        new Script(
+            ScriptType.INLINE,
+            Script.DEFAULT_SCRIPT_LANG,
+            SEED_REBUILD_SCRIPT,
+            Map.of(CODE_FIELD, repositoryCode));
+    return task(
+        client,
+        rebuildIndexName,
+        REINDEX_ENDPOINT,
+        () -> {
+          val request = new Request("POST", "/" + REINDEX_ENDPOINT);
+          request.addParameter("slices", slices);
+          request.addParameter("wait_for_completion", "false");
+          request.setJsonEntity(reindexBody(indexName, rebuildIndexName, null, script));
+          return request;
+        },
+        pollInterval,
+        maxRetriesAttempts,
+        retriesWaitDuration);
+  }
+
+  /**
+   * Replaces the documents of a rebuild index matching the query with the ones of another index,
+   * the documents missing from the other index are deleted. Both indices are refreshed first so the
+   * latest writes are found. The copy is a reindex task, see {@link #byQueryTask} for how it's run,
+   * an unsuccessful task fails the copy.
+   */
+  public static Mono<Void> copyDocuments(
+      @NonNull RestHighLevelClient client,
+      @NonNull String indexName,
+      @NonNull String rebuildIndexName,
+      @NonNull QueryBuilder query,
+      @NonNull String slices,
+      @NonNull Duration pollInterval,
+      int maxRetriesAttempts,
+      long retriesWaitDuration) {
+    val deleteRequest = new DeleteByQueryRequest(rebuildIndexName).setQuery(query);
+    return refresh(client, maxRetriesAttempts, retriesWaitDuration, indexName, rebuildIndexName)
+        .then(deleteByQuery(deleteRequest, maxRetriesAttempts, retriesWaitDuration, client))
+        .then(
+            LiveWritesRecorder.successfulTask(
+                task(
+                    client,
+                    rebuildIndexName,
+                    REINDEX_ENDPOINT,
+                    () -> {
+                      val request = new Request("POST", "/" + REINDEX_ENDPOINT);
+                      request.addParameter("slices", slices);
+                      request.addParameter("wait_for_completion", "false");
+                      request.setJsonEntity(reindexBody(indexName, rebuildIndexName, query, null));
+                      return request;
+                    },
+                    pollInterval,
+                    maxRetriesAttempts,
+                    retriesWaitDuration)));
+  }
+
+  /** Makes the latest writes to the indices searchable, the rebuild indices aren't refreshed. */
+  public static Mono<Void> refresh(
+      @NonNull RestHighLevelClient client,
+      int maxRetriesAttempts,
+      long retriesWaitDuration,
+      @NonNull String... indices) {
+    return Mono.defer(
+            () ->
+                toMono(
+                    (ActionListener<RefreshResponse> listener) ->
+                        client
+                            .indices()
+                            .refreshAsync(
+                                new RefreshRequest(indices), RequestOptions.DEFAULT, listener)))
+        .retryWhen(retrySpec(maxRetriesAttempts, retriesWaitDuration))
+        .then();
+  }
+
+  /**
+   * Starts a by query task without waiting for its completion, it's sliced so the cluster processes
+   * the shards in parallel and nothing is held in maestro while it runs. The task is then polled
+   * until it's completed, the returned flux emits its progress on each poll. Cancelling the flux
+   * stops the polling only, the task keeps running.
+   *
+   * <p>Version conflicts with documents written concurrently don't abort the task, they are counted
+   * and make it unsuccessful.
+   */
+  private static Flux<IndexTaskStatus> byQueryTask(
+      RestHighLevelClient client,
+      String indexName,
+      String endpoint,
+      QueryBuilder query,
+      Script script,
+      String slices,
+      Duration pollInterval,
+      int maxRetriesAttempts,
+      long retriesWaitDuration) {
+    return task(
+        client,
+        indexName,
+        endpoint,
+        () -> {
+          val request = new Request("POST", "/" + indexName + "/" + endpoint);
+          request.addParameter("slices", slices);
+          request.addParameter(CONFLICTS_FIELD, "proceed");
+          request.addParameter("wait_for_completion", "false");
+          request.setJsonEntity(byQueryBody(query, script));
+          return request;
+        },
+        pollInterval,
+        maxRetriesAttempts,
+        retriesWaitDuration);
+  }
+
+  /**
+   * Starts the task of the request then polls it until it's completed, see {@link #byQueryTask}.
+   */
+  private static Flux<IndexTaskStatus> task(
+      RestHighLevelClient client,
+      String indexName,
+      String endpoint,
+      Supplier<Request> taskRequest,
+      Duration pollInterval,
+      int maxRetriesAttempts,
+      long retriesWaitDuration) {
+    return Mono.defer(() -> performRequest(client, taskRequest.get()))
+        .retryWhen(retrySpec(maxRetriesAttempts, retriesWaitDuration))
+        .map(response -> (String) response.get(TASK_FIELD))
+        .doOnNext(taskId -> log.info("task {} started {} on {}", taskId, endpoint, indexName))
+        .flatMapMany(
+            taskId ->
+                Mono.defer(() -> performRequest(client, new Request("GET", "/_tasks/" + taskId)))
+                    .retryWhen(retrySpec(maxRetriesAttempts, retriesWaitDuration))
+                    .map(response -> toTaskStatus(indexName, taskId, response))
+                    .repeatWhen(polls -> polls.delayElements(pollInterval))
+                    .takeUntil(IndexTaskStatus::isCompleted));
+  }
+
+  @SneakyThrows
+  private static String byQueryBody(QueryBuilder query, Script script) {
+    val body = XContentFactory.jsonBuilder().startObject().field(QUERY_FIELD, query);
+    if (script != null) {
+      body.field(SCRIPT_FIELD, script);
+    }
+    return Strings.toString(body.endObject());
+  }
+
+  @SneakyThrows
+  private static String reindexBody(
+      String indexName, String destIndexName, QueryBuilder query, Script script) {
+    val body =
+        XContentFactory.jsonBuilder()
+            .startObject()
+            .field(CONFLICTS_FIELD, "proceed")
+            .startObject(SOURCE_FIELD)
+            .field(INDEX_FIELD, indexName);
+    if (query != null) {
+      body.field(QUERY_FIELD, query);
+    }
+    body.endObject().startObject(DEST_FIELD).field(INDEX_FIELD, destIndexName).endObject();
+    if (script != null) {
+      body.field(SCRIPT_FIELD, script);
+    }
+    return Strings.toString(body.endObject());
+  }
+
+  /**
+   * The status of a completed task is the last one reported while running, its failures are in its
+   * response (or error if it couldn't run at all).
+   */
+  @SuppressWarnings("unchecked")
+  private static IndexTaskStatus toTaskStatus(
+      String indexName, String taskId, Map<String, Object> response) {
+    val task = (Map<String, Object>) response.get(TASK_FIELD);
+    val status = (Map<String, Object>) task.getOrDefault(STATUS_FIELD, Map.of());
+    val builder =
+        IndexTaskStatus.builder()
+            .indexName(indexName)
+            .taskId(taskId)
+            .total(getCount(status, "total"))
+            .processed(
+                getCount(status, "deleted")
+                    + getCount(status, "updated")
+                    + getCount(status, "created"));
+    if (!Boolean.TRUE.equals(response.get(COMPLETED_FIELD))) {
+      return builder.build();
+    }
+    val error = response.get(ERROR_FIELD);
+    val taskResponse = (Map<String, Object>) response.getOrDefault(RESPONSE_FIELD, Map.of());
+    val failures = (List<Object>) taskResponse.getOrDefault(FAILURES_FIELD, List.of());
+    val conflicts = getCount(status, "version_conflicts");
+    val successful = error == null && failures.isEmpty() && conflicts == 0;
+    if (!successful) {
+      log.error(
+          "task {} on {} failed, error: {}, failures: {}, version conflicts: {}",
+          taskId,
+          indexName,
+          error,
+          failures,
+          conflicts);
+    }
+    return builder.completed(true).successful(successful).build();
+  }
+
+  private static long getCount(Map<String, Object> status, String field) {
+    val count = (Number) status.get(field);
+    return count == null ? 0 : count.longValue();
+  }
+
+  /**
+   * Sends a request with the low level client, for the apis the high level client has no async
+   * method for. The response body is returned as a map.
+   */
+  private static Mono<Map<String, Object>> performRequest(
+      RestHighLevelClient client, Request request) {
+    return Mono.create(
+        sink -> {
+          val cancellable =
+              client
+                  .getLowLevelClient()
+                  .performRequestAsync(
+                      request,
+                      new ResponseListener() {
+                        @Override
+                        public void onSuccess(Response response) {
+                          try (InputStream content = response.getEntity().getContent()) {
+                            sink.success(
+                                XContentHelper.convertToMap(
+                                    XContentType.JSON.xContent(), content, false));
+                          } catch (IOException | RuntimeException e) {
+                            sink.error(e);
+                          }
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                          sink.error(e);
+                        }
+                      });
+          sink.onCancel(cancellable::cancel);
+        });
+  }
+}
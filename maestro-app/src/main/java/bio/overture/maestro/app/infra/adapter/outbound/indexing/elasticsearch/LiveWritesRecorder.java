@@ -0,0 +1,365 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static bio.overture.maestro.domain.utility.CollectionsUtil.partitionList;
+import static java.lang.String.format;
+
+import bio.overture.maestro.domain.api.message.IndexTaskStatus;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Keeps a rebuild index up to date with the writes made to the current index while it's filled, so
+ * the swap doesn't lose them. The written documents are not kept, the ids of the changed documents
+ * are recorded and their state in the current index is copied into the rebuild index when it's
+ * synced. The removals of a whole study or repository are recorded as operations, they are run
+ * again on the rebuild index before the documents are copied so the copies win over them.
+ *
+ * <p>While a rebuild runs the writes are made to the concrete index it was seeded from, never to
+ * the alias, so none of them lands in the rebuild index behind the recorder's back once the alias
+ * moved. After the alias moved the recorder is sealed: the writes started from then on are made to
+ * the alias and are not recorded, and the last sync waits for the writes still in flight to the
+ * previous index.
+ *
+ * <p>At most {@code maxRecorded} ids and operations are recorded per rebuild. Past that the rebuild
+ * can't catch up and syncing it fails, so it's never swapped with writes missing. One rebuild at a
+ * time is allowed since each one starts from the current index.
+ */
+@Slf4j
+class LiveWritesRecorder {
+
+  /** ids per copy request, well under the default max terms of a terms query. */
+  private static final int COPY_BATCH_SIZE = 1000;
+
+  /** Copies the documents matching the ids on the field from an index into the rebuild index. */
+  @FunctionalInterface
+  interface Copier {
+    /** the rebuild documents matching the ids are deleted first, the copies replace them. */
+    Mono<Void> copy(String sourceIndex, String rebuildIndexName, String field, Set<String> ids);
+  }
+
+  private final String indexName;
+  /** where the writes go when there is no rebuild or once it's sealed. */
+  private final Supplier<String> currentIndex;
+
+  private final int maxRecorded;
+
+  /** the rebuild index the writes are recorded for, null when there is no rebuild. */
+  private String rebuildIndexName;
+  /** the concrete index the rebuild was seeded from, the writes go there until it's sealed. */
+  private String sourceIndex;
+  /** the changed documents ids per field of the documents. */
+  private final Map<String, Set<String>> ids = new LinkedHashMap<>();
+  /** the operations to run on the rebuild index, by what they remove. */
+  private final Map<String, Function<String, Mono<Void>>> operations = new LinkedHashMap<>();
+
+  private int recorded;
+  private boolean overflowed;
+
+  private int inFlight;
+  /** how many times the recorder was sealed, a write started before the last seal is recorded. */
+  private long seals;
+
+  private boolean sealed;
+  private int inFlightBeforeSeal;
+  private Sinks.Empty<Void> settled;
+
+  LiveWritesRecorder(
+      @NonNull String indexName, @NonNull Supplier<String> currentIndex, int maxRecorded) {
+    if (maxRecorded < 1) {
+      throw new IllegalArgumentException("maxRecorded should be at least 1");
+    }
+    this.indexName = indexName;
+    this.currentIndex = currentIndex;
+    this.maxRecorded = maxRecorded;
+  }
+
+  synchronized void start(@NonNull String rebuildIndexName, @NonNull String sourceIndex) {
+    if (this.rebuildIndexName != null) {
+      throw new IllegalStateException(
+          format("%s is already being rebuilt into %s", this.indexName, this.rebuildIndexName));
+    }
+    this.rebuildIndexName = rebuildIndexName;
+    this.sourceIndex = sourceIndex;
+    log.info(
+        "recording the writes to {} until {} replaces {}",
+        this.indexName,
+        rebuildIndexName,
+        sourceIndex);
+  }
+
+  /**
+   * Stops recording for the rebuild index. What is still recorded is only expected when the rebuild
+   * is abandoned, after the swap it's missing from the rebuild index so it's reported.
+   */
+  synchronized void stop(@NonNull String rebuildIndexName) {
+    if (!rebuildIndexName.equals(this.rebuildIndexName)) {
+      return;
+    }
+    if (this.sealed && (this.overflowed || this.recorded > 0)) {
+      log.error(
+          "{} replaced {} without the writes recorded since its last sync, ids: {}, operations: {}",
+          rebuildIndexName,
+          this.sourceIndex,
+          this.ids,
+          this.operations.keySet());
+    }
+    this.rebuildIndexName = null;
+    this.sourceIndex = null;
+    this.ids.clear();
+    this.operations.clear();
+    this.recorded = 0;
+    this.overflowed = false;
+    this.sealed = false;
+    this.inFlightBeforeSeal = 0;
+    this.settled = null;
+  }
+
+  /**
+   * Makes the write to the index it's given and records the ids of the documents it changes on the
+   * field once it's done, whatever its outcome since a failed write may be partly done.
+   */
+  <T> Mono<T> record(
+      @NonNull Function<String, Mono<T>> write, @NonNull String field, @NonNull Set<String> ids) {
+    return Mono.defer(
+        () -> {
+          val started = begin();
+          return write.apply(started.index).doFinally(signal -> end(started, field, ids, null));
+        });
+  }
+
+  /**
+   * Makes the operation on the index it's given and records it once it's done, to run it again on
+   * the rebuild index. The same operation is recorded once.
+   *
+   * @param key what the operation removes
+   */
+  <T> Flux<T> record(
+      @NonNull Function<String, Flux<T>> operation,
+      @NonNull String key,
+      @NonNull Function<String, Mono<Void>> replay) {
+    return Flux.defer(
+        () -> {
+          val started = begin();
+          return operation
+              .apply(started.index)
+              .doFinally(signal -> end(started, key, null, replay));
+        });
+  }
+
+  /**
+   * Runs the recorded operations on the rebuild index then copies the recorded documents from the
+   * index they were written to.
+   */
+  Mono<Void> sync(@NonNull String rebuildIndexName, @NonNull Copier copier) {
+    return Mono.defer(
+        () -> {
+          val pending = drain(rebuildIndexName);
+          if (pending.isEmpty()) {
+            return Mono.empty();
+          }
+          log.info(
+              "syncing {} with {} writes made to {}",
+              rebuildIndexName,
+              pending.size,
+              pending.sourceIndex);
+          return Flux.fromIterable(pending.operations)
+              .concatMap(operation -> operation.apply(rebuildIndexName))
+              .thenMany(
+                  Flux.fromIterable(pending.ids.entrySet())
+                      .concatMap(
+                          fieldIds ->
+                              Flux.fromIterable(
+                                      partitionList(
+                                              new ArrayList<>(fieldIds.getValue()), COPY_BATCH_SIZE)
+                                          .values())
+                                  .concatMap(
+                                      batch ->
+                                          copier.copy(
+                                              pending.sourceIndex,
+                                              rebuildIndexName,
+                                              fieldIds.getKey(),
+                                              Set.copyOf(batch)))))
+              .then();
+        });
+  }
+
+  /**
+   * Sends the writes started from now on to the current index and stops recording them, the
+   * returned mono completes once the writes started before are done.
+   *
+   * @param retarget makes the current index the one that replaced the previous one
+   */
+  Mono<Void> seal(@NonNull String rebuildIndexName, @NonNull Runnable retarget) {
+    return Mono.defer(
+        () -> {
+          synchronized (this) {
+            checkRebuild(rebuildIndexName);
+            retarget.run();
+            this.sealed = true;
+            this.seals++;
+            this.inFlightBeforeSeal = this.inFlight;
+            this.settled = Sinks.empty();
+            if (this.inFlightBeforeSeal == 0) {
+              return Mono.empty();
+            }
+            log.info(
+                "waiting for {} writes in flight to {} before the last sync of {}",
+                this.inFlightBeforeSeal,
+                this.sourceIndex,
+                rebuildIndexName);
+            return this.settled.asMono();
+          }
+        });
+  }
+
+  /** a replayed task that didn't complete successfully fails the sync. */
+  static Mono<Void> successfulTask(@NonNull Flux<IndexTaskStatus> replayed) {
+    return replayed
+        .last()
+        .flatMap(
+            status ->
+                status.isSuccessful()
+                    ? Mono.empty()
+                    : Mono.error(
+                        new IllegalStateException(
+                            format(
+                                "failed to replay task %s into %s",
+                                status.getTaskId(), status.getIndexName()))));
+  }
+
+  private synchronized Started begin() {
+    this.inFlight++;
+    val index =
+        this.rebuildIndexName != null && !this.sealed ? this.sourceIndex : this.currentIndex.get();
+    return new Started(index, this.seals);
+  }
+
+  private synchronized void end(
+      Started started, String fieldOrKey, Set<String> ids, Function<String, Mono<Void>> replay) {
+    this.inFlight--;
+    val beforeSeal = started.seals < this.seals;
+    if (this.rebuildIndexName == null || (this.sealed && !beforeSeal)) {
+      return;
+    }
+    if (ids != null) {
+      add(fieldOrKey, ids);
+    } else {
+      addOperation(fieldOrKey, replay);
+    }
+    if (this.sealed && beforeSeal && --this.inFlightBeforeSeal == 0) {
+      this.settled.tryEmitEmpty();
+    }
+  }
+
+  private void add(String field, Set<String> changedIds) {
+    val fieldIds = this.ids.computeIfAbsent(field, k -> new HashSet<>());
+    for (val id : changedIds) {
+      if (this.recorded >= this.maxRecorded) {
+        overflow();
+        return;
+      }
+      if (fieldIds.add(id)) {
+        this.recorded++;
+      }
+    }
+  }
+
+  private void addOperation(String key, Function<String, Mono<Void>> replay) {
+    if (this.operations.containsKey(key)) {
+      return;
+    }
+    if (this.recorded >= this.maxRecorded) {
+      overflow();
+      return;
+    }
+    this.operations.put(key, replay);
+    this.recorded++;
+  }
+
+  private void overflow() {
+    if (!this.overflowed) {
+      log.error(
+          "more than {} writes to {} recorded while {} is filled, it can't be synced",
+          this.maxRecorded,
+          this.sourceIndex,
+          this.rebuildIndexName);
+    }
+    this.overflowed = true;
+  }
+
+  private synchronized Pending drain(String rebuildIndexName) {
+    checkRebuild(rebuildIndexName);
+    if (this.overflowed) {
+      throw new IllegalStateException(
+          format(
+              "more than %d writes to %s were made while %s was filled, rebuild it again",
+              this.maxRecorded, this.sourceIndex, rebuildIndexName));
+    }
+    val pending =
+        new Pending(
+            this.sourceIndex,
+            List.copyOf(this.operations.values()),
+            new LinkedHashMap<>(this.ids),
+            this.recorded);
+    this.ids.clear();
+    this.operations.clear();
+    this.recorded = 0;
+    return pending;
+  }
+
+  private void checkRebuild(String rebuildIndexName) {
+    if (!rebuildIndexName.equals(this.rebuildIndexName)) {
+      throw new IllegalStateException(
+          format("%s is not being rebuilt into %s", this.indexName, rebuildIndexName));
+    }
+  }
+
+  /** the index a write was made to and the seals done before it started. */
+  @RequiredArgsConstructor
+  private static class Started {
+    private final String index;
+    private final long seals;
+  }
+
+  /** what was recorded since the last sync. */
+  @RequiredArgsConstructor
+  private static class Pending {
+    private final String sourceIndex;
+    private final List<Function<String, Mono<Void>>> operations;
+    private final Map<String, Set<String>> ids;
+    private final int size;
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Coalesces the analyses removals requested within a short window, or until a max count, into a
+ * single request to elasticsearch instead of one request per analysis. Each caller waits for the
+ * request its removal went into and gets its outcome. Batches are sent one at a time, removals
+ * requested meanwhile make the next batch. A window of zero sends each removal on its own.
+ */
+@Slf4j
+public class RemovalBatcher {
+
+  private final String indexName;
+  private final Duration window;
+  private final Function<Set<String>, Mono<Void>> batchRemover;
+  private final Sinks.Many<PendingRemoval> pending = Sinks.many().unicast().onBackpressureBuffer();
+
+  /** @param batchRemover removes all the documents of the given analyses ids. */
+  public RemovalBatcher(
+      @NonNull String indexName,
+      @NonNull Duration window,
+      int maxBatchSize,
+      @NonNull Function<Set<String>, Mono<Void>> batchRemover) {
+    this.indexName = indexName;
+    this.window = window;
+    this.batchRemover = batchRemover;
+    if (window.isZero()) {
+      return;
+    }
+    pending
+        .asFlux()
+        .bufferTimeout(Math.max(maxBatchSize, 1), window)
+        // the timer emits batches regardless of the demand.
+        .onBackpressureBuffer()
+        .concatMap(this::removeBatch)
+        .subscribe();
+  }
+
+  public Mono<Void> remove(@NonNull String analysisId) {
+    if (window.isZero()) {
+      return Mono.defer(() -> batchRemover.apply(Set.of(analysisId)));
+    }
+    return Mono.defer(
+        () -> {
+          val removal = new PendingRemoval(analysisId);
+          emit(removal);
+          return removal.getResult().asMono();
+        });
+  }
+
+  // the sink doesn't accept concurrent emissions.
+  private synchronized void emit(PendingRemoval removal) {
+    pending.emitNext(removal, Sinks.EmitFailureHandler.FAIL_FAST);
+  }
+
+  private Mono<Void> removeBatch(List<PendingRemoval> batch) {
+    val analysisIds =
+        batch.stream().map(PendingRemoval::getAnalysisId).collect(Collectors.toUnmodifiableSet());
+    log.debug("removing {} analyses from {} in one request", analysisIds.size(), indexName);
+    return Mono.defer(() -> batchRemover.apply(analysisIds))
+        .doOnSuccess(v -> batch.forEach(removal -> removal.getResult().tryEmitEmpty()))
+        .onErrorResume(
+            e -> {
+              log.error("failed to remove analyses {} from {}", analysisIds, indexName, e);
+              batch.forEach(removal -> removal.getResult().tryEmitError(e));
+              return Mono.empty();
+            });
+  }
+
+  @Getter
+  @RequiredArgsConstructor
+  private static class PendingRemoval {
+    private final String analysisId;
+    private final Sinks.Empty<Void> result = Sinks.empty();
+  }
+}
@@ -1,40 +1,64 @@
 package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
 
-import bio.overture.maestro.domain.api.exception.FailureData;
-import bio.overture.maestro.domain.api.message.IndexResult;
-import bio.overture.maestro.domain.utility.Parallel;
-import io.github.resilience4j.retry.Retry;
-import io.github.resilience4j.retry.RetryConfig;
-import io.vavr.control.Try;
+import static bio.overture.maestro.domain.utility.Parallel.scatterGather;
+
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprint;
+import bio.overture.maestro.domain.entities.indexing.IndexedDocumentFingerprint;
+import bio.overture.maestro.domain.entities.indexing.Repository;
+import bio.overture.maestro.domain.utility.Parallel.ErrorMode;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
-import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.cluster.storedscripts.PutStoredScriptRequest;
 import org.elasticsearch.action.get.MultiGetRequest;
-import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.client.Cancellable;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.script.ScriptType;
-import org.springframework.util.Assert;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
 
 @Slf4j
 @NoArgsConstructor
 public class SearchAdapterHelper {
-  private static final String ANALYSIS_ID = "analysisId";
+  private static final String STUDY_ID_FIELD = "study_id";
+  private static final String REPOSITORIES_FIELD = "repositories";
+  private static final String CODE_FIELD = "code";
+  private static final String ORGANIZATION_FIELD = "organization";
+  private static final String NAME_FIELD = "name";
+  private static final String TYPE_FIELD = "type";
+  private static final String COUNTRY_FIELD = "country";
+  private static final String URL_FIELD = "url";
+  private static final String UPDATED_AT_FIELD = "updated_at";
+  private static final String PUBLISHED_AT_FIELD = "published_at";
+  private static final String FIRST_PUBLISHED_AT_FIELD = "first_published_at";
+  private static final Set<String> REPOSITORY_REQUIRED_FIELDS =
+      Set.of(CODE_FIELD, ORGANIZATION_FIELD, TYPE_FIELD, COUNTRY_FIELD, URL_FIELD);
+  private static final String REPLICA_FIELD = "replica";
+  private static final String CONTENT_FIELD = "content";
+  private static final TypeReference<Map<String, Object>> SOURCE_TYPE = new TypeReference<>() {};
 
   public static MultiGetRequest buildMultiGetRequest(
       @NonNull Map.Entry<Integer, List<String>> entry, @NonNull String index) {
@@ -45,222 +69,357 @@ public class SearchAdapterHelper {
     return request;
   }
 
-  public static <T> Mono<IndexResult> batchUpsertDocuments(
-      @NonNull List<T> documents,
-      int documentsPerBulkRequest,
-      int maxRetriesAttempts,
-      long retriesWaitDuration,
-      String indexName,
-      RestHighLevelClient client,
-      Function<T, String> documentAnalysisIdExtractor,
-      Function<T, UpdateRequest> mapper) {
-    log.debug("in batchUpsertAnalysisRepositories, analyses count: {} ", documents.size());
-    return Mono.fromSupplier(
-            () ->
-                bulkUpsertAnalysisRepositories(
-                    documents,
-                    documentsPerBulkRequest,
-                    maxRetriesAttempts,
-                    retriesWaitDuration,
-                    indexName,
-                    client,
-                    documentAnalysisIdExtractor,
-                    mapper))
-        .subscribeOn(Schedulers.elastic());
+  /**
+   * Builds a multi get request that only loads what's needed to check documents against their
+   * stored fingerprint, the study id, repositories, fingerprint and the given fields.
+   */
+  public static MultiGetRequest buildFingerprintMultiGetRequest(
+      @NonNull Map.Entry<Integer, List<String>> entry,
+      @NonNull String index,
+      String... additionalFields) {
+    val includes = new ArrayList<String>();
+    includes.add(STUDY_ID_FIELD);
+    includes.add(REPOSITORIES_FIELD);
+    includes.add(DocumentFingerprint.FIELD);
+    includes.addAll(Arrays.asList(additionalFields));
+    val sourceContext = new FetchSourceContext(true, includes.toArray(new String[0]), null);
+    val request = new MultiGetRequest();
+    for (String id : entry.getValue()) {
+      request.add(new MultiGetRequest.Item(index, id).fetchSourceContext(sourceContext));
+    }
+    return request;
+  }
+
+  /**
+   * Maps the found documents of a fingerprint multi get request.
+   *
+   * @param responses the response of a request built by {@link #buildFingerprintMultiGetRequest}
+   * @param analysisIdExtractor extracts the analysis id from the filtered document source.
+   */
+  public static List<IndexedDocumentFingerprint> mapFingerprintResults(
+      MultiGetResponse responses, Function<Map<String, Object>, String> analysisIdExtractor) {
+    return Arrays.stream(responses.getResponses())
+        .filter(response -> !response.isFailed() && response.getResponse().isExists())
+        .map(
+            response -> {
+              val source = response.getResponse().getSourceAsMap();
+              return IndexedDocumentFingerprint.builder()
+                  .id(response.getId())
+                  .analysisId(analysisIdExtractor.apply(source))
+                  .studyId((String) source.get(STUDY_ID_FIELD))
+                  .repositoryCodes(getRepositoryCodes(source))
+                  .repositories(getRepositories(source))
+                  .fingerprint(getFingerprint(source))
+                  .build();
+            })
+        .collect(Collectors.toUnmodifiableList());
+  }
+
+  /**
+   * Converts the fingerprint to the map stored in the index document under {@link
+   * DocumentFingerprint#FIELD}
+   */
+  public static Map<String, Object> fingerprintSource(DocumentFingerprint fingerprint) {
+    return Map.of(REPLICA_FIELD, fingerprint.getReplica(), CONTENT_FIELD, fingerprint.getContent());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Set<String> getRepositoryCodes(Map<String, Object> source) {
+    val repositories = (List<Map<String, Object>>) source.get(REPOSITORIES_FIELD);
+    if (repositories == null) {
+      return Set.of();
+    }
+    return repositories.stream()
+        .map(repository -> (String) repository.get(CODE_FIELD))
+        .filter(Objects::nonNull)
+        .collect(Collectors.toUnmodifiableSet());
+  }
+
+  /** the stored repositories, those missing a required field can't match any and are left out. */
+  @SuppressWarnings("unchecked")
+  private static Set<Repository> getRepositories(Map<String, Object> source) {
+    val repositories = (List<Map<String, Object>>) source.get(REPOSITORIES_FIELD);
+    if (repositories == null) {
+      return Set.of();
+    }
+    return repositories.stream()
+        .filter(
+            repository ->
+                REPOSITORY_REQUIRED_FIELDS.stream()
+                    .allMatch(field -> repository.get(field) instanceof String))
+        .map(
+            repository ->
+                Repository.builder()
+                    .code((String) repository.get(CODE_FIELD))
+                    .organization((String) repository.get(ORGANIZATION_FIELD))
+                    .name((String) repository.get(NAME_FIELD))
+                    .type((String) repository.get(TYPE_FIELD))
+                    .country((String) repository.get(COUNTRY_FIELD))
+                    .url((String) repository.get(URL_FIELD))
+                    .build())
+        .collect(Collectors.toUnmodifiableSet());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static DocumentFingerprint getFingerprint(Map<String, Object> source) {
+    val fingerprint = (Map<String, Object>) source.get(DocumentFingerprint.FIELD);
+    if (fingerprint == null
+        || fingerprint.get(REPLICA_FIELD) == null
+        || fingerprint.get(CONTENT_FIELD) == null) {
+      // documents indexed before fingerprints were stored
+      return null;
+    }
+    return new DocumentFingerprint(
+        (String) fingerprint.get(REPLICA_FIELD), (String) fingerprint.get(CONTENT_FIELD));
+  }
+
+  /**
+   * Sends an async client request when subscribed, the request is cancelled if the subscriber
+   * cancels. No thread is held while waiting for the response.
+   *
+   * @param asyncRequest calls the client async api with the given listener
+   */
+  public static <R> Mono<R> toMono(Function<ActionListener<R>, Cancellable> asyncRequest) {
+    return Mono.create(
+        sink -> {
+          val cancellable = asyncRequest.apply(ActionListener.wrap(sink::success, sink::error));
+          sink.onCancel(cancellable::cancel);
+        });
+  }
+
+  /**
+   * Retries the io failures and rejections only, {@code maxRetriesAttempts} counts the first
+   * attempt.
+   */
+  public static RetryBackoffSpec retrySpec(int maxRetriesAttempts, long retriesWaitDuration) {
+    return Retry.fixedDelay(
+            Math.max(maxRetriesAttempts - 1, 0), Duration.ofMillis(retriesWaitDuration))
+        .filter(
+            t -> (t instanceof IOException && !(t instanceof ResponseException)) || isRejected(t))
+        .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+  }
+
+  /**
+   * the cluster couldn't be reached, or refused the request as a whole. The error responses of the
+   * low level client are io exceptions too, only the rejections and server errors among them are.
+   */
+  static boolean isUnavailable(Throwable t) {
+    if (t instanceof ResponseException) {
+      return isRejected(t)
+          || ((ResponseException) t).getResponse().getStatusLine().getStatusCode() >= 500;
+    }
+    return t instanceof IOException
+        || (t instanceof ElasticsearchStatusException
+            && ((ElasticsearchStatusException) t).status().getStatus() >= 500)
+        || isRejected(t);
+  }
+
+  static boolean isRejected(Throwable t) {
+    if (t instanceof ResponseException) {
+      return ((ResponseException) t).getResponse().getStatusLine().getStatusCode()
+          == RestStatus.TOO_MANY_REQUESTS.getStatus();
+    }
+    return t instanceof ElasticsearchStatusException
+        && ((ElasticsearchStatusException) t).status() == RestStatus.TOO_MANY_REQUESTS;
   }
 
-  @SneakyThrows
-  private static <T> IndexResult bulkUpsertAnalysisRepositories(
-      List<T> analyses,
-      int documentsPerBulkRequest,
+  /**
+   * Sends one multi get request per page of ids, at most {@code maxConcurrentRequests} at a time,
+   * the mapped results are returned in the pages order.
+   */
+  public static <R> Mono<List<R>> multiGet(
+      @NonNull List<String> ids,
+      int pageSize,
+      int maxConcurrentRequests,
       int maxRetriesAttempts,
       long retriesWaitDuration,
-      String indexName,
       RestHighLevelClient client,
-      Function<T, String> documentAnalysisIdExtractor,
-      Function<T, UpdateRequest> mapper) {
-    log.trace(
-        "in SearchAdapterHelper - bulkUpsertAnalysisRepositories, analyses count : {} ",
-        analyses.size());
-    val failures =
-        Parallel.blockingScatterGather(
-                analyses,
-                documentsPerBulkRequest,
-                (list) ->
-                    tryBulkUpsertRequestForPart(
-                        list,
-                        maxRetriesAttempts,
-                        retriesWaitDuration,
-                        mapper,
-                        documentAnalysisIdExtractor,
-                        client))
-            .stream()
-            .flatMap(Set::stream)
-            .collect(Collectors.toUnmodifiableSet());
-    return buildIndexResult(failures, indexName);
+      Function<Map.Entry<Integer, List<String>>, MultiGetRequest> requestBuilder,
+      Function<MultiGetResponse, List<R>> responseMapper,
+      Scheduler scheduler) {
+    return scatterGather(
+            ids,
+            pageSize,
+            maxConcurrentRequests,
+            ErrorMode.FAIL_FAST,
+            entry ->
+                Mono.defer(
+                        () ->
+                            toMono(
+                                (ActionListener<MultiGetResponse> listener) ->
+                                    client.mgetAsync(
+                                        requestBuilder.apply(entry),
+                                        RequestOptions.DEFAULT,
+                                        listener)))
+                    .retryWhen(retrySpec(maxRetriesAttempts, retriesWaitDuration))
+                    // parsing the sources is cpu bound, keep it off the client io threads.
+                    .publishOn(scheduler)
+                    .map(responseMapper))
+        .flatMapIterable(results -> results)
+        .collectList();
   }
 
-  private static <T> Set<String> tryBulkUpsertRequestForPart(
-      Map.Entry<Integer, List<T>> entry,
+  public static Mono<Void> deleteByQuery(
+      @NonNull DeleteByQueryRequest request,
       int maxRetriesAttempts,
       long retriesWaitDuration,
-      Function<T, UpdateRequest> mapper,
-      Function<T, String> documentAnalysisIdExtractor,
       RestHighLevelClient client) {
-    val partNum = entry.getKey();
-    val listPart = entry.getValue();
-    val listPartHash = Objects.hashCode(listPart);
-    val retry = buildRetry("tryBulkUpsertRequestForPart", maxRetriesAttempts, retriesWaitDuration);
-    val decorated =
-        Retry.<Set<String>>decorateCheckedSupplier(
-            retry,
-            () -> {
-              log.trace(
-                  "SearchAdapterHelper - tryBulkUpsertRequestForPart, sending part#: {}, hash: {} ",
-                  partNum,
-                  listPartHash);
-              doRequestForPart(listPart, mapper, client);
-              log.trace(
-                  "SearchAdapterHelper - tryBulkUpsertRequestForPart: done bulk upsert all docs");
-              return Set.of();
-            });
-    val result =
-        Try.of(decorated)
-            .recover(
-                (t) -> {
-                  log.error(
-                      "failed sending request for: part#: {}, hash: {} to elastic search,"
-                          + " gathering failed Ids.",
-                      partNum,
-                      listPartHash,
-                      t);
-                  return listPart.stream()
-                      .map(documentAnalysisIdExtractor)
-                      .collect(Collectors.toUnmodifiableSet());
-                });
-
-    return result.get();
-  }
-
-  private static <T> void doRequestForPart(
-      List<T> listPart, Function<T, UpdateRequest> mapper, RestHighLevelClient client)
-      throws IOException {
-    bulkUpdateRequest(listPart.stream().map(mapper).collect(Collectors.toList()), client);
+    return Mono.defer(
+            () ->
+                toMono(
+                    (ActionListener<BulkByScrollResponse> listener) ->
+                        client.deleteByQueryAsync(request, RequestOptions.DEFAULT, listener)))
+        .retryWhen(retrySpec(maxRetriesAttempts, retriesWaitDuration))
+        .then();
   }
 
-  private static void bulkUpdateRequest(List<UpdateRequest> requests, RestHighLevelClient client)
-      throws IOException {
-    val bulkRequest = buildBulkUpdateRequest(requests);
-    checkForBulkUpdateFailure(client.bulk(bulkRequest, RequestOptions.DEFAULT));
+  /**
+   * Converts the document, once, to the map indexed in elasticsearch and adds its fingerprint. The
+   * upsert source and the script params are all built from this map.
+   */
+  public static Map<String, Object> documentSource(
+      @NonNull ObjectMapper mapper, @NonNull Object document, Map<String, Object> fingerprint) {
+    val source = mapper.convertValue(document, SOURCE_TYPE);
+    source.put(DocumentFingerprint.FIELD, fingerprint);
+    return source;
   }
 
-  public static IndexResult buildIndexResult(
-      @NonNull Set<String> failures, @NonNull String indexName) {
-    val fails =
-        failures.isEmpty()
-            ? FailureData.builder().build()
-            : FailureData.builder().failingIds(Map.of(ANALYSIS_ID, failures)).build();
-    return IndexResult.builder()
-        .indexName(indexName)
-        .failureData(fails)
-        .successful(failures.isEmpty())
-        .build();
+  /**
+   * Returns a Map object used by the Upsert script, it represents a document that contains all the
+   * properties we need to fully replace. Repositories list must not be included as we don't want to
+   * replace existing repositories, instead we want to merge with existing repositories. Merge logic
+   * of repositories is handled by the upsert script.
+   *
+   * @param source the document source, see {@link #documentSource}
+   */
+  public static Map<String, Object> scriptedDocument(@NonNull Map<String, Object> source) {
+    val scripted = new LinkedHashMap<>(source);
+    scripted.remove(REPOSITORIES_FIELD);
+    return scripted;
   }
 
-  public static Retry buildRetry(
-      String retryName, int maxRetriesAttempts, long retriesWaitDuration) {
-    val retryConfig =
-        RetryConfig.custom()
-            .maxAttempts(maxRetriesAttempts)
-            .retryExceptions(IOException.class)
-            .waitDuration(Duration.ofMillis(retriesWaitDuration))
-            .build();
-    val retry = Retry.of(retryName, retryConfig);
-    return retry;
+  /** The repository the document is indexed for, from its source. */
+  @SuppressWarnings("unchecked")
+  public static Map<String, Object> documentRepository(@NonNull Map<String, Object> source) {
+    return ((List<Map<String, Object>>) source.get(REPOSITORIES_FIELD)).get(0);
   }
 
-  public static BulkRequest buildBulkUpdateRequest(List<UpdateRequest> requests)
-      throws IOException {
-    val bulkRequest = new BulkRequest();
-    for (UpdateRequest query : requests) {
-      bulkRequest.add(prepareUpdate(query));
+  /**
+   * Adds the dates params of the upsert scripts, copied from the converted document so the dates of
+   * scripted updates are stored exactly like the dates of indexed documents, as the document mapper
+   * writes them (epoch millis). The dates that are not set are left out, published_at as the
+   * analysis may not have been published.
+   *
+   * @param dates the part of the document source holding the analysis dates
+   */
+  public static void putDateParams(
+      @NonNull Map<String, Object> params, @NonNull Map<String, Object> dates) {
+    params.put(UPDATED_AT_FIELD, dates.get(UPDATED_AT_FIELD));
+    for (String field : List.of(PUBLISHED_AT_FIELD, FIRST_PUBLISHED_AT_FIELD)) {
+      if (dates.get(field) != null) {
+        params.put(field, dates.get(field));
+      }
     }
-    return bulkRequest;
   }
 
-  public static void checkForBulkUpdateFailure(BulkResponse bulkResponse) {
-    if (bulkResponse.hasFailures()) {
-      val failedDocuments = new HashMap<String, String>();
-      for (BulkItemResponse item : bulkResponse.getItems()) {
-        if (item.isFailed()) failedDocuments.put(item.getId(), item.getFailureMessage());
+  /**
+   * Adds the repository to the stored ones, replacing the stored repository with the same code if
+   * any.
+   */
+  public static List<Map<String, Object>> mergeRepositories(
+      @NonNull List<Map<String, Object>> storedRepositories,
+      @NonNull Map<String, Object> repository) {
+    val merged = new ArrayList<Map<String, Object>>(storedRepositories.size() + 1);
+    for (Map<String, Object> storedRepository : storedRepositories) {
+      if (!Objects.equals(storedRepository.get(CODE_FIELD), repository.get(CODE_FIELD))) {
+        merged.add(storedRepository);
       }
-      throw new RuntimeException(
-          "Bulk indexing has failures. Use ElasticsearchException.getFailedDocuments() for detailed messages ["
-              + failedDocuments
-              + "]");
     }
+    merged.add(repository);
+    return merged;
   }
 
   /**
-   * AnalysisCentric Upsert Script.
-   * Returns a Script for the purpose of updating all the properties of a document with the new document passed as parameter to the script,
-   * such new document does not include the repositories array as we do not want to replace repositories,
-   * instead we want to keep the existing repositories and just incorporate new repositories if needed.
+   * AnalysisCentric Upsert Script. Updates all the properties of a document with the new document
+   * passed as parameter to the script, such new document does not include the repositories array as
+   * we do not want to replace repositories, instead we want to keep the existing repositories and
+   * just incorporate new repositories if needed. The dates parameters come from the document
+   * source, see {@link #putDateParams}.
+   */
+  private static final String ANALYSIS_CENTRIC_UPSERT_SCRIPT =
+      "List tempRepositories = ctx._source.repositories;\n"
+          + "ctx._source = params.document;\n"
+          + "if (!tempRepositories.contains(params.repository)) { tempRepositories.add(params.repository) } \n"
+          + "ctx._source.repositories = tempRepositories;\n"
+          + "ctx._source.analysis_state = params.analysis_state;\n"
+          + "ctx._source.updated_at = params.updated_at;\n"
+          + "if (params.published_at != null) { ctx._source.published_at = params.published_at; }\n"
+          + "if (params.first_published_at != null) { ctx._source.first_published_at = params.first_published_at; }\n";
+
+  /**
+   * FileCentric Upsert Script. Updates all the properties of a document with the new document
+   * passed as parameter to the script, such new document does not include the repositories array as
+   * we do not want to replace repositories, instead we want to keep the existing repositories and
+   * just incorporate new repositories if needed. The dates parameters come from the document
+   * source, see {@link #putDateParams}.
+   */
+  private static final String FILE_CENTRIC_UPSERT_SCRIPT =
+      "List tempRepositories = ctx._source.repositories;\n"
+          + "ctx._source = params.document;\n"
+          + "if (!tempRepositories.contains(params.repository)) { tempRepositories.add(params.repository) }\n"
+          + "ctx._source.repositories = tempRepositories;\n"
+          + "ctx._source.analysis.analysis_state = params.analysis_state;\n"
+          + "ctx._source.analysis.updated_at = params.updated_at;\n"
+          + "if (params.published_at != null) { ctx._source.analysis.published_at = params.published_at; }\n"
+          + "if (params.first_published_at != null) { ctx._source.analysis.first_published_at = params.first_published_at; }\n";
+
+  // the scripts are overwritten on startup, bump the version when changing them so instances
+  // still running the previous version keep their script.
+  private static final String ANALYSIS_CENTRIC_UPSERT_SCRIPT_ID =
+      "maestro_analysis_centric_upsert_v1";
+  private static final String FILE_CENTRIC_UPSERT_SCRIPT_ID = "maestro_file_centric_upsert_v1";
+
+  /**
+   * Returns the stored AnalysisCentric upsert script, so only its id is sent with each request.
+   *
    * @param parameters a Map of parameters used by the script
-   * */
-  public static Script getInline(Map<String, Object> parameters) {
-    val inline =
-        new Script(
-            ScriptType.INLINE,
-            "painless",
-            "List tempRepositories = ctx._source.repositories;\n"
-                + "ctx._source = params.document;\n"
-                + "if (!tempRepositories.contains(params.repository)) { tempRepositories.add(params.repository) } \n"
-                + "ctx._source.repositories = tempRepositories;\n"
-                + "ctx._source.analysis_state = params.analysis_state;\n"
-                + "ctx._source.updated_at = ZonedDateTime.parse(params.updated_at).toInstant().toEpochMilli();\n"
-                + "if (params.published_at != null) { ctx._source.published_at = ZonedDateTime.parse(params.published_at).toInstant().toEpochMilli(); }\n"
-                + "if (params.first_published_at != null) { ctx._source.first_published_at = ZonedDateTime.parse(params.first_published_at).toInstant().toEpochMilli(); }\n",
-            parameters);
-    return inline;
+   */
+  public static Script getAnalysisCentricUpsertScript(Map<String, Object> parameters) {
+    return new Script(ScriptType.STORED, null, ANALYSIS_CENTRIC_UPSERT_SCRIPT_ID, parameters);
   }
 
   /**
-   * FileCentric Upsert Script.
-   * Returns a Script for the purpose of updating all the properties of a document with the new document passed as parameter to the script,
-   * such new document does not include the repositories array as we do not want to replace repositories,
-   * instead we want to keep the existing repositories and just incorporate new repositories if needed.
+   * Returns the stored FileCentric upsert script, so only its id is sent with each request.
    *
    * @param parameters a Map of parameters used by the script
-   * */
-  public static Script getInlineForFile(Map<String, Object> parameters) {
-    val inline =
-        new Script(
-            ScriptType.INLINE,
-            "painless",
-            "List tempRepositories = ctx._source.repositories;\n"
-                + "ctx._source = params.document;\n"
-                + "if (!tempRepositories.contains(params.repository)) { tempRepositories.add(params.repository) }\n"
-                + "ctx._source.repositories = tempRepositories;\n"
-                + "ctx._source.analysis.analysis_state = params.analysis_state;\n"
-                + "ctx._source.analysis.updated_at = ZonedDateTime.parse(params.updated_at).toInstant().toEpochMilli();\n"
-                + "if (params.published_at != null) { ctx._source.analysis.published_at = ZonedDateTime.parse(params.published_at).toInstant().toEpochMilli(); }\n"
-                + "if (params.first_published_at != null) { ctx._source.analysis.first_published_at = ZonedDateTime.parse(params.first_published_at).toInstant().toEpochMilli(); }\n",
-            parameters);
-    return inline;
+   */
+  public static Script getFileCentricUpsertScript(Map<String, Object> parameters) {
+    return new Script(ScriptType.STORED, null, FILE_CENTRIC_UPSERT_SCRIPT_ID, parameters);
+  }
+
+  public static void putAnalysisCentricUpsertScript(RestHighLevelClient client) throws IOException {
+    putStoredScript(client, ANALYSIS_CENTRIC_UPSERT_SCRIPT_ID, ANALYSIS_CENTRIC_UPSERT_SCRIPT);
   }
 
-  private static UpdateRequest prepareUpdate(UpdateRequest req) {
-    Assert.notNull(req, "No IndexRequest define for Query");
-    String indexName = req.index();
-    Assert.notNull(indexName, "No index defined for Query");
-    Assert.notNull(req.id(), "No Id define for Query");
-    return req;
+  public static void putFileCentricUpsertScript(RestHighLevelClient client) throws IOException {
+    putStoredScript(client, FILE_CENTRIC_UPSERT_SCRIPT_ID, FILE_CENTRIC_UPSERT_SCRIPT);
   }
 
-  static String getDateIso(Date date) {
-    DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-    dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-    return dateFormat.format(date);
+  private static void putStoredScript(RestHighLevelClient client, String id, String source)
+      throws IOException {
+    val content =
+        XContentFactory.jsonBuilder()
+            .startObject()
+            .startObject("script")
+            .field("lang", "painless")
+            .field("source", source)
+            .endObject()
+            .endObject();
+    val request =
+        new PutStoredScriptRequest()
+            .id(id)
+            .content(BytesReference.bytes(content), XContentType.JSON);
+    client.putScript(request, RequestOptions.DEFAULT);
+    log.info("stored script {} has been put", id);
   }
 }
@@ -0,0 +1,49 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import lombok.NonNull;
+
+/**
+ * Remembers the sources converted for the parts of the documents of a batch, a part that is the
+ * same instance in several documents is converted once and its source shared by all of them. The
+ * files of an analysis share its donors tree, so it's converted once per analysis whatever the
+ * order of the files in the batch. One cache is used per batch, it's released with it. It's safe to
+ * share between the threads preparing the bulks of the batch.
+ *
+ * <p>The shared sources must not be changed.
+ *
+ * @param <P> the type of the document part
+ */
+class SharedSourceCache<P> {
+  private final Function<P, Object> converter;
+  /** parts are compared by identity, equal parts of other analyses are converted on their own. */
+  private final Map<P, Object> sources = Collections.synchronizedMap(new IdentityHashMap<>());
+
+  SharedSourceCache(@NonNull Function<P, Object> converter) {
+    this.converter = converter;
+  }
+
+  Object get(@NonNull P part) {
+    return sources.computeIfAbsent(part, converter);
+  }
+}
@@ -0,0 +1,583 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.elasticsearch.Version;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.rest.RestStatus;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * A local append-only log of the bulk operations of an index that couldn't be sent because the
+ * cluster is down or rejecting them. Once something is spooled every later operation is spooled
+ * too, behind it, so they reach the index in the order they were requested. A background drainer
+ * replays the log in order with bulk requests as soon as the cluster accepts them again, after
+ * which operations are sent directly again.
+ *
+ * <p>The log is a sequence of segment files, appended to and synced to disk on each append, then
+ * read back through a memory mapping. A segment is deleted when it's fully replayed. The operations
+ * are idempotent (upserts, indexing and deletes by id) so a segment replayed again after a restart
+ * is harmless. Operations are kept in the elasticsearch wire format, segments written by another
+ * client version are set aside and not replayed.
+ *
+ * <p>The operations failing permanently on replay, like mapping errors, are moved to a dead letter
+ * file in the segment format, renaming it to a segment replays them once the cause is fixed. A
+ * segment with a corrupted entry is replayed up to it then moved aside next to the dead letter file
+ * as is, its operations from there on need to be recovered by hand.
+ */
+@Slf4j
+public class WriteAheadSpool {
+
+  private static final int MAGIC = 0x4D535031;
+  private static final int HEADER_BYTES = Integer.BYTES * 2;
+  private static final int ENTRY_HEADER_BYTES = Integer.BYTES * 2;
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String UNREADABLE_SUFFIX = ".unreadable";
+  private static final String CORRUPTED_SUFFIX = ".corrupted";
+  private static final String DEAD_LETTER_FILE = "dead-letter";
+
+  private final String indexName;
+  private final boolean enabled;
+  private final Path dir;
+  private final long segmentMaxBytes;
+  private final long maxBytes;
+  private final int drainBatchSize;
+  private final RestHighLevelClient client;
+  private final Scheduler scheduler;
+  private final Function<List<DocWriteRequest<?>>, Mono<Void>> droppedHandler;
+  private final Disposable drainer;
+
+  /** the segments not fully replayed yet, oldest first, the last one is the one appended to. */
+  private final Deque<Segment> segments = new ArrayDeque<>();
+
+  private FileChannel writer;
+  private long nextSequence;
+  /** where the replay is in the oldest segment. */
+  private long readPosition = HEADER_BYTES;
+  /** what's left to send again of the last batch read, its other operations were replayed. */
+  private Batch retried;
+
+  private long spooledBytes;
+
+  /** a spool that never accepts anything, operations fail as they did without spool. */
+  public static WriteAheadSpool disabled(@NonNull String indexName) {
+    return new WriteAheadSpool(indexName);
+  }
+
+  private WriteAheadSpool(String indexName) {
+    this.indexName = indexName;
+    this.enabled = false;
+    this.dir = null;
+    this.segmentMaxBytes = 0;
+    this.maxBytes = 0;
+    this.drainBatchSize = 0;
+    this.client = null;
+    this.scheduler = null;
+    this.droppedHandler = null;
+    this.drainer = null;
+  }
+
+  /**
+   * Recovers the segments left by a previous run and starts the drainer.
+   *
+   * @param dir where the segments of this index are kept
+   * @param drainInterval how often the drainer checks if the cluster accepts the operations again
+   * @param drainBatchSize max operations replayed per bulk request
+   * @param scheduler where the segments are read and written
+   * @param droppedHandler called with the operations moved to the dead letter file
+   */
+  public WriteAheadSpool(
+      @NonNull String indexName,
+      @NonNull Path dir,
+      long segmentMaxBytes,
+      long maxBytes,
+      @NonNull Duration drainInterval,
+      int drainBatchSize,
+      @NonNull RestHighLevelClient client,
+      @NonNull Scheduler scheduler,
+      @NonNull Function<List<DocWriteRequest<?>>, Mono<Void>> droppedHandler) {
+    this.indexName = indexName;
+    this.enabled = true;
+    this.dir = dir;
+    this.segmentMaxBytes = segmentMaxBytes;
+    this.maxBytes = maxBytes;
+    this.drainBatchSize = Math.max(drainBatchSize, 1);
+    this.client = client;
+    this.scheduler = scheduler;
+    this.droppedHandler = droppedHandler;
+    recover();
+    this.drainer =
+        Flux.interval(drainInterval).onBackpressureDrop().concatMap(tick -> drain(), 1).subscribe();
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** if true operations must be appended behind the spooled ones instead of sent directly. */
+  public synchronized boolean isPending() {
+    return !segments.isEmpty();
+  }
+
+  /**
+   * Appends the operations, they are on disk when the returned mono completes. Fails if the spool
+   * is disabled or full.
+   */
+  public Mono<Void> append(@NonNull List<DocWriteRequest<?>> requests) {
+    if (!enabled) {
+      return Mono.error(new IllegalStateException("the spool of " + indexName + " is disabled"));
+    }
+    return Mono.fromRunnable(() -> write(encode(requests))).subscribeOn(scheduler).then();
+  }
+
+  /** Stops the drainer, what's still spooled is replayed by the next run. */
+  @SneakyThrows
+  public synchronized void close() {
+    if (drainer != null) {
+      drainer.dispose();
+    }
+    if (writer != null) {
+      writer.close();
+      writer = null;
+    }
+  }
+
+  /* *******************
+   *  Private methods
+   *********************/
+  @SneakyThrows
+  private static ByteBuffer encode(List<DocWriteRequest<?>> requests) {
+    val out = new BytesStreamOutput();
+    val crc = new CRC32();
+    for (DocWriteRequest<?> request : requests) {
+      val entry = new BytesStreamOutput();
+      DocWriteRequest.writeDocumentRequest(entry, request);
+      val bytes = BytesReference.toBytes(entry.bytes());
+      crc.reset();
+      crc.update(bytes);
+      out.writeInt(bytes.length);
+      out.writeInt((int) crc.getValue());
+      out.writeBytes(bytes);
+    }
+    return ByteBuffer.wrap(BytesReference.toBytes(out.bytes()));
+  }
+
+  @SneakyThrows
+  private synchronized void write(ByteBuffer entries) {
+    val size = entries.remaining();
+    if (spooledBytes + size > maxBytes) {
+      throw new IllegalStateException("the spool of " + indexName + " is full");
+    }
+    if (segments.isEmpty()) {
+      log.warn("cluster unavailable, spooling the operations of {} to {}", indexName, dir);
+    }
+    if (writer == null || segments.getLast().size + size > segmentMaxBytes) {
+      roll();
+    }
+    try {
+      writeFully(writer, entries);
+      writer.force(false);
+    } catch (IOException e) {
+      // the next appends would land behind a partial entry otherwise
+      writer.truncate(segments.getLast().size);
+      throw e;
+    }
+    segments.getLast().size += size;
+    spooledBytes += size;
+  }
+
+  /** the previous segment is closed, it's only read from now on. */
+  private void roll() throws IOException {
+    if (writer != null) {
+      writer.close();
+    }
+    Files.createDirectories(dir);
+    val segment =
+        new Segment(dir.resolve(String.format("%020d%s", nextSequence++, SEGMENT_SUFFIX)));
+    writer =
+        FileChannel.open(
+            segment.path,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+    writeFully(writer, header());
+    segment.size = HEADER_BYTES;
+    segments.addLast(segment);
+  }
+
+  private static ByteBuffer header() {
+    return ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(Version.CURRENT.id).flip();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Segments left by a previous run are only read, a new one is started for the next appends. The
+   * last entry of the last one may be incomplete if the previous run stopped while writing it, it's
+   * dropped.
+   */
+  @SneakyThrows
+  private synchronized void recover() {
+    if (!Files.isDirectory(dir)) {
+      return;
+    }
+    List<Path> files;
+    try (Stream<Path> listing = Files.list(dir)) {
+      files =
+          listing
+              .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+    for (Path file : files) {
+      val segment = new Segment(file);
+      segment.size = Files.size(file);
+      if (!isReadable(file)) {
+        Files.move(file, file.resolveSibling(file.getFileName() + UNREADABLE_SUFFIX));
+        log.error("segment {} wasn't written by this client version, it won't be replayed", file);
+        continue;
+      }
+      segments.addLast(segment);
+      spooledBytes += segment.size - HEADER_BYTES;
+      val name = file.getFileName().toString();
+      nextSequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) + 1;
+    }
+    if (!segments.isEmpty()) {
+      segments.getLast().mayEndIncomplete = true;
+      log.info("recovered {} spooled bytes of {} from {}", spooledBytes, indexName, dir);
+    }
+  }
+
+  private static boolean isReadable(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      val header = ByteBuffer.allocate(HEADER_BYTES);
+      while (header.hasRemaining() && channel.read(header) >= 0) {}
+      header.flip();
+      return header.remaining() == HEADER_BYTES
+          && header.getInt() == MAGIC
+          && header.getInt() == Version.CURRENT.id;
+    }
+  }
+
+  /** Replays batches until the spool is empty or the cluster doesn't accept them. */
+  private Mono<Void> drain() {
+    return Mono.fromCallable(this::readBatch)
+        .subscribeOn(scheduler)
+        .flatMap(
+            batch ->
+                SearchAdapterHelper.toMono(
+                        (ActionListener<BulkResponse> listener) ->
+                            client.bulkAsync(
+                                batch.toBulkRequest(), RequestOptions.DEFAULT, listener))
+                    .flatMap(response -> handleResponse(batch, response))
+                    .filter(replayed -> replayed)
+                    .doOnNext(replayed -> commit(batch))
+                    .flatMap(replayed -> drain()))
+        .onErrorResume(
+            e -> {
+              log.debug("cluster still unavailable, {} stays spooled", indexName, e);
+              return Mono.empty();
+            });
+  }
+
+  /**
+   * The items rejected or hitting an unavailable shard are sent again by the next drain, without
+   * the items that succeeded. Items failing for other reasons like mapping errors would fail on
+   * each replay so they are moved to the dead letter file.
+   *
+   * @return true if the whole batch is replayed
+   */
+  private Mono<Boolean> handleResponse(Batch batch, BulkResponse response) {
+    if (!response.hasFailures()) {
+      return Mono.just(true);
+    }
+    val retriedRequests = new ArrayList<DocWriteRequest<?>>();
+    val droppedRequests = new ArrayList<DocWriteRequest<?>>();
+    val failures = new ArrayList<String>();
+    for (BulkItemResponse item : response.getItems()) {
+      if (!item.isFailed()) {
+        continue;
+      }
+      val request = batch.requests.get(item.getItemId());
+      if (item.status() == RestStatus.TOO_MANY_REQUESTS || item.status().getStatus() >= 500) {
+        retriedRequests.add(request);
+      } else {
+        droppedRequests.add(request);
+        failures.add(item.getId() + ": " + item.getFailureMessage());
+      }
+    }
+    return deadLetter(droppedRequests, failures)
+        .then(
+            Mono.fromCallable(
+                () -> {
+                  if (retriedRequests.isEmpty()) {
+                    return true;
+                  }
+                  retry(new Batch(batch.segment, batch.end, retriedRequests));
+                  return false;
+                }));
+  }
+
+  /**
+   * Appends the operations to the dead letter file then lets the handler forget them, its failure
+   * is only logged since they are out of the spool already.
+   */
+  private Mono<Void> deadLetter(List<DocWriteRequest<?>> requests, List<String> failures) {
+    if (requests.isEmpty()) {
+      return Mono.empty();
+    }
+    return Mono.fromRunnable(() -> appendDeadLetters(requests))
+        .subscribeOn(scheduler)
+        .doOnSuccess(
+            v ->
+                log.error(
+                    "moved spooled operations of {} failing permanently to {}: {}",
+                    indexName,
+                    dir.resolve(DEAD_LETTER_FILE),
+                    failures))
+        .then(
+            Mono.defer(() -> droppedHandler.apply(requests))
+                .onErrorResume(
+                    e -> {
+                      log.error("failed to handle the dropped operations of {}", indexName, e);
+                      return Mono.empty();
+                    }));
+  }
+
+  @SneakyThrows
+  private synchronized void appendDeadLetters(List<DocWriteRequest<?>> requests) {
+    Files.createDirectories(dir);
+    try (FileChannel channel =
+        FileChannel.open(
+            dir.resolve(DEAD_LETTER_FILE),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND)) {
+      if (channel.size() == 0) {
+        writeFully(channel, header());
+      }
+      writeFully(channel, encode(requests));
+      channel.force(false);
+    }
+  }
+
+  /**
+   * Reads the next operations from the oldest segment, fully read segments are deleted on the way.
+   * What's left to send again of the last batch comes first. The last segment is the one being
+   * appended to, when it's fully read the spool is empty and operations are sent directly again.
+   *
+   * @return nothing if the spool is empty
+   */
+  @SneakyThrows
+  private synchronized Batch readBatch() {
+    if (retried != null) {
+      return retried;
+    }
+    while (!segments.isEmpty()) {
+      val segment = segments.getFirst();
+      val requests = new ArrayList<DocWriteRequest<?>>();
+      long end;
+      try {
+        end = readEntries(segment, requests);
+      } catch (CorruptedEntryException e) {
+        if (!requests.isEmpty()) {
+          // the entries before the corrupted one are replayed first
+          return new Batch(segment, e.position, requests);
+        }
+        removeFirstSegment();
+        setAside(segment, e);
+        continue;
+      }
+      if (!requests.isEmpty()) {
+        return new Batch(segment, end, requests);
+      }
+      removeFirstSegment();
+      Files.deleteIfExists(segment.path);
+      if (segments.isEmpty()) {
+        log.info("spool of {} has been replayed, sending operations directly", indexName);
+      }
+    }
+    return null;
+  }
+
+  private void removeFirstSegment() throws IOException {
+    val segment = segments.removeFirst();
+    if (segments.isEmpty() && writer != null) {
+      writer.close();
+      writer = null;
+    }
+    spooledBytes -= segment.size - HEADER_BYTES;
+    readPosition = HEADER_BYTES;
+  }
+
+  /** The segment is kept as is for the operations from the corrupted entry to be recovered. */
+  private void setAside(Segment segment, CorruptedEntryException e) throws IOException {
+    val target =
+        dir.resolve(DEAD_LETTER_FILE + "-" + segment.path.getFileName() + CORRUPTED_SUFFIX);
+    Files.move(segment.path, target);
+    log.error(
+        "corrupted entry at {} of {}, the spooled operations of {} from there are not replayed, "
+            + "the segment is moved to {}",
+        e.position,
+        segment.path,
+        indexName,
+        target,
+        e);
+  }
+
+  /**
+   * Only the last entry of the last segment of a previous run may be incomplete, anything else that
+   * can't be read is a corrupted entry.
+   *
+   * @return the position after the last entry read
+   */
+  private long readEntries(Segment segment, List<DocWriteRequest<?>> requests) throws IOException {
+    if (segment.size <= readPosition) {
+      return readPosition;
+    }
+    MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+      mapped =
+          channel.map(FileChannel.MapMode.READ_ONLY, readPosition, segment.size - readPosition);
+    }
+    val crc = new CRC32();
+    long position = readPosition;
+    while (requests.size() < drainBatchSize && mapped.hasRemaining()) {
+      if (mapped.remaining() < ENTRY_HEADER_BYTES) {
+        incompleteEntry(segment, position);
+        break;
+      }
+      val length = mapped.getInt();
+      val checksum = mapped.getInt();
+      if (length < 0) {
+        throw new CorruptedEntryException(position, "negative length " + length);
+      }
+      if (length > mapped.remaining()) {
+        incompleteEntry(segment, position);
+        break;
+      }
+      val bytes = new byte[length];
+      mapped.get(bytes);
+      crc.reset();
+      crc.update(bytes);
+      if ((int) crc.getValue() != checksum) {
+        throw new CorruptedEntryException(position, "checksum mismatch");
+      }
+      try (StreamInput in = StreamInput.wrap(bytes)) {
+        requests.add(DocWriteRequest.readDocumentRequest(in));
+      } catch (IOException | RuntimeException e) {
+        throw new CorruptedEntryException(position, e.toString());
+      }
+      position += ENTRY_HEADER_BYTES + length;
+    }
+    return position;
+  }
+
+  private static void incompleteEntry(Segment segment, long position)
+      throws CorruptedEntryException {
+    if (!segment.mayEndIncomplete) {
+      throw new CorruptedEntryException(position, "incomplete entry");
+    }
+    log.warn("incomplete last entry at {} of {}, dropping it", position, segment.path);
+  }
+
+  private synchronized void retry(Batch batch) {
+    retried = batch;
+  }
+
+  private synchronized void commit(Batch batch) {
+    retried = null;
+    if (!segments.isEmpty() && segments.getFirst() == batch.segment) {
+      readPosition = batch.end;
+    }
+  }
+
+  private static class Segment {
+    private final Path path;
+    private long size;
+    /** the last segment of a previous run, it may have been stopped while appending to it. */
+    private boolean mayEndIncomplete;
+
+    private Segment(Path path) {
+      this.path = path;
+    }
+  }
+
+  private static class CorruptedEntryException extends IOException {
+    private final long position;
+
+    private CorruptedEntryException(long position, String reason) {
+      super(reason);
+      this.position = position;
+    }
+  }
+
+  private static class Batch {
+    private final Segment segment;
+    private final long end;
+    private final List<DocWriteRequest<?>> requests;
+
+    private Batch(Segment segment, long end, List<DocWriteRequest<?>> requests) {
+      this.segment = segment;
+      this.end = end;
+      this.requests = requests;
+    }
+
+    private BulkRequest toBulkRequest() {
+      val bulkRequest = new BulkRequest();
+      requests.forEach(bulkRequest::add);
+      return bulkRequest;
+    }
+  }
+}
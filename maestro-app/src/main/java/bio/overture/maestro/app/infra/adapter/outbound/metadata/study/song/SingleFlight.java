@@ -0,0 +1,66 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.metadata.study.song;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import lombok.NonNull;
+import lombok.val;
+import reactor.core.publisher.Mono;
+
+/**
+ * Coalesces concurrent calls for the same key into one in flight request, callers that arrive while
+ * the request is still running subscribe to it and get its result instead of making their own. Once
+ * the request terminates the key is released and the next call makes a new request, so this is not
+ * a cache.
+ */
+class SingleFlight<K, V> {
+
+  private final Map<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+  private final Counter executedCalls;
+  private final Counter coalescedCalls;
+
+  SingleFlight(@NonNull String metricName) {
+    this.executedCalls = Metrics.counter(metricName, "coalesced", "false");
+    this.coalescedCalls = Metrics.counter(metricName, "coalesced", "true");
+  }
+
+  Mono<V> execute(@NonNull K key, @NonNull Function<K, Mono<V>> call) {
+    return Mono.defer(
+        () -> {
+          val existing = inFlight.get(key);
+          if (existing != null) {
+            coalescedCalls.increment();
+            return existing;
+          }
+          // cache() makes the late subscribers replay the result instead of calling again, and the
+          // key is released when the call terminates so the next caller gets fresh data.
+          val shared = call.apply(key).doFinally(signal -> inFlight.remove(key)).cache();
+          val raced = inFlight.putIfAbsent(key, shared);
+          if (raced != null) {
+            coalescedCalls.increment();
+            return raced;
+          }
+          executedCalls.increment();
+          return shared;
+        });
+  }
+}
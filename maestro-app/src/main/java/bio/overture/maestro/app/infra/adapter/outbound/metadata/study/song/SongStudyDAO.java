@@ -21,6 +21,7 @@ import static bio.overture.maestro.domain.utility.Exceptions.notFound;
 import static java.text.MessageFormat.format;
 import static reactor.core.publisher.Mono.error;
 
+import bio.overture.maestro.app.infra.config.PortSchedulers;
 import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
 import bio.overture.maestro.domain.api.exception.NotFoundException;
 import bio.overture.maestro.domain.entities.metadata.study.Analysis;
@@ -44,6 +45,7 @@ import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 import reactor.util.retry.RetryBackoffSpec;
 
 @Slf4j
@@ -61,6 +63,8 @@ class SongStudyDAO implements StudyDAO {
   private static final int FALLBACK_SONG_ANALYSIS_TIMEOUT = 5;
   private static final int FALLBACK_SONG_MAX_RETRY = 0;
   private static final int DEFAULT_SONG_PAGE_LIMIT = 25;
+  private static final int DEFAULT_SONG_PAGE_FETCH_CONCURRENCY = 1;
+  private static final String ANALYSIS_REQUESTS_METRIC = "maestro.song.analysis.requests";
   private final WebClient webClient;
   private final int songMaxRetries;
   private final int minBackoffSec = 1;
@@ -71,16 +75,29 @@ class SongStudyDAO implements StudyDAO {
   private final int studyCallTimeoutSeconds;
 
   private final int analysisCallTimeoutSeconds;
+  private final SingleFlight<GetAnalysisCommand, Analysis> analysisRequests =
+      new SingleFlight<>(ANALYSIS_REQUESTS_METRIC);
   private final int pageLimit;
+  /** max number of analyses pages requests in flight for a single study, 1 fetches sequentially */
+  private final int pageFetchConcurrency;
+  /** the responses are processed here rather than on the http client event loops. */
+  private final Scheduler scheduler;
 
   @Inject
   public SongStudyDAO(
-      @NonNull WebClient webClient, @NonNull ApplicationProperties applicationProperties) {
+      @NonNull WebClient webClient,
+      @NonNull ApplicationProperties applicationProperties,
+      @NonNull PortSchedulers schedulers) {
     this.webClient = webClient;
+    this.scheduler = schedulers.getSong();
     this.pageLimit =
         applicationProperties.pageLimit() > 0
             ? applicationProperties.pageLimit()
             : DEFAULT_SONG_PAGE_LIMIT;
+    this.pageFetchConcurrency =
+        applicationProperties.songPageFetchConcurrency() > 0
+            ? applicationProperties.songPageFetchConcurrency()
+            : DEFAULT_SONG_PAGE_FETCH_CONCURRENCY;
     this.indexableStudyStatuses = applicationProperties.indexableStudyStatuses();
     this.indexableStudyStatusesList = List.of(indexableStudyStatuses.split(","));
     this.songMaxRetries =
@@ -100,49 +117,99 @@ class SongStudyDAO implements StudyDAO {
   @Override
   public Mono<List<Analysis>> getStudyAnalyses(GetStudyAnalysesCommand getStudyAnalysesCommand) {
     log.trace("in getStudyAnalyses, args: {} ", getStudyAnalysesCommand);
+    return streamStudyAnalyses(getStudyAnalysesCommand)
+        .flatMapIterable(Function.identity())
+        .collectList()
+        .doOnSuccess(
+            (list) ->
+                log.trace(
+                    "getStudyAnalyses out, analyses count {} args: {}",
+                    list.size(),
+                    getStudyAnalysesCommand));
+  }
+
+  @Override
+  public Flux<List<Analysis>> streamStudyAnalyses(
+      @NonNull GetStudyAnalysesCommand getStudyAnalysesCommand) {
+    log.trace("in streamStudyAnalyses, args: {} ", getStudyAnalysesCommand);
     val repoBaseUrl = getStudyAnalysesCommand.getFilesRepositoryBaseUrl();
     val studyId = getStudyAnalysesCommand.getStudyId();
 
-    var initialOffset = 0;
-    val url =
-        format(
-            STUDY_ANALYSES_URL_TEMPLATE,
+    val firstPage = fetchItems(studyAnalysesPageUrl(repoBaseUrl, studyId, 0), studyId);
+    if (this.pageFetchConcurrency <= 1) {
+      return fetchPagesSequentially(firstPage, repoBaseUrl, studyId, 0)
+          .map(GetAnalysisResponse::getAnalyses)
+          .filter(analyses -> !analyses.isEmpty());
+    }
+    return firstPage
+        .flatMapMany(rep -> fetchPagesConcurrently(rep, repoBaseUrl, studyId))
+        .map(GetAnalysisResponse::getAnalyses)
+        .filter(analyses -> !analyses.isEmpty());
+  }
+
+  /**
+   * Uses the total analyses count returned with the first page to request the rest of the pages
+   * concurrently (bounded by the page fetch concurrency). flatMapSequential emits the pages in
+   * offset order regardless of which response arrives first, and every page keeps its own retries
+   * and timeout.
+   */
+  private Flux<GetAnalysisResponse> fetchPagesConcurrently(
+      GetAnalysisResponse firstPage, String repoBaseUrl, String studyId) {
+    if (firstPage.getAnalyses().size() == 0) {
+      return Flux.just(firstPage);
+    }
+    // without a total we can't know the pages upfront, fall back to walking them.
+    if (firstPage.getTotalAnalyses() == null) {
+      return fetchPagesSequentially(Mono.just(firstPage), repoBaseUrl, studyId, 0);
+    }
+    val knownPages =
+        Math.max((firstPage.getTotalAnalyses() + this.pageLimit - 1) / this.pageLimit, 1);
+    val nextOffset = knownPages * this.pageLimit;
+    return Flux.concat(
+        Flux.just(firstPage),
+        Flux.range(1, knownPages - 1)
+            .flatMapSequential(
+                page ->
+                    fetchItems(
+                        studyAnalysesPageUrl(repoBaseUrl, studyId, page * this.pageLimit), studyId),
+                this.pageFetchConcurrency),
+        // analyses published while we were fetching are picked up by walking the pages after the
+        // known total till an empty one, same as the sequential mode.
+        fetchPagesSequentially(
+            fetchItems(studyAnalysesPageUrl(repoBaseUrl, studyId, nextOffset), studyId),
             repoBaseUrl,
             studyId,
-            this.indexableStudyStatuses,
-            this.pageLimit,
-            initialOffset);
-    val threadSafeOffset = new AtomicInteger(0);
+            nextOffset));
+  }
 
-    return fetchItems(url, studyId)
+  private Flux<GetAnalysisResponse> fetchPagesSequentially(
+      Mono<GetAnalysisResponse> firstPage, String repoBaseUrl, String studyId, int initialOffset) {
+    val threadSafeOffset = new AtomicInteger(initialOffset);
+    return firstPage
         // The expand method recursively calls fetchItems() and emits response of first page to the
         // last.
         // the first request being made is offset = 0, and the second request is offset = 25,
         // and all the way to the last page.
         .expand(
-            rep -> {
-              if (rep.getAnalyses().size() == 0) {
-                return Mono.empty();
-              }
-              threadSafeOffset.addAndGet(this.pageLimit);
-              val currentUrl =
-                  format(
-                      STUDY_ANALYSES_URL_TEMPLATE,
-                      repoBaseUrl,
-                      studyId,
-                      this.indexableStudyStatuses,
-                      this.pageLimit,
-                      threadSafeOffset.get());
-              return fetchItems(currentUrl, studyId);
-            })
-        .flatMap(rep -> Flux.fromIterable(rep.getAnalyses()))
-        .collectList()
-        .doOnSuccess(
-            (list) ->
-                log.trace(
-                    "getStudyAnalyses out, analyses count {} args: {}",
-                    list.size(),
-                    getStudyAnalysesCommand));
+        rep -> {
+          if (rep.getAnalyses().size() == 0) {
+            return Mono.empty();
+          }
+          val currentUrl =
+              studyAnalysesPageUrl(
+                  repoBaseUrl, studyId, threadSafeOffset.addAndGet(this.pageLimit));
+          return fetchItems(currentUrl, studyId);
+        });
+  }
+
+  private String studyAnalysesPageUrl(String repoBaseUrl, String studyId, int offset) {
+    return format(
+        STUDY_ANALYSES_URL_TEMPLATE,
+        repoBaseUrl,
+        studyId,
+        this.indexableStudyStatuses,
+        this.pageLimit,
+        offset);
   }
 
   private Mono<GetAnalysisResponse> fetchItems(@NonNull String url, @NonNull String studyId) {
@@ -158,7 +225,8 @@ class SongStudyDAO implements StudyDAO {
             HttpStatus.NOT_FOUND::equals,
             clientResponse -> error(notFound(MSG_STUDY_DOES_NOT_EXIST, studyId)))
         .bodyToMono(GetAnalysisResponse.class)
-        .transform(retryAndTimeout(retrySpec, Duration.ofSeconds(this.studyCallTimeoutSeconds)));
+        .transform(retryAndTimeout(retrySpec, Duration.ofSeconds(this.studyCallTimeoutSeconds)))
+        .publishOn(this.scheduler);
   }
 
   @Override
@@ -178,13 +246,22 @@ class SongStudyDAO implements StudyDAO {
         // https://github.com/spring-projects/spring-framework/issues/22662
         .bodyToMono(StringListType)
         .transform(retryAndTimeout(retrySpec, Duration.ofSeconds(this.studyCallTimeoutSeconds)))
+        .publishOn(this.scheduler)
         .flatMapMany(Flux::fromIterable)
         .map(id -> Study.builder().studyId(id).build());
   }
 
+  /**
+   * concurrent calls for the same repository, study and analysis share one in flight request, see
+   * {@link SingleFlight}.
+   */
   @Override
   public Mono<Analysis> getAnalysis(@NonNull GetAnalysisCommand command) {
     log.trace("in getAnalysis, args: {} ", command);
+    return analysisRequests.execute(command, this::fetchAnalysis);
+  }
+
+  private Mono<Analysis> fetchAnalysis(@NonNull GetAnalysisCommand command) {
     val repoBaseUrl = command.getFilesRepositoryBaseUrl();
     val analysisId = command.getAnalysisId();
     val studyId = command.getStudyId();
@@ -200,6 +277,7 @@ class SongStudyDAO implements StudyDAO {
                 error(notFound(MSG_ANALYSIS_DOES_NOT_EXIST, analysisId, studyId, repoBaseUrl)))
         .bodyToMono(Analysis.class)
         .transform(retryAndTimeout(retrySpec, Duration.ofSeconds(this.analysisCallTimeoutSeconds)))
+        .publishOn(this.scheduler)
         .doOnSuccess(
             (analysis) -> log.trace("getAnalysis out, analysis {} args: {}", analysis, command))
         .flatMap(
@@ -213,8 +291,7 @@ class SongStudyDAO implements StudyDAO {
   }
 
   private reactor.util.retry.Retry getRetryConfigs(Object logParam) {
-    return RetryBackoffSpec.backoff(
-            songMaxRetries, Duration.ofSeconds(minBackoffSec))
+    return RetryBackoffSpec.backoff(songMaxRetries, Duration.ofSeconds(minBackoffSec))
         .maxBackoff(Duration.ofSeconds(maxBackoffSec))
         .filter((e) -> !(e instanceof NotFoundException))
         .doBeforeRetry(retryCtx -> log.error("retrying  {}", logParam, retryCtx.failure()));
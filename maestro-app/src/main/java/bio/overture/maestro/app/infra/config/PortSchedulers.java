@@ -0,0 +1,131 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.config;
+
+import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The schedulers the outbound ports hand their work to instead of the shared reactor ones, each
+ * port has its own named pool with a bounded number of threads and of queued tasks so a slow port
+ * can't starve the others. Tasks over the queue cap are rejected and fail the operation. The pools
+ * usage is published as metrics.
+ */
+@Slf4j
+@Getter
+public class PortSchedulers implements Closeable {
+
+  /** mapping and serializing the documents read from elasticsearch. */
+  private final Scheduler elasticsearchReads;
+
+  /** serializing the documents written to elasticsearch and the spool io. */
+  private final Scheduler elasticsearchWrites;
+
+  /** the processing of song responses, off the http client event loops. */
+  private final Scheduler song;
+
+  /** reading and writing the local files, the study checkpoints and the write cache. */
+  private final Scheduler localStorage;
+
+  public PortSchedulers(@NonNull ApplicationProperties properties) {
+    Schedulers.enableMetrics();
+    val virtualThreads = properties.schedulersVirtualThreads();
+    this.elasticsearchReads =
+        create(
+            "maestro-es-reads",
+            properties.elasticSearchReadsSchedulerThreadCap(),
+            properties.elasticSearchReadsSchedulerQueuedTaskCap(),
+            virtualThreads);
+    this.elasticsearchWrites =
+        create(
+            "maestro-es-writes",
+            properties.elasticSearchWritesSchedulerThreadCap(),
+            properties.elasticSearchWritesSchedulerQueuedTaskCap(),
+            virtualThreads);
+    this.song =
+        create(
+            "maestro-song",
+            properties.songSchedulerThreadCap(),
+            properties.songSchedulerQueuedTaskCap(),
+            virtualThreads);
+    this.localStorage =
+        create(
+            "maestro-local-storage",
+            properties.localStorageSchedulerThreadCap(),
+            properties.localStorageSchedulerQueuedTaskCap(),
+            virtualThreads);
+  }
+
+  @Override
+  public void close() {
+    elasticsearchReads.dispose();
+    elasticsearchWrites.dispose();
+    song.dispose();
+    localStorage.dispose();
+  }
+
+  /* *******************
+   *  Private methods
+   *********************/
+  private static Scheduler create(
+      String name, int threadCap, int queuedTaskCap, boolean virtualThreads) {
+    if (virtualThreads) {
+      val executor = newVirtualThreadExecutor(name);
+      if (executor != null) {
+        log.info("{} runs on virtual threads", name);
+        return Schedulers.fromExecutorService(executor, name);
+      }
+      log.warn("virtual threads aren't supported by this jvm, {} uses a bounded pool", name);
+    }
+    return Schedulers.newBoundedElastic(
+        threadCap > 0 ? threadCap : Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE,
+        queuedTaskCap > 0 ? queuedTaskCap : Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE,
+        name);
+  }
+
+  /**
+   * Virtual threads are looked up reflectively since we build for java 11. There is no cap on them,
+   * they are cheap to create and don't hold a carrier thread while blocked.
+   *
+   * @return nothing if the jvm doesn't support them
+   */
+  private static ExecutorService newVirtualThreadExecutor(String name) {
+    try {
+      val builderType = Class.forName("java.lang.Thread$Builder");
+      val builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      val namedBuilder =
+          builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+      val threadFactory = (ThreadFactory) builderType.getMethod("factory").invoke(namedBuilder);
+      return (ExecutorService)
+          Executors.class
+              .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+              .invoke(null, threadFactory);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
@@ -20,6 +20,8 @@ package bio.overture.maestro.app.infra.config;
 import bio.overture.maestro.app.infra.adapter.inbound.messaging.MessagingConfig;
 import bio.overture.maestro.app.infra.adapter.inbound.webapi.GlobalWebExceptionHandler;
 import bio.overture.maestro.app.infra.adapter.inbound.webapi.ManagementController;
+import bio.overture.maestro.app.infra.adapter.outbound.indexing.cache.WriteCacheConfig;
+import bio.overture.maestro.app.infra.adapter.outbound.indexing.checkpoint.CheckpointConfig;
 import bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.ElasticSearchConfig;
 import bio.overture.maestro.app.infra.adapter.outbound.indexing.rules.ExclusionRulesConfig;
 import bio.overture.maestro.app.infra.adapter.outbound.metadata.repostiory.RepositoryConfig;
@@ -59,6 +61,8 @@ public class RootConfiguration {
 @Import({
   ElasticSearchConfig.class,
   ExclusionRulesConfig.class,
+  CheckpointConfig.class,
+  WriteCacheConfig.class,
   MessagingConfig.class,
   WebConfig.class,
   SongConfig.class,
@@ -76,6 +80,11 @@ class PortsConfig {}
   PropertiesConfig.class,
 })
 class InfraConfig {
+  @Bean
+  PortSchedulers portSchedulers(ApplicationProperties properties) {
+    return new PortSchedulers(properties);
+  }
+
   @Bean
   WebClient webClient(ApplicationProperties properties) {
     return WebClient.builder()
@@ -32,8 +32,16 @@ public interface ApplicationProperties {
 
   int webClientMaxInMemorySize();
 
+  String elasticSearchClusterName();
+
   List<String> elasticSearchClusterNodes();
 
+  /**
+   * The clusters the documents are also written to, each one as properties where the elasticsearch
+   * client settings are the ones of the mirror cluster and the rest are these properties.
+   */
+  List<ApplicationProperties> elasticSearchMirrors();
+
   String fileCentricAlias();
 
   String fileCentricIndexName();
@@ -48,6 +56,40 @@ public interface ApplicationProperties {
 
   int maxDocsPerBulkRequest();
 
+  int elasticSearchMaxConcurrentRequests();
+
+  boolean elasticSearchClientSideMerge();
+
+  long elasticSearchBulkInitialBytes();
+
+  long elasticSearchBulkMinBytes();
+
+  long elasticSearchBulkMaxBytes();
+
+  long elasticSearchBulkStepBytes();
+
+  long elasticSearchBulkLatencyThresholdMillis();
+
+  long elasticSearchRemovalBatchWindowMillis();
+
+  int elasticSearchRemovalBatchMaxSize();
+
+  String elasticSearchByQueryTaskSlices();
+
+  long elasticSearchByQueryTaskPollIntervalMillis();
+
+  int elasticSearchRebuildMaxRecordedWrites();
+
+  boolean elasticSearchSpoolEnabled();
+
+  String elasticSearchSpoolDir();
+
+  long elasticSearchSpoolSegmentMaxBytes();
+
+  long elasticSearchSpoolMaxBytes();
+
+  long elasticSearchSpoolDrainIntervalMillis();
+
   int elasticSearchClientConnectionTimeoutMillis();
 
   int elasticSearchClientSocketTimeoutMillis();
@@ -82,8 +124,48 @@ public interface ApplicationProperties {
 
   int pageLimit();
 
+  int songPageFetchConcurrency();
+
   int songAnalysisCallTimeoutSeconds();
 
+  boolean isStudyStreamingEnabled();
+
+  int studyStreamingWindowSize();
+
+  int conversionParallelism();
+
+  boolean isIncrementalIndexingEnabled();
+
+  int incrementalClockSkewMarginSeconds();
+
+  String studyCheckpointsDir();
+
+  boolean isWriteCacheEnabled();
+
+  String writeCacheDir();
+
+  long writeCacheMaxDocuments();
+
+  long writeCacheJournalCompactionBytes();
+
+  boolean schedulersVirtualThreads();
+
+  int elasticSearchReadsSchedulerThreadCap();
+
+  int elasticSearchReadsSchedulerQueuedTaskCap();
+
+  int elasticSearchWritesSchedulerThreadCap();
+
+  int elasticSearchWritesSchedulerQueuedTaskCap();
+
+  int songSchedulerThreadCap();
+
+  int songSchedulerQueuedTaskCap();
+
+  int localStorageSchedulerThreadCap();
+
+  int localStorageSchedulerQueuedTaskCap();
+
   Slack.SlackChannelInfo getSlackChannelInfo();
 
   boolean disableIndexing();
@@ -22,6 +22,7 @@ import static bio.overture.maestro.app.infra.config.properties.DefaultApplicatio
 import bio.overture.maestro.app.infra.adapter.outbound.notification.Slack;
 import bio.overture.maestro.domain.api.NotificationName;
 import bio.overture.maestro.domain.entities.indexing.StorageType;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -51,11 +52,23 @@ final class DefaultApplicationProperties implements ApplicationProperties {
     return this.webClient.maxInMemorySize;
   }
 
+  @Override
+  public String elasticSearchClusterName() {
+    return this.elasticsearch.getName();
+  }
+
   @Override
   public List<String> elasticSearchClusterNodes() {
     return List.copyOf(this.elasticsearch.getClusterNodes());
   }
 
+  @Override
+  public List<ApplicationProperties> elasticSearchMirrors() {
+    return this.elasticsearch.getMirrors().stream()
+        .map(this::mirrorProperties)
+        .collect(Collectors.toUnmodifiableList());
+  }
+
   @Override
   public String fileCentricAlias() {
     return this.elasticsearch.getIndexes().getFileCentric().getAlias();
@@ -91,6 +104,93 @@ final class DefaultApplicationProperties implements ApplicationProperties {
     return this.elasticsearch.getClient().getDocsPerBulkReqMax();
   }
 
+  @Override
+  public int elasticSearchMaxConcurrentRequests() {
+    return this.elasticsearch.getClient().getMaxConcurrentRequests();
+  }
+
+  @Override
+  public boolean elasticSearchClientSideMerge() {
+    return this.elasticsearch.getClient().isClientSideMerge();
+  }
+
+  @Override
+  public long elasticSearchBulkInitialBytes() {
+    return this.elasticsearch.getClient().getBulkBytes().getInitial();
+  }
+
+  @Override
+  public long elasticSearchBulkMinBytes() {
+    return this.elasticsearch.getClient().getBulkBytes().getMin();
+  }
+
+  @Override
+  public long elasticSearchBulkMaxBytes() {
+    return this.elasticsearch.getClient().getBulkBytes().getMax();
+  }
+
+  @Override
+  public long elasticSearchBulkStepBytes() {
+    return this.elasticsearch.getClient().getBulkBytes().getStep();
+  }
+
+  @Override
+  public long elasticSearchBulkLatencyThresholdMillis() {
+    return this.elasticsearch.getClient().getBulkBytes().getLatencyThresholdMillis();
+  }
+
+  @Override
+  public long elasticSearchRemovalBatchWindowMillis() {
+    return this.elasticsearch.getClient().getRemovalBatch().getWindowMillis();
+  }
+
+  @Override
+  public int elasticSearchRemovalBatchMaxSize() {
+    return this.elasticsearch.getClient().getRemovalBatch().getMaxSize();
+  }
+
+  @Override
+  public String elasticSearchByQueryTaskSlices() {
+    return this.elasticsearch.getClient().getByQueryTask().getSlices();
+  }
+
+  @Override
+  public long elasticSearchByQueryTaskPollIntervalMillis() {
+    return this.elasticsearch.getClient().getByQueryTask().getPollIntervalMillis();
+  }
+
+  @Override
+  public int elasticSearchRebuildMaxRecordedWrites() {
+    return this.elasticsearch.getClient().getRebuild().getMaxRecordedWrites();
+  }
+
+  @Override
+  public boolean elasticSearchSpoolEnabled() {
+    return this.elasticsearch.getClient().getSpool().isEnabled();
+  }
+
+  @Override
+  public String elasticSearchSpoolDir() {
+    val dir = this.elasticsearch.getClient().getSpool().getDir();
+    // mirrors have the same default dir as the primary cluster, each spools to its own subdir.
+    return this.mirror ? Paths.get(dir, this.elasticsearch.getName()).toString() : dir;
+  }
+
+  @Override
+  public long elasticSearchSpoolSegmentMaxBytes() {
+    return this.elasticsearch.getClient().getSpool().getSegmentMaxBytes();
+  }
+
+  @Override
+  public long elasticSearchSpoolMaxBytes() {
+    return this.elasticsearch.getClient().getSpool().getMaxBytes();
+  }
+
+  @Override
+  public long elasticSearchSpoolDrainIntervalMillis() {
+    return this.elasticsearch.getClient().getSpool().getDrainIntervalMillis();
+  }
+
   @Override
   public int elasticSearchClientConnectionTimeoutMillis() {
     return this.elasticsearch.getClient().getConnectionTimeout();
@@ -176,11 +276,111 @@ final class DefaultApplicationProperties implements ApplicationProperties {
     return this.song.getPageLimit();
   }
 
+  @Override
+  public int songPageFetchConcurrency() {
+    return this.song.getPageFetchConcurrency();
+  }
+
   @Override
   public int songAnalysisCallTimeoutSeconds() {
     return this.song.getTimeoutSec().getAnalysis();
   }
 
+  @Override
+  public boolean isStudyStreamingEnabled() {
+    return this.indexing.getStreaming().isEnabled();
+  }
+
+  @Override
+  public int studyStreamingWindowSize() {
+    return this.indexing.getStreaming().getWindowSize();
+  }
+
+  @Override
+  public int conversionParallelism() {
+    return this.indexing.getConversion().getParallelism();
+  }
+
+  @Override
+  public boolean isIncrementalIndexingEnabled() {
+    return this.indexing.getIncremental().isEnabled();
+  }
+
+  @Override
+  public int incrementalClockSkewMarginSeconds() {
+    return this.indexing.getIncremental().getClockSkewMarginSeconds();
+  }
+
+  @Override
+  public String studyCheckpointsDir() {
+    return this.indexing.getIncremental().getCheckpointsDir();
+  }
+
+  @Override
+  public boolean isWriteCacheEnabled() {
+    return this.indexing.getWriteCache().isEnabled();
+  }
+
+  @Override
+  public String writeCacheDir() {
+    return this.indexing.getWriteCache().getDir();
+  }
+
+  @Override
+  public long writeCacheMaxDocuments() {
+    return this.indexing.getWriteCache().getMaxDocuments();
+  }
+
+  @Override
+  public long writeCacheJournalCompactionBytes() {
+    return this.indexing.getWriteCache().getJournalCompactionBytes();
+  }
+
+  @Override
+  public boolean schedulersVirtualThreads() {
+    return this.schedulers.isVirtualThreads();
+  }
+
+  @Override
+  public int elasticSearchReadsSchedulerThreadCap() {
+    return this.schedulers.getElasticsearchReads().getThreadCap();
+  }
+
+  @Override
+  public int elasticSearchReadsSchedulerQueuedTaskCap() {
+    return this.schedulers.getElasticsearchReads().getQueuedTaskCap();
+  }
+
+  @Override
+  public int elasticSearchWritesSchedulerThreadCap() {
+    return this.schedulers.getElasticsearchWrites().getThreadCap();
+  }
+
+  @Override
+  public int elasticSearchWritesSchedulerQueuedTaskCap() {
+    return this.schedulers.getElasticsearchWrites().getQueuedTaskCap();
+  }
+
+  @Override
+  public int songSchedulerThreadCap() {
+    return this.schedulers.getSong().getThreadCap();
+  }
+
+  @Override
+  public int songSchedulerQueuedTaskCap() {
+    return this.schedulers.getSong().getQueuedTaskCap();
+  }
+
+  @Override
+  public int localStorageSchedulerThreadCap() {
+    return this.schedulers.getLocalStorage().getThreadCap();
+  }
+
+  @Override
+  public int localStorageSchedulerQueuedTaskCap() {
+    return this.schedulers.getLocalStorage().getQueuedTaskCap();
+  }
+
   @Override
   public Slack.SlackChannelInfo getSlackChannelInfo() {
     return new Slack.SlackChannelInfo() {
@@ -233,6 +433,32 @@ final class DefaultApplicationProperties implements ApplicationProperties {
     return this.disableIndexing;
   }
 
+  /**
+   * same properties with the elasticsearch settings of the mirror, it writes to the same indexes.
+   */
+  private DefaultApplicationProperties mirrorProperties(Elasticsearch mirror) {
+    val elasticsearch = new Elasticsearch();
+    elasticsearch.setName(mirror.getName());
+    elasticsearch.setClusterNodes(mirror.getClusterNodes());
+    elasticsearch.setPathPrefix(mirror.getPathPrefix());
+    elasticsearch.setClient(mirror.getClient());
+    elasticsearch.setIndexes(this.elasticsearch.getIndexes());
+    val properties = new DefaultApplicationProperties();
+    properties.webClient = this.webClient;
+    properties.fileCentricIndex = this.fileCentricIndex;
+    properties.analysisCentricIndex = this.analysisCentricIndex;
+    properties.song = this.song;
+    properties.elasticsearch = elasticsearch;
+    properties.indexing = this.indexing;
+    properties.repositories = this.repositories;
+    properties.exclusionRules = this.exclusionRules;
+    properties.notifications = this.notifications;
+    properties.schedulers = this.schedulers;
+    properties.disableIndexing = this.disableIndexing;
+    properties.mirror = true;
+    return properties;
+  }
+
   @Value("classpath:file_centric.json")
   private Resource fileCentricIndex;
 
@@ -241,11 +467,16 @@ final class DefaultApplicationProperties implements ApplicationProperties {
 
   private Song song = new Song();
   private Elasticsearch elasticsearch = new Elasticsearch();
+  private Indexing indexing = new Indexing();
   private List<DefaultPropertiesFileRepository> repositories;
   private ExclusionRules exclusionRules = new ExclusionRules();
   private Notifications notifications = new Notifications();
+  private Schedulers schedulers = new Schedulers();
   private boolean disableIndexing = false;
 
+  @Setter(AccessLevel.NONE)
+  private boolean mirror = false;
+
   @Data
   @ToString
   @EqualsAndHashCode
@@ -276,6 +507,7 @@ final class DefaultApplicationProperties implements ApplicationProperties {
     // FIXME: This configuration is called three different things in this codebase
     private String indexableStudyStatesCsv = "PUBLISHED";
     private int pageLimit = 25;
+    private int pageFetchConcurrency = 1;
   }
 
   @Data
@@ -286,6 +518,69 @@ final class DefaultApplicationProperties implements ApplicationProperties {
     private int analysis = 5;
   }
 
+  @Data
+  @ToString
+  @EqualsAndHashCode
+  private static class Indexing {
+    private Streaming streaming = new Streaming();
+    private Conversion conversion = new Conversion();
+    private Incremental incremental = new Incremental();
+    private WriteCache writeCache = new WriteCache();
+
+    @Data
+    @ToString
+    @EqualsAndHashCode
+    private static class Streaming {
+      private boolean enabled = false;
+      private int windowSize = 500;
+    }
+
+    @Data
+    @ToString
+    @EqualsAndHashCode
+    private static class Conversion {
+      private int parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    @Data
+    @ToString
+    @EqualsAndHashCode
+    private static class Incremental {
+      private boolean enabled = false;
+      private int clockSkewMarginSeconds = 60;
+      private String checkpointsDir = System.getProperty("user.home") + "/maestro/checkpoints";
+    }
+
+    @Data
+    @ToString
+    @EqualsAndHashCode
+    private static class WriteCache {
+      private boolean enabled = false;
+      private String dir = System.getProperty("user.home") + "/maestro/write-cache";
+      private long maxDocuments = 1_000_000;
+      private long journalCompactionBytes = 64 * 1024 * 1024;
+    }
+  }
+
+  @Data
+  @ToString
+  @EqualsAndHashCode
+  private static class Schedulers {
+    private boolean virtualThreads = false;
+    private PortScheduler elasticsearchReads = new PortScheduler();
+    private PortScheduler elasticsearchWrites = new PortScheduler();
+    private PortScheduler song = new PortScheduler();
+    private PortScheduler localStorage = new PortScheduler();
+
+    @Data
+    @ToString
+    @EqualsAndHashCode
+    private static class PortScheduler {
+      private int threadCap = Runtime.getRuntime().availableProcessors();
+      private int queuedTaskCap = 10000;
+    }
+  }
+
   @Data
   @ToString
   @EqualsAndHashCode
@@ -297,10 +592,13 @@ final class DefaultApplicationProperties implements ApplicationProperties {
   @ToString
   @EqualsAndHashCode
   private static class Elasticsearch {
+    private String name = "primary";
     private List<String> clusterNodes = List.of("localhost:9200");
     private Indexes indexes = new Indexes();
     private String pathPrefix = "";
     private ElasticsearchClient client = new ElasticsearchClient();
+    /** only the name, nodes, path prefix and client are used, they write to the same indexes. */
+    private List<Elasticsearch> mirrors = List.of();
   }
 
   @Data
@@ -336,9 +634,16 @@ final class DefaultApplicationProperties implements ApplicationProperties {
     private ElasticsearchAuth basicAuth = new ElasticsearchAuth();
     private boolean trustSelfSignedCert = false;
     private int docsPerBulkReqMax = 1000;
+    private int maxConcurrentRequests = 4;
+    private boolean clientSideMerge = false;
     private int connectionTimeout = 5000;
     private int socketTimeout = 10000;
     private ElasticsearchClientRetry retry = new ElasticsearchClientRetry();
+    private ElasticsearchBulkBytes bulkBytes = new ElasticsearchBulkBytes();
+    private ElasticsearchRemovalBatch removalBatch = new ElasticsearchRemovalBatch();
+    private ElasticsearchByQueryTask byQueryTask = new ElasticsearchByQueryTask();
+    private ElasticsearchRebuild rebuild = new ElasticsearchRebuild();
+    private ElasticsearchSpool spool = new ElasticsearchSpool();
 
     @Data
     @ToString
@@ -348,6 +653,51 @@ final class DefaultApplicationProperties implements ApplicationProperties {
       private int waitDurationMillis = 100;
     }
 
+    @Data
+    @ToString
+    @EqualsAndHashCode
+    private static class ElasticsearchBulkBytes {
+      private long initial = 5 * 1024 * 1024;
+      private long min = 512 * 1024;
+      private long max = 20 * 1024 * 1024;
+      private long step = 1024 * 1024;
+      private long latencyThresholdMillis = 5000;
+    }
+
+    @Data
+    @ToString
+    @EqualsAndHashCode
+    private static class ElasticsearchRemovalBatch {
+      private long windowMillis = 200;
+      private int maxSize = 500;
+    }
+
+    @Data
+    @ToString
+    @EqualsAndHashCode
+    private static class ElasticsearchByQueryTask {
+      private String slices = "auto";
+      private long pollIntervalMillis = 1000;
+    }
+
+    @Data
+    @ToString
+    @EqualsAndHashCode
+    private static class ElasticsearchRebuild {
+      private int maxRecordedWrites = 100000;
+    }
+
+    @Data
+    @ToString
+    @EqualsAndHashCode
+    private static class ElasticsearchSpool {
+      private boolean enabled = false;
+      private String dir = System.getProperty("user.home") + "/maestro/spool";
+      private long segmentMaxBytes = 64 * 1024 * 1024;
+      private long maxBytes = 1024 * 1024 * 1024;
+      private long drainIntervalMillis = 5000;
+    }
+
     @Data
     @ToString
     @EqualsAndHashCode
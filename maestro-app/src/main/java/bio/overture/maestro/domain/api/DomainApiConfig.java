@@ -39,6 +39,13 @@ public class DomainApiConfig {
         .isFileCentricEnabled(applicationProperties.isFileCentricIndexEnabled())
         .analysisCentricIndexName(applicationProperties.analysisCentricIndexName())
         .fileCentricIndexName(applicationProperties.fileCentricIndexName())
+        .isStudyStreamingEnabled(applicationProperties.isStudyStreamingEnabled())
+        .studyStreamingWindowSize(applicationProperties.studyStreamingWindowSize())
+        .conversionParallelism(applicationProperties.conversionParallelism())
+        .isIncrementalIndexingEnabled(applicationProperties.isIncrementalIndexingEnabled())
+        .incrementalClockSkewMarginSeconds(
+            applicationProperties.incrementalClockSkewMarginSeconds())
+        .isWriteCacheEnabled(applicationProperties.isWriteCacheEnabled())
         .build();
   }
 }
@@ -13,6 +13,12 @@ public class IndexPropertiesImpl implements IndexProperties {
   @NonNull private boolean isAnalysisCentricEnabled;
   @NonNull private String fileCentricIndexName;
   @NonNull private String analysisCentricIndexName;
+  private boolean isStudyStreamingEnabled;
+  private int studyStreamingWindowSize;
+  private int conversionParallelism;
+  private boolean isIncrementalIndexingEnabled;
+  private int incrementalClockSkewMarginSeconds;
+  private boolean isWriteCacheEnabled;
 
   @Override
   public String fileCentricIndexName() {
@@ -23,4 +29,19 @@ public class IndexPropertiesImpl implements IndexProperties {
   public String analysisCentricIndexName() {
     return analysisCentricIndexName;
   }
+
+  @Override
+  public int studyStreamingWindowSize() {
+    return studyStreamingWindowSize;
+  }
+
+  @Override
+  public int conversionParallelism() {
+    return conversionParallelism;
+  }
+
+  @Override
+  public int incrementalClockSkewMarginSeconds() {
+    return incrementalClockSkewMarginSeconds;
+  }
 }
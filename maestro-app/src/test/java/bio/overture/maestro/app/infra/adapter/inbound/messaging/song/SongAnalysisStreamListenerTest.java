@@ -25,9 +25,7 @@ import static org.mockito.Mockito.*;
 import bio.overture.maestro.app.infra.adapter.inbound.messaging.MessagingConfig;
 import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
 import bio.overture.maestro.domain.api.Indexer;
-import bio.overture.maestro.domain.api.message.AnalysisIdentifier;
 import bio.overture.maestro.domain.api.message.IndexResult;
-import bio.overture.maestro.domain.api.message.RemoveAnalysisCommand;
 import bio.overture.maestro.domain.entities.message.AnalysisMessage;
 import bio.overture.maestro.domain.entities.metadata.study.Analysis;
 import bio.overture.maestro.domain.entities.metadata.study.AnalysisTypeId;
@@ -289,22 +287,24 @@ class SongAnalysisStreamListenerTest {
             + "    ]\n"
             + "  }\n"
             + "}\n";
-    when(indexer.removeAnalysis(any()))
+    when(indexer.removeAnalysisPayload(any()))
         .thenReturn(Flux.just(IndexResult.builder().successful(true).build()));
     sink.songInput().send(new GenericMessage<>(payload));
     Thread.sleep(2000);
     then(indexer)
         .should(times(1))
-        .removeAnalysis(
-            eq(
-                RemoveAnalysisCommand.builder()
-                    .analysisIdentifier(
-                        AnalysisIdentifier.builder()
-                            .studyId("TEST-CA")
-                            .analysisId("050a4af2-87c1-484f-8a4a-f287c1584fcd")
-                            .repositoryCode("song.collab")
-                            .build())
-                    .build()));
+        .removeAnalysisPayload(
+            argThat(
+                msg ->
+                    msg.getAnalysisId().equals("050a4af2-87c1-484f-8a4a-f287c1584fcd")
+                        && msg.getStudyId().equals("TEST-CA")
+                        && msg.getSongServerId().equals("song.collab")
+                        && msg.getAnalysis()
+                            .getFiles()
+                            .get(0)
+                            .getObjectId()
+                            .equals("632c1660-9afa-5f6e-9986-4361e373d691")));
+    then(indexer).should(times(0)).removeAnalysis(any());
   }
 
   /*
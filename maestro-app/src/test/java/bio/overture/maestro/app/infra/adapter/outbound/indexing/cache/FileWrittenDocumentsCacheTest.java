@@ -0,0 +1,87 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import bio.overture.maestro.app.infra.config.PortSchedulers;
+import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
+import bio.overture.maestro.test.TestCategory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import lombok.val;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+@Tag(TestCategory.UNIT_TEST)
+class FileWrittenDocumentsCacheTest {
+
+  private static final String INDEX = "file_centric";
+
+  @TempDir Path cacheDir;
+
+  @Test
+  void shouldForgetLeastRecentlyUsedAnalysesPastMaxDocuments() {
+    // given
+    val cache = newCache(3, 1024 * 1024);
+    cache.saveWrittenFingerprints(INDEX, Map.of("A1", Map.of("F1", "a", "F2", "b"))).block();
+    cache.saveWrittenFingerprints(INDEX, Map.of("A2", Map.of("F3", "c"))).block();
+    cache.getWrittenFingerprints(INDEX, Set.of("A1")).block();
+
+    // when
+    cache.saveWrittenFingerprints(INDEX, Map.of("A3", Map.of("F4", "d"))).block();
+
+    // then
+    assertEquals(
+        Map.of("F1", "a", "F2", "b", "F4", "d"),
+        cache.getWrittenFingerprints(INDEX, Set.of("A1", "A2", "A3")).block());
+  }
+
+  @Test
+  void shouldCompactJournalPastCompactionSize() throws Exception {
+    // given
+    val cache = newCache(1000, 512);
+    val journal = cacheDir.resolve("written-documents.journal");
+
+    // when
+    for (int i = 0; i < 100; i++) {
+      cache.saveWrittenFingerprints(INDEX, Map.of("A1", Map.of("F1", "fingerprint" + i))).block();
+    }
+
+    // then
+    assertTrue(Files.size(journal) <= 512);
+    cache.close();
+    assertEquals(
+        Map.of("F1", "fingerprint99"),
+        newCache(1000, 512).getWrittenFingerprints(INDEX, Set.of("A1")).block());
+  }
+
+  private FileWrittenDocumentsCache newCache(long maxDocuments, long journalCompactionBytes) {
+    val properties = mock(ApplicationProperties.class);
+    when(properties.writeCacheDir()).thenReturn(cacheDir.toString());
+    when(properties.writeCacheMaxDocuments()).thenReturn(maxDocuments);
+    when(properties.writeCacheJournalCompactionBytes()).thenReturn(journalCompactionBytes);
+    return new FileWrittenDocumentsCache(properties, new PortSchedulers(properties));
+  }
+}
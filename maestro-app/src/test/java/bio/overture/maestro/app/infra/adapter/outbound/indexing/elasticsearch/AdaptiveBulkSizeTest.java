@@ -0,0 +1,92 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import bio.overture.maestro.test.TestCategory;
+import lombok.val;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag(TestCategory.UNIT_TEST)
+class AdaptiveBulkSizeTest {
+
+  private static final long MIN = 1000;
+  private static final long MAX = 10000;
+  private static final long STEP = 500;
+  private static final long LATENCY_THRESHOLD = 100;
+
+  @Test
+  void shouldGrowByStepOnFastResponsesUpToMax() {
+    // given
+    val bulkSize = newBulkSize(8000);
+
+    // when
+    bulkSize.onResponse(LATENCY_THRESHOLD);
+    bulkSize.onResponse(10);
+
+    // then
+    assertEquals(9000, bulkSize.currentBytes());
+    bulkSize.onResponse(10);
+    bulkSize.onResponse(10);
+    assertEquals(MAX, bulkSize.currentBytes());
+  }
+
+  @Test
+  void shouldHalveOnSlowResponsesDownToMin() {
+    // given
+    val bulkSize = newBulkSize(8000);
+
+    // when
+    bulkSize.onResponse(LATENCY_THRESHOLD + 1);
+
+    // then
+    assertEquals(4000, bulkSize.currentBytes());
+    bulkSize.onResponse(LATENCY_THRESHOLD + 1);
+    bulkSize.onResponse(LATENCY_THRESHOLD + 1);
+    assertEquals(MIN, bulkSize.currentBytes());
+  }
+
+  @Test
+  void shouldHalveOnRejection() {
+    // given
+    val bulkSize = newBulkSize(8000);
+
+    // when
+    bulkSize.onRejected();
+    bulkSize.onResponse(10);
+
+    // then
+    assertEquals(4500, bulkSize.currentBytes());
+  }
+
+  @Test
+  void shouldStartWithinBounds() {
+    assertEquals(MIN, newBulkSize(1).currentBytes());
+    assertEquals(MAX, newBulkSize(Long.MAX_VALUE).currentBytes());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new AdaptiveBulkSize("file_centric", MIN, MAX, MIN, STEP, LATENCY_THRESHOLD));
+  }
+
+  private static AdaptiveBulkSize newBulkSize(long initial) {
+    return new AdaptiveBulkSize("file_centric", initial, MIN, MAX, STEP, LATENCY_THRESHOLD);
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch.BulkWrites.BulkPartPreparer;
+import bio.overture.maestro.domain.api.message.IndexResult;
+import bio.overture.maestro.test.TestCategory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.val;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import reactor.core.scheduler.Schedulers;
+
+@Tag(TestCategory.UNIT_TEST)
+class BulkWritesTest {
+
+  private static final String INDEX = "file_centric";
+
+  private RestHighLevelClient client;
+  /** answers the bulk requests in order, from the ids of the items to fail. */
+  private Deque<Map<String, RestStatus>> bulkFailures;
+
+  private List<BulkRequest> sentBulks;
+
+  @BeforeEach
+  void setUp() {
+    client = mock(RestHighLevelClient.class);
+    bulkFailures = new ArrayDeque<>();
+    sentBulks = new ArrayList<>();
+    doAnswer(
+            invocation -> {
+              BulkRequest request = invocation.getArgument(0);
+              ActionListener<BulkResponse> listener = invocation.getArgument(2);
+              sentBulks.add(request);
+              val failures =
+                  bulkFailures.isEmpty() ? Map.<String, RestStatus>of() : bulkFailures.poll();
+              listener.onResponse(bulkResponse(request, failures));
+              return mock(Cancellable.class);
+            })
+        .when(client)
+        .bulkAsync(any(BulkRequest.class), any(RequestOptions.class), any(ActionListener.class));
+  }
+
+  @Test
+  void shouldCutBulksAtTheCurrentBulkSize() {
+    // given
+    val documents = List.of("A1", "A2", "A3", "A4", "A5");
+    val documentBytes = toRequest("A1").source().length();
+    val bulkSize =
+        new AdaptiveBulkSize(
+            INDEX, 2 * documentBytes, 2 * documentBytes, 2 * documentBytes, 0, 1000);
+
+    // when
+    val result = upsert(documents, bulkSize, 1, BulkPartPreparer.asIs());
+
+    // then
+    assertEquals(BulkWrites.buildIndexResult(Set.of(), INDEX), result);
+    assertEquals(List.of(List.of("A1", "A2"), List.of("A3", "A4"), List.of("A5")), sentIds());
+  }
+
+  @Test
+  void shouldResendOnlyTheItemsThatFailedWithTransientErrors() {
+    // given
+    val documents = List.of("A1", "A2", "A3", "A4", "A5");
+    bulkFailures.add(
+        Map.of(
+            "A2", RestStatus.CONFLICT,
+            "A3", RestStatus.TOO_MANY_REQUESTS,
+            "A4", RestStatus.SERVICE_UNAVAILABLE,
+            "A5", RestStatus.BAD_REQUEST));
+    val bulkSize = newBulkSize();
+
+    // when
+    val result = upsert(documents, bulkSize, 3, BulkPartPreparer.asIs());
+
+    // then
+    assertEquals(BulkWrites.buildIndexResult(Set.of("A5"), INDEX), result);
+    assertEquals(List.of(documents, List.of("A2", "A3", "A4")), sentIds());
+    // halved by the rejected item, then grown by the successful resend.
+    assertEquals(4500, bulkSize.currentBytes());
+  }
+
+  @Test
+  void shouldFailTheItemsStillFailingWhenAttemptsRunOut() {
+    // given
+    val documents = List.of("A1", "A2", "A3");
+    bulkFailures.add(Map.of("A2", RestStatus.SERVICE_UNAVAILABLE, "A3", RestStatus.CONFLICT));
+    bulkFailures.add(Map.of("A2", RestStatus.SERVICE_UNAVAILABLE));
+
+    // when
+    val result = upsert(documents, newBulkSize(), 2, BulkPartPreparer.asIs());
+
+    // then
+    assertEquals(BulkWrites.buildIndexResult(Set.of("A2"), INDEX), result);
+    assertEquals(List.of(documents, List.of("A2", "A3")), sentIds());
+  }
+
+  @Test
+  void shouldNotResendWhenAllItemsSucceeded() {
+    // when
+    val result = upsert(List.of("A1", "A2"), newBulkSize(), 3, BulkPartPreparer.asIs());
+
+    // then
+    assertEquals(BulkWrites.buildIndexResult(Set.of(), INDEX), result);
+    assertEquals(1, sentBulks.size());
+  }
+
+  @Test
+  void shouldMergeWithTheStoredRepositoriesReadAgainAfterAConflict() {
+    // given
+    val documents = List.of("A1", "A2");
+    val multiGets = new ArrayList<MultiGetRequest>();
+    // A1 is stored and changed by another writer after it was read, A2 is new.
+    val storedSeqNos = new ArrayDeque<>(List.of(Map.of("A1", 5L), Map.of("A1", 7L)));
+    doAnswer(
+            invocation -> {
+              MultiGetRequest request = invocation.getArgument(0);
+              ActionListener<MultiGetResponse> listener = invocation.getArgument(2);
+              multiGets.add(request);
+              listener.onResponse(multiGetResponse(request, storedSeqNos.poll()));
+              return mock(Cancellable.class);
+            })
+        .when(client)
+        .mgetAsync(
+            any(MultiGetRequest.class), any(RequestOptions.class), any(ActionListener.class));
+    bulkFailures.add(Map.of("A1", RestStatus.CONFLICT));
+    BulkPartPreparer<String> preparer =
+        BulkWrites.clientSideRepositoryMerge(
+            1,
+            1,
+            client,
+            Function.identity(),
+            (document, storedRepositories) ->
+                new IndexRequest(INDEX)
+                    .id(document)
+                    .source(
+                        Map.of(
+                            "repositories",
+                            SearchAdapterHelper.mergeRepositories(
+                                storedRepositories, Map.of("code", "aws")))),
+            Schedulers.immediate());
+
+    // when
+    val result = upsert(documents, newBulkSize(), 3, preparer);
+
+    // then
+    assertEquals(BulkWrites.buildIndexResult(Set.of(), INDEX), result);
+    assertEquals(List.of(documents, List.of("A1")), sentIds());
+    assertEquals(2, multiGets.size());
+    assertEquals(1, multiGets.get(1).getItems().size());
+
+    val firstA1 = (IndexRequest) sentBulks.get(0).requests().get(0);
+    assertEquals(5, firstA1.ifSeqNo());
+    assertEquals(1, firstA1.ifPrimaryTerm());
+    assertEquals(
+        List.of(Map.of("code", "collab"), Map.of("code", "aws")),
+        firstA1.sourceAsMap().get("repositories"));
+    val newA2 = (IndexRequest) sentBulks.get(0).requests().get(1);
+    assertEquals(SequenceNumbers.UNASSIGNED_SEQ_NO, newA2.ifSeqNo());
+    assertEquals(Map.of("analysis_id", "A2"), newA2.sourceAsMap());
+    val resentA1 = (IndexRequest) sentBulks.get(1).requests().get(0);
+    assertEquals(7, resentA1.ifSeqNo());
+  }
+
+  @Test
+  void shouldSendDeleteRequestsInTheBulks() {
+    // given
+    val documents = List.of("A1", "A2");
+
+    // when
+    val result =
+        upsert(
+            documents,
+            newBulkSize(),
+            1,
+            BulkPartPreparer.asIs(),
+            document -> new DeleteRequest(INDEX, document));
+
+    // then
+    assertEquals(BulkWrites.buildIndexResult(Set.of(), INDEX), result);
+    assertEquals(List.of(documents), sentIds());
+  }
+
+  private static AdaptiveBulkSize newBulkSize() {
+    return new AdaptiveBulkSize(INDEX, 8000, 1000, 10000, 500, 60000);
+  }
+
+  private IndexResult upsert(
+      List<String> documents,
+      AdaptiveBulkSize bulkSize,
+      int maxRetriesAttempts,
+      BulkPartPreparer<String> preparer) {
+    return upsert(documents, bulkSize, maxRetriesAttempts, preparer, BulkWritesTest::toRequest);
+  }
+
+  private IndexResult upsert(
+      List<String> documents,
+      AdaptiveBulkSize bulkSize,
+      int maxRetriesAttempts,
+      BulkPartPreparer<String> preparer,
+      Function<String, DocWriteRequest<?>> mapper) {
+    return BulkWrites.batchUpsertDocuments(
+            documents,
+            100,
+            bulkSize,
+            1,
+            maxRetriesAttempts,
+            1,
+            INDEX,
+            client,
+            Function.identity(),
+            mapper,
+            preparer,
+            WriteAheadSpool.disabled(INDEX),
+            Schedulers.immediate())
+        .block();
+  }
+
+  /** the documents are their own analysis id. */
+  private static IndexRequest toRequest(String document) {
+    return new IndexRequest(INDEX).id(document).source(Map.of("analysis_id", document));
+  }
+
+  private List<List<String>> sentIds() {
+    return sentBulks.stream()
+        .map(bulk -> bulk.requests().stream().map(DocWriteRequest::id).collect(Collectors.toList()))
+        .collect(Collectors.toList());
+  }
+
+  /** the stored documents have one repository, collab. */
+  private static MultiGetResponse multiGetResponse(
+      MultiGetRequest request, Map<String, Long> storedSeqNos) {
+    return new MultiGetResponse(
+        request.getItems().stream()
+            .map(
+                item -> {
+                  val seqNo = storedSeqNos.get(item.id());
+                  val getResult =
+                      seqNo == null
+                          ? new GetResult(
+                              item.index(),
+                              "_doc",
+                              item.id(),
+                              SequenceNumbers.UNASSIGNED_SEQ_NO,
+                              SequenceNumbers.UNASSIGNED_PRIMARY_TERM,
+                              -1,
+                              false,
+                              null,
+                              Map.of(),
+                              Map.of())
+                          : new GetResult(
+                              item.index(),
+                              "_doc",
+                              item.id(),
+                              seqNo,
+                              1,
+                              1,
+                              true,
+                              new BytesArray("{\"repositories\":[{\"code\":\"collab\"}]}"),
+                              Map.of(),
+                              Map.of());
+                  return new MultiGetItemResponse(new GetResponse(getResult), null);
+                })
+            .toArray(MultiGetItemResponse[]::new));
+  }
+
+  private static BulkResponse bulkResponse(BulkRequest request, Map<String, RestStatus> failures) {
+    val items = new BulkItemResponse[request.numberOfActions()];
+    for (int i = 0; i < items.length; i++) {
+      val id = request.requests().get(i).id();
+      val status = failures.get(id);
+      items[i] =
+          status == null
+              ? new BulkItemResponse(
+                  i,
+                  DocWriteRequest.OpType.INDEX,
+                  new IndexResponse(new ShardId(INDEX, "_na_", 0), "_doc", id, 1, 1, 1, true))
+              : new BulkItemResponse(
+                  i,
+                  DocWriteRequest.OpType.INDEX,
+                  new BulkItemResponse.Failure(
+                      INDEX, "_doc", id, new ElasticsearchException(status.name()), status));
+    }
+    return new BulkResponse(items, 1);
+  }
+}
@@ -22,6 +22,10 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import bio.overture.maestro.app.infra.adapter.outbound.indexing.cache.FileWrittenDocumentsCache;
+import bio.overture.maestro.app.infra.adapter.outbound.indexing.checkpoint.FileStudyCheckpointDAO;
+import bio.overture.maestro.app.infra.config.PortSchedulers;
+import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
 import bio.overture.maestro.app.infra.config.properties.PropertiesConfig;
 import bio.overture.maestro.domain.api.exception.FailureData;
 import bio.overture.maestro.domain.api.message.IndexResult;
@@ -38,6 +42,7 @@ import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.apache.http.HttpHost;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestClient;
@@ -91,12 +96,16 @@ class FileCentricElasticSearchAdapterUnavaibilityTest {
 
     // since this is a final method I had to add the mockito-extensions directory to test resources
     // see why.md there for more info.
-    verify(client, times(3)).bulk(any(BulkRequest.class), any(RequestOptions.class));
+    verify(client, times(3))
+        .bulkAsync(any(BulkRequest.class), any(RequestOptions.class), any(ActionListener.class));
   }
 
   @Import({
     FileCentricElasticSearchAdapter.class,
     SnakeCaseJacksonSearchResultMapper.class,
+    DroppedWrites.class,
+    FileWrittenDocumentsCache.class,
+    FileStudyCheckpointDAO.class,
     PropertiesConfig.class
   })
   @Configuration
@@ -114,6 +123,11 @@ class FileCentricElasticSearchAdapterUnavaibilityTest {
       return new RestHighLevelClient(restClient);
     }
 
+    @Bean
+    PortSchedulers portSchedulers(ApplicationProperties properties) {
+      return new PortSchedulers(properties);
+    }
+
     @Bean(name = ELASTIC_SEARCH_DOCUMENT_JSON_MAPPER)
     ObjectMapper documentObjectMapper() {
       val mapper = new ObjectMapper();
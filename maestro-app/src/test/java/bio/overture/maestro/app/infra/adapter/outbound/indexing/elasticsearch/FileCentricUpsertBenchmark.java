@@ -0,0 +1,191 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static bio.overture.maestro.test.Fixture.loadJsonString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import bio.overture.maestro.app.infra.config.PortSchedulers;
+import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
+import bio.overture.maestro.domain.entities.indexing.FileCentricDocument;
+import bio.overture.maestro.domain.port.outbound.indexing.BatchIndexFilesCommand;
+import bio.overture.maestro.test.Microbenchmark;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.shard.ShardId;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Upserts the PEME-CA file document, copied under N object ids, through {@link
+ * FileCentricElasticSearchAdapter#batchUpsertFileRepositories} with a stubbed client, and prints
+ * the time and the allocated bytes per document, and the bytes of each bulk item body (the update
+ * request with its script reference, params and upsert source, without the action line). The client
+ * serializes the bulk items the way the rest client would, so the time and the allocations cover
+ * building and serializing the requests.
+ *
+ * <p>Run the main method from the test classpath of maestro-app.
+ */
+public class FileCentricUpsertBenchmark {
+
+  private static final String INDEX = "file_centric";
+  private static final int DOCUMENTS = 1000;
+  private static final int REPS = 30;
+  private static final ObjectMapper MAPPER =
+      new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+
+  public static void main(String[] args) {
+    val itemBytes = new AtomicLong();
+    val adapter =
+        new FileCentricElasticSearchAdapter(
+            client(itemBytes),
+            MAPPER,
+            new SnakeCaseJacksonSearchResultMapper(MAPPER),
+            properties(),
+            schedulers(),
+            stub(DroppedWrites.class));
+    val command = BatchIndexFilesCommand.builder().files(documents()).build();
+    val result =
+        Microbenchmark.run(
+            REPS, REPS, DOCUMENTS, () -> adapter.batchUpsertFileRepositories(command).block());
+    itemBytes.set(0);
+    adapter.batchUpsertFileRepositories(command).block();
+    System.out.printf(
+        "%d documents: %.1f us/doc, %.0f KB allocated/doc, %d bulk item bytes/doc%n",
+        DOCUMENTS,
+        result.getMicrosPerUnit(),
+        result.getBytesAllocatedPerUnit() / 1024,
+        itemBytes.get() / DOCUMENTS);
+  }
+
+  private static RestHighLevelClient client(AtomicLong itemBytes) {
+    val client = stub(RestHighLevelClient.class);
+    doAnswer(
+            invocation -> {
+              BulkRequest request = invocation.getArgument(0);
+              ActionListener<BulkResponse> listener = invocation.getArgument(2);
+              itemBytes.addAndGet(serialize(request));
+              listener.onResponse(bulkResponse(request));
+              return stub(Cancellable.class);
+            })
+        .when(client)
+        .bulkAsync(any(BulkRequest.class), any(RequestOptions.class), any(ActionListener.class));
+    return client;
+  }
+
+  @SneakyThrows
+  private static long serialize(BulkRequest request) {
+    long bytes = 0;
+    for (val item : request.requests()) {
+      bytes +=
+          item instanceof IndexRequest
+              ? ((IndexRequest) item).source().length()
+              : XContentHelper.toXContent((ToXContent) item, XContentType.JSON, false).length();
+    }
+    return bytes;
+  }
+
+  private static BulkResponse bulkResponse(BulkRequest request) {
+    val items = new BulkItemResponse[request.numberOfActions()];
+    for (int i = 0; i < items.length; i++) {
+      items[i] =
+          new BulkItemResponse(
+              i,
+              DocWriteRequest.OpType.UPDATE,
+              new UpdateResponse(
+                  new ShardId(INDEX, "_na_", 0),
+                  "_doc",
+                  request.requests().get(i).id(),
+                  1,
+                  1,
+                  1,
+                  DocWriteResponse.Result.CREATED));
+    }
+    return new BulkResponse(items, 1);
+  }
+
+  private static ApplicationProperties properties() {
+    val properties = stub(ApplicationProperties.class);
+    given(properties.fileCentricIndexName()).willReturn(INDEX);
+    given(properties.fileCentricAlias()).willReturn(INDEX);
+    given(properties.isFileCentricIndexEnabled()).willReturn(true);
+    given(properties.maxDocsPerBulkRequest()).willReturn(5000);
+    given(properties.elasticSearchMaxConcurrentRequests()).willReturn(1);
+    given(properties.elasticSearchBulkInitialBytes()).willReturn(5_242_880L);
+    given(properties.elasticSearchBulkMinBytes()).willReturn(524_288L);
+    given(properties.elasticSearchBulkMaxBytes()).willReturn(20_971_520L);
+    given(properties.elasticSearchBulkStepBytes()).willReturn(1_048_576L);
+    given(properties.elasticSearchBulkLatencyThresholdMillis()).willReturn(5000L);
+    given(properties.elasticSearchRebuildMaxRecordedWrites()).willReturn(1);
+    return properties;
+  }
+
+  // the requests are built and serialized on the calling thread, with no pool to set up.
+  private static PortSchedulers schedulers() {
+    val schedulers = stub(PortSchedulers.class);
+    given(schedulers.getElasticsearchWrites()).willReturn(Schedulers.immediate());
+    return schedulers;
+  }
+
+  @SneakyThrows
+  private static List<FileCentricDocument> documents() {
+    val document =
+        (ObjectNode)
+            MAPPER
+                .readTree(
+                    loadJsonString(
+                        FileCentricElasticSearchAdapterUnavaibilityTest.class,
+                        "PEME-CA.files.json"))
+                .get(0);
+    val documents = new ArrayList<FileCentricDocument>();
+    for (int i = 0; i < DOCUMENTS; i++) {
+      documents.add(
+          MAPPER.treeToValue(
+              document.deepCopy().put("object_id", "object-" + i), FileCentricDocument.class));
+    }
+    return documents;
+  }
+
+  // stub only mocks don't record the invocations, which would grow over the runs.
+  private static <T> T stub(Class<T> type) {
+    return mock(type, withSettings().stubOnly());
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import bio.overture.maestro.domain.api.message.IndexTaskStatus;
+import bio.overture.maestro.test.TestCategory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import lombok.val;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+@Tag(TestCategory.UNIT_TEST)
+class LiveWritesRecorderTest {
+
+  private static final String ALIAS = "file_centric";
+  private static final String SOURCE_INDEX = "file_centric_1.0";
+  private static final String REBUILD_INDEX = "file_centric_1.0_1";
+  private static final String ID_FIELD = "_id";
+  private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+  private LiveWritesRecorder recorder;
+  private String currentIndex;
+  private List<String> written;
+  private List<String> synced;
+
+  @BeforeEach
+  void setUp() {
+    currentIndex = ALIAS;
+    recorder = new LiveWritesRecorder("file_centric", () -> currentIndex, 3);
+    written = new CopyOnWriteArrayList<>();
+    synced = new ArrayList<>();
+  }
+
+  @Test
+  void shouldCopyTheDocumentsWrittenToTheSourceDuringTheRebuild() {
+    // given
+    recorder.record(write("F0"), ID_FIELD, Set.of("F0")).block();
+    recorder.start(REBUILD_INDEX, SOURCE_INDEX);
+
+    // when
+    recorder.record(write("F1"), ID_FIELD, Set.of("F1")).block();
+    recorder
+        .record(index -> Mono.error(new IllegalStateException("boom")), ID_FIELD, Set.of("F2"))
+        .onErrorResume(e -> Mono.empty())
+        .block();
+    recorder.record(write("F1 again"), ID_FIELD, Set.of("F1")).block();
+
+    // then
+    assertEquals(
+        List.of("F0 into " + ALIAS, "F1 into " + SOURCE_INDEX, "F1 again into " + SOURCE_INDEX),
+        written);
+    StepVerifier.create(recorder.sync(REBUILD_INDEX, this::copy)).expectComplete().verify(TIMEOUT);
+    assertEquals(
+        List.of("copy _id [F1, F2] from " + SOURCE_INDEX + " into " + REBUILD_INDEX), synced);
+    StepVerifier.create(recorder.sync(REBUILD_INDEX, this::copy)).expectComplete().verify(TIMEOUT);
+    assertEquals(1, synced.size());
+  }
+
+  @Test
+  void shouldRunTheRecordedOperationsOnceBeforeTheCopies() {
+    // given
+    recorder.start(REBUILD_INDEX, SOURCE_INDEX);
+    recorder.record(write("F1"), ID_FIELD, Set.of("F1")).block();
+    recorder.record(operation("study S1"), "study S1", replay("study S1")).blockLast();
+    recorder.record(operation("study S1"), "study S1", replay("study S1")).blockLast();
+
+    // when
+    val sync = recorder.sync(REBUILD_INDEX, this::copy);
+
+    // then
+    StepVerifier.create(sync).expectComplete().verify(TIMEOUT);
+    assertEquals(
+        List.of(
+            "study S1 into " + REBUILD_INDEX,
+            "copy _id [F1] from " + SOURCE_INDEX + " into " + REBUILD_INDEX),
+        synced);
+  }
+
+  @Test
+  void shouldFailTheSyncPastTheMaxRecordedWrites() {
+    // given
+    recorder.start(REBUILD_INDEX, SOURCE_INDEX);
+
+    // when
+    recorder.record(write("F1"), ID_FIELD, Set.of("F1", "F2")).block();
+    recorder.record(write("F3"), ID_FIELD, Set.of("F3", "F4")).block();
+
+    // then
+    StepVerifier.create(recorder.sync(REBUILD_INDEX, this::copy))
+        .expectError(IllegalStateException.class)
+        .verify(TIMEOUT);
+    assertEquals(List.of(), synced);
+  }
+
+  @Test
+  void shouldWaitForTheWritesInFlightToTheSourceOnceSealed() {
+    // given
+    recorder.start(REBUILD_INDEX, SOURCE_INDEX);
+    val inFlight = Sinks.<String>one();
+    val inFlightWrite =
+        recorder.record(index -> inFlight.asMono(), ID_FIELD, Set.of("F1")).toFuture();
+
+    // when
+    val sealed = recorder.seal(REBUILD_INDEX, () -> currentIndex = ALIAS + " moved").toFuture();
+    recorder.record(write("F2"), ID_FIELD, Set.of("F2")).block();
+
+    // then
+    assertEquals(List.of("F2 into " + ALIAS + " moved"), written);
+    assertFalse(sealed.isDone());
+    inFlight.tryEmitValue("done");
+    sealed.join();
+    inFlightWrite.join();
+    StepVerifier.create(recorder.sync(REBUILD_INDEX, this::copy)).expectComplete().verify(TIMEOUT);
+    assertEquals(List.of("copy _id [F1] from " + SOURCE_INDEX + " into " + REBUILD_INDEX), synced);
+  }
+
+  @Test
+  void shouldForgetTheWritesOnceStopped() {
+    // given
+    recorder.start(REBUILD_INDEX, SOURCE_INDEX);
+    recorder.record(write("F1"), ID_FIELD, Set.of("F1")).block();
+
+    // when
+    recorder.stop(REBUILD_INDEX);
+    recorder.record(write("F2"), ID_FIELD, Set.of("F2")).block();
+
+    // then
+    assertEquals(List.of("F1 into " + SOURCE_INDEX, "F2 into " + ALIAS), written);
+    StepVerifier.create(recorder.sync(REBUILD_INDEX, this::copy))
+        .expectError(IllegalStateException.class)
+        .verify(TIMEOUT);
+  }
+
+  @Test
+  void shouldRefuseASecondRebuild() {
+    // given
+    recorder.start(REBUILD_INDEX, SOURCE_INDEX);
+
+    // then
+    assertThrows(
+        IllegalStateException.class, () -> recorder.start("file_centric_1.0_2", SOURCE_INDEX));
+    recorder.stop(REBUILD_INDEX);
+    recorder.start("file_centric_1.0_2", SOURCE_INDEX);
+  }
+
+  @Test
+  void shouldFailTheReplayOfAnUnsuccessfulTask() {
+    // given
+    val failed =
+        IndexTaskStatus.builder().indexName(REBUILD_INDEX).taskId("n:1").completed(true).build();
+
+    // then
+    StepVerifier.create(LiveWritesRecorder.successfulTask(Flux.just(failed)))
+        .expectError(IllegalStateException.class)
+        .verify(TIMEOUT);
+  }
+
+  private Function<String, Mono<String>> write(String documents) {
+    return index ->
+        Mono.fromCallable(() -> written.add(documents + " into " + index)).thenReturn(index);
+  }
+
+  private Function<String, Flux<String>> operation(String removed) {
+    return index -> Flux.just(removed + " from " + index);
+  }
+
+  private Function<String, Mono<Void>> replay(String removed) {
+    return index -> Mono.fromRunnable(() -> synced.add(removed + " into " + index));
+  }
+
+  private Mono<Void> copy(
+      String sourceIndex, String rebuildIndexName, String field, Set<String> ids) {
+    return Mono.fromRunnable(
+        () ->
+            synced.add(
+                "copy "
+                    + field
+                    + " "
+                    + new TreeSet<>(ids)
+                    + " from "
+                    + sourceIndex
+                    + " into "
+                    + rebuildIndexName));
+  }
+}
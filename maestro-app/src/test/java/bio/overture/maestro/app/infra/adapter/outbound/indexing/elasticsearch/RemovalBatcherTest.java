@@ -0,0 +1,113 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import bio.overture.maestro.test.TestCategory;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import lombok.val;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+@Tag(TestCategory.UNIT_TEST)
+class RemovalBatcherTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+  private List<Set<String>> batches;
+
+  @BeforeEach
+  void setUp() {
+    batches = new CopyOnWriteArrayList<>();
+  }
+
+  @Test
+  void shouldCoalesceRemovalsWithinTheWindow() {
+    // given
+    val batcher = newBatcher(Duration.ofMillis(200), 10, Mono.empty());
+
+    // when
+    val removals = Mono.when(batcher.remove("A1"), batcher.remove("A2"), batcher.remove("A3"));
+
+    // then
+    StepVerifier.create(removals).expectComplete().verify(TIMEOUT);
+    assertEquals(List.of(Set.of("A1", "A2", "A3")), batches);
+  }
+
+  @Test
+  void shouldSendABatchOnceItReachesTheMaxSize() {
+    // given
+    val batcher = newBatcher(Duration.ofMinutes(1), 2, Mono.empty());
+
+    // when
+    val removals = Mono.when(batcher.remove("A1"), batcher.remove("A2"));
+
+    // then
+    StepVerifier.create(removals).expectComplete().verify(TIMEOUT);
+    assertEquals(List.of(Set.of("A1", "A2")), batches);
+  }
+
+  @Test
+  void shouldFailEveryRemovalOfAFailedBatch() {
+    // given
+    val batcher =
+        newBatcher(Duration.ofMillis(200), 10, Mono.error(new IllegalStateException("boom")));
+
+    // when
+    val first = batcher.remove("A1").cache();
+    val second = batcher.remove("A2").cache();
+    first.onErrorResume(e -> Mono.empty()).subscribe();
+    second.onErrorResume(e -> Mono.empty()).subscribe();
+
+    // then
+    StepVerifier.create(first).expectError(IllegalStateException.class).verify(TIMEOUT);
+    StepVerifier.create(second).expectError(IllegalStateException.class).verify(TIMEOUT);
+    assertEquals(List.of(Set.of("A1", "A2")), batches);
+  }
+
+  @Test
+  void shouldSendEachRemovalOnItsOwnWithoutWindow() {
+    // given
+    val batcher = newBatcher(Duration.ZERO, 10, Mono.empty());
+
+    // when
+    val removals = Mono.when(batcher.remove("A1"), batcher.remove("A2"));
+
+    // then
+    StepVerifier.create(removals).expectComplete().verify(TIMEOUT);
+    assertEquals(Set.of(Set.of("A1"), Set.of("A2")), Set.copyOf(batches));
+  }
+
+  private RemovalBatcher newBatcher(Duration window, int maxBatchSize, Mono<Void> outcome) {
+    return new RemovalBatcher(
+        "file_centric",
+        window,
+        maxBatchSize,
+        analysisIds -> {
+          batches.add(analysisIds);
+          return outcome;
+        });
+  }
+}
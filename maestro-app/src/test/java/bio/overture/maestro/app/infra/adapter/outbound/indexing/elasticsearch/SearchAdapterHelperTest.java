@@ -0,0 +1,103 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import bio.overture.maestro.test.TestCategory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Value;
+import lombok.val;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicRequestLine;
+import org.apache.http.message.BasicStatusLine;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag(TestCategory.UNIT_TEST)
+class SearchAdapterHelperTest {
+
+  @Test
+  void shouldTakeTheScriptDatesFromTheDocumentSource() {
+    // given
+    val mapper = new ObjectMapper();
+    mapper.setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+    val source =
+        SearchAdapterHelper.documentSource(
+            mapper, new Dates(new Date(1000), null, new Date(2000)), Map.of());
+    val params = new HashMap<String, Object>();
+
+    // when
+    SearchAdapterHelper.putDateParams(params, source);
+
+    // then
+    assertEquals(Map.of("updated_at", 1000L, "first_published_at", 2000L), params);
+    // the same values the indexed documents have.
+    assertEquals(source.get("updated_at"), params.get("updated_at"));
+  }
+
+  @Test
+  void shouldNotTakeClientErrorResponsesAsUnavailability() throws IOException {
+    // given
+    val rejected = responseException(RestStatus.TOO_MANY_REQUESTS);
+    val serverError = responseException(RestStatus.SERVICE_UNAVAILABLE);
+    val clientErrors =
+        List.of(
+            responseException(RestStatus.BAD_REQUEST),
+            responseException(RestStatus.UNAUTHORIZED),
+            responseException(RestStatus.FORBIDDEN),
+            responseException(RestStatus.NOT_FOUND));
+
+    // then
+    assertTrue(SearchAdapterHelper.isUnavailable(new IOException("connection refused")));
+    assertTrue(SearchAdapterHelper.isUnavailable(rejected));
+    assertTrue(SearchAdapterHelper.isUnavailable(serverError));
+    clientErrors.forEach(e -> assertFalse(SearchAdapterHelper.isUnavailable(e), e.getMessage()));
+  }
+
+  private static ResponseException responseException(RestStatus status) throws IOException {
+    val response = mock(Response.class);
+    given(response.getRequestLine())
+        .willReturn(new BasicRequestLine("POST", "/_bulk", HttpVersion.HTTP_1_1));
+    given(response.getHost()).willReturn(new HttpHost("localhost", 9200));
+    given(response.getStatusLine())
+        .willReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, status.getStatus(), status.name()));
+    return new ResponseException(response);
+  }
+
+  @Value
+  private static class Dates {
+    Date updatedAt;
+    Date publishedAt;
+    Date firstPublishedAt;
+  }
+}
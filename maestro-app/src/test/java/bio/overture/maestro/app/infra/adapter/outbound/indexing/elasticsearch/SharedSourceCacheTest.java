@@ -0,0 +1,75 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import bio.overture.maestro.test.TestCategory;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.val;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag(TestCategory.UNIT_TEST)
+class SharedSourceCacheTest {
+
+  @Test
+  void shouldConvertEachSharedPartOnceWhateverTheOrder() {
+    // given
+    val converted = new ArrayList<List<String>>();
+    val cache = newCache(converted);
+    val donorsA1 = new ArrayList<>(List.of("DO1"));
+    val donorsA2 = new ArrayList<>(List.of("DO2"));
+
+    // when
+    val first = cache.get(donorsA1);
+    cache.get(donorsA2);
+    val second = cache.get(donorsA1);
+    cache.get(donorsA2);
+
+    // then
+    assertSame(first, second);
+    assertEquals(List.of(donorsA1, donorsA2), converted);
+  }
+
+  @Test
+  void shouldConvertEqualPartsOfOtherInstancesOnTheirOwn() {
+    // given
+    val converted = new ArrayList<List<String>>();
+    val cache = newCache(converted);
+
+    // when
+    val first = cache.get(new ArrayList<>(List.of("DO1")));
+    val second = cache.get(new ArrayList<>(List.of("DO1")));
+
+    // then
+    assertNotSame(first, second);
+    assertEquals(2, converted.size());
+  }
+
+  private static SharedSourceCache<List<String>> newCache(List<List<String>> converted) {
+    return new SharedSourceCache<>(
+        donors -> {
+          converted.add(donors);
+          return new ArrayList<>(donors);
+        });
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.app.infra.adapter.outbound.indexing.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import bio.overture.maestro.test.TestCategory;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+@Tag(TestCategory.UNIT_TEST)
+class WriteAheadSpoolTest {
+
+  private static final String INDEX = "file_centric";
+  private static final Duration TIMEOUT = Duration.ofSeconds(5);
+  private static final Duration DRAIN_INTERVAL = Duration.ofMillis(10);
+  /** the spool isn't drained within the test. */
+  private static final Duration NO_DRAIN = Duration.ofHours(1);
+
+  @TempDir Path spoolDir;
+
+  private RestHighLevelClient client;
+  private volatile boolean clusterDown;
+  /** answers the bulk requests sent while the cluster is up, from the ids of the items to fail. */
+  private Queue<Map<String, RestStatus>> bulkFailures;
+
+  private List<List<String>> sentIds;
+  private List<String> droppedIds;
+  private List<WriteAheadSpool> spools;
+
+  @BeforeEach
+  void setUp() {
+    client = mock(RestHighLevelClient.class);
+    clusterDown = true;
+    bulkFailures = new ConcurrentLinkedQueue<>();
+    sentIds = new CopyOnWriteArrayList<>();
+    droppedIds = new CopyOnWriteArrayList<>();
+    spools = new ArrayList<>();
+    doAnswer(
+            invocation -> {
+              BulkRequest request = invocation.getArgument(0);
+              ActionListener<BulkResponse> listener = invocation.getArgument(2);
+              if (clusterDown) {
+                listener.onFailure(new IOException("connection refused"));
+                return mock(Cancellable.class);
+              }
+              sentIds.add(
+                  request.requests().stream()
+                      .map(DocWriteRequest::id)
+                      .collect(Collectors.toList()));
+              val failures = bulkFailures.poll();
+              listener.onResponse(bulkResponse(request, failures == null ? Map.of() : failures));
+              return mock(Cancellable.class);
+            })
+        .when(client)
+        .bulkAsync(any(BulkRequest.class), any(RequestOptions.class), any(ActionListener.class));
+  }
+
+  @AfterEach
+  void tearDown() {
+    spools.forEach(WriteAheadSpool::close);
+  }
+
+  @Test
+  void shouldRollSegmentsPastTheSegmentMaxBytes() {
+    // given
+    val spool = newSpool(1, NO_DRAIN);
+
+    // when
+    spool.append(List.of(toRequest("A1"))).block();
+    spool.append(List.of(toRequest("A2"))).block();
+    spool.append(List.of(toRequest("A3"))).block();
+
+    // then
+    assertTrue(spool.isPending());
+    assertEquals(3, segments().size());
+  }
+
+  @Test
+  void shouldReplayInOrderThenSendDirectly() {
+    // given
+    val spool = newSpool(1024 * 1024, DRAIN_INTERVAL);
+    spool.append(List.of(toRequest("A1"), toRequest("A2"))).block();
+    spool.append(List.of(toRequest("A3"))).block();
+
+    // when
+    clusterDown = false;
+
+    // then
+    await(() -> !spool.isPending());
+    assertEquals(
+        List.of("A1", "A2", "A3"),
+        sentIds.stream().flatMap(List::stream).collect(Collectors.toList()));
+    assertEquals(List.of(), segments());
+  }
+
+  @Test
+  void shouldNotReplayEntriesFromACorruptedOne() throws IOException {
+    // given
+    val spool = newSpool(1024 * 1024, NO_DRAIN);
+    spool.append(List.of(toRequest("A1"))).block();
+    spool.append(List.of(toRequest("A2"))).block();
+    spool.close();
+    val segment = segments().get(0);
+    val bytes = Files.readAllBytes(segment);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(segment, bytes);
+
+    // when
+    clusterDown = false;
+    val recovered = newSpool(1024 * 1024, DRAIN_INTERVAL);
+
+    // then
+    await(() -> !recovered.isPending());
+    assertEquals(List.of(List.of("A1")), sentIds);
+  }
+
+  @Test
+  void shouldSetASegmentAsideFromACorruptedEntryInTheMiddle() throws IOException {
+    // given
+    val spool = newSpool(1, NO_DRAIN);
+    spool.append(List.of(toRequest("A1"), toRequest("A2"), toRequest("A3"))).block();
+    spool.append(List.of(toRequest("B1"))).block();
+    spool.close();
+    val segment = segments().get(0);
+    val bytes = Files.readAllBytes(segment);
+    val secondEntry = 8 + 8 + ByteBuffer.wrap(bytes, 8, 4).getInt();
+    bytes[secondEntry + 8 + 1] ^= 1;
+    Files.write(segment, bytes);
+
+    // when
+    clusterDown = false;
+    val recovered = newSpool(1024 * 1024, DRAIN_INTERVAL);
+
+    // then
+    await(() -> !recovered.isPending());
+    assertEquals(
+        List.of("A1", "B1"), sentIds.stream().flatMap(List::stream).collect(Collectors.toList()));
+    assertEquals(List.of(), segments());
+    val setAside = spoolDir.resolve("dead-letter-" + segment.getFileName() + ".corrupted");
+    assertArrayEquals(bytes, Files.readAllBytes(setAside));
+  }
+
+  @Test
+  void shouldDropAnIncompleteEntryOnlyAtTheEndOfTheLastSegment() throws IOException {
+    // given
+    val spool = newSpool(1, NO_DRAIN);
+    spool.append(List.of(toRequest("A1"), toRequest("A2"))).block();
+    spool.append(List.of(toRequest("B1"), toRequest("B2"))).block();
+    spool.close();
+    for (Path segment : segments()) {
+      val bytes = Files.readAllBytes(segment);
+      Files.write(segment, Arrays.copyOf(bytes, bytes.length - 1));
+    }
+    val first = segments().get(0);
+
+    // when
+    clusterDown = false;
+    val recovered = newSpool(1024 * 1024, DRAIN_INTERVAL);
+
+    // then
+    await(() -> !recovered.isPending());
+    assertEquals(
+        List.of("A1", "B1"), sentIds.stream().flatMap(List::stream).collect(Collectors.toList()));
+    assertEquals(List.of(), segments());
+    assertTrue(Files.exists(spoolDir.resolve("dead-letter-" + first.getFileName() + ".corrupted")));
+  }
+
+  @Test
+  void shouldDeadLetterPermanentFailuresAndResendOnlyTheRejectedItems() {
+    // given
+    val spool = newSpool(1024 * 1024, DRAIN_INTERVAL);
+    spool.append(List.of(toRequest("A1"), toRequest("A2"), toRequest("A3"))).block();
+    bulkFailures.add(Map.of("A2", RestStatus.BAD_REQUEST, "A3", RestStatus.TOO_MANY_REQUESTS));
+
+    // when
+    clusterDown = false;
+
+    // then
+    await(() -> !spool.isPending());
+    assertEquals(List.of(List.of("A1", "A2", "A3"), List.of("A3")), sentIds);
+    assertEquals(List.of("A2"), droppedIds);
+    assertTrue(Files.exists(spoolDir.resolve("dead-letter")));
+  }
+
+  @Test
+  void shouldReplayTheDeadLettersRenamedToASegment() throws IOException {
+    // given
+    val spool = newSpool(1024 * 1024, DRAIN_INTERVAL);
+    spool.append(List.of(toRequest("A1"))).block();
+    bulkFailures.add(Map.of("A1", RestStatus.BAD_REQUEST));
+    clusterDown = false;
+    await(() -> !spool.isPending());
+    spool.close();
+
+    // when
+    Files.move(spoolDir.resolve("dead-letter"), spoolDir.resolve("00000000000000000000.seg"));
+    val recovered = newSpool(1024 * 1024, DRAIN_INTERVAL);
+
+    // then
+    await(() -> !recovered.isPending());
+    assertEquals(List.of(List.of("A1"), List.of("A1")), sentIds);
+  }
+
+  private WriteAheadSpool newSpool(long segmentMaxBytes, Duration drainInterval) {
+    val spool =
+        new WriteAheadSpool(
+            INDEX,
+            spoolDir,
+            segmentMaxBytes,
+            1024 * 1024,
+            drainInterval,
+            10,
+            client,
+            Schedulers.boundedElastic(),
+            requests -> {
+              requests.forEach(request -> droppedIds.add(request.id()));
+              return Mono.empty();
+            });
+    spools.add(spool);
+    return spool;
+  }
+
+  @SneakyThrows
+  private List<Path> segments() {
+    try (Stream<Path> listing = Files.list(spoolDir)) {
+      return listing
+          .filter(path -> path.getFileName().toString().endsWith(".seg"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  @SneakyThrows
+  private static void await(BooleanSupplier condition) {
+    val deadline = System.nanoTime() + TIMEOUT.toNanos();
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "timed out");
+      Thread.sleep(10);
+    }
+  }
+
+  private static IndexRequest toRequest(String id) {
+    return new IndexRequest(INDEX).id(id).source(Map.of("analysis_id", id));
+  }
+
+  private static BulkResponse bulkResponse(BulkRequest request, Map<String, RestStatus> failures) {
+    val items = new BulkItemResponse[request.numberOfActions()];
+    for (int i = 0; i < items.length; i++) {
+      val id = request.requests().get(i).id();
+      val status = failures.get(id);
+      items[i] =
+          status == null
+              ? new BulkItemResponse(
+                  i,
+                  DocWriteRequest.OpType.INDEX,
+                  new IndexResponse(new ShardId(INDEX, "_na_", 0), "_doc", id, 1, 1, 1, true))
+              : new BulkItemResponse(
+                  i,
+                  DocWriteRequest.OpType.INDEX,
+                  new BulkItemResponse.Failure(
+                      INDEX, "_doc", id, new ElasticsearchException(status.name()), status));
+    }
+    return new BulkResponse(items, 1);
+  }
+}
@@ -24,6 +24,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import bio.overture.maestro.app.infra.config.PortSchedulers;
 import bio.overture.maestro.app.infra.config.properties.ApplicationProperties;
 import bio.overture.maestro.domain.entities.metadata.study.Analysis;
 import bio.overture.maestro.domain.port.outbound.metadata.study.GetAnalysisCommand;
@@ -33,7 +34,6 @@ import bio.overture.maestro.test.TestCategory;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.github.tomakehurst.wiremock.stubbing.Scenario;
 import java.util.List;
-
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
@@ -49,6 +49,7 @@ import org.springframework.context.annotation.Import;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 @Slf4j
@@ -133,6 +134,42 @@ class SongStudyDAOTest {
     StepVerifier.create(analysesMono).expectNext(analysisObj).verifyComplete();
   }
 
+  @Test
+  @SneakyThrows
+  void concurrentCallsForSameAnalysisShouldShareOneRequest() {
+    // given
+    val analysis = loadJsonString(this.getClass(), "PEME-CA.analysis.json");
+    val analysisObj = loadJsonFixture(this.getClass(), "PEME-CA.analysis.json", Analysis.class);
+    val analysisId = "EGAZ00001254300";
+    val command =
+        GetAnalysisCommand.builder()
+            .filesRepositoryBaseUrl("http://localhost:" + wiremockPort)
+            .studyId("PEME-CA")
+            .analysisId(analysisId)
+            .build();
+    stubFor(
+        request("GET", urlEqualTo("/studies/PEME-CA/analysis/" + analysisId))
+            .willReturn(
+                aResponse()
+                    .withBody(analysis)
+                    .withFixedDelay(500)
+                    .withStatus(200)
+                    .withHeader("content-type", "application/json")));
+
+    // when
+    val analyses = Mono.zip(songStudyDAO.getAnalysis(command), songStudyDAO.getAnalysis(command));
+
+    // then
+    StepVerifier.create(analyses)
+        .expectNextMatches(t -> t.getT1().equals(analysisObj) && t.getT2().equals(analysisObj))
+        .verifyComplete();
+    verify(1, getRequestedFor(urlEqualTo("/studies/PEME-CA/analysis/" + analysisId)));
+
+    // the request is released once done, a later call fetches again.
+    StepVerifier.create(songStudyDAO.getAnalysis(command)).expectNext(analysisObj).verifyComplete();
+    verify(2, getRequestedFor(urlEqualTo("/studies/PEME-CA/analysis/" + analysisId)));
+  }
+
   @Test
   @SneakyThrows
   void shouldRetryFetchingStudyAnalysesOnFailure() {
@@ -191,6 +228,60 @@ class SongStudyDAOTest {
     StepVerifier.create(analysesMono).expectNext(analysesList).verifyComplete();
   }
 
+  @Test
+  @SneakyThrows
+  void shouldFetchStudyAnalysesPagesConcurrentlyInOrder() {
+    // given
+    val properties = mock(ApplicationProperties.class);
+    when(properties.songStudyCallTimeoutSeconds()).thenReturn(20);
+    when(properties.indexableStudyStatuses()).thenReturn("PUBLISHED");
+    when(properties.pageLimit()).thenReturn(1);
+    when(properties.songPageFetchConcurrency()).thenReturn(2);
+    val concurrentStudyDAO =
+        new SongStudyDAO(WebClient.builder().build(), properties, new PortSchedulers(properties));
+    val analysesList =
+        loadJsonFixture(
+            this.getClass(), "PEME-CA.study.json", new TypeReference<List<Analysis>>() {});
+    val pageUrl = "/studies/PEME-CA/analysis/paginated?analysisStates=PUBLISHED&limit=1&offset=";
+
+    for (int page = 0; page < 3; page++) {
+      stubFor(
+          request("GET", urlEqualTo(pageUrl + page))
+              .willReturn(
+                  aResponse()
+                      .withBody(
+                          loadJsonString(
+                              this.getClass(), "PEME-CA.page-" + page + ".response.json"))
+                      // the second page arrives after the third one
+                      .withFixedDelay(page == 1 ? 500 : 0)
+                      .withStatus(200)
+                      .withHeader("content-type", "application/json")));
+    }
+    stubFor(
+        request("GET", urlEqualTo(pageUrl + 3))
+            .willReturn(
+                aResponse()
+                    .withBody(loadJsonString(this.getClass(), "empty-response.json"))
+                    .withStatus(200)
+                    .withHeader("content-type", "application/json")));
+
+    // when
+    val analysesMono =
+        concurrentStudyDAO.getStudyAnalyses(
+            GetStudyAnalysesCommand.builder()
+                .filesRepositoryBaseUrl("http://localhost:" + wiremockPort)
+                .studyId("PEME-CA")
+                .build());
+
+    // then
+    StepVerifier.create(analysesMono)
+        .expectNext(List.of(analysesList.get(0), analysesList.get(1), analysesList.get(0)))
+        .verifyComplete();
+    for (int page = 0; page < 4; page++) {
+      verify(1, getRequestedFor(urlEqualTo(pageUrl + page)));
+    }
+  }
+
   @Test
   void fetchingStudyAnalysesShouldReturnRetryExhaustedException() {
     // given
@@ -243,5 +334,10 @@ class SongStudyDAOTest {
       when(properties.indexableStudyStatuses()).thenReturn("PUBLISHED");
       return properties;
     }
+
+    @Bean
+    PortSchedulers portSchedulers(ApplicationProperties properties) {
+      return new PortSchedulers(properties);
+    }
   }
 }
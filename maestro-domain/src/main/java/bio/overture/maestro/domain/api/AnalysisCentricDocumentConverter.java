@@ -2,12 +2,14 @@ package bio.overture.maestro.domain.api;
 
 import static bio.overture.maestro.domain.api.DocumentConverterHelper.getDonors;
 
+import bio.overture.maestro.domain.entities.indexing.Donor;
 import bio.overture.maestro.domain.entities.indexing.Repository;
 import bio.overture.maestro.domain.entities.indexing.analysis.AnalysisCentricDocument;
 import bio.overture.maestro.domain.entities.indexing.analysis.AnalysisCentricFile;
 import bio.overture.maestro.domain.entities.metadata.repository.StudyRepository;
 import bio.overture.maestro.domain.entities.metadata.study.Analysis;
 import bio.overture.maestro.domain.entities.metadata.study.File;
+import io.vavr.Lazy;
 import java.util.List;
 import java.util.stream.Collectors;
 import lombok.NonNull;
@@ -20,10 +22,17 @@ import lombok.val;
 final class AnalysisCentricDocumentConverter {
 
   static List<AnalysisCentricDocument> fromAnalysis(Analysis analysis, StudyRepository repository) {
-    return List.of(convertAnalysis(analysis, repository));
+    return fromAnalysis(analysis, repository, Lazy.of(() -> getDonors(analysis)));
   }
 
-  static AnalysisCentricDocument convertAnalysis(Analysis analysis, StudyRepository repository) {
+  /** @param donors the donors tree of the analysis, shared with its file centric documents. */
+  static List<AnalysisCentricDocument> fromAnalysis(
+      Analysis analysis, StudyRepository repository, Lazy<List<Donor>> donors) {
+    return List.of(convertAnalysis(analysis, repository, donors));
+  }
+
+  static AnalysisCentricDocument convertAnalysis(
+      Analysis analysis, StudyRepository repository, Lazy<List<Donor>> donors) {
     val doc =
         AnalysisCentricDocument.builder()
             .analysisId(analysis.getAnalysisId())
@@ -34,7 +43,7 @@ final class AnalysisCentricDocumentConverter {
             .analysisType(analysis.getAnalysisType().getName())
             .analysisVersion(analysis.getAnalysisType().getVersion())
             .studyId(analysis.getStudyId())
-            .donors(getDonors(analysis))
+            .donors(donors.get())
             .repositories(
                 List.of(
                     Repository.builder()
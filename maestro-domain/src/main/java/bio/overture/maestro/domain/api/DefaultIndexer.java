@@ -18,6 +18,7 @@
 package bio.overture.maestro.domain.api;
 
 import static bio.overture.maestro.domain.api.AnalysisCentricDocumentConverter.fromAnalysis;
+import static bio.overture.maestro.domain.api.DocumentConverterHelper.getDonors;
 import static bio.overture.maestro.domain.api.ExclusionRulesEvaluator.shouldExcludeAnalysis;
 import static bio.overture.maestro.domain.utility.Exceptions.wrapWithIndexerException;
 import static java.text.MessageFormat.format;
@@ -25,18 +26,25 @@ import static java.text.MessageFormat.format;
 import bio.overture.maestro.domain.api.exception.FailureData;
 import bio.overture.maestro.domain.api.exception.IndexerException;
 import bio.overture.maestro.domain.api.message.*;
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprint;
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprints;
+import bio.overture.maestro.domain.entities.indexing.Donor;
 import bio.overture.maestro.domain.entities.indexing.FileCentricDocument;
+import bio.overture.maestro.domain.entities.indexing.IndexedDocumentFingerprint;
 import bio.overture.maestro.domain.entities.indexing.Repository;
 import bio.overture.maestro.domain.entities.indexing.analysis.AnalysisCentricDocument;
 import bio.overture.maestro.domain.entities.indexing.rules.ExclusionRule;
 import bio.overture.maestro.domain.entities.message.AnalysisMessage;
 import bio.overture.maestro.domain.entities.metadata.repository.StudyRepository;
 import bio.overture.maestro.domain.entities.metadata.study.Analysis;
+import bio.overture.maestro.domain.entities.metadata.study.File;
 import bio.overture.maestro.domain.entities.metadata.study.Study;
 import bio.overture.maestro.domain.port.outbound.indexing.AnalysisCentricIndexAdapter;
 import bio.overture.maestro.domain.port.outbound.indexing.BatchIndexAnalysisCommand;
 import bio.overture.maestro.domain.port.outbound.indexing.BatchIndexFilesCommand;
 import bio.overture.maestro.domain.port.outbound.indexing.FileCentricIndexAdapter;
+import bio.overture.maestro.domain.port.outbound.indexing.cache.WrittenDocumentsCache;
+import bio.overture.maestro.domain.port.outbound.indexing.checkpoint.StudyCheckpointDAO;
 import bio.overture.maestro.domain.port.outbound.indexing.rules.ExclusionRulesDAO;
 import bio.overture.maestro.domain.port.outbound.metadata.repository.StudyRepositoryDAO;
 import bio.overture.maestro.domain.port.outbound.metadata.study.GetAllStudiesCommand;
@@ -44,19 +52,30 @@ import bio.overture.maestro.domain.port.outbound.metadata.study.GetAnalysisComma
 import bio.overture.maestro.domain.port.outbound.metadata.study.GetStudyAnalysesCommand;
 import bio.overture.maestro.domain.port.outbound.metadata.study.StudyDAO;
 import bio.overture.maestro.domain.port.outbound.notification.IndexerNotification;
+import io.vavr.Lazy;
 import io.vavr.Tuple2;
 import io.vavr.control.Either;
 import io.vavr.control.Try;
+import java.io.Closeable;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import lombok.*;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.ListUtils;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 @Slf4j
-class DefaultIndexer implements Indexer {
+class DefaultIndexer implements Indexer, Closeable {
 
   static final String STUDY_ID = "studyId";
   static final String REPO_CODE = "repoCode";
@@ -66,18 +85,48 @@ class DefaultIndexer implements Indexer {
   private static final String REPO_URL = "repoUrl";
   private static final String FAILURE_DATA = "failureData";
   private static final String CONFLICTS = "conflicts";
+  private static final int DEFAULT_STUDY_STREAMING_WINDOW_SIZE = 500;
+  // below this, splitting the conversion costs more than it saves.
+  private static final int MIN_ANALYSES_FOR_PARALLEL_CONVERSION = 64;
+  // more chunks than workers, so a worker done early takes the next one.
+  private static final int CONVERSION_CHUNKS_PER_WORKER = 4;
+  private static final DocumentKeys<FileCentricDocument> FILE_KEYS =
+      new DocumentKeys<>(
+          FileCentricDocument::getObjectId,
+          file -> file.getAnalysis().getAnalysisId(),
+          DocumentFingerprints::ofFiles,
+          FileCentricDocument::getRepositories);
+  private static final DocumentKeys<AnalysisCentricDocument> ANALYSIS_KEYS =
+      new DocumentKeys<>(
+          AnalysisCentricDocument::getAnalysisId,
+          AnalysisCentricDocument::getAnalysisId,
+          DocumentFingerprints::ofAnalyses,
+          AnalysisCentricDocument::getRepositories);
+  // conflicts only matter to the checkpoint of incremental study runs.
+  private static final Consumer<Date> IGNORE_CONFLICTS = updatedAt -> {};
   public static final String ALL = "ALL";
   private final String fileCentricIndexName;
   private final String analysisCentricIndexName;
   private boolean isFileCentricEnabled;
   private boolean isAnalysisCentricEnabled;
+  private final boolean isStudyStreamingEnabled;
+  private final int studyStreamingWindowSize;
+  private final boolean isIncrementalIndexingEnabled;
+  private final long incrementalClockSkewMarginMillis;
+  private final boolean isWriteCacheEnabled;
 
   private final FileCentricIndexAdapter fileCentricIndexAdapter;
   private final AnalysisCentricIndexAdapter analysisCentricIndexAdapter;
   private final StudyDAO studyDAO;
   private final StudyRepositoryDAO studyRepositoryDao;
   private final ExclusionRulesDAO exclusionRulesDAO;
+  private final StudyCheckpointDAO studyCheckpointDAO;
+  private final WrittenDocumentsCache writtenDocumentsCache;
   private final Notifier notifier;
+  /** the conversions run on their own workers, they don't block the threads calling them. */
+  private final int conversionParallelism;
+
+  private final Scheduler conversionScheduler;
 
   @Inject
   DefaultIndexer(
@@ -86,6 +135,8 @@ class DefaultIndexer implements Indexer {
       StudyDAO studyDAO,
       StudyRepositoryDAO studyRepositoryDao,
       ExclusionRulesDAO exclusionRulesDAO,
+      StudyCheckpointDAO studyCheckpointDAO,
+      WrittenDocumentsCache writtenDocumentsCache,
       Notifier notifier,
       IndexProperties indexProperties) {
     this.fileCentricIndexAdapter = fileCentricIndexAdapter;
@@ -93,95 +144,72 @@ class DefaultIndexer implements Indexer {
     this.studyDAO = studyDAO;
     this.studyRepositoryDao = studyRepositoryDao;
     this.exclusionRulesDAO = exclusionRulesDAO;
+    this.studyCheckpointDAO = studyCheckpointDAO;
+    this.writtenDocumentsCache = writtenDocumentsCache;
     this.notifier = notifier;
     this.isAnalysisCentricEnabled = indexProperties.isAnalysisCentricEnabled();
     this.isFileCentricEnabled = indexProperties.isFileCentricEnabled();
     this.fileCentricIndexName = indexProperties.fileCentricIndexName();
     this.analysisCentricIndexName = indexProperties.analysisCentricIndexName();
-  }
-
+    this.isStudyStreamingEnabled = indexProperties.isStudyStreamingEnabled();
+    this.studyStreamingWindowSize =
+        indexProperties.studyStreamingWindowSize() > 0
+            ? indexProperties.studyStreamingWindowSize()
+            : DEFAULT_STUDY_STREAMING_WINDOW_SIZE;
+    this.isIncrementalIndexingEnabled = indexProperties.isIncrementalIndexingEnabled();
+    this.incrementalClockSkewMarginMillis =
+        TimeUnit.SECONDS.toMillis(Math.max(indexProperties.incrementalClockSkewMarginSeconds(), 0));
+    this.isWriteCacheEnabled = indexProperties.isWriteCacheEnabled();
+    this.conversionParallelism =
+        indexProperties.conversionParallelism() > 0
+            ? indexProperties.conversionParallelism()
+            : Runtime.getRuntime().availableProcessors();
+    this.conversionScheduler = Schedulers.newParallel("conversion", conversionParallelism, true);
+  }
+
+  /** Releases the conversion workers, the container calls it on shutdown. */
   @Override
-  public Flux<IndexResult> indexAnalysis(@NonNull IndexAnalysisCommand command) {
-    List<Mono<IndexResult>> monos = new ArrayList<>();
-    if (isFileCentricEnabled) {
-      monos.add(indexAnalysisToFileCentric(command));
-    }
-    if (isAnalysisCentricEnabled) {
-      monos.add(indexAnalysisToAnalysisCentric(command));
-    }
-    return Flux.merge(monos);
+  public void close() {
+    this.conversionScheduler.dispose();
   }
 
   @Override
-  public Flux<IndexResult> indexAnalysisPayload(@NonNull AnalysisMessage analysis) {
-    List<Mono<IndexResult>> monos = new ArrayList<>();
-    IndexAnalysisCommand indexAnalysisCommand =
-        IndexAnalysisCommand.builder()
-            .analysisIdentifier(
-                AnalysisIdentifier.builder()
-                    .repositoryCode(analysis.getSongServerId())
-                    .studyId(analysis.getStudyId())
-                    .analysisId(analysis.getAnalysisId())
-                    .build())
-            .build();
-    if (isFileCentricEnabled) {
-      monos.add(indexAnalysisPayloadToFileCentric(analysis, indexAnalysisCommand));
-    }
-
-    if (isAnalysisCentricEnabled) {
-      monos.add(indexAnalysisPayloadToAnalysisCentric(analysis, indexAnalysisCommand));
-    }
-    return Flux.merge(monos);
-  }
-
-  /**
-   * Builds file centric document from analysisPayload, indexes the document to file centric index.
-   *
-   * @param analysisPayload Kafka message body that contains analysis, files, samples.
-   * @param command A command that has analysis identifier.
-   * @return Index result indicating if documents have been successfully indexed.
-   */
-  private Mono<IndexResult> indexAnalysisPayloadToFileCentric(
-      @NonNull AnalysisMessage analysisPayload, @NonNull IndexAnalysisCommand command) {
+  public Flux<IndexResult> indexAnalysis(@NonNull IndexAnalysisCommand command) {
     val analysisIdentifier = command.getAnalysisIdentifier();
+    BiFunction<Throwable, String, Mono<IndexResult>> fallback =
+        (e, indexName) -> handleIndexAnalysisFailure(e, analysisIdentifier, indexName);
     return prepareTuple(command)
-        .map(
+        .flatMap(
             tuple ->
-                buildFileCentricDocuments(
-                    tuple.studyRepository, List.of(analysisPayload.getAnalysis())))
-        .flatMap(this::batchUpsertFilesAndCollectFailures)
-        .onErrorResume(
-            IndexerException.class,
-            (ex) ->
-                Mono.just(this.convertIndexerExceptionToIndexResult(ex, this.fileCentricIndexName)))
-        .onErrorResume(
-            (e) -> handleIndexAnalysisError(e, analysisIdentifier, this.fileCentricIndexName));
+                getAnalysisFromStudyRepository(tuple)
+                    .flatMap(analyses -> buildDocuments(tuple.getStudyRepository(), analyses)))
+        .flatMapMany(documents -> upsertToEnabledIndices(documents, fallback, IGNORE_CONFLICTS))
+        .map(Tuple2::_2)
+        .onErrorResume(e -> fallbackForEnabledIndices(e, fallback).map(Tuple2::_2));
   }
 
   /**
-   * Builds analysis centric document from analysisPayload, indexes the document to analysis centric
-   * index.
-   *
-   * @param analysisPayload Kafka message body that contains analysis, files, samples.
-   * @param command A command that has analysis identifier.
-   * @return Index result indicating if documents have been successfully indexed.
+   * Builds the documents of the enabled indices from the analysis in the Kafka message body
+   * (analysis, files, samples) and indexes them, no call to the study repository is made for the
+   * analysis itself.
    */
-  private Mono<IndexResult> indexAnalysisPayloadToAnalysisCentric(
-      @NonNull AnalysisMessage analysisPayload, @NonNull IndexAnalysisCommand command) {
-    val analysisIdentifier = command.getAnalysisIdentifier();
+  @Override
+  public Flux<IndexResult> indexAnalysisPayload(@NonNull AnalysisMessage analysis) {
+    val analysisIdentifier =
+        AnalysisIdentifier.builder()
+            .repositoryCode(analysis.getSongServerId())
+            .studyId(analysis.getStudyId())
+            .analysisId(analysis.getAnalysisId())
+            .build();
+    BiFunction<Throwable, String, Mono<IndexResult>> fallback =
+        (e, indexName) -> handleIndexAnalysisFailure(e, analysisIdentifier, indexName);
+    val command = IndexAnalysisCommand.builder().analysisIdentifier(analysisIdentifier).build();
     return prepareTuple(command)
-        .map(
-            tuple ->
-                buildAnalysisCentricDocuments(
-                    tuple.studyRepository, List.of(analysisPayload.getAnalysis())))
-        .flatMap(this::batchUpsertAnalysesAndCollectFailures)
-        .onErrorResume(
-            IndexerException.class,
-            (ex) ->
-                Mono.just(
-                    this.convertIndexerExceptionToIndexResult(ex, this.analysisCentricIndexName)))
-        .onErrorResume(
-            (e) -> handleIndexAnalysisError(e, analysisIdentifier, this.analysisCentricIndexName));
+        .flatMap(
+            tuple -> buildDocuments(tuple.getStudyRepository(), List.of(analysis.getAnalysis())))
+        .flatMapMany(documents -> upsertToEnabledIndices(documents, fallback, IGNORE_CONFLICTS))
+        .map(Tuple2::_2)
+        .onErrorResume(e -> fallbackForEnabledIndices(e, fallback).map(Tuple2::_2));
   }
 
   public Mono<IndexResult> indexAnalysisToAnalysisCentric(
@@ -190,7 +218,7 @@ class DefaultIndexer implements Indexer {
 
     return prepareTuple(indexAnalysisCommand)
         .flatMap(this::getAnalysisCentricDocuments)
-        .flatMap(this::batchUpsertAnalysesAndCollectFailures)
+        .flatMap(tuple -> batchUpsertAnalysesAndCollectFailures(tuple, IGNORE_CONFLICTS))
         .onErrorResume(
             IndexerException.class,
             (ex) ->
@@ -206,7 +234,7 @@ class DefaultIndexer implements Indexer {
 
     return prepareTuple(indexAnalysisCommand)
         .flatMap(this::getFileCentricDocuments)
-        .flatMap(this::batchUpsertFilesAndCollectFailures)
+        .flatMap(tuple -> batchUpsertFilesAndCollectFailures(tuple, IGNORE_CONFLICTS))
         // this handles exceptions that were handled already and avoids them getting to the generic
         // handler
         // because we know if we get this exception it was already logged and notified so we don't
@@ -223,12 +251,49 @@ class DefaultIndexer implements Indexer {
   @Override
   public Flux<IndexResult> removeAnalysis(@NonNull RemoveAnalysisCommand removeAnalysisCommand) {
     val analysisIdentifier = removeAnalysisCommand.getAnalysisIdentifier();
+    return removeAnalysis(
+        analysisIdentifier,
+        Mono.defer(
+            () ->
+                this.fileCentricIndexAdapter.removeAnalysisFiles(
+                    analysisIdentifier.getAnalysisId())));
+  }
+
+  /**
+   * The files documents ids are the payload files object ids, if any file misses its object id the
+   * payload can't be trusted to list them all and the documents are removed by analysis id.
+   */
+  @Override
+  public Flux<IndexResult> removeAnalysisPayload(@NonNull AnalysisMessage analysis) {
+    val analysisIdentifier =
+        AnalysisIdentifier.builder()
+            .repositoryCode(analysis.getSongServerId())
+            .studyId(analysis.getStudyId())
+            .analysisId(analysis.getAnalysisId())
+            .build();
+    val files = analysis.getAnalysis().getFiles();
+    if (files == null
+        || files.isEmpty()
+        || files.stream().anyMatch(file -> file == null || file.getObjectId() == null)) {
+      log.debug("incomplete files list in payload of analysis {}", analysis.getAnalysisId());
+      return removeAnalysis(
+          analysisIdentifier,
+          Mono.defer(
+              () -> this.fileCentricIndexAdapter.removeAnalysisFiles(analysis.getAnalysisId())));
+    }
+    val objectIds = files.stream().map(File::getObjectId).collect(Collectors.toUnmodifiableSet());
+    return removeAnalysis(
+        analysisIdentifier, Mono.defer(() -> this.fileCentricIndexAdapter.removeFiles(objectIds)));
+  }
+
+  private Flux<IndexResult> removeAnalysis(
+      @NonNull AnalysisIdentifier analysisIdentifier, @NonNull Mono<Void> removeFiles) {
     List<Mono<IndexResult>> monos = new ArrayList<>();
 
     if (isFileCentricEnabled) {
       val mono =
-          this.fileCentricIndexAdapter
-              .removeAnalysisFiles(analysisIdentifier.getAnalysisId())
+          evictWrittenDocuments(this.fileCentricIndexName, analysisIdentifier.getAnalysisId())
+              .then(removeFiles)
               .thenReturn(
                   IndexResult.builder()
                       .indexName(this.fileCentricIndexName)
@@ -241,8 +306,10 @@ class DefaultIndexer implements Indexer {
 
     if (isAnalysisCentricEnabled) {
       val mono =
-          this.analysisCentricIndexAdapter
-              .removeAnalysisDocs(analysisIdentifier.getAnalysisId())
+          evictWrittenDocuments(this.analysisCentricIndexName, analysisIdentifier.getAnalysisId())
+              .then(
+                  this.analysisCentricIndexAdapter.removeAnalysisDocs(
+                      analysisIdentifier.getAnalysisId()))
               .thenReturn(
                   IndexResult.builder()
                       .indexName(this.analysisCentricIndexName)
@@ -258,65 +325,192 @@ class DefaultIndexer implements Indexer {
 
   @Override
   public Flux<IndexResult> indexStudy(@NonNull IndexStudyCommand command) {
-    List<Mono<IndexResult>> monos = new ArrayList<>();
+    log.trace("in indexStudy, args: {} ", command);
+    BiFunction<Throwable, String, Mono<IndexResult>> fallback =
+        (e, indexName) -> handleIndexStudyFailure(e, command, indexName);
+    return prepareStudyAndRepo(command)
+        .flatMapMany(
+            studyAndRepository ->
+                startStudyRun(studyAndRepository)
+                    .flatMapMany(
+                        run ->
+                            (isStudyStreamingEnabled
+                                    ? indexStudyInWindows(studyAndRepository, run, fallback)
+                                    : indexWholeStudy(studyAndRepository, run, fallback))
+                                .collectList()
+                                .flatMapMany(
+                                    results -> completeStudyRun(studyAndRepository, run, results))))
+        .onErrorResume(e -> fallbackForEnabledIndices(e, fallback).map(Tuple2::_2));
+  }
+
+  private Flux<IndexResult> indexWholeStudy(
+      @NonNull StudyAndRepository studyAndRepository,
+      @NonNull StudyRun run,
+      @NonNull BiFunction<Throwable, String, Mono<IndexResult>> fallback) {
+    return getFilteredAnalyses(
+            studyAndRepository.getStudyRepository().getUrl(),
+            studyAndRepository.getStudy().getStudyId(),
+            run)
+        .flatMap(analyses -> buildDocuments(studyAndRepository.getStudyRepository(), analyses))
+        .flatMapMany(documents -> upsertToEnabledIndices(documents, fallback, run::trackConflict))
+        .map(Tuple2::_2);
+  }
 
-    Mono<Tuple2<List<Analysis>, StudyAndRepository>> mono =
-        prepareStudyAndRepo(command)
-            .flatMap(
-                studyAndRepository ->
-                    getFilteredAnalyses(
-                            studyAndRepository.getStudyRepository().getUrl(),
-                            studyAndRepository.getStudy().getStudyId())
-                        .map(analyses -> new Tuple2<>(analyses, studyAndRepository)));
+  /**
+   * Streaming variant of {@link #indexWholeStudy}, the study analyses are pulled page by page and
+   * every window of analyses goes through exclusion filtering, conversion, conflicts check and bulk
+   * upsert on its own, so memory usage is bounded by the window size instead of the study size. The
+   * results of the windows are reduced to a single result per index.
+   */
+  private Flux<IndexResult> indexStudyInWindows(
+      @NonNull StudyAndRepository studyAndRepository,
+      @NonNull StudyRun run,
+      @NonNull BiFunction<Throwable, String, Mono<IndexResult>> fallback) {
+    return streamFilteredAnalyses(
+            studyAndRepository.getStudyRepository().getUrl(),
+            studyAndRepository.getStudy().getStudyId(),
+            run)
+        .concatMap(
+            window ->
+                buildDocuments(studyAndRepository.getStudyRepository(), window)
+                    .flatMapMany(
+                        documents ->
+                            upsertToEnabledIndices(documents, fallback, run::trackConflict)))
+        // windows indexed before a failure are kept, the failure is added to their results.
+        .onErrorResume(e -> fallbackForEnabledIndices(e, fallback))
+        .reduceWith(
+            this::successfulResultPerEnabledIndex,
+            (map, indexResult) -> {
+              val indexName = indexResult._1();
+              map.put(indexName, reduceIndexResult(map.get(indexName), indexResult._2()));
+              return map;
+            })
+        .flatMapIterable(Map::entrySet)
+        .map(
+            entry ->
+                IndexResult.builder()
+                    .indexName(entry.getKey())
+                    .failureData(entry.getValue().getFailureData())
+                    .successful(entry.getValue().isSuccessful())
+                    .clusterFailures(entry.getValue().getClusterFailures())
+                    .build());
+  }
 
+  /**
+   * In incremental mode loads the study checkpoint so only the analyses updated after it are
+   * indexed, a missing or unreadable checkpoint means a full run. The run start is taken before the
+   * first page of analyses is fetched, the analyses updated after it may be missed by this run.
+   */
+  private Mono<StudyRun> startStudyRun(@NonNull StudyAndRepository studyAndRepository) {
+    if (!isIncrementalIndexingEnabled) {
+      return Mono.just(StudyRun.builder().build());
+    }
+    val repoCode = studyAndRepository.getStudyRepository().getCode();
+    val studyId = studyAndRepository.getStudy().getStudyId();
+    return Mono.defer(
+        () -> {
+          val checkpointCap =
+              new Date(System.currentTimeMillis() - incrementalClockSkewMarginMillis);
+          Function<Date, StudyRun> newRun =
+              checkpoint ->
+                  StudyRun.builder()
+                      .incremental(true)
+                      .checkpoint(checkpoint)
+                      .checkpointCap(checkpointCap)
+                      .build();
+          return this.studyCheckpointDAO
+              .getCheckpoint(repoCode, studyId)
+              .map(newRun)
+              .defaultIfEmpty(newRun.apply(null))
+              .onErrorResume(
+                  e -> {
+                    log.error(
+                        "failed to read checkpoint of study {}, repo {}", studyId, repoCode, e);
+                    return Mono.just(newRun.apply(null));
+                  });
+        });
+  }
+
+  /**
+   * Moves the study checkpoint to the latest updatedAt seen in this run, or to the earliest
+   * conflicting analysis if any, but not past the run start, only if every index was successful
+   * otherwise failed analyses wouldn't be retried by the next run. Failing to save the checkpoint
+   * doesn't fail the run, the next run will just redo more work.
+   */
+  private Flux<IndexResult> completeStudyRun(
+      @NonNull StudyAndRepository studyAndRepository,
+      @NonNull StudyRun run,
+      @NonNull List<IndexResult> results) {
+    val nextCheckpoint = run.nextCheckpoint();
+    if (!run.isIncremental()
+        || nextCheckpoint == null
+        || !results.stream().allMatch(IndexResult::isSuccessful)) {
+      return Flux.fromIterable(results);
+    }
+    val repoCode = studyAndRepository.getStudyRepository().getCode();
+    val studyId = studyAndRepository.getStudy().getStudyId();
+    return this.studyCheckpointDAO
+        .saveCheckpoint(repoCode, studyId, nextCheckpoint)
+        .onErrorResume(
+            e -> {
+              log.error("failed to save checkpoint of study {}, repo {}", studyId, repoCode, e);
+              return Mono.empty();
+            })
+        .thenMany(Flux.fromIterable(results));
+  }
+
+  /**
+   * Upserts the documents of each enabled index, the failures of one index don't affect the other.
+   *
+   * @param onConflict called with the updatedAt of the analysis of each conflicting document.
+   * @return the result of every enabled index paired with its name.
+   */
+  private Flux<Tuple2<String, IndexResult>> upsertToEnabledIndices(
+      @NonNull IndexDocuments documents,
+      @NonNull BiFunction<Throwable, String, Mono<IndexResult>> fallback,
+      @NonNull Consumer<Date> onConflict) {
+    List<Mono<Tuple2<String, IndexResult>>> monos = new ArrayList<>();
     if (isFileCentricEnabled) {
-      monos.add(indexStudyToFileCentric(command, mono));
+      monos.add(
+          batchUpsertFilesAndCollectFailures(documents.getFiles(), onConflict)
+              .onErrorResume(e -> fallback.apply(e, this.fileCentricIndexName))
+              .map(result -> new Tuple2<>(this.fileCentricIndexName, result)));
     }
     if (isAnalysisCentricEnabled) {
-      monos.add(indexStudyToAnalysisCentric(command, mono));
+      monos.add(
+          batchUpsertAnalysesAndCollectFailures(documents.getAnalyses(), onConflict)
+              .onErrorResume(e -> fallback.apply(e, this.analysisCentricIndexName))
+              .map(result -> new Tuple2<>(this.analysisCentricIndexName, result)));
     }
     return Flux.merge(monos);
   }
 
-  private Mono<IndexResult> indexStudyToFileCentric(
-      @NonNull IndexStudyCommand command,
-      @NonNull Mono<Tuple2<List<Analysis>, StudyAndRepository>> tuple2) {
-    log.trace("in indexStudyToFileCentric, args: {} ", command);
-    return tuple2
-        .map(t -> buildFileCentricDocuments(t._2().getStudyRepository(), t._1()))
-        .flatMap(this::batchUpsertFilesAndCollectFailures)
-        .onErrorResume(
-            IndexerException.class,
-            (ex) ->
-                Mono.just(this.convertIndexerExceptionToIndexResult(ex, this.fileCentricIndexName)))
-        .onErrorResume(
-            (e) ->
-                handleIndexStudyError(
-                    e,
-                    command.getStudyId(),
-                    command.getRepositoryCode(),
-                    this.fileCentricIndexName));
-  }
-
-  private Mono<IndexResult> indexStudyToAnalysisCentric(
-      @NonNull IndexStudyCommand command,
-      @NonNull Mono<Tuple2<List<Analysis>, StudyAndRepository>> tuple2) {
-    log.trace("in indexStudyToAnalysisCentric, args: {} ", command);
-    return tuple2
-        .map(t -> buildAnalysisCentricDocuments(t._2().getStudyRepository(), t._1()))
-        .flatMap(this::batchUpsertAnalysesAndCollectFailures)
-        .onErrorResume(
-            IndexerException.class,
-            (ex) ->
-                Mono.just(
-                    this.convertIndexerExceptionToIndexResult(ex, this.analysisCentricIndexName)))
-        .onErrorResume(
-            (e) ->
-                handleIndexStudyError(
-                    e,
-                    command.getStudyId(),
-                    command.getRepositoryCode(),
-                    this.analysisCentricIndexName));
+  private Flux<Tuple2<String, IndexResult>> fallbackForEnabledIndices(
+      Throwable e, BiFunction<Throwable, String, Mono<IndexResult>> fallback) {
+    return Flux.fromIterable(enabledIndexNames())
+        .concatMap(indexName -> fallback.apply(e, indexName).map(r -> new Tuple2<>(indexName, r)));
+  }
+
+  private Map<String, IndexResult> successfulResultPerEnabledIndex() {
+    val results = new LinkedHashMap<String, IndexResult>();
+    enabledIndexNames()
+        .forEach(
+            indexName -> {
+              val result = IndexResult.builder().indexName(indexName).successful(true).build();
+              results.put(indexName, result);
+            });
+    return results;
+  }
+
+  private List<String> enabledIndexNames() {
+    List<String> indexNames = new ArrayList<>();
+    if (isFileCentricEnabled) {
+      indexNames.add(this.fileCentricIndexName);
+    }
+    if (isAnalysisCentricEnabled) {
+      indexNames.add(this.analysisCentricIndexName);
+    }
+    return indexNames;
   }
 
   @Override
@@ -353,6 +547,305 @@ class DefaultIndexer implements Indexer {
             });
   }
 
+  @Override
+  public Mono<Map<String, IndexResult>> rebuildRepository(
+      @NonNull IndexStudyRepositoryCommand command) {
+    log.trace("in rebuildRepository, args: {} ", command);
+    return tryGetStudyRepository(command.getRepositoryCode())
+        .flatMap(
+            studyRepository ->
+                createRebuildIndices(studyRepository.getCode())
+                    .flatMap(rebuild -> rebuildIndices(studyRepository, rebuild)))
+        .onErrorResume(
+            IndexerException.class,
+            (ex) -> Mono.just(Map.of(ALL, this.convertIndexerExceptionToIndexResult(ex, ALL))))
+        .onErrorResume(
+            (e) ->
+                handleIndexRepositoryError(e, command.getRepositoryCode())
+                    .map(result -> Map.<String, IndexResult>of(ALL, result)));
+  }
+
+  /**
+   * Indexes all the studies of the repository into the rebuild indices, a study failure doesn't
+   * stop the others but the rebuild indices replace the current ones only if there was no failure
+   * at all, otherwise they are deleted.
+   */
+  private Mono<Map<String, IndexResult>> rebuildIndices(
+      @NonNull StudyRepository studyRepository, @NonNull RebuildIndices rebuild) {
+    return getAllStudies(studyRepository)
+        .flatMap(studyAndRepository -> rebuildStudy(studyAndRepository, rebuild))
+        .reduceWith(
+            this::successfulResultPerEnabledIndex,
+            (map, indexResult) -> {
+              val indexName = indexResult._1();
+              map.put(indexName, reduceIndexResult(map.get(indexName), indexResult._2()));
+              return map;
+            })
+        .map(
+            map -> {
+              map.replaceAll(
+                  (indexName, result) ->
+                      IndexResult.builder()
+                          .indexName(indexName)
+                          .failureData(result.getFailureData())
+                          .successful(result.isSuccessful())
+                          .clusterFailures(result.getClusterFailures())
+                          .build());
+              return map;
+            })
+        .onErrorResume(e -> abandonRebuild(rebuild).then(Mono.error(e)))
+        .flatMap(
+            results ->
+                results.values().stream().allMatch(IndexResult::isSuccessful)
+                    ? completeRebuild(rebuild).thenReturn(results)
+                    : abandonRebuild(rebuild).thenReturn(results));
+  }
+
+  /**
+   * Full run of a study into the rebuild indices, analyses are streamed in windows whatever the
+   * streaming setting is. The documents are checked for replica conflicts against the rebuild
+   * indices, which are seeded with the documents of the other repositories, and the conflicting
+   * ones are skipped and notified like in {@link #indexStudy}. There is no write cache since the
+   * indices started without the documents of the repository.
+   */
+  private Flux<Tuple2<String, IndexResult>> rebuildStudy(
+      @NonNull StudyAndRepository studyAndRepository, @NonNull RebuildIndices rebuild) {
+    val command =
+        IndexStudyCommand.builder()
+            .studyId(studyAndRepository.getStudy().getStudyId())
+            .repositoryCode(studyAndRepository.getStudyRepository().getCode())
+            .build();
+    BiFunction<Throwable, String, Mono<IndexResult>> fallback =
+        (e, indexName) -> handleIndexStudyFailure(e, command, indexName);
+    return streamFilteredAnalyses(
+            studyAndRepository.getStudyRepository().getUrl(),
+            command.getStudyId(),
+            StudyRun.builder().build())
+        .concatMap(
+            window ->
+                buildDocuments(studyAndRepository.getStudyRepository(), window)
+                    .flatMapMany(documents -> indexToRebuildIndices(documents, rebuild, fallback)))
+        .onErrorResume(e -> fallbackForEnabledIndices(e, fallback));
+  }
+
+  private Flux<Tuple2<String, IndexResult>> indexToRebuildIndices(
+      @NonNull IndexDocuments documents,
+      @NonNull RebuildIndices rebuild,
+      @NonNull BiFunction<Throwable, String, Mono<IndexResult>> fallback) {
+    List<Mono<Tuple2<String, IndexResult>>> monos = new ArrayList<>();
+    if (isFileCentricEnabled) {
+      val files = documents.getFiles();
+      val fingerprints = FILE_KEYS.fingerprintsOf(files._2());
+      val index = rebuild.getFileCentricIndex();
+      monos.add(
+          getAlreadyIndexed(
+                  files._2(),
+                  ids -> fileCentricIndexAdapter.fetchRebuildFingerprintsByIds(index, ids),
+                  ids -> fileCentricIndexAdapter.fetchRebuildByIds(index, ids))
+              .map(storedFiles -> findConflicts(files._2(), storedFiles, fingerprints))
+              .doOnNext(this::handleConflicts)
+              .flatMap(
+                  conflictsCheckResult ->
+                      this.fileCentricIndexAdapter.batchIndexRebuildFiles(
+                          index,
+                          BatchIndexFilesCommand.builder()
+                              .files(filesWithoutConflicts(files._2(), conflictsCheckResult))
+                              .fingerprints(fingerprints)
+                              .build()))
+              .doOnNext(this::notifyIndexRequestFailures)
+              .map(result -> reduceIndexResult(failuresResult(files._1()), result))
+              .onErrorResume(e -> fallback.apply(e, this.fileCentricIndexName))
+              .map(result -> new Tuple2<>(this.fileCentricIndexName, result)));
+    }
+    if (isAnalysisCentricEnabled) {
+      val analyses = documents.getAnalyses();
+      val fingerprints = ANALYSIS_KEYS.fingerprintsOf(analyses._2());
+      val index = rebuild.getAnalysisCentricIndex();
+      monos.add(
+          getIndexedAnalyses(
+                  analyses._2(),
+                  ids -> analysisCentricIndexAdapter.fetchRebuildFingerprintsByIds(index, ids),
+                  ids -> analysisCentricIndexAdapter.fetchRebuildByIds(index, ids))
+              .map(stored -> findAnalysisConflicts(analyses._2(), stored, fingerprints))
+              .doOnNext(this::handleAnalysisConflicts)
+              .flatMap(
+                  conflictsCheckResult ->
+                      this.analysisCentricIndexAdapter.batchIndexRebuildAnalyses(
+                          index,
+                          BatchIndexAnalysisCommand.builder()
+                              .analyses(
+                                  analysesWithoutConflicts(analyses._2(), conflictsCheckResult))
+                              .fingerprints(fingerprints)
+                              .build()))
+              .doOnNext(this::notifyIndexRequestFailures)
+              .map(result -> reduceIndexResult(failuresResult(analyses._1()), result))
+              .onErrorResume(e -> fallback.apply(e, this.analysisCentricIndexName))
+              .map(result -> new Tuple2<>(this.analysisCentricIndexName, result)));
+    }
+    return Flux.merge(monos);
+  }
+
+  private IndexResult failuresResult(FailureData failureData) {
+    return IndexResult.builder().failureData(failureData).build();
+  }
+
+  /** Creates the rebuild index of each enabled index, the created ones are deleted on failure. */
+  private Mono<RebuildIndices> createRebuildIndices(@NonNull String repositoryCode) {
+    val rebuild = new RebuildIndices();
+    return Mono.defer(
+            () ->
+                isFileCentricEnabled
+                    ? this.fileCentricIndexAdapter
+                        .createRebuildIndex(repositoryCode)
+                        .doOnNext(rebuild::setFileCentricIndex)
+                        .then()
+                    : Mono.<Void>empty())
+        .then(
+            Mono.defer(
+                () ->
+                    isAnalysisCentricEnabled
+                        ? this.analysisCentricIndexAdapter
+                            .createRebuildIndex(repositoryCode)
+                            .doOnNext(rebuild::setAnalysisCentricIndex)
+                            .then()
+                        : Mono.<Void>empty()))
+        .thenReturn(rebuild)
+        .onErrorResume(e -> abandonRebuild(rebuild).then(Mono.error(e)));
+  }
+
+  /**
+   * Moves the aliases to the rebuild indices, the written documents known by the write cache were
+   * written to the replaced indices so they are forgotten.
+   */
+  private Mono<Void> completeRebuild(@NonNull RebuildIndices rebuild) {
+    return ifCreated(
+            rebuild.getFileCentricIndex(),
+            indexName ->
+                this.fileCentricIndexAdapter
+                    .completeRebuild(indexName)
+                    .then(evictWrittenIndex(this.fileCentricIndexName)))
+        .then(
+            ifCreated(
+                rebuild.getAnalysisCentricIndex(),
+                indexName ->
+                    this.analysisCentricIndexAdapter
+                        .completeRebuild(indexName)
+                        .then(evictWrittenIndex(this.analysisCentricIndexName))));
+  }
+
+  /** Deletes the rebuild indices, failing to do so doesn't fail the rebuild it's only logged. */
+  private Mono<Void> abandonRebuild(@NonNull RebuildIndices rebuild) {
+    return ifCreated(rebuild.getFileCentricIndex(), this.fileCentricIndexAdapter::abandonRebuild)
+        .then(
+            ifCreated(
+                rebuild.getAnalysisCentricIndex(),
+                this.analysisCentricIndexAdapter::abandonRebuild))
+        .onErrorResume(
+            e -> {
+              log.error("failed to delete the rebuild indices {}", rebuild, e);
+              return Mono.empty();
+            });
+  }
+
+  private static Mono<Void> ifCreated(
+      String rebuildIndexName, Function<String, Mono<Void>> action) {
+    return rebuildIndexName == null
+        ? Mono.empty()
+        : Mono.defer(() -> action.apply(rebuildIndexName));
+  }
+
+  @Override
+  public Flux<IndexTaskStatus> removeStudy(@NonNull RemoveStudyCommand command) {
+    val studyId = command.getStudyId();
+    log.info("removing study {} from all indices", studyId);
+    return runRemovalTasks(
+        Mono.defer(() -> this.studyCheckpointDAO.deleteStudyCheckpoints(studyId)),
+        Map.of(STUDY_ID, Set.of(studyId)),
+        NotificationName.FAILED_TO_REMOVE_STUDY,
+        () -> this.fileCentricIndexAdapter.removeStudyFiles(studyId),
+        () -> this.analysisCentricIndexAdapter.removeStudyDocs(studyId));
+  }
+
+  @Override
+  public Flux<IndexTaskStatus> removeRepository(@NonNull RemoveRepositoryCommand command) {
+    val repoCode = command.getRepositoryCode();
+    log.info("removing repository {} from all indices", repoCode);
+    return runRemovalTasks(
+        Mono.defer(() -> this.studyCheckpointDAO.deleteRepositoryCheckpoints(repoCode)),
+        Map.of(REPO_CODE, Set.of(repoCode)),
+        NotificationName.FAILED_TO_REMOVE_REPOSITORY,
+        () -> this.fileCentricIndexAdapter.removeRepositoryFiles(repoCode),
+        () -> this.analysisCentricIndexAdapter.removeRepositoryDocs(repoCode));
+  }
+
+  /**
+   * Runs the removal task of each enabled index concurrently. The checkpoints and the write cache
+   * are cleared before the tasks start so the next runs write the removed documents again, even if
+   * the caller stops following the tasks.
+   */
+  private Flux<IndexTaskStatus> runRemovalTasks(
+      @NonNull Mono<Void> deleteCheckpoints,
+      @NonNull Map<String, Set<String>> failingIds,
+      @NonNull NotificationName failureNotification,
+      @NonNull Supplier<Flux<IndexTaskStatus>> fileCentricTask,
+      @NonNull Supplier<Flux<IndexTaskStatus>> analysisCentricTask) {
+    List<Flux<IndexTaskStatus>> tasks = new ArrayList<>();
+    if (isFileCentricEnabled) {
+      tasks.add(
+          runRemovalTask(
+              this.fileCentricIndexName, fileCentricTask, failingIds, failureNotification));
+    }
+    if (isAnalysisCentricEnabled) {
+      tasks.add(
+          runRemovalTask(
+              this.analysisCentricIndexName, analysisCentricTask, failingIds, failureNotification));
+    }
+    return deleteCheckpoints
+        .onErrorResume(
+            e -> {
+              log.error("failed to delete the checkpoints of {}", failingIds, e);
+              return Mono.empty();
+            })
+        .thenMany(Flux.merge(tasks));
+  }
+
+  /**
+   * Documents written while the task runs may be removed by it, so the write cache is cleared again
+   * once it's completed.
+   */
+  private Flux<IndexTaskStatus> runRemovalTask(
+      String indexName,
+      Supplier<Flux<IndexTaskStatus>> task,
+      Map<String, Set<String>> failingIds,
+      NotificationName failureNotification) {
+    return evictWrittenIndex(indexName)
+        .thenMany(Flux.defer(task))
+        .map(
+            status ->
+                status.isCompleted() && !status.isSuccessful()
+                    ? failedRemovalTask(status, failingIds, failureNotification)
+                    : status)
+        .onErrorResume(
+            e -> {
+              log.error("removal task of {} on index {} failed", failingIds, indexName, e);
+              val status = IndexTaskStatus.builder().indexName(indexName).completed(true).build();
+              return Mono.just(failedRemovalTask(status, failingIds, failureNotification));
+            })
+        .concatWith(Mono.defer(() -> evictWrittenIndex(indexName)).then(Mono.empty()));
+  }
+
+  private IndexTaskStatus failedRemovalTask(
+      IndexTaskStatus status,
+      Map<String, Set<String>> failingIds,
+      NotificationName failureNotification) {
+    this.notifier.notify(new IndexerNotification(failureNotification, failingIds));
+    return status
+        .toBuilder()
+        .failureData(FailureData.builder().failingIds(failingIds).build())
+        .successful(false)
+        .build();
+  }
+
   @Override
   public void addRule(AddRuleCommand addRuleCommand) {
     throw new IndexerException("not implemented yet");
@@ -448,8 +941,27 @@ class DefaultIndexer implements Indexer {
   }
 
   private Mono<List<Analysis>> getFilteredAnalyses(
-      @NonNull String repoBaseUrl, @NonNull String studyId) {
-    return fetchAnalyses(repoBaseUrl, studyId).flatMap(this::getExclusionRulesAndFilter);
+      @NonNull String repoBaseUrl, @NonNull String studyId, @NonNull StudyRun run) {
+    return fetchAnalyses(repoBaseUrl, studyId)
+        .map(analyses -> run.filterUpdated(analyses))
+        .flatMap(this::getExclusionRulesAndFilter);
+  }
+
+  private Flux<List<Analysis>> streamFilteredAnalyses(
+      @NonNull String repoBaseUrl, @NonNull String studyId, @NonNull StudyRun run) {
+    val command =
+        GetStudyAnalysesCommand.builder()
+            .filesRepositoryBaseUrl(repoBaseUrl)
+            .studyId(studyId)
+            .build();
+
+    return this.studyDAO
+        .streamStudyAnalyses(command)
+        .onErrorMap(e -> handleFetchAnalysesError(repoBaseUrl, studyId, command, e))
+        .flatMapIterable(analyses -> run.filterUpdated(analyses))
+        .buffer(this.studyStreamingWindowSize)
+        .concatMap(this::getExclusionRulesAndFilter)
+        .filter(analyses -> !analyses.isEmpty());
   }
 
   private Mono<List<Analysis>> fetchAnalyses(
@@ -496,13 +1008,13 @@ class DefaultIndexer implements Indexer {
   private Mono<Tuple2<FailureData, List<FileCentricDocument>>> getFileCentricDocuments(
       StudyAnalysisRepositoryTuple tuple) {
     return getAnalysisFromStudyRepository(tuple)
-        .map((analyses) -> buildFileCentricDocuments(tuple.studyRepository, analyses));
+        .flatMap((analyses) -> buildFileCentricDocuments(tuple.studyRepository, analyses));
   }
 
   private Mono<Tuple2<FailureData, List<AnalysisCentricDocument>>> getAnalysisCentricDocuments(
       StudyAnalysisRepositoryTuple tuple) {
     return getAnalysisFromStudyRepository(tuple)
-        .map((analyses -> buildAnalysisCentricDocuments(tuple.studyRepository, analyses)));
+        .flatMap((analyses -> buildAnalysisCentricDocuments(tuple.studyRepository, analyses)));
   }
 
   private Mono<List<Analysis>> tryFetchAnalysis(StudyAnalysisRepositoryTuple tuple) {
@@ -525,6 +1037,24 @@ class DefaultIndexer implements Indexer {
         .build();
   }
 
+  // exceptions of type IndexerException were already logged and notified so we don't want that
+  // again, anything else is uncaught and goes to the generic handler.
+  private Mono<IndexResult> handleIndexStudyFailure(
+      Throwable e, IndexStudyCommand command, String indexName) {
+    if (e instanceof IndexerException) {
+      return Mono.just(convertIndexerExceptionToIndexResult((IndexerException) e, indexName));
+    }
+    return handleIndexStudyError(e, command.getStudyId(), command.getRepositoryCode(), indexName);
+  }
+
+  private Mono<IndexResult> handleIndexAnalysisFailure(
+      Throwable e, AnalysisIdentifier analysisIdentifier, String indexName) {
+    if (e instanceof IndexerException) {
+      return Mono.just(convertIndexerExceptionToIndexResult((IndexerException) e, indexName));
+    }
+    return handleIndexAnalysisError(e, analysisIdentifier, indexName);
+  }
+
   private Mono<IndexResult> handleIndexStudyError(
       Throwable e, String studyId, String repoCode, String indexName) {
     val context =
@@ -587,59 +1117,87 @@ class DefaultIndexer implements Indexer {
         e, "failed filtering analysis", FailureData.builder().failingIds(failureInfo).build());
   }
 
-  private Tuple2<FailureData, List<FileCentricDocument>> buildFileCentricDocuments(
-      StudyRepository repo, List<Analysis> analyses) {
-
-    return analyses.stream()
-        .map(analysis -> buildFileDocuments(analysis, repo))
+  /**
+   * Converts the analyses to the documents of all the enabled indices in a single pass, so one
+   * batch of analyses fetched from the study repository feeds both indices.
+   */
+  private Mono<IndexDocuments> buildDocuments(StudyRepository repo, List<Analysis> analyses) {
+    return convertAnalyses(repo, analyses, isFileCentricEnabled, isAnalysisCentricEnabled)
         .map(
-            newEither ->
-                newEither.fold(
-                    (left) -> new Tuple2<>(left.getFailureData(), List.<FileCentricDocument>of()),
-                    (right) -> new Tuple2<>(FailureData.builder().build(), right)))
-        .reduce(
-            (accumulated, current) -> {
-              accumulated._1().addFailures(current._1());
-              val combined = new ArrayList<>(accumulated._2());
-              combined.addAll(current._2());
-              return new Tuple2<>(accumulated._1(), Collections.unmodifiableList(combined));
-            })
-        .orElseGet(() -> new Tuple2<>(FailureData.builder().build(), List.of()));
+            converted ->
+                IndexDocuments.builder()
+                    .files(converted.files())
+                    .analyses(converted.analyses())
+                    .build());
   }
 
-  private Tuple2<FailureData, List<AnalysisCentricDocument>> buildAnalysisCentricDocuments(
+  private Mono<Tuple2<FailureData, List<FileCentricDocument>>> buildFileCentricDocuments(
       StudyRepository repo, List<Analysis> analyses) {
-    return analyses.stream()
-        .map(analysis -> buildAnalysisDocuments(analysis, repo))
-        .map(
-            newEither ->
-                newEither.fold(
-                    (left) ->
-                        new Tuple2<>(left.getFailureData(), List.<AnalysisCentricDocument>of()),
-                    (right) -> new Tuple2<>(FailureData.builder().build(), right)))
-        .reduce(
-            (accumulated, current) -> {
-              accumulated._1().addFailures(current._1());
-              val combined = new ArrayList<>(accumulated._2());
-              combined.addAll(current._2());
-              return new Tuple2<>(accumulated._1(), Collections.unmodifiableList(combined));
-            })
-        .orElseGet(() -> new Tuple2<>(FailureData.builder().build(), List.of()));
+    return convertAnalyses(repo, analyses, true, false).map(ConvertedDocuments::files);
   }
 
-  private Mono<IndexResult> batchUpsert(List<FileCentricDocument> files) {
-    return getAlreadyIndexed(files)
-        .map(storedFilesList -> findConflicts(files, storedFilesList))
-        .flatMap(
-            conflictsCheckResult -> {
-              handleConflicts(conflictsCheckResult);
-              return Mono.just(conflictsCheckResult);
-            })
+  private Mono<Tuple2<FailureData, List<AnalysisCentricDocument>>> buildAnalysisCentricDocuments(
+      StudyRepository repo, List<Analysis> analyses) {
+    return convertAnalyses(repo, analyses, false, true).map(ConvertedDocuments::analyses);
+  }
+
+  /**
+   * The conversion is cpu bound and the analyses are independent, so large batches are cut in
+   * contiguous chunks converted on the {@link #conversionScheduler} workers, each chunk into its
+   * own {@link ConvertedDocuments}, which are merged in the analyses order once all are done. The
+   * caller isn't blocked, the documents are emitted from the worker converting the last chunk.
+   */
+  private Mono<ConvertedDocuments> convertAnalyses(
+      StudyRepository repo,
+      List<Analysis> analyses,
+      boolean fileCentricEnabled,
+      boolean analysisCentricEnabled) {
+    if (analyses.size() < MIN_ANALYSES_FOR_PARALLEL_CONVERSION) {
+      return Mono.fromSupplier(
+          () -> convertChunk(repo, analyses, fileCentricEnabled, analysisCentricEnabled));
+    }
+    val chunkSize =
+        Math.max(
+            MIN_ANALYSES_FOR_PARALLEL_CONVERSION / CONVERSION_CHUNKS_PER_WORKER,
+            (int)
+                Math.ceil(
+                    (double) analyses.size()
+                        / (conversionParallelism * CONVERSION_CHUNKS_PER_WORKER)));
+    val chunks = ListUtils.partition(analyses, chunkSize);
+    return Flux.range(0, chunks.size())
+        .parallel(conversionParallelism)
+        .runOn(conversionScheduler, 1)
         .map(
-            conflictsCheckResult ->
-                removeConflictingFromInputFilesList(files, conflictsCheckResult))
-        .flatMap(this::callBatchUpsert)
-        .doOnNext(this::notifyIndexRequestFailures)
+            index ->
+                new Tuple2<>(
+                    index,
+                    convertChunk(
+                        repo, chunks.get(index), fileCentricEnabled, analysisCentricEnabled)))
+        .collectSortedList(Comparator.comparing(Tuple2::_1), chunks.size())
+        .map(
+            converted -> {
+              val all = new ConvertedDocuments(repo, fileCentricEnabled, analysisCentricEnabled);
+              converted.forEach(chunk -> all.addAll(chunk._2()));
+              return all;
+            });
+  }
+
+  private ConvertedDocuments convertChunk(
+      StudyRepository repo,
+      List<Analysis> analyses,
+      boolean fileCentricEnabled,
+      boolean analysisCentricEnabled) {
+    val converted = new ConvertedDocuments(repo, fileCentricEnabled, analysisCentricEnabled);
+    analyses.forEach(converted::add);
+    return converted;
+  }
+
+  private Mono<IndexResult> batchUpsert(
+      List<FileCentricDocument> files, Consumer<Date> onConflict) {
+    val fingerprints = FILE_KEYS.fingerprintsOf(files);
+    return dropWrittenDocuments(this.fileCentricIndexName, files, fingerprints, FILE_KEYS)
+        .flatMap(documents -> upsertFiles(documents, fingerprints, onConflict))
+        .switchIfEmpty(Mono.fromSupplier(() -> upToDateResult(this.fileCentricIndexName)))
         .onErrorResume(
             (ex) -> ex instanceof IndexerException,
             (ex) ->
@@ -657,18 +1215,13 @@ class DefaultIndexer implements Indexer {
                     Objects.hashCode(files)));
   }
 
-  private Mono<IndexResult> batchUpsertAnalysis(List<AnalysisCentricDocument> analyses) {
-    return getIndexedAnalyses(analyses)
-        .map(storedAnalyses -> findAnalysisConflicts(analyses, storedAnalyses))
-        .flatMap(
-            conflictsCheckResult -> {
-              handleAnalysisConflicts(conflictsCheckResult);
-              return Mono.just(conflictsCheckResult);
-            })
-        .map(
-            analysesConflictsResult -> removeConflictingAnalysis(analyses, analysesConflictsResult))
-        .flatMap(this::callBatchUpsertAnalysis)
-        .doOnNext(this::notifyIndexRequestFailures)
+  private Mono<IndexResult> batchUpsertAnalysis(
+      List<AnalysisCentricDocument> analyses, Consumer<Date> onConflict) {
+    val fingerprints = ANALYSIS_KEYS.fingerprintsOf(analyses);
+    return dropWrittenDocuments(
+            this.analysisCentricIndexName, analyses, fingerprints, ANALYSIS_KEYS)
+        .flatMap(documents -> upsertAnalyses(documents, fingerprints, onConflict))
+        .switchIfEmpty(Mono.fromSupplier(() -> upToDateResult(this.analysisCentricIndexName)))
         .onErrorResume(
             (ex) -> ex instanceof IndexerException,
             (ex) ->
@@ -685,19 +1238,189 @@ class DefaultIndexer implements Indexer {
                     Objects.hashCode(analyses)));
   }
 
-  private Mono<Map<String, AnalysisCentricDocument>> getIndexedAnalyses(
+  private Mono<IndexResult> upsertFiles(
+      List<FileCentricDocument> files,
+      DocumentFingerprints<FileCentricDocument> fingerprints,
+      Consumer<Date> onConflict) {
+    return getAlreadyIndexed(files)
+        .map(storedFilesList -> findConflicts(files, storedFilesList, fingerprints))
+        .flatMap(
+            conflictsCheckResult -> {
+              handleConflicts(conflictsCheckResult);
+              conflictsCheckResult
+                  .getConflictingFiles()
+                  .forEach(pair -> onConflict.accept(pair._1().getAnalysis().getUpdatedAt()));
+              return Mono.just(conflictsCheckResult);
+            })
+        .flatMap(
+            conflictsCheckResult ->
+                callBatchUpsert(
+                        removeConflictingFromInputFilesList(files, conflictsCheckResult),
+                        fingerprints)
+                    .doOnNext(this::notifyIndexRequestFailures)
+                    .flatMap(
+                        indexResult ->
+                            saveWrittenDocuments(
+                                this.fileCentricIndexName,
+                                filesWithoutConflicts(files, conflictsCheckResult),
+                                indexResult,
+                                fingerprints,
+                                FILE_KEYS)));
+  }
+
+  private Mono<IndexResult> upsertAnalyses(
+      List<AnalysisCentricDocument> analyses,
+      DocumentFingerprints<AnalysisCentricDocument> fingerprints,
+      Consumer<Date> onConflict) {
+    return getIndexedAnalyses(analyses)
+        .map(storedAnalyses -> findAnalysisConflicts(analyses, storedAnalyses, fingerprints))
+        .flatMap(
+            conflictsCheckResult -> {
+              handleAnalysisConflicts(conflictsCheckResult);
+              conflictsCheckResult
+                  .getConflictingAnalyses()
+                  .forEach(pair -> onConflict.accept(pair._1().getUpdatedAt()));
+              return Mono.just(conflictsCheckResult);
+            })
+        .flatMap(
+            analysesConflictsResult ->
+                callBatchUpsertAnalysis(
+                        removeConflictingAnalysis(analyses, analysesConflictsResult), fingerprints)
+                    .doOnNext(this::notifyIndexRequestFailures)
+                    .flatMap(
+                        indexResult ->
+                            saveWrittenDocuments(
+                                this.analysisCentricIndexName,
+                                analysesWithoutConflicts(analyses, analysesConflictsResult),
+                                indexResult,
+                                fingerprints,
+                                ANALYSIS_KEYS)));
+  }
+
+  /**
+   * Drops the documents identical to the ones this instance last wrote to the index according to
+   * the write cache, no request is made to the index server for those. Completes empty when all
+   * documents were dropped. A failure to read the cache is not fatal, documents go through the
+   * normal path.
+   */
+  private <T> Mono<List<T>> dropWrittenDocuments(
+      String indexName,
+      List<T> documents,
+      DocumentFingerprints<T> fingerprints,
+      DocumentKeys<T> keys) {
+    if (!isWriteCacheEnabled || documents.isEmpty()) {
+      return Mono.just(documents);
+    }
+    val analysisIds =
+        documents.stream().map(keys.getAnalysisId()).collect(Collectors.toUnmodifiableSet());
+    return writtenDocumentsCache
+        .getWrittenFingerprints(indexName, analysisIds)
+        .map(
+            written ->
+                documents.stream()
+                    .filter(
+                        document -> {
+                          val writtenFingerprint = written.get(keys.getId().apply(document));
+                          return writtenFingerprint == null
+                              || !writtenFingerprint.equals(
+                                  keys.writeFingerprint(document, fingerprints.get(document)));
+                        })
+                    .collect(Collectors.toList()))
+        .doOnNext(
+            notWritten ->
+                log.debug(
+                    "write cache dropped {} of {} documents for {}",
+                    documents.size() - notWritten.size(),
+                    documents.size(),
+                    indexName))
+        .filter(notWritten -> !notWritten.isEmpty())
+        .onErrorResume(
+            e -> {
+              log.error("failed to read the write cache of {}, ignoring it", indexName, e);
+              return Mono.just(documents);
+            });
+  }
+
+  /** records the documents that are now in sync with the index after a successful upsert. */
+  private <T> Mono<IndexResult> saveWrittenDocuments(
+      String indexName,
+      List<T> documents,
+      IndexResult indexResult,
+      DocumentFingerprints<T> fingerprints,
+      DocumentKeys<T> keys) {
+    if (!isWriteCacheEnabled || !indexResult.isSuccessful() || documents.isEmpty()) {
+      return Mono.just(indexResult);
+    }
+    val fingerprintsByAnalysis =
+        documents.stream()
+            .collect(
+                Collectors.groupingBy(
+                    keys.getAnalysisId(),
+                    Collectors.toMap(
+                        keys.getId(),
+                        document -> keys.writeFingerprint(document, fingerprints.get(document)),
+                        (first, second) -> second)));
+    return writtenDocumentsCache
+        .saveWrittenFingerprints(indexName, fingerprintsByAnalysis)
+        .onErrorResume(
+            e -> {
+              log.error("failed to update the write cache of {}", indexName, e);
+              return Mono.empty();
+            })
+        .thenReturn(indexResult);
+  }
+
+  private IndexResult upToDateResult(String indexName) {
+    return IndexResult.builder().indexName(indexName).successful(true).build();
+  }
+
+  private Mono<Void> evictWrittenDocuments(String indexName, String analysisId) {
+    if (!isWriteCacheEnabled) {
+      return Mono.empty();
+    }
+    return writtenDocumentsCache
+        .evictAnalysis(indexName, analysisId)
+        .onErrorResume(
+            e -> {
+              log.error("failed to evict analysis {} from the write cache", analysisId, e);
+              return Mono.empty();
+            });
+  }
+
+  private Mono<Void> evictWrittenIndex(String indexName) {
+    if (!isWriteCacheEnabled) {
+      return Mono.empty();
+    }
+    return writtenDocumentsCache
+        .evictIndex(indexName)
+        .onErrorResume(
+            e -> {
+              log.error("failed to evict index {} from the write cache", indexName, e);
+              return Mono.empty();
+            });
+  }
+
+  private Mono<Map<String, IndexedDocumentFingerprint>> getIndexedAnalyses(
       List<AnalysisCentricDocument> analyses) {
-    return analysisCentricIndexAdapter
-        .fetchByIds(
+    return getIndexedAnalyses(
+        analyses,
+        analysisCentricIndexAdapter::fetchFingerprintsByIds,
+        analysisCentricIndexAdapter::fetchByIds);
+  }
+
+  private Mono<Map<String, IndexedDocumentFingerprint>> getIndexedAnalyses(
+      List<AnalysisCentricDocument> analyses,
+      Function<List<String>, Mono<List<IndexedDocumentFingerprint>>> fetchFingerprintsByIds,
+      Function<List<String>, Mono<List<AnalysisCentricDocument>>> fetchByIds) {
+    return fetchFingerprintsByIds
+        .apply(
             analyses.stream()
                 .map(AnalysisCentricDocument::getAnalysisId)
                 .collect(Collectors.toList()))
-        .map(
-            (fetchResult) -> {
-              val idToFileMap = new HashMap<String, AnalysisCentricDocument>();
-              fetchResult.forEach(item -> idToFileMap.put(item.getAnalysisId(), item));
-              return Collections.unmodifiableMap(idToFileMap);
-            });
+        .flatMap(
+            fingerprints ->
+                fillMissingFingerprints(fingerprints, fetchByIds, IndexedDocumentFingerprint::of))
+        .map(this::toIdToFingerprintMap);
   }
 
   private List<Analysis> filterExcludedAnalyses(
@@ -710,9 +1433,9 @@ class DefaultIndexer implements Indexer {
   }
 
   private Either<IndexerException, List<FileCentricDocument>> buildFileDocuments(
-      Analysis analysis, StudyRepository repository) {
+      Analysis analysis, StudyRepository repository, Lazy<List<Donor>> donors) {
 
-    return Try.of(() -> FileCentricDocumentConverter.fromAnalysis(analysis, repository))
+    return Try.of(() -> FileCentricDocumentConverter.fromAnalysis(analysis, repository, donors))
         .onFailure(
             (e) ->
                 notifyBuildDocumentFailure(
@@ -724,9 +1447,9 @@ class DefaultIndexer implements Indexer {
   }
 
   private Either<IndexerException, List<AnalysisCentricDocument>> buildAnalysisDocuments(
-      Analysis analysis, StudyRepository repository) {
+      Analysis analysis, StudyRepository repository, Lazy<List<Donor>> donors) {
 
-    return Try.of(() -> fromAnalysis(analysis, repository))
+    return Try.of(() -> fromAnalysis(analysis, repository, donors))
         .onFailure(
             (e) ->
                 notifyBuildDocumentFailure(
@@ -741,54 +1464,136 @@ class DefaultIndexer implements Indexer {
   }
 
   // if there is already a record in another song
-  private Mono<Map<String, FileCentricDocument>> getAlreadyIndexed(
+  private Mono<Map<String, IndexedDocumentFingerprint>> getAlreadyIndexed(
       List<FileCentricDocument> files) {
-    return fileCentricIndexAdapter
-        .fetchByIds(
-            files.stream().map(FileCentricDocument::getObjectId).collect(Collectors.toList()))
+    return getAlreadyIndexed(
+        files,
+        fileCentricIndexAdapter::fetchFingerprintsByIds,
+        fileCentricIndexAdapter::fetchByIds);
+  }
+
+  private Mono<Map<String, IndexedDocumentFingerprint>> getAlreadyIndexed(
+      List<FileCentricDocument> files,
+      Function<List<String>, Mono<List<IndexedDocumentFingerprint>>> fetchFingerprintsByIds,
+      Function<List<String>, Mono<List<FileCentricDocument>>> fetchByIds) {
+    return fetchFingerprintsByIds
+        .apply(files.stream().map(FileCentricDocument::getObjectId).collect(Collectors.toList()))
+        .flatMap(
+            fingerprints ->
+                fillMissingFingerprints(fingerprints, fetchByIds, IndexedDocumentFingerprint::of))
+        .map(this::toIdToFingerprintMap);
+  }
+
+  /**
+   * Documents indexed before fingerprints were stored don't have one, for those we fall back to
+   * fetching the full document and compute the fingerprint here.
+   */
+  private <T> Mono<List<IndexedDocumentFingerprint>> fillMissingFingerprints(
+      List<IndexedDocumentFingerprint> fingerprints,
+      Function<List<String>, Mono<List<T>>> fetchByIds,
+      Function<T, IndexedDocumentFingerprint> toFingerprint) {
+    val missingIds =
+        fingerprints.stream()
+            .filter(fingerprint -> !fingerprint.hasFingerprint())
+            .map(IndexedDocumentFingerprint::getId)
+            .collect(Collectors.toList());
+    if (missingIds.isEmpty()) {
+      return Mono.just(fingerprints);
+    }
+    return fetchByIds
+        .apply(missingIds)
         .map(
-            (fetchResult) -> {
-              // we convert this list to a hash map to optimize performance for large lists when we
-              // lookup files by Ids
-              val idToFileMap = new HashMap<String, FileCentricDocument>();
-              fetchResult.forEach(item -> idToFileMap.put(item.getObjectId(), item));
-              return Collections.unmodifiableMap(idToFileMap);
+            storedDocuments -> {
+              val result = new ArrayList<IndexedDocumentFingerprint>();
+              fingerprints.stream()
+                  .filter(IndexedDocumentFingerprint::hasFingerprint)
+                  .forEach(result::add);
+              storedDocuments.stream().map(toFingerprint).forEach(result::add);
+              return result;
             });
   }
 
+  private Map<String, IndexedDocumentFingerprint> toIdToFingerprintMap(
+      List<IndexedDocumentFingerprint> fingerprints) {
+    // we convert this list to a hash map to optimize performance for large lists when we
+    // lookup documents by Ids
+    val idToFingerprintMap = new HashMap<String, IndexedDocumentFingerprint>();
+    fingerprints.forEach(item -> idToFingerprintMap.put(item.getId(), item));
+    return Collections.unmodifiableMap(idToFingerprintMap);
+  }
+
   private ConflictsCheckResult findConflicts(
-      List<FileCentricDocument> filesToIndex, Map<String, FileCentricDocument> storedFiles) {
-    val conflictingPairs =
-        filesToIndex.stream()
-            .map(fileToIndex -> findIfAnyStoredFileConflicts(storedFiles, fileToIndex))
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+      List<FileCentricDocument> filesToIndex,
+      Map<String, IndexedDocumentFingerprint> storedFiles,
+      DocumentFingerprints<FileCentricDocument> fingerprints) {
+    val conflictingPairs = new ArrayList<Tuple2<FileCentricDocument, IndexedDocumentFingerprint>>();
+    val unchangedIds = new HashSet<String>();
+    filesToIndex.stream()
+        .filter(fileToIndex -> storedFiles.containsKey(fileToIndex.getObjectId()))
+        .forEach(
+            fileToIndex -> {
+              val storedFile = storedFiles.get(fileToIndex.getObjectId());
+              val fingerprint = fingerprints.get(fileToIndex);
+              if (!isValidReplica(fingerprint, storedFile)) {
+                conflictingPairs.add(new Tuple2<>(fileToIndex, storedFile));
+              } else if (isUnchanged(fingerprint, storedFile, fileToIndex.getRepositories())) {
+                unchangedIds.add(fileToIndex.getObjectId());
+              }
+            });
 
-    return ConflictsCheckResult.builder().conflictingFiles(conflictingPairs).build();
+    return ConflictsCheckResult.builder()
+        .conflictingFiles(conflictingPairs)
+        .conflictingIds(
+            conflictingPairs.stream()
+                .map(pair -> pair._1().getObjectId())
+                .collect(Collectors.toUnmodifiableSet()))
+        .unchangedIds(unchangedIds)
+        .build();
   }
 
   private AnalysesConflictsResult findAnalysisConflicts(
-      List<AnalysisCentricDocument> toIndex, Map<String, AnalysisCentricDocument> stored) {
+      List<AnalysisCentricDocument> toIndex,
+      Map<String, IndexedDocumentFingerprint> stored,
+      DocumentFingerprints<AnalysisCentricDocument> fingerprints) {
     val conflictingPairs =
-        toIndex.stream()
-            .map(analysisToIndex -> findIfStoredAnalysisConflicts(stored, analysisToIndex))
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
-    return AnalysesConflictsResult.builder().conflictingAnalyses(conflictingPairs).build();
+        new ArrayList<Tuple2<AnalysisCentricDocument, IndexedDocumentFingerprint>>();
+    val unchangedIds = new HashSet<String>();
+    toIndex.stream()
+        .filter(analysisToIndex -> stored.containsKey(analysisToIndex.getAnalysisId()))
+        .forEach(
+            analysisToIndex -> {
+              val storedAnalysis = stored.get(analysisToIndex.getAnalysisId());
+              val fingerprint = fingerprints.get(analysisToIndex);
+              // the analysis to be indexed is a conflict to existing analysis
+              if (!isValidReplica(fingerprint, storedAnalysis)) {
+                conflictingPairs.add(new Tuple2<>(analysisToIndex, storedAnalysis));
+              } else if (isUnchanged(
+                  fingerprint, storedAnalysis, analysisToIndex.getRepositories())) {
+                unchangedIds.add(analysisToIndex.getAnalysisId());
+              }
+            });
+    return AnalysesConflictsResult.builder()
+        .conflictingAnalyses(conflictingPairs)
+        .conflictingIds(
+            conflictingPairs.stream()
+                .map(pair -> pair._1().getAnalysisId())
+                .collect(Collectors.toUnmodifiableSet()))
+        .unchangedIds(unchangedIds)
+        .build();
   }
 
-  private Tuple2<AnalysisCentricDocument, AnalysisCentricDocument> findIfStoredAnalysisConflicts(
-      Map<String, AnalysisCentricDocument> storedAnalyses, AnalysisCentricDocument toIndex) {
-    if (storedAnalyses.containsKey(toIndex.getAnalysisId())) {
-      val existingAnalysis = storedAnalyses.get(toIndex.getAnalysisId());
-      if (toIndex.isValidReplica(existingAnalysis)) {
-        return null;
-      }
-      // the analysis to be indexed is a conflict to existing analysis
-      return new Tuple2<>(toIndex, storedAnalyses.get(toIndex.getAnalysisId()));
-    }
-    // there is no conflict when the analysis to be indexed does not exist
-    else return null;
+  private boolean isValidReplica(DocumentFingerprint toIndex, IndexedDocumentFingerprint stored) {
+    return toIndex.getReplica().equals(stored.getFingerprint().getReplica());
+  }
+
+  // same content already indexed from the same repositories, with the same fields, nothing to
+  // upsert.
+  private boolean isUnchanged(
+      DocumentFingerprint toIndex,
+      IndexedDocumentFingerprint stored,
+      List<Repository> repositories) {
+    return toIndex.getContent().equals(stored.getFingerprint().getContent())
+        && stored.getRepositories().containsAll(repositories);
   }
 
   private Throwable handleFetchAnalysisError(StudyAnalysisRepositoryTuple tuple, Throwable e) {
@@ -819,13 +1624,30 @@ class DefaultIndexer implements Indexer {
 
   private List<FileCentricDocument> removeConflictingFromInputFilesList(
       List<FileCentricDocument> files, ConflictsCheckResult conflictsCheckResult) {
+    val toUpsert =
+        files.stream()
+            .filter(
+                fileCentricDocument ->
+                    !isInConflictsList(conflictsCheckResult, fileCentricDocument))
+            .filter(
+                fileCentricDocument ->
+                    !conflictsCheckResult
+                        .getUnchangedIds()
+                        .contains(fileCentricDocument.getObjectId()))
+            .collect(Collectors.toUnmodifiableList());
+    log.debug("skipping {} unchanged files", conflictsCheckResult.getUnchangedIds().size());
+    return toUpsert;
+  }
+
+  private List<FileCentricDocument> filesWithoutConflicts(
+      List<FileCentricDocument> files, ConflictsCheckResult conflictsCheckResult) {
     return files.stream()
         .filter(
             fileCentricDocument -> !isInConflictsList(conflictsCheckResult, fileCentricDocument))
         .collect(Collectors.toUnmodifiableList());
   }
 
-  private List<AnalysisCentricDocument> removeConflictingAnalysis(
+  private List<AnalysisCentricDocument> analysesWithoutConflicts(
       List<AnalysisCentricDocument> analyses, AnalysesConflictsResult result) {
     return analyses.stream()
         .filter(
@@ -833,14 +1655,36 @@ class DefaultIndexer implements Indexer {
         .collect(Collectors.toUnmodifiableList());
   }
 
-  private Mono<IndexResult> callBatchUpsert(List<FileCentricDocument> conflictFreeFilesList) {
+  private List<AnalysisCentricDocument> removeConflictingAnalysis(
+      List<AnalysisCentricDocument> analyses, AnalysesConflictsResult result) {
+    val toUpsert =
+        analyses.stream()
+            .filter(
+                analysisCentricDocument ->
+                    !isInAnalysisConflictsList(result, analysisCentricDocument))
+            .filter(
+                analysisCentricDocument ->
+                    !result.getUnchangedIds().contains(analysisCentricDocument.getAnalysisId()))
+            .collect(Collectors.toUnmodifiableList());
+    log.debug("skipping {} unchanged analyses", result.getUnchangedIds().size());
+    return toUpsert;
+  }
+
+  private Mono<IndexResult> callBatchUpsert(
+      List<FileCentricDocument> conflictFreeFilesList,
+      DocumentFingerprints<FileCentricDocument> fingerprints) {
     return this.fileCentricIndexAdapter.batchUpsertFileRepositories(
-        BatchIndexFilesCommand.builder().files(conflictFreeFilesList).build());
+        BatchIndexFilesCommand.builder()
+            .files(conflictFreeFilesList)
+            .fingerprints(fingerprints)
+            .build());
   }
 
-  private Mono<IndexResult> callBatchUpsertAnalysis(List<AnalysisCentricDocument> analyses) {
+  private Mono<IndexResult> callBatchUpsertAnalysis(
+      List<AnalysisCentricDocument> analyses,
+      DocumentFingerprints<AnalysisCentricDocument> fingerprints) {
     return this.analysisCentricIndexAdapter.batchUpsertAnalysisRepositories(
-        BatchIndexAnalysisCommand.builder().analyses(analyses).build());
+        BatchIndexAnalysisCommand.builder().analyses(analyses).fingerprints(fingerprints).build());
   }
 
   private void notifyIndexRequestFailures(IndexResult indexResult) {
@@ -878,19 +1722,6 @@ class DefaultIndexer implements Indexer {
             .build());
   }
 
-  private Tuple2<FileCentricDocument, FileCentricDocument> findIfAnyStoredFileConflicts(
-      Map<String, FileCentricDocument> storedFiles, FileCentricDocument fileToIndex) {
-    if (storedFiles.containsKey(fileToIndex.getObjectId())) {
-      val storedFile = storedFiles.get(fileToIndex.getObjectId());
-      if (fileToIndex.isValidReplica(storedFile)) {
-        return null;
-      }
-      return new Tuple2<>(fileToIndex, storedFiles.get(fileToIndex.getObjectId()));
-    } else {
-      return null;
-    }
-  }
-
   private void notifyConflicts(ConflictsCheckResult conflictsCheckResult) {
     val conflictingFileList =
         conflictsCheckResult.getConflictingFiles().stream()
@@ -915,26 +1746,18 @@ class DefaultIndexer implements Indexer {
 
   private boolean isInConflictsList(
       ConflictsCheckResult conflictsCheckResult, FileCentricDocument fileCentricDocument) {
-    return conflictsCheckResult.getConflictingFiles().stream()
-        .map(Tuple2::_1)
-        .anyMatch(
-            conflictingFile ->
-                conflictingFile.getObjectId().equals(fileCentricDocument.getObjectId()));
+    return conflictsCheckResult.getConflictingIds().contains(fileCentricDocument.getObjectId());
   }
 
   private boolean isInAnalysisConflictsList(
       AnalysesConflictsResult analysesConflictsResult,
       AnalysisCentricDocument analysisCentricDocument) {
-    return analysesConflictsResult.getConflictingAnalyses().stream()
-        .map(Tuple2::_1)
-        .anyMatch(
-            conflictingAnalysis ->
-                conflictingAnalysis
-                    .getAnalysisId()
-                    .equals(analysisCentricDocument.getAnalysisId()));
+    return analysesConflictsResult
+        .getConflictingIds()
+        .contains(analysisCentricDocument.getAnalysisId());
   }
 
-  private FileConflict toFileConflict(FileCentricDocument f1, FileCentricDocument f2) {
+  private FileConflict toFileConflict(FileCentricDocument f1, IndexedDocumentFingerprint f2) {
     return FileConflict.builder()
         .newFile(
             ConflictingFile.builder()
@@ -948,19 +1771,16 @@ class DefaultIndexer implements Indexer {
                 .build())
         .indexedFile(
             ConflictingFile.builder()
-                .objectId(f2.getObjectId())
-                .analysisId(f2.getAnalysis().getAnalysisId())
+                .objectId(f2.getId())
+                .analysisId(f2.getAnalysisId())
                 .studyId(f2.getStudyId())
-                .repoCode(
-                    f2.getRepositories().stream()
-                        .map(Repository::getCode)
-                        .collect(Collectors.toUnmodifiableSet()))
+                .repoCode(f2.getRepositoryCodes())
                 .build())
         .build();
   }
 
   private AnalysisConflict toAnalysisConflict(
-      AnalysisCentricDocument a1, AnalysisCentricDocument a2) {
+      AnalysisCentricDocument a1, IndexedDocumentFingerprint a2) {
     return AnalysisConflict.builder()
         .newAnalysis(
             ConflictingAnalysis.builder()
@@ -975,17 +1795,14 @@ class DefaultIndexer implements Indexer {
             ConflictingAnalysis.builder()
                 .analysisId(a2.getAnalysisId())
                 .studyId(a2.getStudyId())
-                .repoCode(
-                    a2.getRepositories().stream()
-                        .map(Repository::getCode)
-                        .collect(Collectors.toSet()))
+                .repoCode(a2.getRepositoryCodes())
                 .build())
         .build();
   }
 
   private Mono<IndexResult> batchUpsertFilesAndCollectFailures(
-      Tuple2<FailureData, List<FileCentricDocument>> tuple) {
-    return this.batchUpsert(tuple._2())
+      Tuple2<FailureData, List<FileCentricDocument>> tuple, Consumer<Date> onConflict) {
+    return this.batchUpsert(tuple._2(), onConflict)
         .map(
             upsertResult ->
                 reduceIndexResult(
@@ -993,8 +1810,8 @@ class DefaultIndexer implements Indexer {
   }
 
   private Mono<IndexResult> batchUpsertAnalysesAndCollectFailures(
-      Tuple2<FailureData, List<AnalysisCentricDocument>> tuple) {
-    return this.batchUpsertAnalysis(tuple._2())
+      Tuple2<FailureData, List<AnalysisCentricDocument>> tuple, Consumer<Date> onConflict) {
+    return this.batchUpsertAnalysis(tuple._2(), onConflict)
         .map(
             upsertResult ->
                 reduceIndexResult(
@@ -1017,13 +1834,28 @@ class DefaultIndexer implements Indexer {
     if (!newResult.isSuccessful()) {
       both.addFailures(newResult.getFailureData());
     }
+    val clusterFailures = new HashMap<String, FailureData>();
+    if (accumulatedResult != null) {
+      mergeClusterFailures(clusterFailures, accumulatedResult.getClusterFailures());
+    }
+    mergeClusterFailures(clusterFailures, newResult.getClusterFailures());
     return IndexResult.builder()
         .indexName(newResult.getIndexName())
         .failureData(both)
         .successful(both.getFailingIds().isEmpty())
+        .clusterFailures(Map.copyOf(clusterFailures))
         .build();
   }
 
+  private void mergeClusterFailures(
+      Map<String, FailureData> accumulated, Map<String, FailureData> clusterFailures) {
+    clusterFailures.forEach(
+        (cluster, failureData) ->
+            accumulated
+                .computeIfAbsent(cluster, c -> FailureData.builder().build())
+                .addFailures(failureData));
+  }
+
   private String getErrorMessageOrType(Throwable e) {
     return e.getMessage() == null ? e.getClass().getName() : e.getMessage();
   }
@@ -1072,7 +1904,11 @@ class DefaultIndexer implements Indexer {
   @ToString
   @EqualsAndHashCode
   private static class ConflictsCheckResult {
-    private List<Tuple2<FileCentricDocument, FileCentricDocument>> conflictingFiles;
+    private List<Tuple2<FileCentricDocument, IndexedDocumentFingerprint>> conflictingFiles;
+    /** object ids of the conflicting files, for constant time lookups while filtering. */
+    private Set<String> conflictingIds;
+
+    private Set<String> unchangedIds;
   }
 
   @Getter
@@ -1080,7 +1916,11 @@ class DefaultIndexer implements Indexer {
   @ToString
   @EqualsAndHashCode
   private static class AnalysesConflictsResult {
-    private List<Tuple2<AnalysisCentricDocument, AnalysisCentricDocument>> conflictingAnalyses;
+    private List<Tuple2<AnalysisCentricDocument, IndexedDocumentFingerprint>> conflictingAnalyses;
+    /** analysis ids of the conflicting analyses, for constant time lookups while filtering. */
+    private Set<String> conflictingIds;
+
+    private Set<String> unchangedIds;
   }
 
   @Getter
@@ -1102,6 +1942,144 @@ class DefaultIndexer implements Indexer {
     private Study study;
   }
 
+  /**
+   * State of a single study indexing run, holds the checkpoint the run started from (if any) and
+   * tracks the latest analysis updatedAt seen to become the next checkpoint. Conflicting analyses
+   * are skipped, so the checkpoint doesn't move past the earliest of them and they are checked
+   * again by the next run. Analyses updated at the checkpoint itself are indexed again, a
+   * concurrent update with the same timestamp is not missed. The checkpoint doesn't move past the
+   * run start minus the clock skew margin either: an analysis updated while the pages are fetched
+   * may have been read before its update, and the latest updatedAt seen could be later than it.
+   */
+  @Getter
+  @Builder
+  @ToString
+  private static class StudyRun {
+    private boolean incremental;
+    private Date checkpoint;
+    /** the run start minus the clock skew margin. */
+    private Date checkpointCap;
+
+    @Builder.Default private final AtomicReference<Date> latestUpdatedAt = new AtomicReference<>();
+
+    @Builder.Default
+    private final AtomicReference<Date> earliestConflictAt = new AtomicReference<>();
+
+    private List<Analysis> filterUpdated(List<Analysis> analyses) {
+      if (!incremental) {
+        return analyses;
+      }
+      return analyses.stream()
+          .peek(this::trackUpdatedAt)
+          .filter(analysis -> checkpoint == null || !analysis.getUpdatedAt().before(checkpoint))
+          .collect(Collectors.toList());
+    }
+
+    private void trackConflict(Date updatedAt) {
+      earliestConflictAt.accumulateAndGet(
+          updatedAt,
+          (earliest, current) -> earliest == null || current.before(earliest) ? current : earliest);
+    }
+
+    private Date nextCheckpoint() {
+      val earliestConflict = earliestConflictAt.get();
+      val next = earliestConflict != null ? earliestConflict : latestUpdatedAt.get();
+      if (next == null || checkpointCap == null || next.before(checkpointCap)) {
+        return next;
+      }
+      return checkpointCap;
+    }
+
+    private void trackUpdatedAt(Analysis analysis) {
+      latestUpdatedAt.accumulateAndGet(
+          analysis.getUpdatedAt(),
+          (latest, current) -> latest == null || current.after(latest) ? current : latest);
+    }
+  }
+
+  /** How to identify and fingerprint a document type for the write cache. */
+  @Getter
+  @AllArgsConstructor
+  private static class DocumentKeys<T> {
+    private final Function<T, String> id;
+    private final Function<T, String> analysisId;
+    private final Function<List<T>, DocumentFingerprints<T>> fingerprints;
+    private final Function<T, List<Repository>> repositories;
+
+    /** computed once per batch, shared by the write cache, conflicts check and adapter. */
+    private DocumentFingerprints<T> fingerprintsOf(List<T> documents) {
+      return fingerprints.apply(documents);
+    }
+
+    /** the document content and the repositories it was written from. */
+    private String writeFingerprint(T document, DocumentFingerprint fingerprint) {
+      return fingerprint.getContent()
+          + "@"
+          + DocumentFingerprint.repositoriesHash(repositories.apply(document));
+    }
+  }
+
+  /** The names of the rebuild indices created so far, null for those not created. */
+  @Getter
+  @Setter
+  @ToString
+  private static class RebuildIndices {
+    private String fileCentricIndex;
+    private String analysisCentricIndex;
+  }
+
+  /** The documents and conversion failures of a chunk of analyses. */
+  @RequiredArgsConstructor
+  private class ConvertedDocuments {
+    private final StudyRepository repo;
+    private final boolean fileCentricEnabled;
+    private final boolean analysisCentricEnabled;
+    private final FailureData fileFailures = FailureData.builder().build();
+    private final List<FileCentricDocument> files = new ArrayList<>();
+    private final FailureData analysisFailures = FailureData.builder().build();
+    private final List<AnalysisCentricDocument> analyses = new ArrayList<>();
+
+    void add(Analysis analysis) {
+      // both documents kinds share the donors tree of the analysis, it's built once on first use.
+      val donors = Lazy.of(() -> getDonors(analysis));
+      if (fileCentricEnabled) {
+        buildFileDocuments(analysis, repo, donors)
+            .peekLeft(e -> fileFailures.addFailures(e.getFailureData()))
+            .peek(files::addAll);
+      }
+      if (analysisCentricEnabled) {
+        buildAnalysisDocuments(analysis, repo, donors)
+            .peekLeft(e -> analysisFailures.addFailures(e.getFailureData()))
+            .peek(analyses::addAll);
+      }
+    }
+
+    /** appends the documents of the analyses that come after the ones of this chunk. */
+    void addAll(ConvertedDocuments next) {
+      fileFailures.addFailures(next.fileFailures);
+      files.addAll(next.files);
+      analysisFailures.addFailures(next.analysisFailures);
+      analyses.addAll(next.analyses);
+    }
+
+    Tuple2<FailureData, List<FileCentricDocument>> files() {
+      return new Tuple2<>(fileFailures, Collections.unmodifiableList(files));
+    }
+
+    Tuple2<FailureData, List<AnalysisCentricDocument>> analyses() {
+      return new Tuple2<>(analysisFailures, Collections.unmodifiableList(analyses));
+    }
+  }
+
+  @Getter
+  @Builder
+  @ToString
+  @EqualsAndHashCode
+  private static class IndexDocuments {
+    private Tuple2<FailureData, List<FileCentricDocument>> files;
+    private Tuple2<FailureData, List<AnalysisCentricDocument>> analyses;
+  }
+
   @Getter
   @Builder
   @ToString
@@ -130,6 +130,10 @@ final class DocumentConverterHelper {
     } else return specimen;
   }
 
+  /**
+   * Builds the donors tree of the analysis. It's computed once per analysis and the same list is
+   * shared by all the documents built from it, so it's unmodifiable and shouldn't be changed.
+   */
   static List<Donor> getDonors(@NonNull Analysis analysis) {
     val groupedByDonorMap =
         analysis.getSamples().stream()
@@ -137,6 +141,8 @@ final class DocumentConverterHelper {
             .collect(Collectors.groupingBy(Donor::getDonorId, Collectors.toList()));
 
     return new ArrayList<>(groupedByDonorMap.values())
-        .stream().map(DocumentConverterHelper::mergeDonorBySpecimen).collect(Collectors.toList());
+        .stream()
+            .map(DocumentConverterHelper::mergeDonorBySpecimen)
+            .collect(Collectors.toUnmodifiableList());
   }
 }
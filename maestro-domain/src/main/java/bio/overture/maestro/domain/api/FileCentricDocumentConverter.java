@@ -22,12 +22,20 @@ import static bio.overture.maestro.domain.api.DocumentConverterHelper.getDonors;
 import bio.overture.maestro.domain.entities.indexing.*;
 import bio.overture.maestro.domain.entities.metadata.repository.StudyRepository;
 import bio.overture.maestro.domain.entities.metadata.study.Analysis;
+import io.vavr.Lazy;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
@@ -40,17 +48,13 @@ import lombok.val;
 final class FileCentricDocumentConverter {
 
   private static final String EMPTY_STRING = "";
-  private static final String BAM = "BAM";
   private static final String BAI = "BAI";
-  private static final String CRAM = "CRAM";
   private static final String CRAI = "CRAI";
-  private static final String XML = "XML";
   private static final String TBI = "TBI";
   private static final String IDX = "IDX";
   private static final String GZ = ".gz";
   private static final String ZIP = ".zip";
   private static final String B_2_ZIP = ".b2zip";
-  private static final String VCF = "VCF";
   private static final String TCG = "TCG";
   private static final String IDX_EXT = "." + IDX;
   private static final String TCG_EXT = "." + TCG;
@@ -67,27 +71,49 @@ final class FileCentricDocumentConverter {
    * @return a list of documents each representing files that an analysis produced/used.
    */
   static List<FileCentricDocument> fromAnalysis(Analysis analysis, StudyRepository repository) {
-    return extractFiles(analysis, repository);
+    return fromAnalysis(analysis, repository, Lazy.of(() -> getDonors(analysis)));
   }
 
-  /** iterate over the files list of analysis and build a document for each one */
+  /**
+   * @param donors the donors tree of the analysis, built on first use and shared by all the
+   *     documents of the analysis.
+   */
+  static List<FileCentricDocument> fromAnalysis(
+      Analysis analysis, StudyRepository repository, Lazy<List<Donor>> donors) {
+    return extractFiles(analysis, repository, donors);
+  }
+
+  /**
+   * iterate over the files list of analysis and build a document for each one, the files formats
+   * are worked out once and they are indexed by name so pairing a data file with its index file
+   * doesn't depend on the number of files in the analysis.
+   */
   private static List<FileCentricDocument> extractFiles(
-      Analysis analysis, StudyRepository repository) {
-    return analysis.getFiles().stream()
-        .filter(FileCentricDocumentConverter::isDataFile)
-        .map(f -> buildFileDocument(f, analysis, repository))
+      Analysis analysis, StudyRepository repository, Lazy<List<Donor>> donors) {
+    val analysisFiles =
+        analysis.getFiles().stream().map(AnalysisFile::of).collect(Collectors.toList());
+    val filesByName = new HashMap<String, AnalysisFile>();
+    // same as looking the name up in the list, the first file with that name wins.
+    analysisFiles.forEach(f -> filesByName.putIfAbsent(f.getLowerCaseName(), f));
+    return analysisFiles.stream()
+        .filter(AnalysisFile::isDataFile)
+        .map(f -> buildFileDocument(f, filesByName, analysis, repository, donors))
         .collect(Collectors.toList());
   }
 
   /**
    * builds the files document from the analysis files
    *
-   * @param file a files as represented from the source in the analysis
+   * @param analysisFile a files as represented from the source in the analysis
+   * @param filesByName the analysis files by lower case name
    */
   private static FileCentricDocument buildFileDocument(
-      bio.overture.maestro.domain.entities.metadata.study.File file,
+      AnalysisFile analysisFile,
+      Map<String, AnalysisFile> filesByName,
       Analysis analysis,
-      StudyRepository repository) {
+      StudyRepository repository,
+      Lazy<List<Donor>> donors) {
+    val file = analysisFile.getFile();
     val id = file.getObjectId();
     val repoFileBuilder =
         FileCentricDocument.builder()
@@ -107,7 +133,7 @@ final class FileCentricDocumentConverter {
                     .analysisVersion(analysis.getAnalysisType().getVersion())
                     .experiment(analysis.getExperiment())
                     .build())
-            .file(buildGenomeFileInfo(analysis, file))
+            .file(buildGenomeFileInfo(analysisFile, filesByName))
             .repositories(
                 List.of(
                     Repository.builder()
@@ -118,7 +144,7 @@ final class FileCentricDocumentConverter {
                         .country(repository.getCountry())
                         .url(repository.getUrl())
                         .build()))
-            .donors(getDonors(analysis));
+            .donors(donors.get());
     val repoFile = repoFileBuilder.build();
     repoFile.getAnalysis().replaceData(analysis.getData());
     repoFile.replaceInfo(file.getInfo());
@@ -126,9 +152,10 @@ final class FileCentricDocumentConverter {
   }
 
   private static File buildGenomeFileInfo(
-      Analysis analysis, bio.overture.maestro.domain.entities.metadata.study.File file) {
+      AnalysisFile analysisFile, Map<String, AnalysisFile> filesByName) {
+    val file = analysisFile.getFile();
     val fileName = file.getFileName();
-    val indexFile = getIndexFile(analysis.getFiles(), fileName);
+    val indexFile = getIndexFile(analysisFile, filesByName);
     val fileDocument =
         File.builder()
             .name(fileName)
@@ -146,17 +173,17 @@ final class FileCentricDocumentConverter {
    * explicitly handles associating index files to a files.
    */
   private static IndexFile getIndexFile(
-      List<bio.overture.maestro.domain.entities.metadata.study.File> files, String fileName) {
-
-    Optional<bio.overture.maestro.domain.entities.metadata.study.File> sf = Optional.empty();
-    if (hasExtension(fileName, BAM)) {
-      sf = findIndexFile(files, fileName + BAI_EXT);
-    } else if (hasExtension(fileName, CRAM)) {
-      sf = findIndexFile(files, fileName + CRAI_EXT);
-    } else if (hasExtension(fileName, VCF)) {
+      AnalysisFile analysisFile, Map<String, AnalysisFile> filesByName) {
+
+    Optional<AnalysisFile> sf = Optional.empty();
+    if (analysisFile.is(FileFormat.BAM)) {
+      sf = findIndexFile(filesByName, analysisFile, BAI_EXT);
+    } else if (analysisFile.is(FileFormat.CRAM)) {
+      sf = findIndexFile(filesByName, analysisFile, CRAI_EXT);
+    } else if (analysisFile.is(FileFormat.VCF)) {
       sf =
           Stream.of(TBI_EXT, IDX_EXT, TCG_EXT)
-              .map(suffix -> findIndexFile(files, fileName + suffix))
+              .map(suffix -> findIndexFile(filesByName, analysisFile, suffix))
               .filter(Optional::isPresent)
               .map(Optional::get)
               .findFirst();
@@ -164,13 +191,13 @@ final class FileCentricDocumentConverter {
     return sf.map(FileCentricDocumentConverter::createIndexFile).orElse(null);
   }
 
-  private static IndexFile createIndexFile(
-      bio.overture.maestro.domain.entities.metadata.study.File file) {
+  private static IndexFile createIndexFile(AnalysisFile analysisFile) {
+    val file = analysisFile.getFile();
     val indexFileDocument =
         IndexFile.builder()
             .objectId(file.getObjectId())
             .name(file.getFileName())
-            .fileType(indexFileFormat(file.getFileName()))
+            .fileType(indexFileFormat(analysisFile))
             .size(file.getFileSize())
             .md5sum(file.getFileMd5sum())
             .dataType(file.getDataType())
@@ -180,72 +207,88 @@ final class FileCentricDocumentConverter {
     return indexFileDocument;
   }
 
-  private static Optional<bio.overture.maestro.domain.entities.metadata.study.File> findIndexFile(
-      List<bio.overture.maestro.domain.entities.metadata.study.File> files, String name) {
-
-    return files.stream().filter(f -> f.getFileName().equalsIgnoreCase(name)).findFirst();
-  }
-
-  private static boolean isDataFile(bio.overture.maestro.domain.entities.metadata.study.File f) {
-    val name = f.getFileName();
-    return !(isIndexFile(name) || isXMLFile(name));
-  }
-
-  private static boolean isXMLFile(String filename) {
-    return hasExtension(filename, XML);
-  }
-
-  private static boolean isBAIFile(String filename) {
-    return hasExtension(filename, BAI);
-  }
-
-  private static boolean isCRAIFile(String filename) {
-    return hasExtension(filename, CRAI);
-  }
-
-  private static boolean isTBIFile(String filename) {
-    return hasExtension(filename, TBI);
+  private static Optional<AnalysisFile> findIndexFile(
+      Map<String, AnalysisFile> filesByName, AnalysisFile dataFile, String suffix) {
+    return Optional.ofNullable(filesByName.get(dataFile.getLowerCaseName() + suffix.toLowerCase()));
   }
 
-  private static boolean isIDXFile(String filename) {
-    return hasExtension(filename, IDX);
-  }
-
-  private static boolean isIndexFile(String filename) {
-    return isBAIFile(filename)
-        || isCRAIFile(filename)
-        || isIDXFile(filename)
-        || isTBIFile(filename);
-  }
-
-  private static String indexFileFormat(String fileName) {
-    if (isBAIFile(fileName)) {
+  private static String indexFileFormat(AnalysisFile analysisFile) {
+    if (analysisFile.is(FileFormat.BAI)) {
       return BAI;
     }
-    if (isCRAIFile(fileName)) {
+    if (analysisFile.is(FileFormat.CRAI)) {
       return CRAI;
     }
-    if (isTBIFile(fileName)) {
+    if (analysisFile.is(FileFormat.TBI)) {
       return TBI;
     }
-    if (isIDXFile(fileName)) {
+    if (analysisFile.is(FileFormat.IDX)) {
       return IDX;
     }
     return null;
   }
 
-  private static boolean hasExtension(String filename, String extension) {
-    String[] suffixes = {EMPTY_STRING, GZ, ZIP, B_2_ZIP};
-    val f = filename.toLowerCase();
-    val ext = extension.toLowerCase();
-    for (val s : suffixes) {
-      if (f.endsWith(ext + s)) {
-        return true;
+  /** The formats told apart by the file name extension, possibly followed by an archive one. */
+  private enum FileFormat {
+    BAM,
+    BAI,
+    CRAM,
+    CRAI,
+    XML,
+    TBI,
+    IDX,
+    VCF;
+
+    private static final Set<FileFormat> NON_DATA_FORMATS = EnumSet.of(BAI, CRAI, IDX, TBI, XML);
+
+    private final String[] suffixes;
+
+    FileFormat() {
+      val ext = name().toLowerCase();
+      val archiveSuffixes = new String[] {EMPTY_STRING, GZ, ZIP, B_2_ZIP};
+      this.suffixes =
+          Stream.of(archiveSuffixes)
+              .flatMap(s -> Stream.of(ext + s, s + ext))
+              .distinct()
+              .toArray(String[]::new);
+    }
+
+    /** @param lowerCaseName the file name in lower case */
+    private boolean matches(String lowerCaseName) {
+      for (val suffix : suffixes) {
+        if (lowerCaseName.endsWith(suffix)) {
+          return true;
+        }
       }
-      if (f.endsWith(s + ext)) {
-        return true;
+      return false;
+    }
+  }
+
+  /** An analysis file with the formats its name matches. */
+  @Getter
+  @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+  private static class AnalysisFile {
+    private final bio.overture.maestro.domain.entities.metadata.study.File file;
+    private final String lowerCaseName;
+    private final Set<FileFormat> formats;
+
+    static AnalysisFile of(bio.overture.maestro.domain.entities.metadata.study.File file) {
+      val lowerCaseName = file.getFileName().toLowerCase();
+      val formats = EnumSet.noneOf(FileFormat.class);
+      for (val format : FileFormat.values()) {
+        if (format.matches(lowerCaseName)) {
+          formats.add(format);
+        }
       }
+      return new AnalysisFile(file, lowerCaseName, formats);
+    }
+
+    boolean is(FileFormat format) {
+      return formats.contains(format);
+    }
+
+    boolean isDataFile() {
+      return Collections.disjoint(formats, FileFormat.NON_DATA_FORMATS);
     }
-    return false;
   }
 }
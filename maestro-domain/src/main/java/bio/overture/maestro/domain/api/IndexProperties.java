@@ -12,4 +12,30 @@ public interface IndexProperties {
 
   @NonNull
   boolean isAnalysisCentricEnabled();
+
+  /** when enabled studies are indexed window by window instead of loading them fully in memory */
+  boolean isStudyStreamingEnabled();
+
+  /** max number of analyses per window when study streaming is enabled */
+  int studyStreamingWindowSize();
+
+  /**
+   * threads of the pool converting large analyses batches, the number of cores when not positive
+   */
+  int conversionParallelism();
+
+  /** when enabled only analyses updated since the last successful study run are indexed */
+  boolean isIncrementalIndexingEnabled();
+
+  /**
+   * how far before the start of an incremental study run its checkpoint may go at most, covers the
+   * clock skew between maestro and the repositories.
+   */
+  int incrementalClockSkewMarginSeconds();
+
+  /**
+   * when enabled documents identical to the ones last written by this instance are dropped before
+   * any request to the index server.
+   */
+  boolean isWriteCacheEnabled();
 }
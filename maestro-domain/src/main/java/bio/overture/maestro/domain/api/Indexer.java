@@ -53,6 +53,15 @@ public interface Indexer {
    */
   Flux<IndexResult> removeAnalysis(@NonNull RemoveAnalysisCommand removeAnalysisCommand);
 
+  /**
+   * Method to remove all documents of an analysis from kafka payload, the files documents are
+   * deleted by their ids taken from the payload when it lists them.
+   *
+   * @param analysis Kafka message payload.
+   * @return Failure info and success flag of al indices.
+   */
+  Flux<IndexResult> removeAnalysisPayload(@NonNull AnalysisMessage analysis);
+
   /**
    * A generic method to index a study.
    *
@@ -69,6 +78,37 @@ public interface Indexer {
    */
   Mono<Map<String, IndexResult>> indexRepository(@NonNull IndexStudyRepositoryCommand command);
 
+  /**
+   * Rebuilds all indices from scratch with the documents of the repository. They are indexed into
+   * new indices that replace the current ones only if the whole repository was indexed
+   * successfully, searches keep hitting the current indices meanwhile. The new indices start with
+   * the documents of the other repositories copied from the current ones, and the documents changed
+   * in the current indices during the rebuild are copied again into them before they replace them.
+   *
+   * @param command contains repository code
+   * @return result indicating success/fail and failure information
+   */
+  Mono<Map<String, IndexResult>> rebuildRepository(@NonNull IndexStudyRepositoryCommand command);
+
+  /**
+   * Deletes all the documents of a study, from all repositories, with tasks running on the index
+   * server. The tasks keep running if the returned flux is cancelled.
+   *
+   * @param command contains the study id
+   * @return the progress of the task of each index until they are all completed
+   */
+  Flux<IndexTaskStatus> removeStudy(@NonNull RemoveStudyCommand command);
+
+  /**
+   * Removes a repository from all the documents with tasks running on the index server, the
+   * documents that were only in this repository are deleted. The tasks keep running if the returned
+   * flux is cancelled.
+   *
+   * @param command contains repository code
+   * @return the progress of the task of each index until they are all completed
+   */
+  Flux<IndexTaskStatus> removeRepository(@NonNull RemoveRepositoryCommand command);
+
   void addRule(AddRuleCommand addRuleCommand);
 
   void deleteRule(DeleteRuleCommand deleteRuleCommand);
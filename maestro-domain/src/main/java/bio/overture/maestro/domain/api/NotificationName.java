@@ -32,7 +32,9 @@ public enum NotificationName {
   UNHANDLED_ERROR(NotificationCategory.ERROR),
   FAILED_TO_FETCH_ANALYSIS(NotificationCategory.ERROR),
   FAILED_TO_FETCH_REPOSITORY(NotificationCategory.ERROR),
-  FAILED_TO_REMOVE_ANALYSIS(NotificationCategory.ERROR);
+  FAILED_TO_REMOVE_ANALYSIS(NotificationCategory.ERROR),
+  FAILED_TO_REMOVE_STUDY(NotificationCategory.ERROR),
+  FAILED_TO_REMOVE_REPOSITORY(NotificationCategory.ERROR);
 
   private final NotificationCategory category;
 
@@ -18,6 +18,7 @@
 package bio.overture.maestro.domain.api.message;
 
 import bio.overture.maestro.domain.api.exception.FailureData;
+import java.util.Map;
 import lombok.*;
 
 @Getter
@@ -30,4 +31,9 @@ public class IndexResult {
   private String indexName;
   @Builder.Default private FailureData failureData = FailureData.builder().build();
   private boolean successful;
+  /**
+   * the failures of each target cluster by cluster name, when the documents are written to more
+   * than one. They are also part of {@link #failureData}.
+   */
+  @Builder.Default private Map<String, FailureData> clusterFailures = Map.of();
 }
@@ -0,0 +1,50 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.domain.api.message;
+
+import bio.overture.maestro.domain.api.exception.FailureData;
+import lombok.*;
+
+/**
+ * Progress of a task running on the index server over many documents of an index, reported while it
+ * runs then once more when it's completed.
+ */
+@Getter
+@Builder(toBuilder = true)
+@ToString
+@NoArgsConstructor
+@EqualsAndHashCode
+@AllArgsConstructor
+public class IndexTaskStatus {
+  private String indexName;
+  /**
+   * the target cluster running the task, only set when the documents are written to more than one.
+   */
+  private String cluster;
+
+  private String taskId;
+  /** documents matched by the task, known once it started. */
+  private long total;
+  /** documents deleted, updated or copied so far. */
+  private long processed;
+
+  private boolean completed;
+  @Builder.Default private FailureData failureData = FailureData.builder().build();
+  /** only meaningful once completed. */
+  private boolean successful;
+}
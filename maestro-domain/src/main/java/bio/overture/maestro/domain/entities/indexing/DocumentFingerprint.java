@@ -0,0 +1,130 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.domain.entities.indexing;
+
+import bio.overture.maestro.domain.entities.indexing.analysis.AnalysisCentricDocument;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import lombok.*;
+
+/**
+ * Compact hashes of an index document, stored along with the document at write time so that
+ * conflict checks and change detection don't need to fetch and compare the full source.
+ */
+@Builder
+@Getter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+public class DocumentFingerprint {
+
+  /** the key the fingerprint is stored under in the index document. */
+  public static final String FIELD = "fingerprint";
+
+  private static final String REPOSITORIES = "repositories";
+  private static final ObjectMapper MAPPER =
+      new ObjectMapper()
+          .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+          .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+  /**
+   * hash of the attributes a replica must share with the stored document, same attributes that
+   * {@link FileCentricDocument#isValidReplica} and {@link AnalysisCentricDocument#isValidReplica}
+   * compare.
+   */
+  @NonNull private String replica;
+
+  /** hash of the whole document except the repositories, same content means nothing to update. */
+  @NonNull private String content;
+
+  public static DocumentFingerprint of(@NonNull FileCentricDocument document) {
+    return new DocumentFingerprint(
+        hash(
+            Arrays.asList(
+                document.getObjectId(),
+                document.getStudyId(),
+                document.getDataType(),
+                document.getFileType(),
+                document.getFileAccess(),
+                document.getDonors(),
+                document.getAnalysis().getAnalysisId(),
+                document.getAnalysis().getAnalysisType(),
+                document.getFile())),
+        contentHash(document));
+  }
+
+  public static DocumentFingerprint of(@NonNull AnalysisCentricDocument document) {
+    return new DocumentFingerprint(
+        hash(
+            Arrays.asList(
+                document.getAnalysisId(),
+                document.getAnalysisType(),
+                document.getStudyId(),
+                // replicas compare donors and files regardless of their order
+                unorderedHashes(document.getDonors()),
+                unorderedHashes(document.getFiles()))),
+        contentHash(document));
+  }
+
+  /**
+   * hash of the repositories with all their fields regardless of their order, the content hash
+   * leaves them out and the replicas come from other repositories.
+   */
+  public static String repositoriesHash(@NonNull Collection<Repository> repositories) {
+    return hash(
+        repositories.stream()
+            .sorted(Comparator.comparing(Repository::getCode))
+            .collect(Collectors.toUnmodifiableList()));
+  }
+
+  private static String contentHash(Object document) {
+    ObjectNode tree = MAPPER.valueToTree(document);
+    tree.remove(REPOSITORIES);
+    return hash(tree);
+  }
+
+  private static Collection<String> unorderedHashes(Collection<?> items) {
+    return items.stream()
+        .map(DocumentFingerprint::hash)
+        .sorted()
+        .collect(Collectors.toUnmodifiableList());
+  }
+
+  @SneakyThrows
+  private static String hash(Object value) {
+    val digest = MessageDigest.getInstance("MD5");
+    try (DigestOutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+      MAPPER.writeValue(out, value);
+    }
+    val hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.domain.entities.indexing;
+
+import bio.overture.maestro.domain.entities.indexing.analysis.AnalysisCentricDocument;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import lombok.NonNull;
+import lombok.val;
+
+/**
+ * The {@link DocumentFingerprint} of each document of a batch, computed once so the write cache,
+ * the conflicts check and the index adapters don't serialize and hash the same document again.
+ * Documents are looked up by identity, a document that is not part of the batch gets its
+ * fingerprint computed on the spot. It's read only once built, so it can be shared between threads.
+ *
+ * @param <T> the document type
+ */
+public final class DocumentFingerprints<T> {
+
+  private final Map<T, DocumentFingerprint> fingerprints;
+  private final Function<T, DocumentFingerprint> fingerprint;
+
+  private DocumentFingerprints(
+      Map<T, DocumentFingerprint> fingerprints, Function<T, DocumentFingerprint> fingerprint) {
+    this.fingerprints = fingerprints;
+    this.fingerprint = fingerprint;
+  }
+
+  public static DocumentFingerprints<FileCentricDocument> ofFiles(
+      @NonNull List<FileCentricDocument> files) {
+    return of(files, DocumentFingerprint::of);
+  }
+
+  public static DocumentFingerprints<AnalysisCentricDocument> ofAnalyses(
+      @NonNull List<AnalysisCentricDocument> analyses) {
+    return of(analyses, DocumentFingerprint::of);
+  }
+
+  /** none computed ahead, every fingerprint is computed when asked for. */
+  public static DocumentFingerprints<FileCentricDocument> noFiles() {
+    return new DocumentFingerprints<>(Map.of(), DocumentFingerprint::of);
+  }
+
+  /** none computed ahead, every fingerprint is computed when asked for. */
+  public static DocumentFingerprints<AnalysisCentricDocument> noAnalyses() {
+    return new DocumentFingerprints<>(Map.of(), DocumentFingerprint::of);
+  }
+
+  private static <T> DocumentFingerprints<T> of(
+      List<T> documents, Function<T, DocumentFingerprint> fingerprint) {
+    val fingerprints = new IdentityHashMap<T, DocumentFingerprint>(documents.size());
+    for (T document : documents) {
+      fingerprints.computeIfAbsent(document, fingerprint);
+    }
+    return new DocumentFingerprints<>(Collections.unmodifiableMap(fingerprints), fingerprint);
+  }
+
+  public DocumentFingerprint get(@NonNull T document) {
+    val computed = fingerprints.get(document);
+    return computed != null ? computed : fingerprint.apply(document);
+  }
+}
@@ -19,6 +19,7 @@ package bio.overture.maestro.domain.entities.indexing;
 
 import com.fasterxml.jackson.annotation.JsonAnyGetter;
 import com.fasterxml.jackson.annotation.JsonAnySetter;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -33,6 +34,8 @@ import lombok.experimental.FieldNameConstants;
 @AllArgsConstructor
 @EqualsAndHashCode
 @FieldNameConstants
+// the stored fingerprint is not part of the document, see DocumentFingerprint
+@JsonIgnoreProperties(DocumentFingerprint.FIELD)
 public class FileCentricDocument {
 
   @NonNull private String objectId;
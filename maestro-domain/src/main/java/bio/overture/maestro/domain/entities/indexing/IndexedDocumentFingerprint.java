@@ -0,0 +1,85 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.domain.entities.indexing;
+
+import bio.overture.maestro.domain.entities.indexing.analysis.AnalysisCentricDocument;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import lombok.*;
+
+/**
+ * What is needed to check an incoming document against the already indexed one: its identity, the
+ * repositories it's in and its stored {@link DocumentFingerprint}.
+ */
+@Builder
+@Getter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+public class IndexedDocumentFingerprint {
+
+  /** the document id, object id for files and analysis id for analyses. */
+  @NonNull private String id;
+
+  private String analysisId;
+
+  private String studyId;
+
+  @NonNull private Set<String> repositoryCodes;
+
+  /**
+   * the repositories the document is in, with all their fields, to tell if a repository changed
+   * since the document was indexed.
+   */
+  @NonNull private Set<Repository> repositories;
+
+  /** null when the document was indexed before fingerprints were stored. */
+  private DocumentFingerprint fingerprint;
+
+  public static IndexedDocumentFingerprint of(@NonNull FileCentricDocument document) {
+    return IndexedDocumentFingerprint.builder()
+        .id(document.getObjectId())
+        .analysisId(document.getAnalysis().getAnalysisId())
+        .studyId(document.getStudyId())
+        .repositoryCodes(repositoryCodes(document.getRepositories()))
+        .repositories(Set.copyOf(document.getRepositories()))
+        .fingerprint(DocumentFingerprint.of(document))
+        .build();
+  }
+
+  public static IndexedDocumentFingerprint of(@NonNull AnalysisCentricDocument document) {
+    return IndexedDocumentFingerprint.builder()
+        .id(document.getAnalysisId())
+        .analysisId(document.getAnalysisId())
+        .studyId(document.getStudyId())
+        .repositoryCodes(repositoryCodes(document.getRepositories()))
+        .repositories(Set.copyOf(document.getRepositories()))
+        .fingerprint(DocumentFingerprint.of(document))
+        .build();
+  }
+
+  public boolean hasFingerprint() {
+    return fingerprint != null;
+  }
+
+  private static Set<String> repositoryCodes(List<Repository> repositories) {
+    return repositories.stream().map(Repository::getCode).collect(Collectors.toUnmodifiableSet());
+  }
+}
@@ -1,9 +1,11 @@
 package bio.overture.maestro.domain.entities.indexing.analysis;
 
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprint;
 import bio.overture.maestro.domain.entities.indexing.Donor;
 import bio.overture.maestro.domain.entities.indexing.Repository;
 import com.fasterxml.jackson.annotation.JsonAnyGetter;
 import com.fasterxml.jackson.annotation.JsonAnySetter;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -19,6 +21,8 @@ import org.apache.commons.collections4.CollectionUtils;
 @AllArgsConstructor
 @EqualsAndHashCode
 @FieldNameConstants
+// the stored fingerprint is not part of the document, see DocumentFingerprint
+@JsonIgnoreProperties(DocumentFingerprint.FIELD)
 public class AnalysisCentricDocument {
 
   @NonNull private String analysisId;
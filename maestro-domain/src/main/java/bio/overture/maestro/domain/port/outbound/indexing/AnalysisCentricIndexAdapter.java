@@ -1,9 +1,12 @@
 package bio.overture.maestro.domain.port.outbound.indexing;
 
 import bio.overture.maestro.domain.api.message.IndexResult;
+import bio.overture.maestro.domain.api.message.IndexTaskStatus;
+import bio.overture.maestro.domain.entities.indexing.IndexedDocumentFingerprint;
 import bio.overture.maestro.domain.entities.indexing.analysis.AnalysisCentricDocument;
 import java.util.List;
 import lombok.NonNull;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface AnalysisCentricIndexAdapter {
@@ -13,5 +16,69 @@ public interface AnalysisCentricIndexAdapter {
 
   Mono<Void> removeAnalysisDocs(String analysisId);
 
+  /**
+   * Deletes all the analyses documents of a study with a task running on the index server.
+   *
+   * @return the task progress until it's completed.
+   */
+  Flux<IndexTaskStatus> removeStudyDocs(@NonNull String studyId);
+
+  /**
+   * Removes the repository from the repositories of all the analyses documents with a task running
+   * on the index server, the documents left without any repository are deleted.
+   *
+   * @return the task progress until it's completed.
+   */
+  Flux<IndexTaskStatus> removeRepositoryDocs(@NonNull String repositoryCode);
+
   Mono<List<AnalysisCentricDocument>> fetchByIds(List<String> ids);
+
+  Mono<List<IndexedDocumentFingerprint>> fetchFingerprintsByIds(List<String> ids);
+
+  /**
+   * Creates a new analysis centric index to rebuild the documents of a repository into, it's not
+   * searchable until the rebuild is completed. It's seeded with the documents of the other
+   * repositories from the current index, and the documents changed in the current index from now on
+   * are copied again into it before it replaces it.
+   *
+   * @param repositoryCode the rebuilt repository, its documents are not seeded.
+   * @return the name of the created index.
+   */
+  Mono<String> createRebuildIndex(@NonNull String repositoryCode);
+
+  /**
+   * Indexes the documents into a rebuild index, they are merged with the seeded documents of the
+   * other repositories if any.
+   */
+  Mono<IndexResult> batchIndexRebuildAnalyses(
+      @NonNull String rebuildIndexName,
+      @NonNull BatchIndexAnalysisCommand batchIndexAnalysisCommand);
+
+  /**
+   * Same as {@link #fetchByIds(List)} from a rebuild index, to check the documents against the
+   * seeded documents of the other repositories.
+   *
+   * @param rebuildIndexName the index returned by {@link #createRebuildIndex(String)}
+   */
+  Mono<List<AnalysisCentricDocument>> fetchRebuildByIds(
+      @NonNull String rebuildIndexName, List<String> ids);
+
+  /**
+   * Same as {@link #fetchFingerprintsByIds(List)} from a rebuild index, to check the documents
+   * against the seeded documents of the other repositories.
+   *
+   * @param rebuildIndexName the index returned by {@link #createRebuildIndex(String)}
+   */
+  Mono<List<IndexedDocumentFingerprint>> fetchRebuildFingerprintsByIds(
+      @NonNull String rebuildIndexName, List<String> ids);
+
+  /**
+   * Copies the documents changed in the current index meanwhile into the rebuild index, makes it
+   * searchable then moves the alias from the current index to it. It fails when too many documents
+   * changed to be copied, the rebuild index then misses writes and is not swapped.
+   */
+  Mono<Void> completeRebuild(@NonNull String rebuildIndexName);
+
+  /** Deletes a rebuild index that won't be completed, the current index is left untouched. */
+  Mono<Void> abandonRebuild(@NonNull String rebuildIndexName);
 }
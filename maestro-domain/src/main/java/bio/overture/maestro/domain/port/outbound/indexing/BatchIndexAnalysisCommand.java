@@ -1,5 +1,6 @@
 package bio.overture.maestro.domain.port.outbound.indexing;
 
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprints;
 import bio.overture.maestro.domain.entities.indexing.analysis.AnalysisCentricDocument;
 import java.util.List;
 import lombok.*;
@@ -13,6 +14,13 @@ public class BatchIndexAnalysisCommand {
 
   @NonNull private List<AnalysisCentricDocument> analyses;
 
+  /** the fingerprints of the analyses, when they were computed ahead. */
+  @EqualsAndHashCode.Exclude private DocumentFingerprints<AnalysisCentricDocument> fingerprints;
+
+  public DocumentFingerprints<AnalysisCentricDocument> getFingerprints() {
+    return fingerprints == null ? DocumentFingerprints.noAnalyses() : fingerprints;
+  }
+
   public String toString() {
     val size = analyses == null ? "null" : String.valueOf(analyses.size());
     return super.toString() + "[analyses = " + size + "]";
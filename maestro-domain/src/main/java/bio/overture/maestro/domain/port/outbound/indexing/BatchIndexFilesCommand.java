@@ -17,6 +17,7 @@
 
 package bio.overture.maestro.domain.port.outbound.indexing;
 
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprints;
 import bio.overture.maestro.domain.entities.indexing.FileCentricDocument;
 import java.util.List;
 import lombok.*;
@@ -30,6 +31,13 @@ public class BatchIndexFilesCommand {
 
   @NonNull private List<FileCentricDocument> files;
 
+  /** the fingerprints of the files, when they were computed ahead. */
+  @EqualsAndHashCode.Exclude private DocumentFingerprints<FileCentricDocument> fingerprints;
+
+  public DocumentFingerprints<FileCentricDocument> getFingerprints() {
+    return fingerprints == null ? DocumentFingerprints.noFiles() : fingerprints;
+  }
+
   // avoid dumping all files info as that's too much
   public String toString() {
     val size = files == null ? "null" : String.valueOf(files.size());
@@ -18,10 +18,13 @@
 package bio.overture.maestro.domain.port.outbound.indexing;
 
 import bio.overture.maestro.domain.api.message.IndexResult;
+import bio.overture.maestro.domain.api.message.IndexTaskStatus;
 import bio.overture.maestro.domain.entities.indexing.FileCentricDocument;
+import bio.overture.maestro.domain.entities.indexing.IndexedDocumentFingerprint;
 import java.util.List;
 import java.util.Set;
 import lombok.NonNull;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -48,7 +51,17 @@ public interface FileCentricIndexAdapter {
   Mono<List<FileCentricDocument>> fetchByIds(List<String> ids);
 
   /**
-   * Method to delete files documents from the files centric index
+   * Batch fetch only the identity, repositories and stored fingerprint of the documents with the
+   * specified ids, without loading their full source.
+   *
+   * @param ids a list of ids to fetch fingerprints by from elastic search.
+   * @return List contains the fingerprints of the found documents.
+   */
+  Mono<List<IndexedDocumentFingerprint>> fetchFingerprintsByIds(List<String> ids);
+
+  /**
+   * Method to delete files documents from the files centric index by their ids, which is cheaper
+   * than removing them by analysis.
    *
    * @param fileCentricDocumentIds the list of files to delete
    * @return indexer exception instance contains the list of failures.
@@ -57,4 +70,68 @@ public interface FileCentricIndexAdapter {
 
   /** Remove all files documents related to the specified analysisId */
   Mono<Void> removeAnalysisFiles(String analysisId);
+
+  /**
+   * Deletes all the files documents of a study with a task running on the index server.
+   *
+   * @return the task progress until it's completed.
+   */
+  Flux<IndexTaskStatus> removeStudyFiles(@NonNull String studyId);
+
+  /**
+   * Removes the repository from the repositories of all the files documents with a task running on
+   * the index server, the documents left without any repository are deleted.
+   *
+   * @return the task progress until it's completed.
+   */
+  Flux<IndexTaskStatus> removeRepositoryFiles(@NonNull String repositoryCode);
+
+  /**
+   * Creates a new files centric index to rebuild the documents of a repository into, it's not
+   * searchable until the rebuild is completed. It's seeded with the documents of the other
+   * repositories from the current index, and the documents changed in the current index from now on
+   * are copied again into it before it replaces it.
+   *
+   * @param repositoryCode the rebuilt repository, its documents are not seeded.
+   * @return the name of the created index.
+   */
+  Mono<String> createRebuildIndex(@NonNull String repositoryCode);
+
+  /**
+   * Indexes the documents into a rebuild index, they are merged with the seeded documents of the
+   * other repositories if any.
+   *
+   * @param rebuildIndexName the index returned by {@link #createRebuildIndex(String)}
+   * @return flag indicating if the operation was successful.
+   */
+  Mono<IndexResult> batchIndexRebuildFiles(
+      @NonNull String rebuildIndexName, @NonNull BatchIndexFilesCommand batchIndexFilesCommand);
+
+  /**
+   * Same as {@link #fetchByIds(List)} from a rebuild index, to check the documents against the
+   * seeded documents of the other repositories.
+   *
+   * @param rebuildIndexName the index returned by {@link #createRebuildIndex(String)}
+   */
+  Mono<List<FileCentricDocument>> fetchRebuildByIds(
+      @NonNull String rebuildIndexName, List<String> ids);
+
+  /**
+   * Same as {@link #fetchFingerprintsByIds(List)} from a rebuild index, to check the documents
+   * against the seeded documents of the other repositories.
+   *
+   * @param rebuildIndexName the index returned by {@link #createRebuildIndex(String)}
+   */
+  Mono<List<IndexedDocumentFingerprint>> fetchRebuildFingerprintsByIds(
+      @NonNull String rebuildIndexName, List<String> ids);
+
+  /**
+   * Copies the documents changed in the current index meanwhile into the rebuild index, makes it
+   * searchable then moves the alias from the current index to it. It fails when too many documents
+   * changed to be copied, the rebuild index then misses writes and is not swapped.
+   */
+  Mono<Void> completeRebuild(@NonNull String rebuildIndexName);
+
+  /** Deletes a rebuild index that won't be completed, the current index is left untouched. */
+  Mono<Void> abandonRebuild(@NonNull String rebuildIndexName);
 }
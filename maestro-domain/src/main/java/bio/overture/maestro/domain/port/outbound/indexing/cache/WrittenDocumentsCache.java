@@ -0,0 +1,65 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.domain.port.outbound.indexing.cache;
+
+import java.util.Map;
+import java.util.Set;
+import lombok.NonNull;
+import reactor.core.publisher.Mono;
+
+/**
+ * Remembers a fingerprint of the documents last written to each index, grouped by the analysis they
+ * belong to, so documents identical to what was already written can be dropped without any request
+ * to the index server.
+ */
+public interface WrittenDocumentsCache {
+
+  /**
+   * @param indexName the index the documents were written to
+   * @param analysisIds the analyses to look up
+   * @return the write fingerprint of each known document of these analyses by document id, ids not
+   *     in the result are unknown.
+   */
+  @NonNull
+  Mono<Map<String, String>> getWrittenFingerprints(
+      @NonNull String indexName, @NonNull Set<String> analysisIds);
+
+  /**
+   * records documents written successfully (or found identical in the index).
+   *
+   * @param indexName the index the documents were written to
+   * @param fingerprintsByAnalysis document id to write fingerprint, grouped by analysis id
+   */
+  @NonNull
+  Mono<Void> saveWrittenFingerprints(
+      @NonNull String indexName, @NonNull Map<String, Map<String, String>> fingerprintsByAnalysis);
+
+  /**
+   * forgets the documents of an analysis, must be called when they are removed from the index so
+   * that indexing the analysis again writes them.
+   */
+  @NonNull
+  Mono<Void> evictAnalysis(@NonNull String indexName, @NonNull String analysisId);
+
+  /**
+   * forgets all the documents of an index, must be called when the index is replaced by a rebuilt
+   * one.
+   */
+  @NonNull
+  Mono<Void> evictIndex(@NonNull String indexName);
+}
@@ -0,0 +1,60 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.domain.port.outbound.indexing.checkpoint;
+
+import java.util.Date;
+import lombok.NonNull;
+import reactor.core.publisher.Mono;
+
+/**
+ * Stores the high-water mark of the analyses updatedAt per study, used by the incremental indexing
+ * to only convert and write analyses that changed since the last successful run.
+ */
+public interface StudyCheckpointDAO {
+
+  /**
+   * @param repositoryCode the code of the repository the study belongs to
+   * @param studyId the study id
+   * @return the latest analysis updatedAt indexed successfully, empty if the study has no
+   *     checkpoint yet.
+   */
+  @NonNull
+  Mono<Date> getCheckpoint(@NonNull String repositoryCode, @NonNull String studyId);
+
+  /**
+   * records the latest analysis updatedAt after a successful run.
+   *
+   * @param repositoryCode the code of the repository the study belongs to
+   * @param studyId the study id
+   * @param checkpoint the latest updatedAt of the analyses indexed in the run
+   */
+  @NonNull
+  Mono<Void> saveCheckpoint(
+      @NonNull String repositoryCode, @NonNull String studyId, @NonNull Date checkpoint);
+
+  /**
+   * forgets the checkpoints of a study in all repositories, must be called when its documents are
+   * removed so that the next run indexes all of its analyses.
+   */
+  @NonNull
+  Mono<Void> deleteStudyCheckpoints(@NonNull String studyId);
+
+  /** forgets the checkpoints of all the studies of a repository. */
+  @NonNull
+  Mono<Void> deleteRepositoryCheckpoints(@NonNull String repositoryCode);
+}
@@ -41,6 +41,19 @@ public interface StudyDAO {
   @NonNull
   Mono<List<Analysis>> getStudyAnalyses(@NonNull GetStudyAnalysesCommand getStudyAnalysesCommand);
 
+  /**
+   * streams the analyses of a single studyId from a single repository page by page, unlike {@link
+   * #getStudyAnalyses(GetStudyAnalysesCommand)} this doesn't hold the whole study in memory.
+   *
+   * @param getStudyAnalysesCommand contains studyId and repository base url
+   * @return a flux of analyses pages in the same order the repository returns them.
+   * @throws bio.overture.maestro.domain.api.exception.NotFoundException in case the studyId wasn't
+   *     found.
+   */
+  @NonNull
+  Flux<List<Analysis>> streamStudyAnalyses(
+      @NonNull GetStudyAnalysesCommand getStudyAnalysesCommand);
+
   /**
    * loads all studies in a repository
    *
@@ -28,11 +28,82 @@ import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.util.concurrent.Queues;
 
 @Slf4j
 @UtilityClass
 public final class Parallel {
 
+  /** What happens to the other parts when the work on one of them fails. */
+  public enum ErrorMode {
+    /** the outstanding parts are cancelled and the error is emitted right away. */
+    FAIL_FAST,
+    /**
+     * the other parts run to completion, the errors are emitted once they're all done, combined
+     * with {@link reactor.core.Exceptions#multiple} when there is more than one.
+     */
+    COLLECT_ERRORS
+  }
+
+  /**
+   * The non blocking successor of {@link #blockingScatterGather}, partitions the input list in
+   * batches and runs the worker on at most {@code maxConcurrency} of them at a time, the results
+   * are emitted in the batches order. Cancelling the subscription cancels the batches in flight and
+   * the ones that didn't start yet.
+   *
+   * @param inputList the list of input parameters that we want to split and pass to the worker
+   * @param batchSize the size of the batch each worker call will handle
+   * @param maxConcurrency how many batches are worked on at the same time
+   * @param errorMode what to do with the other batches when one fails
+   * @param worker takes an input batch with its index and publishes its results
+   */
+  public static <I, R> Flux<R> scatterGather(
+      List<I> inputList,
+      int batchSize,
+      int maxConcurrency,
+      ErrorMode errorMode,
+      Function<Map.Entry<Integer, List<I>>, Publisher<R>> worker) {
+    return Flux.defer(
+        () ->
+            scatterGather(
+                Flux.fromIterable(partitionList(inputList, batchSize).entrySet()),
+                maxConcurrency,
+                true,
+                errorMode,
+                worker));
+  }
+
+  /**
+   * Same as {@link #scatterGather(List, int, int, ErrorMode, Function)} for parts that are produced
+   * on the fly.
+   *
+   * @param parts the parts to work on, requested as the work on previous ones completes
+   * @param ordered whether the results are emitted in the parts order, an ordered part that
+   *     completes before the ones ahead of it keeps its concurrency slot until they're done, so
+   *     only ask for it when the order matters.
+   */
+  public static <P, R> Flux<R> scatterGather(
+      Flux<P> parts,
+      int maxConcurrency,
+      boolean ordered,
+      ErrorMode errorMode,
+      Function<P, ? extends Publisher<R>> worker) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("maxConcurrency should be at least 1");
+    }
+    val prefetch = Queues.XS_BUFFER_SIZE;
+    if (errorMode == ErrorMode.FAIL_FAST) {
+      return ordered
+          ? parts.flatMapSequential(worker, maxConcurrency, prefetch)
+          : parts.flatMap(worker, maxConcurrency, prefetch);
+    }
+    return ordered
+        ? parts.flatMapSequentialDelayError(worker, maxConcurrency, prefetch)
+        : parts.flatMapDelayError(worker, maxConcurrency, prefetch);
+  }
+
   /**
    * A BLOCKING (i.e. should be executed on a reactor scheduler) scatter gather to parallelize
    * execution of suppliers, currently it uses completeable futures but may be transformed to
@@ -48,7 +119,10 @@ public final class Parallel {
    * @throws Exception this is here to force callers to handle the exceptions that can be thrown
    *     this method will only rethrow any exceptiona and fails fast. if another behaviour is
    *     desired suppliers should handle their exceptions.
+   * @deprecated launches all the batches at once and blocks the caller, use {@link
+   *     #scatterGather(List, int, int, ErrorMode, Function)} instead.
    */
+  @Deprecated
   @SneakyThrows
   public static <I, R> List<R> blockingScatterGather(
       List<I> inputList, int batchSize, Function<Map.Entry<Integer, List<I>>, R> supplier)
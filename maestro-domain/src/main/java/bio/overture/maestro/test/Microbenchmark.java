@@ -0,0 +1,76 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.test;
+
+import java.lang.management.ManagementFactory;
+import lombok.Value;
+import lombok.experimental.UtilityClass;
+import lombok.val;
+
+/**
+ * Minimal timing loop for the microbenchmarks next to the tests. They are plain main classes, not
+ * picked up by surefire, and run from the test classpath of their module. This class is only for
+ * testing purposes not to be used for non test code.
+ */
+@UtilityClass
+public class Microbenchmark {
+
+  /**
+   * runs the operation warmups times, then measures it over reps runs. The allocations are the ones
+   * of all the live threads, so work handed to pools is counted as long as their threads outlive
+   * the runs.
+   *
+   * @param units what one run processes (documents, files...), the result is per unit.
+   * @return the mean time and allocated bytes per unit, the allocation is -1 if the JVM can't
+   *     measure it.
+   */
+  public static Result run(int warmups, int reps, long units, Runnable operation) {
+    for (int i = 0; i < warmups; i++) {
+      operation.run();
+    }
+    final long allocatedBefore = allocatedBytes();
+    final long start = System.nanoTime();
+    for (int i = 0; i < reps; i++) {
+      operation.run();
+    }
+    final long nanos = System.nanoTime() - start;
+    final long allocated = allocatedBytes() - allocatedBefore;
+    final double runs = (double) reps * units;
+    return new Result(nanos / runs / 1000, allocatedBefore < 0 ? -1 : allocated / runs);
+  }
+
+  private static long allocatedBytes() {
+    final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    long allocated = 0;
+    for (val threadAllocated :
+        ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+      // -1 for the threads that ended in the meantime.
+      allocated += Math.max(threadAllocated, 0);
+    }
+    return allocated;
+  }
+
+  @Value
+  public static class Result {
+    double microsPerUnit;
+    double bytesAllocatedPerUnit;
+  }
+}
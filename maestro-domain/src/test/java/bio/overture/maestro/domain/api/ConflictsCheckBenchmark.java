@@ -0,0 +1,177 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.domain.api;
+
+import static bio.overture.maestro.test.Fixture.loadJsonString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import bio.overture.maestro.domain.api.message.IndexResult;
+import bio.overture.maestro.domain.api.message.IndexStudyCommand;
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprint;
+import bio.overture.maestro.domain.entities.indexing.IndexedDocumentFingerprint;
+import bio.overture.maestro.domain.entities.indexing.StorageType;
+import bio.overture.maestro.domain.entities.metadata.repository.StudyRepository;
+import bio.overture.maestro.domain.entities.metadata.study.Analysis;
+import bio.overture.maestro.domain.port.outbound.indexing.AnalysisCentricIndexAdapter;
+import bio.overture.maestro.domain.port.outbound.indexing.FileCentricIndexAdapter;
+import bio.overture.maestro.domain.port.outbound.indexing.cache.WrittenDocumentsCache;
+import bio.overture.maestro.domain.port.outbound.indexing.checkpoint.StudyCheckpointDAO;
+import bio.overture.maestro.domain.port.outbound.indexing.rules.ExclusionRulesDAO;
+import bio.overture.maestro.domain.port.outbound.metadata.repository.StudyRepositoryDAO;
+import bio.overture.maestro.domain.port.outbound.metadata.study.StudyDAO;
+import bio.overture.maestro.test.Microbenchmark;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import lombok.SneakyThrows;
+import lombok.val;
+import reactor.core.publisher.Mono;
+
+/**
+ * Indexes a study of N file documents, one in ten of them conflicting with a stored replica,
+ * through {@link DefaultIndexer#indexStudy} with stubbed ports and prints the time per document. It
+ * covers conversion, the conflicts check and the filtering of the conflicting documents, the time
+ * per document should stay flat as the study grows.
+ *
+ * <p>Run the main method from the test classpath of maestro-domain.
+ */
+public class ConflictsCheckBenchmark {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final String REPO_CODE = "TEST-REPO";
+  private static final int[] DOCUMENTS = {1_000, 10_000, 50_000};
+  private static final int CONFLICT_EVERY = 10;
+  private static final int DOCUMENTS_PER_RUN = 100_000;
+
+  public static void main(String[] args) {
+    for (val documents : DOCUMENTS) {
+      val analyses = analysesWithDocuments(documents);
+      val objectIds =
+          analyses.stream()
+              .flatMap(analysis -> analysis.getFiles().stream())
+              .map(file -> file.getObjectId())
+              .collect(Collectors.toList());
+      val conflicting = new HashSet<String>();
+      for (int i = 0; i < objectIds.size(); i += CONFLICT_EVERY) {
+        conflicting.add(objectIds.get(i));
+      }
+      try (DefaultIndexer indexer = indexer(analyses, conflicting)) {
+        val command =
+            IndexStudyCommand.builder().studyId("PEME-CA").repositoryCode(REPO_CODE).build();
+        val reps = Math.max(1, DOCUMENTS_PER_RUN / objectIds.size());
+        val result =
+            Microbenchmark.run(
+                reps, reps, objectIds.size(), () -> indexer.indexStudy(command).blockLast());
+        System.out.printf(
+            "%6d documents: %6.1f us/doc%n", objectIds.size(), result.getMicrosPerUnit());
+      }
+    }
+  }
+
+  private static DefaultIndexer indexer(List<Analysis> analyses, Set<String> conflicting) {
+    val repository =
+        StudyRepository.builder()
+            .code(REPO_CODE)
+            .name("singer")
+            .url("http://song.sing.sung")
+            .country("CA")
+            .organization("org")
+            .storageType(StorageType.S3)
+            .build();
+    val indexProperties = stub(IndexProperties.class);
+    given(indexProperties.isFileCentricEnabled()).willReturn(Boolean.TRUE);
+    given(indexProperties.fileCentricIndexName()).willReturn("file_centric_1.0");
+    val studyRepositoryDao = stub(StudyRepositoryDAO.class);
+    given(studyRepositoryDao.getFilesRepository(anyString())).willReturn(Mono.just(repository));
+    val studyDao = stub(StudyDAO.class);
+    given(studyDao.getStudyAnalyses(any())).willReturn(Mono.just(analyses));
+    val exclusionRulesDao = stub(ExclusionRulesDAO.class);
+    given(exclusionRulesDao.getExclusionRules()).willReturn(Mono.just(Map.of()));
+    val fileCentricIndexAdapter = stub(FileCentricIndexAdapter.class);
+    given(fileCentricIndexAdapter.fetchFingerprintsByIds(anyList()))
+        .willAnswer(
+            invocation -> {
+              List<String> ids = invocation.getArgument(0);
+              return Mono.just(
+                  ids.stream()
+                      .filter(conflicting::contains)
+                      .map(ConflictsCheckBenchmark::conflictingReplica)
+                      .collect(Collectors.toList()));
+            });
+    given(fileCentricIndexAdapter.batchUpsertFileRepositories(any()))
+        .willReturn(Mono.just(IndexResult.builder().successful(true).build()));
+    return new DefaultIndexer(
+        fileCentricIndexAdapter,
+        stub(AnalysisCentricIndexAdapter.class),
+        studyDao,
+        studyRepositoryDao,
+        exclusionRulesDao,
+        stub(StudyCheckpointDAO.class),
+        stub(WrittenDocumentsCache.class),
+        stub(Notifier.class),
+        indexProperties);
+  }
+
+  private static IndexedDocumentFingerprint conflictingReplica(String objectId) {
+    return IndexedDocumentFingerprint.builder()
+        .id(objectId)
+        .analysisId("another-analysis")
+        .studyId("PEME-CA")
+        .repositoryCodes(Set.of("another-repo"))
+        .repositories(Set.of())
+        .fingerprint(new DocumentFingerprint("another-replica", "another-content"))
+        .build();
+  }
+
+  // stub only mocks don't record the invocations, which would grow over the runs.
+  private static <T> T stub(Class<T> type) {
+    return mock(type, withSettings().stubOnly());
+  }
+
+  @SneakyThrows
+  private static List<Analysis> analysesWithDocuments(int documents) {
+    val template =
+        (ObjectNode)
+            MAPPER
+                .readTree(loadJsonString(DefaultIndexerTest.class, "PEME-CA.analysis.json"))
+                .get(0);
+    val filesPerAnalysis = template.get("files").size();
+    val analyses = new ArrayList<Analysis>();
+    for (int i = 0; i < documents / filesPerAnalysis; i++) {
+      val analysis = template.deepCopy();
+      analysis.put("analysisId", "analysis-" + i);
+      for (val file : (ArrayNode) analysis.get("files")) {
+        ((ObjectNode) file).put("analysisId", "analysis-" + i);
+        ((ObjectNode) file).put("objectId", file.get("objectId").asText() + "-" + i);
+      }
+      analyses.add(MAPPER.treeToValue(analysis, Analysis.class));
+    }
+    return analyses;
+  }
+}
@@ -21,7 +21,11 @@ import static bio.overture.maestro.domain.api.DefaultIndexer.ALL;
 import static bio.overture.maestro.domain.api.DefaultIndexer.REPO_CODE;
 import static bio.overture.maestro.test.Fixture.loadJsonFixture;
 import static bio.overture.maestro.test.Fixture.loadJsonFixtureSnakeCase;
+import static bio.overture.maestro.test.Fixture.loadJsonString;
 import static bio.overture.maestro.test.TestCategory.UNIT_TEST;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
@@ -31,18 +35,24 @@ import static org.mockito.Mockito.times;
 import bio.overture.maestro.domain.api.exception.FailureData;
 import bio.overture.maestro.domain.api.exception.IndexerException;
 import bio.overture.maestro.domain.api.message.*;
+import bio.overture.maestro.domain.entities.indexing.DocumentFingerprint;
 import bio.overture.maestro.domain.entities.indexing.FileCentricDocument;
+import bio.overture.maestro.domain.entities.indexing.IndexedDocumentFingerprint;
 import bio.overture.maestro.domain.entities.indexing.Repository;
 import bio.overture.maestro.domain.entities.indexing.StorageType;
 import bio.overture.maestro.domain.entities.indexing.rules.ExclusionRule;
 import bio.overture.maestro.domain.entities.indexing.rules.IDExclusionRule;
+import bio.overture.maestro.domain.entities.message.AnalysisMessage;
 import bio.overture.maestro.domain.entities.metadata.repository.StudyRepository;
 import bio.overture.maestro.domain.entities.metadata.study.Analysis;
+import bio.overture.maestro.domain.entities.metadata.study.File;
 import bio.overture.maestro.domain.entities.metadata.study.Sample;
 import bio.overture.maestro.domain.entities.metadata.study.Study;
 import bio.overture.maestro.domain.port.outbound.indexing.AnalysisCentricIndexAdapter;
 import bio.overture.maestro.domain.port.outbound.indexing.BatchIndexFilesCommand;
 import bio.overture.maestro.domain.port.outbound.indexing.FileCentricIndexAdapter;
+import bio.overture.maestro.domain.port.outbound.indexing.cache.WrittenDocumentsCache;
+import bio.overture.maestro.domain.port.outbound.indexing.checkpoint.StudyCheckpointDAO;
 import bio.overture.maestro.domain.port.outbound.indexing.rules.ExclusionRulesDAO;
 import bio.overture.maestro.domain.port.outbound.metadata.repository.StudyRepositoryDAO;
 import bio.overture.maestro.domain.port.outbound.metadata.study.GetAllStudiesCommand;
@@ -50,17 +60,24 @@ import bio.overture.maestro.domain.port.outbound.metadata.study.GetAnalysisComma
 import bio.overture.maestro.domain.port.outbound.metadata.study.GetStudyAnalysesCommand;
 import bio.overture.maestro.domain.port.outbound.metadata.study.StudyDAO;
 import bio.overture.maestro.domain.port.outbound.notification.IndexerNotification;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import lombok.SneakyThrows;
 import lombok.val;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
@@ -78,6 +95,10 @@ class DefaultIndexerTest {
 
   @Mock private ExclusionRulesDAO exclusionRulesDAO;
 
+  @Mock private StudyCheckpointDAO studyCheckpointDAO;
+
+  @Mock private WrittenDocumentsCache writtenDocumentsCache;
+
   @Mock private StudyDAO studyDAO;
 
   @Mock private FileCentricIndexAdapter indexServerAdapter;
@@ -94,7 +115,14 @@ class DefaultIndexerTest {
 
   @BeforeEach
   void setUp() {
-    reset(studyRepositoryDao, studyDAO, indexServerAdapter, analysisCentricIndexAdapter, notifier);
+    reset(
+        studyRepositoryDao,
+        studyDAO,
+        indexServerAdapter,
+        analysisCentricIndexAdapter,
+        studyCheckpointDAO,
+        writtenDocumentsCache,
+        notifier);
     given(indexProperties.isFileCentricEnabled()).willReturn(Boolean.TRUE);
     given(indexProperties.fileCentricIndexName()).willReturn(FILE_CENTRIC_INDEX);
     this.indexer =
@@ -104,6 +132,8 @@ class DefaultIndexerTest {
             studyDAO,
             studyRepositoryDao,
             exclusionRulesDAO,
+            studyCheckpointDAO,
+            writtenDocumentsCache,
             notifier,
             indexProperties);
   }
@@ -201,7 +231,7 @@ class DefaultIndexerTest {
         Mono.just(
             Map.of(Sample.class, List.of(new IDExclusionRule(Sample.class, List.of("SA520221")))));
 
-    given(indexServerAdapter.fetchByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
     given(studyRepositoryDao.getFilesRepository(eq(repoCode))).willReturn(repositoryMono);
     given(studyDAO.getStudyAnalyses(eq(getStudyAnalysesCommand))).willReturn(studyAnalyses);
     given(indexServerAdapter.batchUpsertFileRepositories(eq(batchIndexFilesCommand)))
@@ -252,8 +282,8 @@ class DefaultIndexerTest {
 
     given(studyRepositoryDao.getFilesRepository(eq(repoCode))).willReturn(fileRepo);
     given(studyDAO.getStudyAnalyses(eq(getStudyAnalysesCommand))).willReturn(studyAnalyses);
-    given(indexServerAdapter.fetchByIds(anyList()))
-        .willReturn(Mono.just(List.of(fileCentricDocuments.get(0))));
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList()))
+        .willReturn(Mono.just(List.of(IndexedDocumentFingerprint.of(fileCentricDocuments.get(0)))));
     given(indexServerAdapter.batchUpsertFileRepositories(eq(batchIndexFilesCommand)))
         .willReturn(monoResult);
     given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
@@ -336,7 +366,7 @@ class DefaultIndexerTest {
     given(studyRepositoryDao.getFilesRepository(eq(repoCode))).willReturn(fileRepo);
     given(studyDAO.getAnalysis(eq(getStudyAnalysesCommand))).willReturn(studyAnalysis);
     given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
-    given(indexServerAdapter.fetchByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
 
     // When
     val indexResultMono =
@@ -388,7 +418,7 @@ class DefaultIndexerTest {
     given(studyRepositoryDao.getFilesRepository(eq(repoCode))).willReturn(fileRepo);
     given(studyDAO.getAnalysis(eq(getStudyAnalysesCommand))).willReturn(studyAnalysis);
     given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
-    given(indexServerAdapter.fetchByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
 
     // When
     val indexResultMono =
@@ -441,6 +471,72 @@ class DefaultIndexerTest {
     then(indexServerAdapter).should(times(1)).removeAnalysisFiles(eq(analysisId));
   }
 
+  @Test
+  void shouldRemoveAnalysisFilesByIdsFromPayload() {
+    // Given
+    val studyId = "PEME-CA";
+    val analysis = getStudyAnalyses(studyId).get(0);
+    val objectIds = analysis.getFiles().stream().map(File::getObjectId).collect(Collectors.toSet());
+    val result = IndexResult.builder().indexName(FILE_CENTRIC_INDEX).successful(true).build();
+
+    given(indexServerAdapter.removeFiles(eq(objectIds))).willReturn(Mono.empty());
+
+    // When
+    val indexResultFlux =
+        indexer.removeAnalysisPayload(
+            AnalysisMessage.builder()
+                .analysisId(analysis.getAnalysisId())
+                .studyId(studyId)
+                .state("UNPUBLISHED")
+                .songServerId(getStubFilesRepository().getCode())
+                .analysis(analysis)
+                .build());
+
+    // Then
+    StepVerifier.create(indexResultFlux).expectNext(result).expectComplete().verify();
+
+    then(indexServerAdapter).should(times(1)).removeFiles(eq(objectIds));
+    then(indexServerAdapter).should(times(0)).removeAnalysisFiles(any());
+  }
+
+  @Test
+  void shouldRemoveAnalysisFilesByAnalysisIdWhenPayloadHasNoFiles() {
+    // Given
+    val studyId = "PEME-CA";
+    val stored = getStudyAnalyses(studyId).get(0);
+    val analysis =
+        Analysis.builder()
+            .analysisId(stored.getAnalysisId())
+            .analysisType(stored.getAnalysisType())
+            .analysisState("UNPUBLISHED")
+            .updatedAt(stored.getUpdatedAt())
+            .studyId(studyId)
+            .files(List.of())
+            .samples(stored.getSamples())
+            .build();
+    val result = IndexResult.builder().indexName(FILE_CENTRIC_INDEX).successful(true).build();
+
+    given(indexServerAdapter.removeAnalysisFiles(eq(analysis.getAnalysisId())))
+        .willReturn(Mono.empty());
+
+    // When
+    val indexResultFlux =
+        indexer.removeAnalysisPayload(
+            AnalysisMessage.builder()
+                .analysisId(analysis.getAnalysisId())
+                .studyId(studyId)
+                .state("UNPUBLISHED")
+                .songServerId(getStubFilesRepository().getCode())
+                .analysis(analysis)
+                .build());
+
+    // Then
+    StepVerifier.create(indexResultFlux).expectNext(result).expectComplete().verify();
+
+    then(indexServerAdapter).should(times(1)).removeAnalysisFiles(eq(analysis.getAnalysisId()));
+    then(indexServerAdapter).should(times(0)).removeFiles(any());
+  }
+
   @Test
   void shouldNotIndexAnalysisIfExcludedByRule() {
     // Given
@@ -469,7 +565,7 @@ class DefaultIndexerTest {
                 Analysis.class,
                 List.of(new IDExclusionRule(Analysis.class, List.of("EGAZ00001254368")))));
 
-    given(indexServerAdapter.fetchByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
     given(studyRepositoryDao.getFilesRepository(eq(repoCode))).willReturn(fileRepoMono);
     given(studyDAO.getAnalysis(eq(getStudyAnalysesCommand))).willReturn(studyAnalysis);
     given(indexServerAdapter.batchUpsertFileRepositories(eq(batchIndexFilesCommand)))
@@ -540,7 +636,7 @@ class DefaultIndexerTest {
     val getStudiesCmd =
         GetAllStudiesCommand.builder().filesRepositoryBaseUrl(filesRepository.getUrl()).build();
 
-    given(indexServerAdapter.fetchByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
     given(studyDAO.getStudies(eq(getStudiesCmd))).willReturn(Flux.fromIterable(studies));
     given(studyRepositoryDao.getFilesRepository(eq(repoCode))).willReturn(fileRepo);
     given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
@@ -578,6 +674,223 @@ class DefaultIndexerTest {
     then(indexServerAdapter).should(times(3)).batchUpsertFileRepositories(any());
   }
 
+  @Test
+  void shouldRebuildRepositoryIntoNewIndexAndMoveAlias() {
+    // Given
+    val repoCode = "TEST-REPO";
+    val rebuildIndex = FILE_CENTRIC_INDEX + "_rebuild";
+    val filesRepository = getStubFilesRepository();
+    val studies = getExpectedStudies();
+    val result = IndexResult.builder().indexName(FILE_CENTRIC_INDEX).successful(true).build();
+    val getStudiesCmd =
+        GetAllStudiesCommand.builder().filesRepositoryBaseUrl(filesRepository.getUrl()).build();
+
+    given(indexProperties.isWriteCacheEnabled()).willReturn(Boolean.TRUE);
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.getStudies(eq(getStudiesCmd))).willReturn(Flux.fromIterable(studies));
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+    given(indexServerAdapter.createRebuildIndex(filesRepository.getCode()))
+        .willReturn(Mono.just(rebuildIndex));
+    given(indexServerAdapter.fetchRebuildFingerprintsByIds(eq(rebuildIndex), anyList()))
+        .willReturn(Mono.just(List.of()));
+    given(indexServerAdapter.completeRebuild(rebuildIndex)).willReturn(Mono.empty());
+    given(writtenDocumentsCache.evictIndex(FILE_CENTRIC_INDEX)).willReturn(Mono.empty());
+
+    for (Study study : studies) {
+      val studyId = study.getStudyId();
+      val command =
+          GetStudyAnalysesCommand.builder()
+              .filesRepositoryBaseUrl(filesRepository.getUrl())
+              .studyId(studyId)
+              .build();
+      val batchIndexFilesCommand =
+          BatchIndexFilesCommand.builder().files(getExpectedFileCentricDocument(studyId)).build();
+
+      given(studyDAO.streamStudyAnalyses(eq(command)))
+          .willReturn(Flux.just(getStudyAnalyses(studyId)));
+      given(indexServerAdapter.batchIndexRebuildFiles(eq(rebuildIndex), eq(batchIndexFilesCommand)))
+          .willReturn(Mono.just(result));
+    }
+
+    val rebuildIndexer =
+        new DefaultIndexer(
+            indexServerAdapter,
+            analysisCentricIndexAdapter,
+            studyDAO,
+            studyRepositoryDao,
+            exclusionRulesDAO,
+            studyCheckpointDAO,
+            writtenDocumentsCache,
+            notifier,
+            indexProperties);
+
+    // When
+    val indexResultMono =
+        rebuildIndexer.rebuildRepository(
+            IndexStudyRepositoryCommand.builder().repositoryCode(repoCode).build());
+
+    // Then
+    StepVerifier.create(indexResultMono)
+        .expectNext(Map.of(FILE_CENTRIC_INDEX, result))
+        .expectComplete()
+        .verify();
+
+    then(indexServerAdapter).should(times(3)).batchIndexRebuildFiles(eq(rebuildIndex), any());
+    then(indexServerAdapter).should(times(1)).completeRebuild(rebuildIndex);
+    then(indexServerAdapter).should(times(0)).abandonRebuild(any());
+    then(indexServerAdapter).should(times(0)).fetchFingerprintsByIds(any());
+    then(indexServerAdapter).should(times(0)).batchUpsertFileRepositories(any());
+    then(writtenDocumentsCache).should(times(1)).evictIndex(FILE_CENTRIC_INDEX);
+  }
+
+  @Test
+  void shouldSkipFilesConflictingWithSeededDocumentsWhenRebuilding() {
+    // Given
+    val studyId = "MALY-DE";
+    val repoCode = "TEST-REPO";
+    val rebuildIndex = FILE_CENTRIC_INDEX + "_rebuild";
+    val filesRepository = getStubFilesRepository();
+    // the seeded document of another repository has the analysis published, while it's
+    // UNPUBLISHED in MALY-DE.conflicting.analysis.json
+    val analyses =
+        Arrays.asList(
+            loadJsonFixture(getClass(), studyId + ".conflicting.analysis.json", Analysis[].class));
+    val fileCentricDocuments = getExpectedFileCentricDocument(studyId);
+    val nonConflictingDocs = fileCentricDocuments.subList(1, fileCentricDocuments.size());
+    val result = IndexResult.builder().indexName(FILE_CENTRIC_INDEX).successful(true).build();
+    val getStudiesCmd =
+        GetAllStudiesCommand.builder().filesRepositoryBaseUrl(filesRepository.getUrl()).build();
+    val getStudyAnalysesCommand =
+        GetStudyAnalysesCommand.builder()
+            .studyId(studyId)
+            .filesRepositoryBaseUrl(filesRepository.getUrl())
+            .build();
+    val expectedNotification =
+        new IndexerNotification(
+            NotificationName.INDEX_FILE_CONFLICT, getConflicts(fileCentricDocuments));
+
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.getStudies(eq(getStudiesCmd)))
+        .willReturn(Flux.just(Study.builder().studyId(studyId).build()));
+    given(studyDAO.streamStudyAnalyses(eq(getStudyAnalysesCommand)))
+        .willReturn(Flux.just(analyses));
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+    given(indexServerAdapter.createRebuildIndex(repoCode)).willReturn(Mono.just(rebuildIndex));
+    given(indexServerAdapter.fetchRebuildFingerprintsByIds(eq(rebuildIndex), anyList()))
+        .willReturn(Mono.just(List.of(IndexedDocumentFingerprint.of(fileCentricDocuments.get(0)))));
+    given(indexServerAdapter.batchIndexRebuildFiles(eq(rebuildIndex), any()))
+        .willReturn(Mono.just(result));
+    given(indexServerAdapter.completeRebuild(rebuildIndex)).willReturn(Mono.empty());
+
+    // When
+    val indexResultMono =
+        indexer.rebuildRepository(
+            IndexStudyRepositoryCommand.builder().repositoryCode(repoCode).build());
+
+    // Then
+    StepVerifier.create(indexResultMono)
+        .expectNext(Map.of(FILE_CENTRIC_INDEX, result))
+        .expectComplete()
+        .verify();
+
+    then(notifier).should(times(1)).notify(eq(expectedNotification));
+    then(indexServerAdapter)
+        .should(times(1))
+        .batchIndexRebuildFiles(
+            eq(rebuildIndex),
+            eq(BatchIndexFilesCommand.builder().files(nonConflictingDocs).build()));
+    then(indexServerAdapter).should(times(0)).fetchFingerprintsByIds(any());
+    then(indexServerAdapter).should(times(1)).completeRebuild(rebuildIndex);
+  }
+
+  @Test
+  void shouldDeleteRebuildIndexWhenRebuildFails() {
+    // Given
+    val repoCode = "TEST-REPO";
+    val rebuildIndex = FILE_CENTRIC_INDEX + "_rebuild";
+    val filesRepository = getStubFilesRepository();
+    val studies = getExpectedStudies();
+    val getStudiesCmd =
+        GetAllStudiesCommand.builder().filesRepositoryBaseUrl(filesRepository.getUrl()).build();
+
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.getStudies(eq(getStudiesCmd))).willReturn(Flux.fromIterable(studies));
+    given(studyDAO.streamStudyAnalyses(any()))
+        .willReturn(Flux.error(new RuntimeException("song is down")));
+    given(indexServerAdapter.createRebuildIndex(filesRepository.getCode()))
+        .willReturn(Mono.just(rebuildIndex));
+    given(indexServerAdapter.abandonRebuild(rebuildIndex)).willReturn(Mono.empty());
+
+    // When
+    val indexResultMono =
+        indexer.rebuildRepository(
+            IndexStudyRepositoryCommand.builder().repositoryCode(repoCode).build());
+
+    // Then
+    StepVerifier.create(indexResultMono)
+        .assertNext(results -> assertFalse(results.get(FILE_CENTRIC_INDEX).isSuccessful()))
+        .expectComplete()
+        .verify();
+
+    then(indexServerAdapter).should(times(1)).abandonRebuild(rebuildIndex);
+    then(indexServerAdapter).should(times(0)).completeRebuild(any());
+  }
+
+  @Test
+  void shouldRemoveStudyWithTaskAndForgetItsCheckpoints() {
+    // Given
+    val studyId = "PEME-CA";
+    val running = IndexTaskStatus.builder().indexName(FILE_CENTRIC_INDEX).taskId("n:1").build();
+    val completed = running.toBuilder().total(10).processed(10).completed(true).successful(true);
+    given(studyCheckpointDAO.deleteStudyCheckpoints(studyId)).willReturn(Mono.empty());
+    given(indexServerAdapter.removeStudyFiles(studyId))
+        .willReturn(Flux.just(running, completed.build()));
+
+    // When
+    val statusFlux = indexer.removeStudy(RemoveStudyCommand.builder().studyId(studyId).build());
+
+    // Then
+    StepVerifier.create(statusFlux)
+        .expectNext(running)
+        .expectNext(completed.build())
+        .expectComplete()
+        .verify();
+
+    then(studyCheckpointDAO).should(times(1)).deleteStudyCheckpoints(studyId);
+    then(notifier).should(times(0)).notify(any());
+  }
+
+  @Test
+  void shouldReportRepositoryRemovalTaskFailure() {
+    // Given
+    val repoCode = "TEST-REPO";
+    given(studyCheckpointDAO.deleteRepositoryCheckpoints(repoCode)).willReturn(Mono.empty());
+    given(indexServerAdapter.removeRepositoryFiles(repoCode))
+        .willReturn(Flux.error(new RuntimeException("es is down")));
+
+    // When
+    val statusFlux =
+        indexer.removeRepository(
+            RemoveRepositoryCommand.builder().repositoryCode(repoCode).build());
+
+    // Then
+    StepVerifier.create(statusFlux)
+        .assertNext(
+            status -> {
+              assertTrue(status.isCompleted());
+              assertFalse(status.isSuccessful());
+              assertEquals(
+                  Map.of(REPO_CODE, Set.of(repoCode)), status.getFailureData().getFailingIds());
+            })
+        .expectComplete()
+        .verify();
+
+    then(notifier).should(times(1)).notify(any());
+  }
+
   @Test
   void shouldIndexSingleStudy() {
     // Given
@@ -598,7 +911,7 @@ class DefaultIndexerTest {
             .filesRepositoryBaseUrl(filesRepository.getUrl())
             .build();
 
-    given(indexServerAdapter.fetchByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
     given(studyRepositoryDao.getFilesRepository(eq(repoCode))).willReturn(fileRepo);
     given(studyDAO.getStudyAnalyses(eq(getStudyAnalysesCommand))).willReturn(studyAnalyses);
     given(indexServerAdapter.batchUpsertFileRepositories(eq(batchIndexFilesCommand)))
@@ -623,6 +936,658 @@ class DefaultIndexerTest {
         .batchUpsertFileRepositories(eq(batchIndexFilesCommand));
   }
 
+  @Test
+  @SneakyThrows
+  void shouldKeepAnalysesOrderWhenConvertingLargeStudiesInParallel() {
+    // Given
+    val studyId = "PEME-CA";
+    val repoCode = "TEST-REPO";
+    val filesRepository = getStubFilesRepository();
+    val analysisJson = loadJsonString(getClass(), studyId + ".analysis.json");
+    val analysisIds =
+        IntStream.range(0, 300).mapToObj(i -> "EGAZ-" + i).collect(Collectors.toUnmodifiableList());
+    val analyses =
+        analysisIds.stream()
+            .flatMap(id -> readAnalyses(analysisJson.replace("EGAZ00001254368", id)).stream())
+            .collect(Collectors.toUnmodifiableList());
+    val commandCaptor = ArgumentCaptor.forClass(BatchIndexFilesCommand.class);
+    val result = IndexResult.builder().successful(true).build();
+
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.getStudyAnalyses(any())).willReturn(Mono.just(analyses));
+    // the documents are emitted from the conversion workers, the calling thread isn't blocked
+    val upsertThread = new AtomicReference<String>();
+    given(indexServerAdapter.batchUpsertFileRepositories(commandCaptor.capture()))
+        .willAnswer(
+            invocation -> {
+              upsertThread.set(Thread.currentThread().getName());
+              return Mono.just(result);
+            });
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+    given(indexProperties.conversionParallelism()).willReturn(4);
+    val parallelIndexer =
+        new DefaultIndexer(
+            indexServerAdapter,
+            analysisCentricIndexAdapter,
+            studyDAO,
+            studyRepositoryDao,
+            exclusionRulesDAO,
+            studyCheckpointDAO,
+            writtenDocumentsCache,
+            notifier,
+            indexProperties);
+
+    // When
+    val indexResultMono =
+        parallelIndexer.indexStudy(
+            IndexStudyCommand.builder().studyId(studyId).repositoryCode(repoCode).build());
+
+    // Then
+    StepVerifier.create(indexResultMono).expectNext(result).expectComplete().verify();
+    val expectedFiles =
+        analyses.stream()
+            .flatMap(
+                analysis ->
+                    FileCentricDocumentConverter.fromAnalysis(analysis, filesRepository).stream())
+            .collect(Collectors.toUnmodifiableList());
+    assertEquals(expectedFiles, commandCaptor.getValue().getFiles());
+    assertTrue(upsertThread.get().startsWith("conversion-"));
+    parallelIndexer.close();
+  }
+
+  @Test
+  void shouldSkipFilesAlreadyIndexedWithSameFingerprint() {
+    // Given
+    val studyId = "PEME-CA";
+    val repoCode = "TEST-REPO";
+    val filesRepository = getStubFilesRepository();
+    val fileCentricDocuments = getExpectedFileCentricDocument(studyId);
+    val storedFingerprints =
+        fileCentricDocuments.stream()
+            .map(IndexedDocumentFingerprint::of)
+            .collect(Collectors.toList());
+    val getStudyAnalysesCommand =
+        GetStudyAnalysesCommand.builder()
+            .studyId(studyId)
+            .filesRepositoryBaseUrl(filesRepository.getUrl())
+            .build();
+
+    val noFilesCommand = BatchIndexFilesCommand.builder().files(List.of()).build();
+
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList()))
+        .willReturn(Mono.just(storedFingerprints));
+    given(indexServerAdapter.batchUpsertFileRepositories(eq(noFilesCommand)))
+        .willReturn(Mono.just(IndexResult.builder().successful(true).build()));
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.getStudyAnalyses(eq(getStudyAnalysesCommand)))
+        .willReturn(Mono.just(getStudyAnalyses(studyId)));
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+
+    // When
+    val indexResultFlux =
+        indexer.indexStudy(
+            IndexStudyCommand.builder()
+                .studyId(studyId)
+                .repositoryCode(filesRepository.getCode())
+                .build());
+
+    // Then
+    StepVerifier.create(indexResultFlux)
+        .assertNext(indexResult -> assertTrue(indexResult.isSuccessful()))
+        .expectComplete()
+        .verify();
+
+    then(indexServerAdapter).should(times(0)).fetchByIds(anyList());
+    then(indexServerAdapter).should(times(1)).batchUpsertFileRepositories(eq(noFilesCommand));
+    then(notifier).should(times(0)).notify(any());
+  }
+
+  @Test
+  void shouldUpsertFilesWhenTheirRepositoryChangedSinceIndexed() {
+    // Given
+    val studyId = "PEME-CA";
+    val repoCode = "TEST-REPO";
+    val filesRepository = getStubFilesRepository();
+    val fileCentricDocuments = getExpectedFileCentricDocument(studyId);
+    // same content, indexed when the repository had another url.
+    val storedDocuments = getExpectedFileCentricDocument(studyId);
+    storedDocuments.forEach(
+        document -> {
+          val repository = document.getRepositories().get(0);
+          document
+              .getRepositories()
+              .set(
+                  0,
+                  Repository.builder()
+                      .code(repository.getCode())
+                      .organization(repository.getOrganization())
+                      .name(repository.getName())
+                      .type(repository.getType())
+                      .country(repository.getCountry())
+                      .url(repository.getUrl() + "/moved")
+                      .build());
+        });
+    val storedFingerprints =
+        storedDocuments.stream().map(IndexedDocumentFingerprint::of).collect(Collectors.toList());
+    val getStudyAnalysesCommand =
+        GetStudyAnalysesCommand.builder()
+            .studyId(studyId)
+            .filesRepositoryBaseUrl(filesRepository.getUrl())
+            .build();
+    val filesCommand = BatchIndexFilesCommand.builder().files(fileCentricDocuments).build();
+
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList()))
+        .willReturn(Mono.just(storedFingerprints));
+    given(indexServerAdapter.batchUpsertFileRepositories(eq(filesCommand)))
+        .willReturn(Mono.just(IndexResult.builder().successful(true).build()));
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.getStudyAnalyses(eq(getStudyAnalysesCommand)))
+        .willReturn(Mono.just(getStudyAnalyses(studyId)));
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+
+    // When
+    val indexResultFlux =
+        indexer.indexStudy(
+            IndexStudyCommand.builder()
+                .studyId(studyId)
+                .repositoryCode(filesRepository.getCode())
+                .build());
+
+    // Then
+    StepVerifier.create(indexResultFlux)
+        .assertNext(indexResult -> assertTrue(indexResult.isSuccessful()))
+        .expectComplete()
+        .verify();
+
+    val captor = ArgumentCaptor.forClass(BatchIndexFilesCommand.class);
+    then(indexServerAdapter).should(times(1)).batchUpsertFileRepositories(captor.capture());
+    assertEquals(filesCommand, captor.getValue());
+    // the fingerprints computed for the conflicts check come along with the documents.
+    captor
+        .getValue()
+        .getFiles()
+        .forEach(
+            file ->
+                assertEquals(
+                    DocumentFingerprint.of(file), captor.getValue().getFingerprints().get(file)));
+    then(notifier).should(times(0)).notify(any());
+  }
+
+  @Test
+  void shouldIndexStudyWindowByWindowWhenStreamingEnabled() {
+    // Given
+    val studyId = "LIRI-JP";
+    val repoCode = "TEST-REPO";
+    val filesRepository = getStubFilesRepository();
+    val analyses = getStudyAnalyses(studyId);
+    val fileCentricDocuments = getExpectedFileCentricDocument(studyId);
+    val result = IndexResult.builder().successful(true).build();
+    val getStudyAnalysesCommand =
+        GetStudyAnalysesCommand.builder()
+            .studyId(studyId)
+            .filesRepositoryBaseUrl(filesRepository.getUrl())
+            .build();
+
+    given(indexProperties.isStudyStreamingEnabled()).willReturn(Boolean.TRUE);
+    given(indexProperties.studyStreamingWindowSize()).willReturn(1);
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.streamStudyAnalyses(eq(getStudyAnalysesCommand)))
+        .willReturn(Flux.just(analyses.subList(0, 1), analyses.subList(1, 3)));
+    given(indexServerAdapter.batchUpsertFileRepositories(any(BatchIndexFilesCommand.class)))
+        .willReturn(Mono.just(result));
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+
+    val streamingIndexer =
+        new DefaultIndexer(
+            indexServerAdapter,
+            analysisCentricIndexAdapter,
+            studyDAO,
+            studyRepositoryDao,
+            exclusionRulesDAO,
+            studyCheckpointDAO,
+            writtenDocumentsCache,
+            notifier,
+            indexProperties);
+
+    // When
+    val indexResultFlux =
+        streamingIndexer.indexStudy(
+            IndexStudyCommand.builder().studyId(studyId).repositoryCode(repoCode).build());
+
+    // Then
+    StepVerifier.create(indexResultFlux)
+        .expectNext(IndexResult.builder().indexName(FILE_CENTRIC_INDEX).successful(true).build())
+        .expectComplete()
+        .verify();
+
+    val filesByAnalysis =
+        fileCentricDocuments.stream()
+            .collect(Collectors.groupingBy(file -> file.getAnalysis().getAnalysisId()));
+    for (Analysis analysis : analyses) {
+      then(indexServerAdapter)
+          .should(times(1))
+          .batchUpsertFileRepositories(
+              eq(
+                  BatchIndexFilesCommand.builder()
+                      .files(filesByAnalysis.get(analysis.getAnalysisId()))
+                      .build()));
+    }
+    then(indexServerAdapter).should(times(3)).batchUpsertFileRepositories(any());
+    then(studyDAO).should(times(0)).getStudyAnalyses(any());
+  }
+
+  @Test
+  void shouldKeepClusterFailuresOfAllWindows() {
+    // Given
+    val studyId = "LIRI-JP";
+    val repoCode = "TEST-REPO";
+    val filesRepository = getStubFilesRepository();
+    val analyses = getStudyAnalyses(studyId);
+    val failedAnalysisId = analyses.get(0).getAnalysisId();
+    val failureData =
+        FailureData.builder().failingIds(Map.of("analysisId", Set.of(failedAnalysisId))).build();
+    val failedResult =
+        IndexResult.builder()
+            .indexName(FILE_CENTRIC_INDEX)
+            .failureData(failureData)
+            .clusterFailures(Map.of("dc2", failureData))
+            .successful(false)
+            .build();
+    val getStudyAnalysesCommand =
+        GetStudyAnalysesCommand.builder()
+            .studyId(studyId)
+            .filesRepositoryBaseUrl(filesRepository.getUrl())
+            .build();
+
+    given(indexProperties.isStudyStreamingEnabled()).willReturn(Boolean.TRUE);
+    given(indexProperties.studyStreamingWindowSize()).willReturn(1);
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.streamStudyAnalyses(eq(getStudyAnalysesCommand)))
+        .willReturn(Flux.just(analyses.subList(0, 1), analyses.subList(1, 3)));
+    given(indexServerAdapter.batchUpsertFileRepositories(any(BatchIndexFilesCommand.class)))
+        .willReturn(Mono.just(failedResult))
+        .willReturn(Mono.just(IndexResult.builder().successful(true).build()));
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+
+    val streamingIndexer =
+        new DefaultIndexer(
+            indexServerAdapter,
+            analysisCentricIndexAdapter,
+            studyDAO,
+            studyRepositoryDao,
+            exclusionRulesDAO,
+            studyCheckpointDAO,
+            writtenDocumentsCache,
+            notifier,
+            indexProperties);
+
+    // When
+    val indexResultFlux =
+        streamingIndexer.indexStudy(
+            IndexStudyCommand.builder().studyId(studyId).repositoryCode(repoCode).build());
+
+    // Then
+    StepVerifier.create(indexResultFlux)
+        .expectNext(
+            IndexResult.builder()
+                .indexName(FILE_CENTRIC_INDEX)
+                .failureData(failureData)
+                .clusterFailures(Map.of("dc2", failureData))
+                .successful(false)
+                .build())
+        .expectComplete()
+        .verify();
+  }
+
+  @Test
+  void shouldFetchStudyOnceWhenBothIndicesEnabled() {
+    // Given
+    val studyId = "PEME-CA";
+    val repoCode = "TEST-REPO";
+    val analysisCentricIndex = "analysis_centric_1.0";
+    val filesRepository = getStubFilesRepository();
+    val fileCentricDocuments = getExpectedFileCentricDocument(studyId);
+    val fileResult = IndexResult.builder().indexName(FILE_CENTRIC_INDEX).successful(true).build();
+    val analysisResult =
+        IndexResult.builder().indexName(analysisCentricIndex).successful(true).build();
+    val getStudyAnalysesCommand =
+        GetStudyAnalysesCommand.builder()
+            .studyId(studyId)
+            .filesRepositoryBaseUrl(filesRepository.getUrl())
+            .build();
+
+    given(indexProperties.isAnalysisCentricEnabled()).willReturn(Boolean.TRUE);
+    given(indexProperties.analysisCentricIndexName()).willReturn(analysisCentricIndex);
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(analysisCentricIndexAdapter.fetchFingerprintsByIds(anyList()))
+        .willReturn(Mono.just(List.of()));
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.getStudyAnalyses(eq(getStudyAnalysesCommand)))
+        .willReturn(Mono.just(getStudyAnalyses(studyId)));
+    given(
+            indexServerAdapter.batchUpsertFileRepositories(
+                eq(BatchIndexFilesCommand.builder().files(fileCentricDocuments).build())))
+        .willReturn(Mono.just(fileResult));
+    given(analysisCentricIndexAdapter.batchUpsertAnalysisRepositories(any()))
+        .willReturn(Mono.just(analysisResult));
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+
+    val dualIndexer =
+        new DefaultIndexer(
+            indexServerAdapter,
+            analysisCentricIndexAdapter,
+            studyDAO,
+            studyRepositoryDao,
+            exclusionRulesDAO,
+            studyCheckpointDAO,
+            writtenDocumentsCache,
+            notifier,
+            indexProperties);
+
+    // When
+    val indexResultFlux =
+        dualIndexer.indexStudy(
+            IndexStudyCommand.builder().studyId(studyId).repositoryCode(repoCode).build());
+
+    // Then
+    StepVerifier.create(indexResultFlux.collectList().map(Set::copyOf))
+        .expectNext(Set.of(fileResult, analysisResult))
+        .expectComplete()
+        .verify();
+
+    then(studyRepositoryDao).should(times(1)).getFilesRepository(repoCode);
+    then(studyDAO).should(times(1)).getStudyAnalyses(any());
+    then(exclusionRulesDAO).should(times(1)).getExclusionRules();
+    then(indexServerAdapter).should(times(1)).batchUpsertFileRepositories(any());
+    then(analysisCentricIndexAdapter).should(times(1)).batchUpsertAnalysisRepositories(any());
+  }
+
+  @Test
+  void shouldOnlyIndexAnalysesUpdatedAfterCheckpointWhenIncremental() {
+    // Given
+    val studyId = "LIRI-JP";
+    val repoCode = "TEST-REPO";
+    val filesRepository = getStubFilesRepository();
+    val analyses = getStudyAnalyses(studyId);
+    val latestUpdatedAt = new Date(analyses.get(1).getUpdatedAt().getTime());
+    val checkpoint = new Date(latestUpdatedAt.getTime() - 1);
+    // the first analysis didn't change since the last run
+    analyses.get(0).getUpdatedAt().setTime(checkpoint.getTime() - 1000);
+    val updatedAnalysesIds =
+        Set.of(analyses.get(1).getAnalysisId(), analyses.get(2).getAnalysisId());
+    val expectedFiles =
+        getExpectedFileCentricDocument(studyId).stream()
+            .filter(file -> updatedAnalysesIds.contains(file.getAnalysis().getAnalysisId()))
+            .collect(Collectors.toList());
+    val result = IndexResult.builder().successful(true).build();
+    val getStudyAnalysesCommand =
+        GetStudyAnalysesCommand.builder()
+            .studyId(studyId)
+            .filesRepositoryBaseUrl(filesRepository.getUrl())
+            .build();
+
+    given(indexProperties.isIncrementalIndexingEnabled()).willReturn(Boolean.TRUE);
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.getStudyAnalyses(eq(getStudyAnalysesCommand))).willReturn(Mono.just(analyses));
+    given(
+            indexServerAdapter.batchUpsertFileRepositories(
+                eq(BatchIndexFilesCommand.builder().files(expectedFiles).build())))
+        .willReturn(Mono.just(result));
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+    given(studyCheckpointDAO.getCheckpoint(eq(repoCode), eq(studyId)))
+        .willReturn(Mono.just(checkpoint));
+    given(studyCheckpointDAO.saveCheckpoint(eq(repoCode), eq(studyId), any()))
+        .willReturn(Mono.empty());
+
+    val incrementalIndexer =
+        new DefaultIndexer(
+            indexServerAdapter,
+            analysisCentricIndexAdapter,
+            studyDAO,
+            studyRepositoryDao,
+            exclusionRulesDAO,
+            studyCheckpointDAO,
+            writtenDocumentsCache,
+            notifier,
+            indexProperties);
+
+    // When
+    val indexResultFlux =
+        incrementalIndexer.indexStudy(
+            IndexStudyCommand.builder().studyId(studyId).repositoryCode(repoCode).build());
+
+    // Then
+    StepVerifier.create(indexResultFlux).expectNext(result).expectComplete().verify();
+
+    then(indexServerAdapter)
+        .should(times(1))
+        .batchUpsertFileRepositories(
+            eq(BatchIndexFilesCommand.builder().files(expectedFiles).build()));
+    then(studyCheckpointDAO)
+        .should(times(1))
+        .saveCheckpoint(eq(repoCode), eq(studyId), eq(latestUpdatedAt));
+  }
+
+  @Test
+  void shouldNotMoveCheckpointPastConflictingAnalysesWhenIncremental() {
+    // Given
+    val studyId = "MALY-DE";
+    val repoCode = "TEST-REPO";
+    val filesRepository = getStubFilesRepository();
+    // the first analysis conflicts with the indexed one, the others were updated after it.
+    val analyses =
+        Arrays.asList(
+            loadJsonFixture(getClass(), studyId + ".conflicting.analysis.json", Analysis[].class));
+    val fileCentricDocuments = getExpectedFileCentricDocument(studyId);
+    val conflictUpdatedAt = new Date(analyses.get(0).getUpdatedAt().getTime());
+    val laterUpdatedAt = conflictUpdatedAt.getTime() + 1000;
+    analyses.subList(1, analyses.size()).forEach(a -> a.getUpdatedAt().setTime(laterUpdatedAt));
+    fileCentricDocuments.subList(1, fileCentricDocuments.size()).stream()
+        .map(FileCentricDocument::getAnalysis)
+        .forEach(analysis -> analysis.getUpdatedAt().setTime(laterUpdatedAt));
+    val nonConflictingDocs = fileCentricDocuments.subList(1, fileCentricDocuments.size());
+    val batchIndexFilesCommand = BatchIndexFilesCommand.builder().files(nonConflictingDocs).build();
+    val result = IndexResult.builder().successful(true).build();
+    val getStudyAnalysesCommand =
+        GetStudyAnalysesCommand.builder()
+            .studyId(studyId)
+            .filesRepositoryBaseUrl(filesRepository.getUrl())
+            .build();
+
+    given(indexProperties.isIncrementalIndexingEnabled()).willReturn(Boolean.TRUE);
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.getStudyAnalyses(eq(getStudyAnalysesCommand))).willReturn(Mono.just(analyses));
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList()))
+        .willReturn(Mono.just(List.of(IndexedDocumentFingerprint.of(fileCentricDocuments.get(0)))));
+    given(indexServerAdapter.batchUpsertFileRepositories(eq(batchIndexFilesCommand)))
+        .willReturn(Mono.just(result));
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+    // the previous run stopped at the conflicting analysis, it must be checked again.
+    given(studyCheckpointDAO.getCheckpoint(eq(repoCode), eq(studyId)))
+        .willReturn(Mono.just(conflictUpdatedAt));
+    given(studyCheckpointDAO.saveCheckpoint(eq(repoCode), eq(studyId), any()))
+        .willReturn(Mono.empty());
+
+    val incrementalIndexer =
+        new DefaultIndexer(
+            indexServerAdapter,
+            analysisCentricIndexAdapter,
+            studyDAO,
+            studyRepositoryDao,
+            exclusionRulesDAO,
+            studyCheckpointDAO,
+            writtenDocumentsCache,
+            notifier,
+            indexProperties);
+
+    // When
+    val indexResultFlux =
+        incrementalIndexer.indexStudy(
+            IndexStudyCommand.builder().studyId(studyId).repositoryCode(repoCode).build());
+
+    // Then
+    StepVerifier.create(indexResultFlux).expectNext(result).expectComplete().verify();
+
+    then(notifier)
+        .should(times(1))
+        .notify(
+            eq(
+                new IndexerNotification(
+                    NotificationName.INDEX_FILE_CONFLICT, getConflicts(fileCentricDocuments))));
+    then(indexServerAdapter)
+        .should(times(1))
+        .batchUpsertFileRepositories(eq(batchIndexFilesCommand));
+    then(studyCheckpointDAO)
+        .should(times(1))
+        .saveCheckpoint(eq(repoCode), eq(studyId), eq(conflictUpdatedAt));
+  }
+
+  @Test
+  void shouldNotMoveCheckpointPastTheRunStartWhenAnalysesAreUpdatedMidRun() {
+    // Given
+    val studyId = "LIRI-JP";
+    val repoCode = "TEST-REPO";
+    val marginSeconds = 60;
+    val filesRepository = getStubFilesRepository();
+    val analyses = getStudyAnalyses(studyId);
+    val getStudyAnalysesCommand =
+        GetStudyAnalysesCommand.builder()
+            .studyId(studyId)
+            .filesRepositoryBaseUrl(filesRepository.getUrl())
+            .build();
+    val checkpointCaptor = ArgumentCaptor.forClass(Date.class);
+
+    given(indexProperties.isIncrementalIndexingEnabled()).willReturn(Boolean.TRUE);
+    given(indexProperties.incrementalClockSkewMarginSeconds()).willReturn(marginSeconds);
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    // the last analysis is updated while the run is fetching the study, the others may have been
+    // updated too after they were read.
+    given(studyDAO.getStudyAnalyses(eq(getStudyAnalysesCommand)))
+        .willReturn(
+            Mono.fromCallable(
+                () -> {
+                  analyses.get(analyses.size() - 1).getUpdatedAt().setTime(new Date().getTime());
+                  return analyses;
+                }));
+    given(indexServerAdapter.batchUpsertFileRepositories(any()))
+        .willReturn(Mono.just(IndexResult.builder().successful(true).build()));
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+    given(studyCheckpointDAO.getCheckpoint(eq(repoCode), eq(studyId))).willReturn(Mono.empty());
+    given(studyCheckpointDAO.saveCheckpoint(eq(repoCode), eq(studyId), any()))
+        .willReturn(Mono.empty());
+
+    val incrementalIndexer =
+        new DefaultIndexer(
+            indexServerAdapter,
+            analysisCentricIndexAdapter,
+            studyDAO,
+            studyRepositoryDao,
+            exclusionRulesDAO,
+            studyCheckpointDAO,
+            writtenDocumentsCache,
+            notifier,
+            indexProperties);
+    val beforeRun = System.currentTimeMillis();
+
+    // When
+    val indexResultFlux =
+        incrementalIndexer.indexStudy(
+            IndexStudyCommand.builder().studyId(studyId).repositoryCode(repoCode).build());
+
+    // Then
+    StepVerifier.create(indexResultFlux).expectNextCount(1).expectComplete().verify();
+    val afterRun = System.currentTimeMillis();
+
+    then(studyCheckpointDAO)
+        .should(times(1))
+        .saveCheckpoint(eq(repoCode), eq(studyId), checkpointCaptor.capture());
+    val margin = TimeUnit.SECONDS.toMillis(marginSeconds);
+    val checkpoint = checkpointCaptor.getValue().getTime();
+    assertTrue(checkpoint >= beforeRun - margin);
+    assertTrue(checkpoint <= afterRun - margin);
+    assertTrue(checkpoint < analyses.get(analyses.size() - 1).getUpdatedAt().getTime());
+  }
+
+  @Test
+  void shouldNotCallIndexForDocumentsInWriteCache() {
+    // Given
+    val studyId = "PEME-CA";
+    val repoCode = "TEST-REPO";
+    val filesRepository = getStubFilesRepository();
+    val fileCentricDocuments = getExpectedFileCentricDocument(studyId);
+    val result = IndexResult.builder().successful(true).build();
+    val getStudyAnalysesCommand =
+        GetStudyAnalysesCommand.builder()
+            .studyId(studyId)
+            .filesRepositoryBaseUrl(filesRepository.getUrl())
+            .build();
+    val written = new HashMap<String, String>();
+
+    given(indexProperties.isWriteCacheEnabled()).willReturn(Boolean.TRUE);
+    given(indexServerAdapter.fetchFingerprintsByIds(anyList())).willReturn(Mono.just(List.of()));
+    given(studyRepositoryDao.getFilesRepository(eq(repoCode)))
+        .willReturn(Mono.just(filesRepository));
+    given(studyDAO.getStudyAnalyses(eq(getStudyAnalysesCommand)))
+        .willReturn(Mono.just(getStudyAnalyses(studyId)));
+    given(
+            indexServerAdapter.batchUpsertFileRepositories(
+                eq(BatchIndexFilesCommand.builder().files(fileCentricDocuments).build())))
+        .willReturn(Mono.just(result));
+    given(exclusionRulesDAO.getExclusionRules()).willReturn(Mono.just(Map.of()));
+    given(writtenDocumentsCache.getWrittenFingerprints(eq(FILE_CENTRIC_INDEX), anySet()))
+        .willAnswer(invocation -> Mono.just(Map.copyOf(written)));
+    given(writtenDocumentsCache.saveWrittenFingerprints(eq(FILE_CENTRIC_INDEX), anyMap()))
+        .willAnswer(
+            invocation -> {
+              Map<String, Map<String, String>> byAnalysis = invocation.getArgument(1);
+              byAnalysis.values().forEach(written::putAll);
+              return Mono.empty();
+            });
+
+    val cachingIndexer =
+        new DefaultIndexer(
+            indexServerAdapter,
+            analysisCentricIndexAdapter,
+            studyDAO,
+            studyRepositoryDao,
+            exclusionRulesDAO,
+            studyCheckpointDAO,
+            writtenDocumentsCache,
+            notifier,
+            indexProperties);
+    val command = IndexStudyCommand.builder().studyId(studyId).repositoryCode(repoCode).build();
+
+    // When
+    StepVerifier.create(cachingIndexer.indexStudy(command))
+        .expectNext(result)
+        .expectComplete()
+        .verify();
+    val secondRun = cachingIndexer.indexStudy(command);
+
+    // Then
+    StepVerifier.create(secondRun)
+        .assertNext(indexResult -> assertTrue(indexResult.isSuccessful()))
+        .expectComplete()
+        .verify();
+
+    then(indexServerAdapter).should(times(1)).fetchFingerprintsByIds(anyList());
+    then(indexServerAdapter).should(times(1)).batchUpsertFileRepositories(any());
+  }
+
   @SneakyThrows
   private List<FileCentricDocument> getExpectedFileCentricDocument(String studyId) {
     return Arrays.asList(
@@ -639,6 +1604,11 @@ class DefaultIndexerTest {
     return Arrays.asList(loadJsonFixture(getClass(), studyId + ".analysis.json", Analysis[].class));
   }
 
+  @SneakyThrows
+  private List<Analysis> readAnalyses(String json) {
+    return Arrays.asList(new ObjectMapper().readValue(json, Analysis[].class));
+  }
+
   private StudyRepository getStubFilesRepository() {
     return StudyRepository.builder()
         .name("singer")
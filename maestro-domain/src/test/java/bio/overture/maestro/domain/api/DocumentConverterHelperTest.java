@@ -4,10 +4,15 @@ import static bio.overture.maestro.domain.api.EntityGenerator.*;
 import static bio.overture.maestro.test.Fixture.loadConverterTestFixture;
 import static bio.overture.maestro.test.TestCategory.UNIT_TEST;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import bio.overture.maestro.domain.entities.indexing.Donor;
+import bio.overture.maestro.domain.entities.indexing.StorageType;
+import bio.overture.maestro.domain.entities.metadata.repository.StudyRepository;
 import bio.overture.maestro.domain.entities.metadata.study.Analysis;
+import io.vavr.Lazy;
 import lombok.val;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
@@ -71,4 +76,26 @@ public class DocumentConverterHelperTest {
     assertEquals(donor_2, results.get(0));
     assertEquals(donor_1, results.get(1));
   }
+
+  @Test
+  void testDonorsSharedByDocumentsOfAnalysis() {
+    val analysisObj = loadConverterTestFixture("TEST-CA.analysis.json", Analysis.class);
+    val repository =
+        StudyRepository.builder()
+            .name("singer")
+            .url("http://song.sing.sung")
+            .code("TEST-REPO")
+            .country("CA")
+            .organization("org")
+            .storageType(StorageType.S3)
+            .build();
+    val donors = Lazy.of(() -> DocumentConverterHelper.getDonors(analysisObj));
+
+    val files = FileCentricDocumentConverter.fromAnalysis(analysisObj, repository, donors);
+    val analyses = AnalysisCentricDocumentConverter.fromAnalysis(analysisObj, repository, donors);
+
+    assertFalse(files.isEmpty());
+    files.forEach(file -> assertSame(donors.get(), file.getDonors()));
+    assertSame(donors.get(), analyses.get(0).getDonors());
+  }
 }
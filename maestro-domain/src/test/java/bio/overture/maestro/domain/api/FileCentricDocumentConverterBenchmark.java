@@ -0,0 +1,84 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.domain.api;
+
+import static bio.overture.maestro.test.Fixture.loadJsonString;
+
+import bio.overture.maestro.domain.entities.indexing.StorageType;
+import bio.overture.maestro.domain.entities.metadata.repository.StudyRepository;
+import bio.overture.maestro.domain.entities.metadata.study.Analysis;
+import bio.overture.maestro.test.Microbenchmark;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.SneakyThrows;
+import lombok.val;
+
+/**
+ * Converts analyses of N vcf.gz files, each with its .tbi index file, to file centric documents and
+ * prints the time per data file. The time per file should stay flat as the analyses grow.
+ *
+ * <p>Run the main method from the test classpath of maestro-domain.
+ */
+public class FileCentricDocumentConverterBenchmark {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final int[] DATA_FILES = {100, 1000, 4000};
+  private static final int FILES_PER_RUN = 40_000;
+
+  public static void main(String[] args) {
+    val repository =
+        StudyRepository.builder()
+            .code("collab")
+            .name("collab")
+            .url("http://collab.test")
+            .country("CA")
+            .organization("org")
+            .storageType(StorageType.S3)
+            .build();
+    for (val dataFiles : DATA_FILES) {
+      val analysis = analysisWithDataFiles(dataFiles);
+      val reps = Math.max(1, FILES_PER_RUN / dataFiles);
+      val result =
+          Microbenchmark.run(
+              reps,
+              reps,
+              dataFiles,
+              () -> FileCentricDocumentConverter.fromAnalysis(analysis, repository));
+      System.out.printf("%5d data files: %6.1f us/file%n", dataFiles, result.getMicrosPerUnit());
+    }
+  }
+
+  @SneakyThrows
+  private static Analysis analysisWithDataFiles(int dataFiles) {
+    val analysis =
+        (ObjectNode)
+            MAPPER
+                .readTree(loadJsonString(DefaultIndexerTest.class, "PEME-CA.analysis.json"))
+                .get(0);
+    val template = (ObjectNode) analysis.get("files").get(0);
+    val files = MAPPER.createArrayNode();
+    for (int i = 0; i < dataFiles; i++) {
+      files.add(
+          template.deepCopy().put("fileName", "chr" + i + ".vcf.gz").put("objectId", "d" + i));
+      files.add(
+          template.deepCopy().put("fileName", "chr" + i + ".vcf.gz.tbi").put("objectId", "i" + i));
+    }
+    analysis.set("files", files);
+    return MAPPER.treeToValue(analysis, Analysis.class);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright (c) 2019. Ontario Institute for Cancer Research
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package bio.overture.maestro.domain.utility;
+
+import static bio.overture.maestro.test.TestCategory.UNIT_TEST;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import bio.overture.maestro.domain.utility.Parallel.ErrorMode;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.val;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+@Tag(UNIT_TEST)
+class ParallelTest {
+
+  private static final List<Integer> INPUTS =
+      IntStream.range(0, 10).boxed().collect(Collectors.toUnmodifiableList());
+
+  @Test
+  void shouldGatherBatchesInOrderWithBoundedConcurrency() {
+    // given
+    val inFlight = new AtomicInteger();
+    val maxInFlight = new AtomicInteger();
+
+    // when
+    val results =
+        Parallel.scatterGather(
+            INPUTS,
+            3,
+            2,
+            ErrorMode.FAIL_FAST,
+            batch ->
+                Mono.delay(Duration.ofMillis(50 - batch.getKey() * 10))
+                    .doOnSubscribe(
+                        s -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                    .doOnTerminate(inFlight::decrementAndGet)
+                    .thenReturn(batch.getValue()));
+
+    // then
+    StepVerifier.create(results)
+        .expectNext(List.of(0, 1, 2), List.of(3, 4, 5), List.of(6, 7, 8), List.of(9))
+        .verifyComplete();
+    assertEquals(2, maxInFlight.get());
+  }
+
+  @Test
+  void shouldCancelOutstandingBatchesOnFailure() {
+    // given
+    val cancelled = new AtomicInteger();
+    val started = new AtomicInteger();
+
+    // when
+    val results =
+        Parallel.scatterGather(
+            INPUTS,
+            1,
+            3,
+            ErrorMode.FAIL_FAST,
+            batch -> {
+              started.incrementAndGet();
+              if (batch.getKey() == 0) {
+                return Mono.delay(Duration.ofMillis(20))
+                    .then(Mono.<Integer>error(new IllegalStateException("boom")));
+              }
+              return Mono.delay(Duration.ofSeconds(10))
+                  .thenReturn(batch.getKey())
+                  .doOnCancel(cancelled::incrementAndGet);
+            });
+
+    // then
+    StepVerifier.create(results).expectError(IllegalStateException.class).verify();
+    assertEquals(3, started.get());
+    assertEquals(2, cancelled.get());
+  }
+
+  @Test
+  void shouldCollectErrorsAfterAllBatchesAreDone() {
+    // given
+    val completed = new AtomicInteger();
+
+    // when
+    val results =
+        Parallel.scatterGather(
+            INPUTS,
+            5,
+            1,
+            ErrorMode.COLLECT_ERRORS,
+            batch ->
+                batch.getKey() == 0
+                    ? Mono.<Integer>error(new IllegalStateException("boom"))
+                    : Mono.just(batch.getValue().size())
+                        .doOnSuccess(v -> completed.incrementAndGet()));
+
+    // then
+    StepVerifier.create(results).expectNext(5).expectError(IllegalStateException.class).verify();
+    assertEquals(1, completed.get());
+  }
+
+  @Test
+  void shouldCancelBatchesWhenUnsubscribed() {
+    // given
+    val cancelled = new AtomicInteger();
+    val results =
+        Parallel.scatterGather(
+            INPUTS,
+            1,
+            4,
+            ErrorMode.FAIL_FAST,
+            batch ->
+                Mono.delay(Duration.ofSeconds(10))
+                    .thenReturn(batch.getKey())
+                    .doOnCancel(cancelled::incrementAndGet));
+
+    // when
+    StepVerifier.create(results).thenAwait(Duration.ofMillis(20)).thenCancel().verify();
+
+    // then
+    assertEquals(4, cancelled.get());
+  }
+}